@@ -0,0 +1,130 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy;
+
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.Random;
+
+/**
+ * Reproducible payloads for the benchmarks: OData V2 JSON and Atom XML feeds which
+ * are generated with a fixed seed, so every run works on exactly the same bytes.
+ */
+final class Fixtures {
+
+	/* URL of the destination, as it appears in backend responses */
+	static final String BACKEND_URL = "https://backend.example.com:44300/sap/opu/odata/sap/ZSALES_SRV";
+
+	/* URL of the proxy servlet, which replaces the backend URL */
+	static final String PROXY_URL = "https://proxy.example.com/app/proxy/sales";
+
+	private static final String[] WORDS = { "alpha", "beta", "gamma", "delta", "epsilon", "zeta", "eta", "theta",
+			"iota", "kappa", "lambda", "omicron", "sigma", "omega", "https", "example", "backend", "sap" };
+
+	private Fixtures() {
+	}
+
+	/**
+	 * Returns a JSON feed of at least the given size in bytes.
+	 * 
+	 * @param density
+	 *            share of entries which contain URLs of the destination, between 0 and 1
+	 */
+	static byte[] json(int size, double density) {
+		Random random = new Random(42);
+		StringBuilder b = new StringBuilder(size + 1024);
+		b.append("{\"d\":{\"results\":[");
+		for (int id = 1; b.length() < size; id++) {
+			if (id > 1) {
+				b.append(',');
+			}
+			String base = random.nextDouble() < density ? BACKEND_URL : "/sap/opu/odata/sap/ZSALES_SRV";
+			b.append("{\"__metadata\":{\"uri\":\"").append(base).append("/Products(").append(id)
+					.append(")\",\"type\":\"ZSALES_SRV.Product\"},\"ProductID\":").append(id)
+					.append(",\"Name\":\"").append(words(random, 3)).append("\",\"Description\":\"")
+					.append(words(random, 20)).append("\",\"Price\":\"").append(random.nextInt(100000) / 100.0)
+					.append("\",\"Supplier\":{\"__deferred\":{\"uri\":\"").append(base).append("/Products(").append(id)
+					.append(")/Supplier\"}}}");
+		}
+		b.append("],\"__next\":\"").append(BACKEND_URL).append("/Products?$skiptoken=1000\"}}");
+		return bytes(b);
+	}
+
+	/**
+	 * Returns an Atom XML feed of at least the given size in bytes.
+	 * 
+	 * @param density
+	 *            share of entries which contain URLs of the destination, between 0 and 1
+	 */
+	static byte[] xml(int size, double density) {
+		Random random = new Random(42);
+		StringBuilder b = new StringBuilder(size + 1024);
+		b.append("<?xml version=\"1.0\" encoding=\"utf-8\"?><feed xml:base=\"").append(BACKEND_URL)
+				.append("/\" xmlns=\"http://www.w3.org/2005/Atom\"")
+				.append(" xmlns:m=\"http://schemas.microsoft.com/ado/2007/08/dataservices/metadata\"")
+				.append(" xmlns:d=\"http://schemas.microsoft.com/ado/2007/08/dataservices\"><title type=\"text\">Products</title>");
+		for (int id = 1; b.length() < size; id++) {
+			String base = random.nextDouble() < density ? BACKEND_URL + "/" : "";
+			b.append("<entry><id>").append(base).append("Products(").append(id).append(")</id>")
+					.append("<link href=\"").append(base).append("Products(").append(id).append(")\" rel=\"edit\"/>")
+					.append("<link href=\"").append(base).append("Products(").append(id)
+					.append(")/Supplier\" rel=\"http://schemas.microsoft.com/ado/2007/08/dataservices/related/Supplier\"/>")
+					.append("<content type=\"application/xml\"><m:properties><d:ProductID>").append(id)
+					.append("</d:ProductID><d:Name>").append(words(random, 3)).append("</d:Name><d:Description>")
+					.append(words(random, 20)).append("</d:Description></m:properties></content></entry>");
+		}
+		b.append("<link href=\"").append(BACKEND_URL).append("/Products?$skiptoken=1000\" rel=\"next\"/></feed>");
+		return bytes(b);
+	}
+
+	private static String words(Random random, int count) {
+		StringBuilder b = new StringBuilder();
+		for (int i = 0; i < count; i++) {
+			if (i > 0) {
+				b.append(' ');
+			}
+			b.append(WORDS[random.nextInt(WORDS.length)]);
+		}
+		return b.toString();
+	}
+
+	private static byte[] bytes(StringBuilder b) {
+		try {
+			return b.toString().getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Output stream which only counts the bytes written to it and ignores
+	 * <code>close()</code>, so it can be reused across invocations.
+	 */
+	static class Sink extends OutputStream {
+		long count;
+
+		@Override
+		public void write(int b) {
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			count += len;
+		}
+	}
+}
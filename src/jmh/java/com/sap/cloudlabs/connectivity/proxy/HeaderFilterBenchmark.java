@@ -0,0 +1,103 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.client.methods.HttpRequestBase;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+/**
+ * Per-request header and cookie handling of the proxy servlet, run against a mock
+ * request with the headers a browser typically sends.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HeaderFilterBenchmark {
+
+	private static final String COOKIE = "sap-usercontext=sap-client=100; JSESSIONID=s%3A9f2c1b7e4a6d8f0e; "
+			+ "SAP_SESSIONID_ABC_100=Zx8vQm2nP4rT6yW1uI3oE5aS7dF9gH0jK; MYSAPSSO2=AjExMDAgAA1wb3J0YWw6VVNFUiAx";
+
+	private static final String[] HEADER_NAMES = { "Host", "Connection", "Accept", "Accept-Language", "Accept-Encoding",
+			"User-Agent", "Referer", "X-Requested-With", "X-CSRF-Token", "MaxDataServiceVersion", "DataServiceVersion",
+			"sap-contextid-accept", "Cookie", "content-type", "content-length", "cache-control", "set-cookie",
+			"x-csrf-token", "sap-metadata-last-modified", "dataserviceversion", "Transfer-Encoding" };
+
+	private final ProxyServlet servlet = new ProxyServlet();
+
+	private final HeaderPolicy policy = new HeaderPolicy("authorization", null, "x-powered-by", null, null);
+
+	private MockHttpServletRequest request;
+
+	@Setup
+	public void setUp() {
+		request = new MockHttpServletRequest("GET", "/app/proxy/sales/Products");
+		request.addHeader("Host", "proxy.example.com");
+		request.addHeader("Connection", "keep-alive");
+		request.addHeader("Accept", "application/json");
+		request.addHeader("Accept-Language", "en-US,en;q=0.9,de;q=0.8");
+		request.addHeader("Accept-Encoding", "gzip, deflate, br");
+		request.addHeader("User-Agent", "Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/118.0");
+		request.addHeader("Referer", "https://proxy.example.com/app/index.html");
+		request.addHeader("X-Requested-With", "XMLHttpRequest");
+		request.addHeader("X-CSRF-Token", "Fetch");
+		request.addHeader("MaxDataServiceVersion", "2.0");
+		request.addHeader("DataServiceVersion", "2.0");
+		request.addHeader("sap-contextid-accept", "header");
+		request.addHeader("Cookie", COOKIE);
+	}
+
+	@Benchmark
+	public HttpRequestBase getBackendRequest() throws IOException {
+		return servlet.getBackendRequest(request, "Products?$format=json&$top=100");
+	}
+
+	@Benchmark
+	public int headerPolicy() {
+		// headers of the mock request and a typical backend response, in varying case
+		int allowed = 0;
+		for (String name : HEADER_NAMES) {
+			if (policy.isRequestHeaderAllowed(name)) {
+				allowed++;
+			}
+			if (policy.isResponseHeaderAllowed(name)) {
+				allowed++;
+			}
+		}
+		return allowed;
+	}
+
+	@Benchmark
+	public String removeJSessionID() {
+		return servlet.removeJSessionID(COOKIE);
+	}
+}
@@ -0,0 +1,75 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing of the destination and the relative backend path from the request URL.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PathParsingBenchmark {
+
+	private static final String REQUEST_URI = "/app/proxy/sales/Products(42)/Supplier";
+
+	private static final String QUERY_STRING = "$format=json&$select=Name,Price&$top=100";
+
+	private final ProxyServlet servlet = new ProxyServlet();
+
+	private final RouteTable routeTable = new RouteTable(Collections.singletonMap("sales",
+			"erp/sap/opu/odata/sap/ZSALES_SRV"), null, "*", 0);
+
+	private final Route route = routeTable.resolve(REQUEST_URI, 11, 16);
+
+	@Benchmark
+	public String getDestinationFromUrl() throws ServletException {
+		return servlet.getDestinationFromUrl("/proxy/sales");
+	}
+
+	@Benchmark
+	public Route resolveRoute() {
+		return routeTable.resolve(REQUEST_URI, 11, 16);
+	}
+
+	@Benchmark
+	public Route resolveDirectRoute() {
+		return routeTable.resolve("/app/proxy/northwind/Customers", 11, 20);
+	}
+
+	@Benchmark
+	public String getBackendPath() {
+		return route.getBackendPath(REQUEST_URI, 17, QUERY_STRING);
+	}
+}
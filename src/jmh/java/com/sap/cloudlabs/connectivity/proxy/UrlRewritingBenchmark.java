@@ -0,0 +1,99 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * URL rewriting of response content as done in
+ * <code>ProxyServlet.processBackendResponse</code>, across payload formats, sizes and
+ * densities of URLs to rewrite, both of the whole content and of the URL fields only.
+ * The former <code>String.replaceAll</code> rewrite is measured as baseline.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UrlRewritingBenchmark {
+
+	@Param({ "json", "xml" })
+	public String format;
+
+	@Param({ "16384", "1048576" })
+	public int size;
+
+	@Param({ "0", "0.1", "1" })
+	public double density;
+
+	private byte[] payload;
+
+	private final Fixtures.Sink sink = new Fixtures.Sink();
+
+	private final FieldRewriter fieldRewriter = new FieldRewriter(FieldRewriter.DEFAULT_JSON_FIELDS,
+			FieldRewriter.DEFAULT_XML_ATTRIBUTES, FieldRewriter.DEFAULT_XML_ELEMENTS);
+
+	private String contentType;
+
+	@Setup
+	public void setUp() {
+		payload = "json".equals(format) ? Fixtures.json(size, density) : Fixtures.xml(size, density);
+		contentType = "json".equals(format) ? "application/json" : "application/atom+xml";
+	}
+
+	@Benchmark
+	public long streamingRewrite() throws IOException {
+		UrlRewritingOutputStream out = new UrlRewritingOutputStream(sink, Fixtures.BACKEND_URL, Fixtures.PROXY_URL, "UTF-8");
+		// written in chunks of the size the proxy servlet reads from the backend
+		for (int off = 0; off < payload.length; off += 4096) {
+			out.write(payload, off, Math.min(4096, payload.length - off));
+		}
+		out.close();
+		return sink.count;
+	}
+
+	@Benchmark
+	public long fieldRewrite() throws IOException {
+		OutputStream out = fieldRewriter.wrap(sink, contentType, Fixtures.BACKEND_URL, Fixtures.PROXY_URL, "UTF-8");
+		for (int off = 0; off < payload.length; off += 4096) {
+			out.write(payload, off, Math.min(4096, payload.length - off));
+		}
+		out.close();
+		return sink.count;
+	}
+
+	@Benchmark
+	public byte[] replaceAllBaseline() throws IOException {
+		String content = new String(payload, "UTF-8");
+		return content.replaceAll(Fixtures.BACKEND_URL, Fixtures.PROXY_URL).getBytes("UTF-8");
+	}
+}
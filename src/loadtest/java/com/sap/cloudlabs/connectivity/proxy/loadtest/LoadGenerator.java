@@ -0,0 +1,246 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy.loadtest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * Sends GET requests to a URL and records their latencies, either in a closed loop,
+ * where a fixed number of workers each send the next request as soon as the previous
+ * one finished, or in an open loop, where requests are started at a fixed rate no
+ * matter how long earlier requests take.
+ * <p>
+ * In the open loop the latency is measured from the time a request was scheduled to
+ * start, so requests which wait for a free worker are not reported too optimistic.
+ */
+class LoadGenerator {
+
+	private final String url;
+
+	private final int concurrency;
+
+	/* requests per second in the open loop, 0 for a closed loop */
+	private final int rate;
+
+	private final HttpClient client;
+
+	private final List<Samples> allSamples = new ArrayList<Samples>();
+
+	private final ThreadLocal<Samples> samples = new ThreadLocal<Samples>() {
+		protected Samples initialValue() {
+			Samples samples = new Samples();
+			synchronized (allSamples) {
+				allSamples.add(samples);
+			}
+			return samples;
+		}
+	};
+
+	private final AtomicLong errors = new AtomicLong();
+
+	private volatile long measureFrom;
+
+	private volatile long measureUntil;
+
+	/**
+	 * @param concurrency
+	 *            number of workers, i.e. the maximum number of requests in flight
+	 * @param rate
+	 *            requests per second for an open loop, <code>0</code> for a closed loop
+	 */
+	LoadGenerator(String url, int concurrency, int rate) {
+		this.url = url;
+		this.concurrency = concurrency;
+		this.rate = rate;
+
+		ThreadSafeClientConnManager connectionManager = new ThreadSafeClientConnManager();
+		connectionManager.setMaxTotal(concurrency);
+		connectionManager.setDefaultMaxPerRoute(concurrency);
+		this.client = new DefaultHttpClient(connectionManager);
+	}
+
+	/**
+	 * Generates load for the warm-up time, whose requests are not recorded, followed
+	 * by the measurement time.
+	 */
+	Result run(long warmupMillis, long durationMillis) throws InterruptedException {
+		long start = System.nanoTime();
+		measureFrom = start + TimeUnit.MILLISECONDS.toNanos(warmupMillis);
+		measureUntil = measureFrom + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+
+		ExecutorService workers = Executors.newFixedThreadPool(concurrency);
+		try {
+			if (rate > 0) {
+				runOpenLoop(workers, start);
+			} else {
+				runClosedLoop(workers);
+			}
+			workers.shutdown();
+			workers.awaitTermination(1, TimeUnit.MINUTES);
+		} finally {
+			workers.shutdownNow();
+			client.getConnectionManager().shutdown();
+		}
+		return createResult(durationMillis);
+	}
+
+	private void runClosedLoop(ExecutorService workers) {
+		for (int i = 0; i < concurrency; i++) {
+			workers.execute(new Runnable() {
+				public void run() {
+					long startTime;
+					while ((startTime = System.nanoTime()) < measureUntil) {
+						send(startTime);
+					}
+				}
+			});
+		}
+	}
+
+	private void runOpenLoop(ExecutorService workers, long start) {
+		long interval = TimeUnit.SECONDS.toNanos(1) / rate;
+		for (long scheduled = start; scheduled < measureUntil; scheduled += interval) {
+			long delay = scheduled - System.nanoTime();
+			if (delay > 0) {
+				LockSupport.parkNanos(delay);
+			}
+			final long startTime = scheduled;
+			workers.execute(new Runnable() {
+				public void run() {
+					send(startTime);
+				}
+			});
+		}
+	}
+
+	private void send(long startTime) {
+		boolean succeeded = false;
+		try {
+			HttpResponse response = client.execute(new HttpGet(url));
+			EntityUtils.consume(response.getEntity());
+			succeeded = response.getStatusLine().getStatusCode() < 400;
+		} catch (IOException e) {
+			// counted as error
+		}
+
+		if (startTime >= measureFrom && startTime < measureUntil) {
+			if (succeeded) {
+				samples.get().add(System.nanoTime() - startTime);
+			} else {
+				errors.incrementAndGet();
+			}
+		}
+	}
+
+	private Result createResult(long durationMillis) {
+		int count = 0;
+		synchronized (allSamples) {
+			for (Samples s : allSamples) {
+				count += s.size;
+			}
+			long[] latencies = new long[count];
+			int off = 0;
+			for (Samples s : allSamples) {
+				System.arraycopy(s.values, 0, latencies, off, s.size);
+				off += s.size;
+			}
+			Arrays.sort(latencies);
+			return new Result(latencies, errors.get(), durationMillis);
+		}
+	}
+
+	/**
+	 * Latencies recorded by a single worker thread.
+	 */
+	private static class Samples {
+		long[] values = new long[1024];
+		int size;
+
+		void add(long value) {
+			if (size == values.length) {
+				values = Arrays.copyOf(values, size * 2);
+			}
+			values[size++] = value;
+		}
+	}
+
+	/**
+	 * Outcome of a load test run.
+	 */
+	static class Result {
+
+		/* sorted latencies of the successful requests in nanoseconds */
+		private final long[] latencies;
+
+		private final long errors;
+
+		private final long durationMillis;
+
+		Result(long[] latencies, long errors, long durationMillis) {
+			this.latencies = latencies;
+			this.errors = errors;
+			this.durationMillis = durationMillis;
+		}
+
+		long getRequests() {
+			return latencies.length;
+		}
+
+		long getErrors() {
+			return errors;
+		}
+
+		double getRequestsPerSecond() {
+			return latencies.length * 1000.0 / durationMillis;
+		}
+
+		/**
+		 * Returns the latency in milliseconds below which the given share of requests
+		 * finished, e.g. 0.99 for the 99th percentile.
+		 */
+		double getPercentile(double quantile) {
+			if (latencies.length == 0) {
+				return 0;
+			}
+			int index = (int) Math.ceil(quantile * latencies.length) - 1;
+			return latencies[Math.max(0, Math.min(index, latencies.length - 1))] / 1000000.0;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("requests: %d, errors: %d, throughput: %.1f req/s%n"
+					+ "latency [ms] p50: %.2f, p90: %.2f, p99: %.2f, p99.9: %.2f, max: %.2f", getRequests(), errors,
+					getRequestsPerSecond(), getPercentile(0.5), getPercentile(0.9), getPercentile(0.99),
+					getPercentile(0.999), getPercentile(1));
+		}
+	}
+}
@@ -0,0 +1,134 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy.loadtest;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+
+import com.sap.cloudlabs.connectivity.proxy.ProxyServlet;
+
+/**
+ * Measures throughput and latency of the proxy servlet end to end, without the cloud
+ * runtime: the servlet runs in an embedded Jetty, its only destination points to an
+ * in-process {@link StubBackend}, and a {@link LoadGenerator} sends the requests.
+ * <p>
+ * Arguments are given as <code>name=value</code>. The following names configure the
+ * harness, all others are passed to the proxy servlet as init parameters, e.g.
+ * <code>cache.enabled=true</code> or <code>async.enabled=true</code>:
+ * <ul>
+ * <li><code>concurrency</code> - number of load generator workers (default 32)</li>
+ * <li><code>rate</code> - requests per second for an open loop, 0 for a closed loop
+ * (default 0)</li>
+ * <li><code>warmup</code>, <code>duration</code> - seconds of warm-up and measurement
+ * (default 5 and 30)</li>
+ * <li><code>server.threads</code> - maximum number of Jetty threads (default 200)</li>
+ * <li><code>backend.latency</code> - backend latency in milliseconds (default 0)</li>
+ * <li><code>backend.size</code> - size of the backend response in bytes (default 16384)</li>
+ * <li><code>backend.gzip</code>, <code>backend.chunked</code> - compressed and chunked
+ * backend responses (default false)</li>
+ * <li><code>backend.content.type</code> - content type of the backend response (default
+ * application/json)</li>
+ * <li><code>clients</code> - <code>pooled</code> or <code>per-request</code> backend
+ * clients (default pooled)</li>
+ * <li><code>rewrite</code> - <code>false</code> to pass responses through without URL
+ * rewriting (default true)</li>
+ * </ul>
+ */
+public class LoadTest {
+
+	private static final String DESTINATION_NAME = "backend";
+
+	private static final Map<String, String> DEFAULTS = new LinkedHashMap<String, String>();
+
+	static {
+		DEFAULTS.put("concurrency", "32");
+		DEFAULTS.put("rate", "0");
+		DEFAULTS.put("warmup", "5");
+		DEFAULTS.put("duration", "30");
+		DEFAULTS.put("server.threads", "200");
+		DEFAULTS.put("backend.latency", "0");
+		DEFAULTS.put("backend.size", "16384");
+		DEFAULTS.put("backend.gzip", "false");
+		DEFAULTS.put("backend.chunked", "false");
+		DEFAULTS.put("backend.content.type", "application/json");
+		DEFAULTS.put("clients", "pooled");
+		DEFAULTS.put("rewrite", "true");
+	}
+
+	public static void main(String[] args) throws Exception {
+		Map<String, String> options = new LinkedHashMap<String, String>(DEFAULTS);
+		Map<String, String> initParameters = new HashMap<String, String>();
+		for (String arg : args) {
+			int index = arg.indexOf('=');
+			if (index == -1) {
+				System.err.println("Invalid argument " + arg + ", expected name=value");
+				System.exit(1);
+			}
+			String name = arg.substring(0, index);
+			String value = arg.substring(index + 1);
+			if (DEFAULTS.containsKey(name)) {
+				options.put(name, value);
+			} else {
+				initParameters.put(name, value);
+			}
+		}
+		if (!Boolean.parseBoolean(options.get("rewrite"))) {
+			initParameters.put("rewrite.excluded.destinations", DESTINATION_NAME);
+		}
+
+		StubBackend backend = new StubBackend(Long.parseLong(options.get("backend.latency")),
+				Integer.parseInt(options.get("backend.size")), options.get("backend.content.type"),
+				Boolean.parseBoolean(options.get("backend.gzip")), Boolean.parseBoolean(options.get("backend.chunked")));
+		backend.start();
+
+		Server server = new Server(0);
+		server.setThreadPool(new QueuedThreadPool(Integer.parseInt(options.get("server.threads"))));
+		ServletContextHandler context = new ServletContextHandler(ServletContextHandler.NO_SESSIONS);
+		context.setContextPath("/app");
+		context.setAttribute(ProxyServlet.DESTINATION_FACTORY_ATTRIBUTE, StubDestinations.createFactory(
+				DESTINATION_NAME, backend.getUri(), "pooled".equals(options.get("clients"))));
+		ServletHolder holder = new ServletHolder(new ProxyServlet());
+		holder.setInitParameters(initParameters);
+		holder.setInitOrder(1);
+		holder.setAsyncSupported(true);
+		context.addServlet(holder, "/proxy/" + DESTINATION_NAME + "/*");
+		server.setHandler(context);
+		server.start();
+
+		try {
+			String url = "http://127.0.0.1:" + server.getConnectors()[0].getLocalPort() + "/app/proxy/"
+					+ DESTINATION_NAME + "/Items";
+			System.out.println("options: " + options);
+			System.out.println("init parameters: " + initParameters);
+
+			LoadGenerator generator = new LoadGenerator(url, Integer.parseInt(options.get("concurrency")),
+					Integer.parseInt(options.get("rate")));
+			LoadGenerator.Result result = generator.run(Long.parseLong(options.get("warmup")) * 1000,
+					Long.parseLong(options.get("duration")) * 1000);
+			System.out.println(result);
+		} finally {
+			server.stop();
+			backend.stop();
+		}
+	}
+}
@@ -0,0 +1,163 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy.loadtest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPOutputStream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * In-process HTTP backend which answers every request with the same OData-like JSON
+ * payload after a configurable latency. The payload contains absolute URLs of the
+ * backend, so that the proxy servlet has something to rewrite.
+ */
+class StubBackend {
+
+	private final HttpServer server;
+
+	private final ExecutorService executor;
+
+	private final long latencyMillis;
+
+	private final boolean chunked;
+
+	private final String contentType;
+
+	private final byte[] payload;
+
+	private final byte[] gzippedPayload;
+
+	/**
+	 * @param latencyMillis
+	 *            time the backend waits before it answers a request
+	 * @param size
+	 *            size of the uncompressed payload in bytes
+	 * @param gzip
+	 *            whether the payload is sent gzip compressed
+	 * @param chunked
+	 *            whether the payload is sent with chunked transfer encoding instead of a
+	 *            content length
+	 */
+	StubBackend(long latencyMillis, int size, String contentType, boolean gzip, boolean chunked) throws IOException {
+		this.latencyMillis = latencyMillis;
+		this.contentType = contentType;
+		this.chunked = chunked;
+
+		// otherwise responses are delayed by Nagle's algorithm and delayed ACKs
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+		payload = createPayload(getUri().toString(), size);
+		gzippedPayload = gzip ? gzip(payload) : null;
+
+		executor = Executors.newCachedThreadPool();
+		server.setExecutor(executor);
+		server.createContext("/", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				respond(exchange);
+			}
+		});
+	}
+
+	void start() {
+		server.start();
+	}
+
+	void stop() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Returns the base URI of the backend, which is also the URI of its destination.
+	 */
+	URI getUri() {
+		return URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/odata");
+	}
+
+	private void respond(HttpExchange exchange) throws IOException {
+		try {
+			drain(exchange.getRequestBody());
+			if (latencyMillis > 0) {
+				Thread.sleep(latencyMillis);
+			}
+
+			byte[] content = payload;
+			exchange.getResponseHeaders().set("Content-Type", contentType);
+			if (gzippedPayload != null) {
+				content = gzippedPayload;
+				exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+			}
+			exchange.sendResponseHeaders(200, chunked ? 0 : content.length);
+
+			OutputStream out = exchange.getResponseBody();
+			for (int off = 0; off < content.length; off += 8192) {
+				out.write(content, off, Math.min(8192, content.length - off));
+			}
+			out.close();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private static byte[] createPayload(String baseUrl, int size) {
+		StringBuilder b = new StringBuilder(size + 256);
+		b.append("{\"d\":{\"results\":[");
+		for (int id = 1; b.length() < size - 64; id++) {
+			if (id > 1) {
+				b.append(',');
+			}
+			b.append("{\"__metadata\":{\"uri\":\"").append(baseUrl).append("/Items(").append(id)
+					.append(")\",\"type\":\"Stub.Item\"},\"ID\":").append(id)
+					.append(",\"Name\":\"Item number ").append(id)
+					.append("\",\"Description\":\"Lorem ipsum dolor sit amet, consectetur adipiscing elit\"}");
+		}
+		b.append("]}}");
+		try {
+			return b.toString().getBytes("UTF-8");
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static byte[] gzip(byte[] content) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		GZIPOutputStream gzip = new GZIPOutputStream(out);
+		gzip.write(content);
+		gzip.close();
+		return out.toByteArray();
+	}
+
+	private static void drain(InputStream in) throws IOException {
+		byte[] buffer = new byte[4096];
+		while (in.read(buffer) != -1) {
+			// discard
+		}
+		in.close();
+	}
+}
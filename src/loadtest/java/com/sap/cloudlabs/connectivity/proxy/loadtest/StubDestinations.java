@@ -0,0 +1,132 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy.loadtest;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.params.ClientPNames;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.client.RequestWrapper;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.protocol.HttpContext;
+
+import com.sap.core.connectivity.api.DestinationException;
+import com.sap.core.connectivity.api.DestinationFactory;
+import com.sap.core.connectivity.api.http.HttpDestination;
+
+/**
+ * Stub implementations of the connectivity API, which resolve a single destination
+ * to the stub backend instead of looking it up in the cloud runtime.
+ * <p>
+ * The stubs are dynamic proxies, so they only implement the methods the proxy
+ * servlet calls and work with any version of the API. All other methods return
+ * <code>null</code>, <code>false</code> or <code>0</code>.
+ */
+final class StubDestinations {
+
+	private StubDestinations() {
+	}
+
+	/**
+	 * Returns a destination factory which knows one destination.
+	 * 
+	 * @param pooled
+	 *            <code>true</code> if the destination hands out clients with a
+	 *            thread-safe connection manager, which the proxy servlet pools,
+	 *            <code>false</code> if it hands out single-connection clients, which
+	 *            are created and shut down for every request
+	 */
+	static DestinationFactory createFactory(final String name, final URI uri, final boolean pooled) {
+		final HttpDestination destination = (HttpDestination) createProxy(HttpDestination.class, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if (method.getName().equals("getName")) {
+					return name;
+				} else if (method.getName().equals("getURI")) {
+					return uri;
+				} else if (method.getName().equals("createHttpClient")) {
+					return createHttpClient(uri, pooled);
+				}
+				return invokeDefault(proxy, method, args, "HttpDestination " + name);
+			}
+		});
+
+		return (DestinationFactory) createProxy(DestinationFactory.class, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if (method.getName().equals("getDestination")) {
+					if (!name.equals(args[0])) {
+						throw new DestinationException("Destination " + args[0] + " does not exist");
+					}
+					return destination;
+				}
+				return invokeDefault(proxy, method, args, "DestinationFactory");
+			}
+		});
+	}
+
+	/*
+	 * like the clients of the cloud runtime, the client sends the relative
+	 * request URIs of the proxy servlet to the URI of the destination
+	 */
+	private static HttpClient createHttpClient(final URI uri, boolean pooled) {
+		DefaultHttpClient client = pooled ? new DefaultHttpClient(new ThreadSafeClientConnManager()) : new DefaultHttpClient();
+		client.getParams().setParameter(ClientPNames.DEFAULT_HOST, new HttpHost(uri.getHost(), uri.getPort(), uri.getScheme()));
+		client.addRequestInterceptor(new HttpRequestInterceptor() {
+			public void process(HttpRequest request, HttpContext context) {
+				if (request instanceof RequestWrapper) {
+					RequestWrapper wrapper = (RequestWrapper) request;
+					if (!wrapper.getURI().toString().startsWith("/")) {
+						wrapper.setURI(URI.create(uri.getPath() + "/" + wrapper.getURI()));
+					}
+				}
+			}
+		});
+		return client;
+	}
+
+	private static Object createProxy(Class<?> type, InvocationHandler handler) {
+		return Proxy.newProxyInstance(StubDestinations.class.getClassLoader(), new Class<?>[] { type }, handler);
+	}
+
+	private static Object invokeDefault(Object proxy, Method method, Object[] args, String description) {
+		if (method.getName().equals("equals")) {
+			return proxy == args[0];
+		} else if (method.getName().equals("hashCode")) {
+			return System.identityHashCode(proxy);
+		} else if (method.getName().equals("toString")) {
+			return "Stub" + description;
+		}
+
+		Class<?> returnType = method.getReturnType();
+		if (returnType == boolean.class) {
+			return Boolean.FALSE;
+		} else if (returnType == int.class) {
+			return 0;
+		} else if (returnType == long.class) {
+			return 0L;
+		} else if (returnType.isPrimitive() && returnType != void.class) {
+			throw new UnsupportedOperationException(method.getName() + " is not supported by the stub");
+		}
+		return null;
+	}
+}
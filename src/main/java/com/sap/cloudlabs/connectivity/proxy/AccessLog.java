@@ -0,0 +1,248 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes one line per proxied request to the logger
+ * <code>com.sap.cloudlabs.connectivity.proxy.access</code>, e.g. for capacity
+ * planning.
+ * <p>
+ * Request threads only copy the values of the request into a preallocated record of
+ * a ring buffer; formatting and logging happen on a background thread. If the ring
+ * buffer is full, the record is dropped instead of blocking the request thread, and
+ * the number of dropped records is logged later. Successful requests can be sampled,
+ * failed requests are always logged.
+ * <p>
+ * A line consists of the time, destination, method, status (0 if the request failed),
+ * bytes received from the backend and sent to the client, and the durations of the
+ * lookup, backend, transfer and total phase in milliseconds, or <code>-</code> if the
+ * phase did not happen:
+ * 
+ * <pre>
+ * 2014-05-12T09:21:03.512Z northwind GET 200 18211 18377 0.012 41.207 1.844 43.310
+ * </pre>
+ */
+class AccessLog {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(AccessLog.class);
+
+	private static final Logger ACCESS_LOGGER = LoggerFactory.getLogger("com.sap.cloudlabs.connectivity.proxy.access");
+
+	/* time the writer sleeps when the ring buffer is empty */
+	private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+	private final Record[] records;
+
+	private final int mask;
+
+	private final int sampleRate;
+
+	/* sequence of the next record to claim */
+	private final AtomicLong head = new AtomicLong();
+
+	/* sequence of the next record to write, only advanced by the writer */
+	private final AtomicLong tail = new AtomicLong();
+
+	private final AtomicLong dropped = new AtomicLong();
+
+	private final Thread writer;
+
+	private volatile boolean stopped;
+
+	/**
+	 * @param capacity
+	 *            number of records in the ring buffer, rounded up to a power of two
+	 * @param sampleRate
+	 *            percentage of successful requests which are logged
+	 */
+	AccessLog(int capacity, int sampleRate) {
+		int size = 2;
+		while (size < capacity) {
+			size <<= 1;
+		}
+		this.records = new Record[size];
+		for (int i = 0; i < size; i++) {
+			records[i] = new Record();
+		}
+		this.mask = size - 1;
+		this.sampleRate = Math.max(0, Math.min(100, sampleRate));
+		this.writer = new DaemonThreadFactory("access-log").newThread(new Runnable() {
+			public void run() {
+				write();
+			}
+		});
+		writer.start();
+	}
+
+	/**
+	 * Records the given finished request. Never blocks.
+	 * 
+	 * @param status
+	 *            status of the response, 0 if the request failed
+	 */
+	void log(String method, ProxyExchange exchange, int status) {
+		if (status > 0 && status < 500 && !isSampled(exchange)) {
+			return;
+		}
+		long sequence;
+		do {
+			sequence = head.get();
+			if (sequence - tail.get() >= records.length) {
+				dropped.incrementAndGet();
+				return;
+			}
+		} while (!head.compareAndSet(sequence, sequence + 1));
+
+		Record record = records[(int) sequence & mask];
+		DestinationMetrics metrics = exchange.getMetrics();
+		record.time = System.currentTimeMillis();
+		record.destination = metrics != null ? metrics.getDestinationName() : null;
+		record.method = method;
+		record.status = status;
+		record.bytesIn = exchange.getBytesIn();
+		record.bytesOut = exchange.getBytesOut();
+		record.lookupTime = exchange.getLookupTime();
+		record.backendTime = exchange.getBackendTime();
+		record.transferTime = exchange.getTransferTime();
+		record.totalTime = System.nanoTime() - exchange.getStartTime();
+		record.sequence = sequence;
+	}
+
+	/**
+	 * Returns the number of records which were dropped because the ring buffer was full.
+	 */
+	long getDropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * Writes the remaining records and stops the background thread.
+	 */
+	void shutdown() {
+		stopped = true;
+		LockSupport.unpark(writer);
+		try {
+			writer.join(TimeUnit.SECONDS.toMillis(5));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/*
+	 * a sampled request is chosen by the low bits of its start time, which
+	 * are random enough and do not need a shared counter
+	 */
+	private boolean isSampled(ProxyExchange exchange) {
+		if (sampleRate == 100) {
+			return true;
+		}
+		long hash = exchange.getStartTime() * 0x9E3779B97F4A7C15L;
+		return (int) ((hash >>> 32) % 100) < sampleRate;
+	}
+
+	private void write() {
+		SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+		dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+		StringBuilder line = new StringBuilder(128);
+		long reported = 0;
+		long sequence = tail.get();
+		while (true) {
+			Record record = records[(int) sequence & mask];
+			if (record.sequence == sequence) {
+				line.setLength(0);
+				record.format(line, dateFormat);
+				// the record can be reused as soon as its values are copied
+				tail.lazySet(++sequence);
+				try {
+					ACCESS_LOGGER.info(line.toString());
+				} catch (RuntimeException e) {
+					LOGGER.error("Writing access log failed", e);
+				}
+			} else if (head.get() > sequence) {
+				// the record is claimed, but its values are not written yet
+				Thread.yield();
+			} else {
+				long drops = dropped.get();
+				if (drops != reported) {
+					LOGGER.warn("{} access log records dropped, the ring buffer is full", drops - reported);
+					reported = drops;
+				}
+				if (stopped) {
+					return;
+				}
+				LockSupport.parkNanos(IDLE_NANOS);
+			}
+		}
+	}
+
+	/**
+	 * Values of one request, written by the request thread and read by the writer.
+	 */
+	static class Record {
+		/* sequence under which the record is published, set last */
+		volatile long sequence = -1;
+		long time;
+		String destination;
+		String method;
+		int status;
+		long bytesIn;
+		long bytesOut;
+		long lookupTime;
+		long backendTime;
+		long transferTime;
+		long totalTime;
+
+		void format(StringBuilder line, SimpleDateFormat dateFormat) {
+			line.append(dateFormat.format(new Date(time))).append(' ');
+			line.append(destination != null ? destination : "-").append(' ');
+			line.append(method).append(' ').append(status).append(' ');
+			line.append(bytesIn).append(' ').append(bytesOut);
+			appendMillis(line, lookupTime);
+			appendMillis(line, backendTime);
+			appendMillis(line, transferTime);
+			appendMillis(line, totalTime);
+		}
+
+		private static void appendMillis(StringBuilder line, long nanos) {
+			line.append(' ');
+			if (nanos < 0) {
+				line.append('-');
+				return;
+			}
+			long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+			line.append(micros / 1000).append('.');
+			long fraction = micros % 1000;
+			if (fraction < 100) {
+				line.append('0');
+			}
+			if (fraction < 10) {
+				line.append('0');
+			}
+			line.append(fraction);
+		}
+	}
+}
@@ -0,0 +1,99 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy;
+
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+
+/**
+ * Timeouts of the backend calls of a destination, and whether they may be hedged.
+ * All timeouts are given in milliseconds, 0 means no timeout.
+ */
+class BackendTimeouts {
+
+	/*
+	 * maximum wait for a pooled connection; HttpClient 4.1 only offers the deprecated
+	 * ConnManagerParams for it, 4.2 names it ClientPNames.CONN_MANAGER_TIMEOUT
+	 */
+	private static final String CONN_MANAGER_TIMEOUT = "http.conn-manager.timeout";
+
+	private final int connectTimeout;
+
+	private final int socketTimeout;
+
+	private final int totalTimeout;
+
+	private final boolean hedging;
+
+	/**
+	 * @param connectTimeout
+	 *            maximum time to get a connection to the backend, including the wait
+	 *            for a pooled connection
+	 * @param socketTimeout
+	 *            maximum time without data from the backend
+	 * @param totalTimeout
+	 *            maximum time of the whole backend call, including the transfer of
+	 *            the response
+	 * @param hedging
+	 *            <code>true</code> if idempotent calls may be hedged
+	 */
+	BackendTimeouts(int connectTimeout, int socketTimeout, int totalTimeout, boolean hedging) {
+		this.connectTimeout = Math.max(0, connectTimeout);
+		this.socketTimeout = Math.max(0, socketTimeout);
+		this.totalTimeout = Math.max(0, totalTimeout);
+		this.hedging = hedging;
+	}
+
+	/**
+	 * Reads the timeouts of the given destination from the init parameters.
+	 */
+	static BackendTimeouts create(DestinationParameters parameters, String destinationName) {
+		return new BackendTimeouts(
+				parameters.getInt("timeout.connect", destinationName, 0),
+				parameters.getInt("timeout.socket", destinationName, 0),
+				parameters.getInt("timeout.total", destinationName, 0),
+				parameters.getBoolean("hedging.enabled", destinationName));
+	}
+
+	/**
+	 * Sets the connect and socket timeouts on the given backend request, if any. They
+	 * take precedence over the settings of the HttpClient.
+	 */
+	void apply(HttpRequestBase backendRequest) {
+		HttpParams params = backendRequest.getParams();
+		if (connectTimeout > 0) {
+			HttpConnectionParams.setConnectionTimeout(params, connectTimeout);
+			params.setLongParameter(CONN_MANAGER_TIMEOUT, connectTimeout);
+		}
+		if (socketTimeout > 0) {
+			HttpConnectionParams.setSoTimeout(params, socketTimeout);
+		}
+	}
+
+	/**
+	 * Returns the maximum time of the whole backend call in milliseconds, 0 if it is not
+	 * limited.
+	 */
+	int getTotalTimeout() {
+		return totalTimeout;
+	}
+
+	boolean isHedgingEnabled() {
+		return hedging;
+	}
+}
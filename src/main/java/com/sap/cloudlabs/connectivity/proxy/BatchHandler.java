@@ -0,0 +1,358 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.http.HeaderElement;
+import org.apache.http.NameValuePair;
+import org.apache.http.message.BasicHeaderValueParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Handles batch requests, which bundle several requests to one or more destinations
+ * into a single <code>multipart/mixed</code> request (see {@link BatchPart}).
+ * <p>
+ * The parts are proxied in parallel on a bounded pool of threads, each through the
+ * same pipeline as a single request, i.e. with the same header filtering, URL
+ * rewriting, caching and limits. The response is a <code>multipart/mixed</code> stream
+ * to which every part is written as soon as it is complete, so the parts are in the
+ * order of completion and carry the <code>Content-ID</code> of their request.
+ */
+class BatchHandler {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(BatchHandler.class);
+
+	private static final String ISO_8859_1 = "ISO-8859-1";
+
+	/**
+	 * Proxies a single request, i.e. a part of a batch.
+	 */
+	interface Pipeline {
+		void proxy(HttpServletRequest request, HttpServletResponse response, ProxyExchange exchange)
+				throws ServletException, IOException;
+	}
+
+	private final Pipeline pipeline;
+
+	private final String batchPath;
+
+	private final String proxyPath;
+
+	private final Set<String> destinations;
+
+	private final int maxRequests;
+
+	private final int maxSize;
+
+	private final int maxConcurrent;
+
+	private final int maxResponseSize;
+
+	private final ThreadPoolExecutor executor;
+
+	/**
+	 * @param pipeline
+	 *            proxies the parts
+	 * @param batchPath
+	 *            path of batch requests below the context path, e.g.
+	 *            <code>/proxy/$batch</code>; the targets of the parts are relative to
+	 *            its parent path
+	 * @param destinations
+	 *            destinations which can be called in batches, <code>null</code> to let
+	 *            the route table decide
+	 * @param maxRequests
+	 *            maximum number of requests in a batch
+	 * @param maxSize
+	 *            maximum size of the batch request body in bytes
+	 * @param maxConcurrent
+	 *            maximum number of requests of a batch which are proxied concurrently
+	 * @param maxResponseSize
+	 *            maximum size of the response content of a single request in bytes
+	 * @param threads
+	 *            number of threads which proxy the requests of all batches
+	 * @param queueSize
+	 *            number of requests which wait for a thread, further requests are
+	 *            answered with 503
+	 */
+	BatchHandler(Pipeline pipeline, String batchPath, Set<String> destinations, int maxRequests, int maxSize,
+			int maxConcurrent, int maxResponseSize, int threads, int queueSize) {
+		this.pipeline = pipeline;
+		this.batchPath = batchPath;
+		this.proxyPath = batchPath.substring(0, batchPath.lastIndexOf('/'));
+		this.destinations = destinations;
+		this.maxRequests = maxRequests;
+		this.maxSize = maxSize;
+		this.maxConcurrent = maxConcurrent;
+		this.maxResponseSize = maxResponseSize;
+		this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(queueSize), new DaemonThreadFactory("batch"));
+		this.executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Returns <code>true</code> if the given request is a batch request.
+	 */
+	boolean isBatchRequest(HttpServletRequest request) {
+		String pathInfo = request.getPathInfo();
+		String path = pathInfo != null ? request.getServletPath() + pathInfo : request.getServletPath();
+		return batchPath.equals(path);
+	}
+
+	/**
+	 * Proxies the requests of the given batch request and streams their responses to
+	 * the client.
+	 */
+	void handle(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		String boundary = getBoundary(request.getContentType());
+		if (!"POST".equals(request.getMethod()) || boundary == null) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Batch requests have to be POSTed as multipart/mixed");
+			return;
+		}
+		byte[] body = request.getContentLength() <= maxSize ? readBody(request.getInputStream()) : null;
+		if (body == null) {
+			response.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, "Batch requests are limited to " + maxSize
+					+ " bytes");
+			return;
+		}
+		List<BatchPart> parts;
+		try {
+			parts = BatchPart.parse(body, boundary);
+		} catch (IllegalArgumentException e) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+			return;
+		}
+		if (parts.size() > maxRequests) {
+			response.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, "Batch requests are limited to "
+					+ maxRequests + " requests");
+			return;
+		}
+		LOGGER.debug("batch with {} requests", parts.size());
+
+		String responseBoundary = "batchresponse_" + UUID.randomUUID();
+		response.setStatus(HttpServletResponse.SC_OK);
+		response.setContentType("multipart/mixed; boundary=" + responseBoundary);
+		OutputStream out = response.getOutputStream();
+
+		CompletionService<PartTask> completionService = new ExecutorCompletionService<PartTask>(executor);
+		List<PartTask> tasks = new ArrayList<PartTask>(parts.size());
+		int next = 0;
+		int running = 0;
+		try {
+			while (next < parts.size() || running > 0) {
+				while (next < parts.size() && running < maxConcurrent) {
+					PartTask task = createTask(request, response, parts.get(next++));
+					if (task.isDone()) {
+						writePart(out, responseBoundary, task);
+						continue;
+					}
+					try {
+						completionService.submit(task);
+						tasks.add(task);
+						running++;
+					} catch (RejectedExecutionException e) {
+						LOGGER.error("Batch request rejected, all batch threads are busy");
+						task.response.fail(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "All batch threads are busy");
+						writePart(out, responseBoundary, task);
+					}
+				}
+				if (running > 0) {
+					PartTask task = completionService.take().get();
+					running--;
+					writePart(out, responseBoundary, task);
+				}
+			}
+			out.write(("--" + responseBoundary + "--\r\n").getBytes(ISO_8859_1));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for the requests of the batch");
+		} catch (ExecutionException e) {
+			throw new IOException("Request of the batch failed", e.getCause());
+		} finally {
+			// requests which are still running are of no use anymore, e.g. because the client is gone
+			for (PartTask task : tasks) {
+				if (!task.isDone()) {
+					task.exchange.abort();
+				}
+			}
+		}
+	}
+
+	void shutdown() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Creates the task which proxies the given part. Parts to destinations which are not
+	 * available in batches are answered right away.
+	 */
+	private PartTask createTask(HttpServletRequest request, HttpServletResponse response, BatchPart part) {
+		String target = part.getTarget();
+		if (target.startsWith("/")) {
+			target = target.substring(1);
+		}
+		String queryString = null;
+		int query = target.indexOf('?');
+		if (query >= 0) {
+			queryString = target.substring(query + 1);
+			target = target.substring(0, query);
+		}
+		String destinationName = target;
+		String pathInfo = null;
+		int slash = target.indexOf('/');
+		if (slash >= 0) {
+			destinationName = target.substring(0, slash);
+			pathInfo = target.substring(slash);
+		}
+
+		// the parts are presented like requests to the mapping of the whole proxy path, or else to 
+		// the mapping of their destination
+		BatchRequest partRequest = destinations == null ? new BatchRequest(request, part, proxyPath, "/" + target,
+				queryString) : new BatchRequest(request, part, proxyPath + "/" + destinationName, pathInfo, queryString);
+		PartTask task = new PartTask(part, partRequest, new BatchResponse(response, maxResponseSize));
+		if (destinations != null && !destinations.contains(destinationName)) {
+			task.response.fail(HttpServletResponse.SC_NOT_FOUND, "Destination " + destinationName
+					+ " is not available in batches");
+			task.done = true;
+		}
+		return task;
+	}
+
+	private static void writePart(OutputStream out, String boundary, PartTask task) throws IOException {
+		StringBuilder head = new StringBuilder();
+		head.append("--").append(boundary).append("\r\n");
+		head.append("Content-Type: application/http\r\n");
+		head.append("Content-Transfer-Encoding: binary\r\n");
+		if (task.part.getContentId() != null) {
+			head.append("Content-ID: ").append(task.part.getContentId()).append("\r\n");
+		}
+		head.append("\r\n");
+		out.write(head.toString().getBytes(ISO_8859_1));
+		task.response.writeTo(out);
+		out.write('\r');
+		out.write('\n');
+		out.flush();
+	}
+
+	/**
+	 * Reads the batch request body, returns <code>null</code> if it exceeds the maximum
+	 * size.
+	 */
+	private byte[] readBody(InputStream in) throws IOException {
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			if (body.size() + read > maxSize) {
+				return null;
+			}
+			body.write(buffer, 0, read);
+		}
+		return body.toByteArray();
+	}
+
+	/**
+	 * Returns the boundary of the given <code>multipart/mixed</code> content type,
+	 * <code>null</code> if it is another content type.
+	 */
+	static String getBoundary(String contentType) {
+		if (contentType == null) {
+			return null;
+		}
+		HeaderElement[] elements = BasicHeaderValueParser.parseElements(contentType, null);
+		if (elements.length == 0 || !"multipart/mixed".equalsIgnoreCase(elements[0].getName())) {
+			return null;
+		}
+		NameValuePair boundary = elements[0].getParameterByName("boundary");
+		return boundary != null && boundary.getValue() != null && boundary.getValue().length() > 0 ? boundary.getValue()
+				: null;
+	}
+
+	/**
+	 * Returns the destinations which the servlet with the given mappings is mapped to
+	 * below the given path, e.g. <code>northwind</code> for the mapping
+	 * <code>/proxy/northwind/*</code> and the path <code>/proxy/</code>.
+	 */
+	static Set<String> getMappedDestinations(Collection<String> mappings, String path) {
+		Set<String> destinations = new HashSet<String>();
+		for (String mapping : mappings) {
+			if (mapping.length() > path.length() + 1 && mapping.startsWith(path) && mapping.endsWith("/*")) {
+				String destination = mapping.substring(path.length(), mapping.length() - 2);
+				if (destination.length() > 0 && destination.indexOf('/') < 0) {
+					destinations.add(destination);
+				}
+			}
+		}
+		return destinations;
+	}
+
+	/**
+	 * Proxies a single part of a batch.
+	 */
+	private class PartTask implements Callable<PartTask> {
+		final BatchPart part;
+		final BatchRequest request;
+		final BatchResponse response;
+		final ProxyExchange exchange = new ProxyExchange();
+		volatile boolean done;
+
+		PartTask(BatchPart part, BatchRequest request, BatchResponse response) {
+			this.part = part;
+			this.request = request;
+			this.response = response;
+		}
+
+		boolean isDone() {
+			return done;
+		}
+
+		public PartTask call() {
+			try {
+				pipeline.proxy(request, response, exchange);
+			} catch (Exception e) {
+				LOGGER.error("Request {} {} of batch failed", part.getMethod(), part.getTarget(), e);
+				response.fail(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Request of batch failed: " + e.getMessage());
+			} finally {
+				done = true;
+			}
+			return this;
+		}
+	}
+}
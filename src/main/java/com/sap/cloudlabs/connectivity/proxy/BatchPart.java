@@ -0,0 +1,292 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Single request of a batch, i.e. one part of a <code>multipart/mixed</code> batch
+ * request body in the format of OData <code>$batch</code>:
+ * 
+ * <pre>
+ * --batch_boundary
+ * Content-Type: application/http
+ * Content-ID: 1
+ * 
+ * GET northwind/Customers?$top=2 HTTP/1.1
+ * Accept: application/json
+ * 
+ * --batch_boundary--
+ * </pre>
+ * 
+ * The target of the request line is relative to the proxy servlet and starts with the
+ * name of the destination. Nested change sets are not supported.
+ */
+class BatchPart {
+
+	private static final String ISO_8859_1 = "ISO-8859-1";
+
+	private final String contentId;
+
+	private final String method;
+
+	private final String target;
+
+	private final List<String> headerNames = new ArrayList<String>();
+
+	private final List<String> headerValues = new ArrayList<String>();
+
+	private byte[] body;
+
+	private BatchPart(String contentId, String method, String target) {
+		this.contentId = contentId;
+		this.method = method;
+		this.target = target;
+	}
+
+	/**
+	 * Returns the <code>Content-ID</code> of the part, <code>null</code> if it has none.
+	 */
+	String getContentId() {
+		return contentId;
+	}
+
+	String getMethod() {
+		return method;
+	}
+
+	/**
+	 * Returns the target of the request line, e.g.
+	 * <code>northwind/Customers?$top=2</code>.
+	 */
+	String getTarget() {
+		return target;
+	}
+
+	List<String> getHeaderNames() {
+		return headerNames;
+	}
+
+	/**
+	 * Returns all values of the given header, which is looked up case-insensitively.
+	 */
+	List<String> getHeaders(String name) {
+		List<String> values = new ArrayList<String>(1);
+		for (int i = 0; i < headerNames.size(); i++) {
+			if (headerNames.get(i).equalsIgnoreCase(name)) {
+				values.add(headerValues.get(i));
+			}
+		}
+		return values;
+	}
+
+	/**
+	 * Returns the first value of the given header, <code>null</code> if there is none.
+	 */
+	String getHeader(String name) {
+		for (int i = 0; i < headerNames.size(); i++) {
+			if (headerNames.get(i).equalsIgnoreCase(name)) {
+				return headerValues.get(i);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the body of the request, empty if it has none.
+	 */
+	byte[] getBody() {
+		return body;
+	}
+
+	/**
+	 * Splits the given batch request body at the given boundary and parses its parts.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the body is malformed or contains parts other than
+	 *             <code>application/http</code>
+	 */
+	static List<BatchPart> parse(byte[] body, String boundary) {
+		byte[] delimiter = bytes("--" + boundary);
+		List<BatchPart> parts = new ArrayList<BatchPart>();
+		int next = indexOfDelimiter(body, delimiter, 0);
+		if (next < 0) {
+			throw new IllegalArgumentException("Batch request does not contain the boundary " + boundary);
+		}
+		int position = next + delimiter.length;
+		while (!startsWith(body, position, "--")) {
+			position = skipLine(body, position);
+			next = indexOfDelimiter(body, delimiter, position);
+			if (next < 0) {
+				throw new IllegalArgumentException("Batch request is not terminated by the boundary " + boundary);
+			}
+			// the line break before the delimiter belongs to the delimiter
+			int end = next;
+			if (end > position && body[end - 1] == '\n') {
+				end--;
+				if (end > position && body[end - 1] == '\r') {
+					end--;
+				}
+			}
+			parts.add(parsePart(new Cursor(body, position, end)));
+			position = next + delimiter.length;
+		}
+		return parts;
+	}
+
+	private static BatchPart parsePart(Cursor cursor) {
+		// MIME headers of the part
+		String contentType = null;
+		String contentId = null;
+		String line;
+		while ((line = cursor.readLine()) != null && line.length() > 0) {
+			int colon = line.indexOf(':');
+			if (colon > 0) {
+				String name = line.substring(0, colon).trim();
+				if ("Content-Type".equalsIgnoreCase(name)) {
+					contentType = line.substring(colon + 1).trim();
+				} else if ("Content-ID".equalsIgnoreCase(name)) {
+					contentId = line.substring(colon + 1).trim();
+				}
+			}
+		}
+		if (contentType == null || !contentType.toLowerCase().startsWith("application/http")) {
+			throw new IllegalArgumentException("Unsupported batch part of type " + contentType);
+		}
+
+		// request line, e.g. GET northwind/Customers HTTP/1.1
+		do {
+			line = cursor.readLine();
+		} while (line != null && line.length() == 0);
+		String[] requestLine = line != null ? line.trim().split(" +") : new String[0];
+		if (requestLine.length < 2) {
+			throw new IllegalArgumentException("Batch part without request line");
+		}
+		BatchPart part = new BatchPart(contentId, requestLine[0].toUpperCase(), requestLine[1]);
+
+		// headers and body of the request
+		while ((line = cursor.readLine()) != null && line.length() > 0) {
+			int colon = line.indexOf(':');
+			if (colon > 0) {
+				part.headerNames.add(line.substring(0, colon).trim());
+				part.headerValues.add(line.substring(colon + 1).trim());
+			}
+		}
+		part.body = cursor.remaining();
+		String contentLength = part.getHeader("Content-Length");
+		if (contentLength != null) {
+			try {
+				int length = Integer.parseInt(contentLength);
+				if (length >= 0 && length < part.body.length) {
+					part.body = Arrays.copyOf(part.body, length);
+				}
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Invalid Content-Length " + contentLength + " in batch part");
+			}
+		}
+		return part;
+	}
+
+	/*
+	 * delimiters are only recognized at the start of a line
+	 */
+	private static int indexOfDelimiter(byte[] body, byte[] delimiter, int from) {
+		int last = body.length - delimiter.length;
+		outer: for (int i = from; i <= last; i++) {
+			if (i > 0 && body[i - 1] != '\n') {
+				continue;
+			}
+			for (int j = 0; j < delimiter.length; j++) {
+				if (body[i + j] != delimiter[j]) {
+					continue outer;
+				}
+			}
+			return i;
+		}
+		return -1;
+	}
+
+	private static boolean startsWith(byte[] body, int position, String prefix) {
+		if (position + prefix.length() > body.length) {
+			return false;
+		}
+		for (int i = 0; i < prefix.length(); i++) {
+			if (body[position + i] != prefix.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int skipLine(byte[] body, int position) {
+		while (position < body.length && body[position] != '\n') {
+			position++;
+		}
+		return Math.min(position + 1, body.length);
+	}
+
+	private static byte[] bytes(String value) {
+		try {
+			return value.getBytes(ISO_8859_1);
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Reads lines, terminated by CRLF or LF, from a range of a byte array.
+	 */
+	private static class Cursor {
+		private final byte[] bytes;
+		private final int end;
+		private int position;
+
+		Cursor(byte[] bytes, int position, int end) {
+			this.bytes = bytes;
+			this.position = position;
+			this.end = end;
+		}
+
+		String readLine() {
+			if (position >= end) {
+				return null;
+			}
+			int lineEnd = position;
+			while (lineEnd < end && bytes[lineEnd] != '\n') {
+				lineEnd++;
+			}
+			int next = Math.min(lineEnd + 1, end);
+			if (lineEnd > position && bytes[lineEnd - 1] == '\r') {
+				lineEnd--;
+			}
+			try {
+				return new String(bytes, position, lineEnd - position, ISO_8859_1);
+			} catch (UnsupportedEncodingException e) {
+				throw new IllegalStateException(e);
+			} finally {
+				position = next;
+			}
+		}
+
+		byte[] remaining() {
+			return Arrays.copyOfRange(bytes, position, end);
+		}
+	}
+}
@@ -0,0 +1,212 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+
+import org.apache.http.impl.cookie.DateParseException;
+import org.apache.http.impl.cookie.DateUtils;
+
+/**
+ * Presents a single request of a batch to the proxy servlet as if it had been sent on
+ * its own to <code>/proxy/&lt;destination&gt;/...</code>.
+ * <p>
+ * The headers of the batch request, e.g. cookies or the authorization, apply to all
+ * its parts, unless a part sets them itself. Headers which describe the batch request
+ * body or make it conditional are not inherited.
+ */
+class BatchRequest extends HttpServletRequestWrapper {
+
+	/* headers of the batch request which do not apply to its parts */
+	private static final HeaderNameSet NOT_INHERITED_HEADERS = HeaderNameSet.of("content-type", "content-length",
+			"content-encoding", "transfer-encoding", "accept-encoding", "expect", "range", "if-range", "if-match",
+			"if-none-match", "if-modified-since", "if-unmodified-since");
+
+	private final BatchPart part;
+
+	private final String servletPath;
+
+	private final String pathInfo;
+
+	private final String queryString;
+
+	/**
+	 * @param request
+	 *            the batch request
+	 * @param part
+	 *            the part to present
+	 * @param servletPath
+	 *            servlet path of the part, i.e. the path of the proxy servlet and, with a
+	 *            mapping per destination, the destination
+	 * @param pathInfo
+	 *            path below the servlet path, <code>null</code> if there is none
+	 * @param queryString
+	 *            query of the part, <code>null</code> if there is none
+	 */
+	BatchRequest(HttpServletRequest request, BatchPart part, String servletPath, String pathInfo, String queryString) {
+		super(request);
+		this.part = part;
+		this.servletPath = servletPath;
+		this.pathInfo = pathInfo;
+		this.queryString = queryString;
+	}
+
+	@Override
+	public String getMethod() {
+		return part.getMethod();
+	}
+
+	@Override
+	public String getServletPath() {
+		return servletPath;
+	}
+
+	@Override
+	public String getPathInfo() {
+		return pathInfo;
+	}
+
+	@Override
+	public String getQueryString() {
+		return queryString;
+	}
+
+	@Override
+	public String getRequestURI() {
+		return getContextPath() + servletPath + (pathInfo != null ? pathInfo : "");
+	}
+
+	@Override
+	public StringBuffer getRequestURL() {
+		StringBuffer url = super.getRequestURL();
+		url.setLength(url.length() - super.getRequestURI().length());
+		return url.append(getRequestURI());
+	}
+
+	@Override
+	public String getHeader(String name) {
+		String value = part.getHeader(name);
+		if (value == null && !NOT_INHERITED_HEADERS.contains(name)) {
+			value = super.getHeader(name);
+		}
+		return value;
+	}
+
+	@Override
+	public Enumeration<String> getHeaders(String name) {
+		List<String> values = part.getHeaders(name);
+		if (values.isEmpty() && !NOT_INHERITED_HEADERS.contains(name)) {
+			return super.getHeaders(name);
+		}
+		return Collections.enumeration(values);
+	}
+
+	@Override
+	public Enumeration<String> getHeaderNames() {
+		Set<String> names = new LinkedHashSet<String>(part.getHeaderNames());
+		for (Enumeration<String> e = super.getHeaderNames(); e.hasMoreElements();) {
+			String name = e.nextElement();
+			if (!NOT_INHERITED_HEADERS.contains(name) && part.getHeader(name) == null) {
+				names.add(name);
+			}
+		}
+		return Collections.enumeration(new ArrayList<String>(names));
+	}
+
+	@Override
+	public int getIntHeader(String name) {
+		String value = getHeader(name);
+		return value != null ? Integer.parseInt(value) : -1;
+	}
+
+	@Override
+	public long getDateHeader(String name) {
+		String value = getHeader(name);
+		if (value == null) {
+			return -1;
+		}
+		try {
+			Date date = DateUtils.parseDate(value);
+			return date.getTime();
+		} catch (DateParseException e) {
+			throw new IllegalArgumentException("Invalid date in header " + name + ": " + value);
+		}
+	}
+
+	@Override
+	public String getContentType() {
+		return part.getHeader("Content-Type");
+	}
+
+	@Override
+	public String getCharacterEncoding() {
+		String contentType = getContentType();
+		int index = contentType != null ? contentType.toLowerCase().indexOf("charset=") : -1;
+		if (index < 0) {
+			return null;
+		}
+		String charset = contentType.substring(index + "charset=".length());
+		int end = charset.indexOf(';');
+		return (end >= 0 ? charset.substring(0, end) : charset).trim().replace("\"", "");
+	}
+
+	@Override
+	public int getContentLength() {
+		return part.getBody().length > 0 ? part.getBody().length : -1;
+	}
+
+	@Override
+	public ServletInputStream getInputStream() {
+		final ByteArrayInputStream in = new ByteArrayInputStream(part.getBody());
+		return new ServletInputStream() {
+			@Override
+			public int read() {
+				return in.read();
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) {
+				return in.read(b, off, len);
+			}
+		};
+	}
+
+	@Override
+	public BufferedReader getReader() throws IOException {
+		String charset = getCharacterEncoding();
+		return new BufferedReader(new InputStreamReader(getInputStream(), charset != null ? charset : "ISO-8859-1"));
+	}
+
+	@Override
+	public boolean isAsyncSupported() {
+		return false;
+	}
+}
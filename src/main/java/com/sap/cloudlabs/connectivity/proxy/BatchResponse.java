@@ -0,0 +1,299 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import org.apache.http.impl.EnglishReasonPhraseCatalog;
+import org.apache.http.impl.cookie.DateUtils;
+
+/**
+ * Collects the response to a single request of a batch, so that it can be written as
+ * one part of the multipart batch response once it is complete. The content is
+ * buffered up to a maximum size; larger responses fail the part.
+ */
+class BatchResponse extends HttpServletResponseWrapper {
+
+	private static final String ISO_8859_1 = "ISO-8859-1";
+
+	/* headers which are replaced by the Content-Length of the buffered content */
+	private static final HeaderNameSet LENGTH_HEADERS = HeaderNameSet.of("content-length", "transfer-encoding");
+
+	private final int maxSize;
+
+	private final List<String> headerNames = new ArrayList<String>();
+
+	private final List<String> headerValues = new ArrayList<String>();
+
+	private final Buffer content = new Buffer();
+
+	private int status = SC_OK;
+
+	private PrintWriter writer;
+
+	/**
+	 * @param response
+	 *            the batch response
+	 * @param maxSize
+	 *            maximum size of the content in bytes
+	 */
+	BatchResponse(HttpServletResponse response, int maxSize) {
+		super(response);
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Replaces whatever has been collected so far by an error with the given status and
+	 * message.
+	 */
+	void fail(int status, String message) {
+		reset();
+		sendError(status, message);
+	}
+
+	/**
+	 * Writes the collected response as an <code>application/http</code> message.
+	 */
+	void writeTo(OutputStream out) throws IOException {
+		if (writer != null) {
+			writer.flush();
+		}
+		StringBuilder head = new StringBuilder();
+		String reason = EnglishReasonPhraseCatalog.INSTANCE.getReason(status, Locale.ENGLISH);
+		head.append("HTTP/1.1 ").append(status).append(' ').append(reason != null ? reason : "").append("\r\n");
+		for (int i = 0; i < headerNames.size(); i++) {
+			if (!LENGTH_HEADERS.contains(headerNames.get(i))) {
+				head.append(headerNames.get(i)).append(": ").append(headerValues.get(i)).append("\r\n");
+			}
+		}
+		head.append("Content-Length: ").append(content.size()).append("\r\n\r\n");
+		out.write(head.toString().getBytes(ISO_8859_1));
+		content.writeTo(out);
+	}
+
+	@Override
+	public void setStatus(int status) {
+		this.status = status;
+	}
+
+	@Override
+	@SuppressWarnings("deprecation")
+	public void setStatus(int status, String message) {
+		this.status = status;
+	}
+
+	@Override
+	public int getStatus() {
+		return status;
+	}
+
+	@Override
+	public void sendError(int status) {
+		sendError(status, null);
+	}
+
+	@Override
+	public void sendError(int status, String message) {
+		this.status = status;
+		resetBuffer();
+		if (message != null) {
+			setHeader("Content-Type", "text/plain; charset=UTF-8");
+			try {
+				byte[] bytes = message.getBytes("UTF-8");
+				content.append(bytes, 0, bytes.length);
+			} catch (IOException e) {
+				// the message does not fit, the status has to do
+			}
+		}
+	}
+
+	@Override
+	public void sendRedirect(String location) {
+		status = SC_FOUND;
+		setHeader("Location", location);
+	}
+
+	@Override
+	public void setHeader(String name, String value) {
+		removeHeader(name);
+		addHeader(name, value);
+	}
+
+	@Override
+	public void addHeader(String name, String value) {
+		headerNames.add(name);
+		headerValues.add(value);
+	}
+
+	@Override
+	public void setIntHeader(String name, int value) {
+		setHeader(name, String.valueOf(value));
+	}
+
+	@Override
+	public void addIntHeader(String name, int value) {
+		addHeader(name, String.valueOf(value));
+	}
+
+	@Override
+	public void setDateHeader(String name, long date) {
+		setHeader(name, DateUtils.formatDate(new Date(date)));
+	}
+
+	@Override
+	public void addDateHeader(String name, long date) {
+		addHeader(name, DateUtils.formatDate(new Date(date)));
+	}
+
+	@Override
+	public boolean containsHeader(String name) {
+		return getHeader(name) != null;
+	}
+
+	@Override
+	public String getHeader(String name) {
+		for (int i = 0; i < headerNames.size(); i++) {
+			if (headerNames.get(i).equalsIgnoreCase(name)) {
+				return headerValues.get(i);
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public Collection<String> getHeaders(String name) {
+		List<String> values = new ArrayList<String>();
+		for (int i = 0; i < headerNames.size(); i++) {
+			if (headerNames.get(i).equalsIgnoreCase(name)) {
+				values.add(headerValues.get(i));
+			}
+		}
+		return values;
+	}
+
+	@Override
+	public Collection<String> getHeaderNames() {
+		return new LinkedHashSet<String>(headerNames);
+	}
+
+	@Override
+	public void setContentType(String type) {
+		setHeader("Content-Type", type);
+	}
+
+	@Override
+	public String getContentType() {
+		return getHeader("Content-Type");
+	}
+
+	@Override
+	public void setContentLength(int length) {
+		// the length of the buffered content is sent
+	}
+
+	@Override
+	public ServletOutputStream getOutputStream() {
+		return new ServletOutputStream() {
+			@Override
+			public void write(int b) throws IOException {
+				content.append(b);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				content.append(b, off, len);
+			}
+		};
+	}
+
+	@Override
+	public PrintWriter getWriter() throws UnsupportedEncodingException {
+		if (writer == null) {
+			writer = new PrintWriter(new OutputStreamWriter(getOutputStream(), "UTF-8"));
+		}
+		return writer;
+	}
+
+	@Override
+	public boolean isCommitted() {
+		return false;
+	}
+
+	@Override
+	public void flushBuffer() {
+		// the content is written as a whole
+	}
+
+	@Override
+	public void resetBuffer() {
+		content.reset();
+	}
+
+	@Override
+	public void reset() {
+		status = SC_OK;
+		headerNames.clear();
+		headerValues.clear();
+		content.reset();
+	}
+
+	private void removeHeader(String name) {
+		for (int i = headerNames.size() - 1; i >= 0; i--) {
+			if (headerNames.get(i).equalsIgnoreCase(name)) {
+				headerNames.remove(i);
+				headerValues.remove(i);
+			}
+		}
+	}
+
+	/**
+	 * Content buffer which refuses to grow beyond the maximum size.
+	 */
+	private class Buffer extends ByteArrayOutputStream {
+
+		void append(int b) throws IOException {
+			ensureCapacity(1);
+			write(b);
+		}
+
+		void append(byte[] b, int off, int len) throws IOException {
+			ensureCapacity(len);
+			write(b, off, len);
+		}
+
+		private void ensureCapacity(int len) throws IOException {
+			if (count + len > maxSize) {
+				throw new IOException("Response of the batch part exceeds " + maxSize + " bytes");
+			}
+		}
+	}
+}
@@ -0,0 +1,174 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits the number of concurrent backend calls of a destination. Calls beyond the
+ * limit wait in a bounded queue for at most a maximum time; calls which find the queue
+ * full or time out are rejected. All limits can be changed at runtime.
+ */
+class Bulkhead {
+
+	private final ReentrantLock lock = new ReentrantLock();
+
+	private final Condition released = lock.newCondition();
+
+	private int limit;
+
+	private int maxQueue;
+
+	private long maxWaitMillis;
+
+	private int inFlight;
+
+	private int waiting;
+
+	/**
+	 * @param limit
+	 *            maximum number of concurrent calls
+	 * @param maxQueue
+	 *            maximum number of calls waiting for a permit
+	 * @param maxWaitMillis
+	 *            maximum time a call waits for a permit
+	 */
+	Bulkhead(int limit, int maxQueue, long maxWaitMillis) {
+		this.limit = Math.max(1, limit);
+		this.maxQueue = Math.max(0, maxQueue);
+		this.maxWaitMillis = Math.max(0, maxWaitMillis);
+	}
+
+	/**
+	 * Returns <code>true</code> if the call may proceed, in which case it has to
+	 * {@link #release()} its permit when it is done, or <code>false</code> if it is
+	 * rejected.
+	 */
+	boolean acquire() throws InterruptedException {
+		lock.lock();
+		try {
+			if (inFlight < limit) {
+				inFlight++;
+				return true;
+			}
+			if (waiting >= maxQueue) {
+				return false;
+			}
+			waiting++;
+			try {
+				long nanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+				while (inFlight >= limit) {
+					if (nanos <= 0) {
+						return false;
+					}
+					nanos = released.awaitNanos(nanos);
+				}
+				inFlight++;
+				return true;
+			} finally {
+				waiting--;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	void release() {
+		lock.lock();
+		try {
+			inFlight--;
+			released.signal();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	int getLimit() {
+		lock.lock();
+		try {
+			return limit;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	void setLimit(int limit) {
+		lock.lock();
+		try {
+			this.limit = Math.max(1, limit);
+			released.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	int getMaxQueue() {
+		lock.lock();
+		try {
+			return maxQueue;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	void setMaxQueue(int maxQueue) {
+		lock.lock();
+		try {
+			this.maxQueue = Math.max(0, maxQueue);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	long getMaxWait() {
+		lock.lock();
+		try {
+			return maxWaitMillis;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	void setMaxWait(long maxWaitMillis) {
+		lock.lock();
+		try {
+			this.maxWaitMillis = Math.max(0, maxWaitMillis);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	int getInFlight() {
+		lock.lock();
+		try {
+			return inFlight;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	int getWaiting() {
+		lock.lock();
+		try {
+			return waiting;
+		} finally {
+			lock.unlock();
+		}
+	}
+}
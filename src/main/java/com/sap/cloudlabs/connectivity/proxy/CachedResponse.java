@@ -0,0 +1,360 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.http.client.methods.HttpRequestBase;
+
+/**
+ * Immutable copy of a response as it was sent to the client, i.e. with already
+ * rewritten content. It is used to answer further requests for the same resource
+ * without calling the backend again.
+ */
+class CachedResponse {
+
+	private static final int COPY_BUFFER_SIZE = 8 * 1024;
+
+	private final int status;
+
+	private final String[] headerNames;
+
+	private final String[] headerValues;
+
+	private final ByteBuffer body;
+
+	private final String etag;
+
+	private final String lastModified;
+
+	private final String[] varyNames;
+
+	private final String[] varyValues;
+
+	/* time in milliseconds until which the response is fresh */
+	private final long expiresAt;
+
+	private CachedResponse(int status, String[] headerNames, String[] headerValues, ByteBuffer body, String[] varyNames,
+			String[] varyValues, long expiresAt) {
+		this.status = status;
+		this.headerNames = headerNames;
+		this.headerValues = headerValues;
+		this.body = body;
+		this.varyNames = varyNames;
+		this.varyValues = varyValues;
+		this.expiresAt = expiresAt;
+		this.etag = getHeader("ETag");
+		this.lastModified = getHeader("Last-Modified");
+	}
+
+	int getStatus() {
+		return status;
+	}
+
+	String getHeader(String name) {
+		for (int i = 0; i < headerNames.length; i++) {
+			if (headerNames[i].equalsIgnoreCase(name)) {
+				return headerValues[i];
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the number of bytes this response occupies in memory, approximately.
+	 */
+	int getSize() {
+		int size = body.capacity() + 128;
+		for (int i = 0; i < headerNames.length; i++) {
+			size += 2 * (headerNames[i].length() + headerValues[i].length()) + 32;
+		}
+		return size;
+	}
+
+	boolean isFresh() {
+		return System.currentTimeMillis() < expiresAt;
+	}
+
+	boolean hasValidators() {
+		return etag != null || lastModified != null;
+	}
+
+	/**
+	 * Returns <code>true</code> if the given request has the same values for all
+	 * headers the response varies on as the request this response was cached for.
+	 */
+	boolean matchesVary(HttpServletRequest request) {
+		for (int i = 0; i < varyNames.length; i++) {
+			String value = request.getHeader(varyNames[i]);
+			if (value == null ? varyValues[i] != null : !value.equals(varyValues[i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Makes the given backend request conditional, so that the backend answers with
+	 * 304 if this response is still valid. Nothing is added if the client sent
+	 * conditions of its own.
+	 * 
+	 * @return <code>true</code> if validators have been added
+	 */
+	boolean addValidators(HttpRequestBase backendRequest, HttpServletRequest request) {
+		if (request.getHeader("If-None-Match") != null || request.getHeader("If-Modified-Since") != null) {
+			return false;
+		}
+		if (etag != null) {
+			backendRequest.setHeader("If-None-Match", etag);
+		}
+		if (lastModified != null) {
+			backendRequest.setHeader("If-Modified-Since", lastModified);
+		}
+		return hasValidators();
+	}
+
+	/**
+	 * Returns a copy of this response which is fresh until the given time.
+	 */
+	CachedResponse withExpiry(long expiresAt) {
+		return new CachedResponse(status, headerNames, headerValues, body, varyNames, varyValues, expiresAt);
+	}
+
+	/**
+	 * Writes this response to the client. If the client already has this version of
+	 * the resource, only 304 - not modified is sent.
+	 * 
+	 * @return the number of content bytes written
+	 */
+	int writeTo(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		if (isNotModified(request)) {
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			if (etag != null) {
+				response.setHeader("ETag", etag);
+			}
+			return 0;
+		}
+
+		response.setStatus(status);
+		for (int i = 0; i < headerNames.length; i++) {
+			response.addHeader(headerNames[i], headerValues[i]);
+		}
+		response.setContentLength(body.remaining());
+
+		OutputStream out = response.getOutputStream();
+		if (body.hasArray()) {
+			out.write(body.array(), body.arrayOffset() + body.position(), body.remaining());
+		} else {
+			ByteBuffer content = body.duplicate();
+			byte[] buffer = new byte[Math.min(COPY_BUFFER_SIZE, content.remaining())];
+			while (content.hasRemaining()) {
+				int length = Math.min(buffer.length, content.remaining());
+				content.get(buffer, 0, length);
+				out.write(buffer, 0, length);
+			}
+		}
+		out.close();
+		return body.remaining();
+	}
+
+	private boolean isNotModified(HttpServletRequest request) {
+		String ifNoneMatch = request.getHeader("If-None-Match");
+		if (ifNoneMatch != null) {
+			return etag != null && (ifNoneMatch.trim().equals("*") || ifNoneMatch.contains(etag));
+		}
+		String ifModifiedSince = request.getHeader("If-Modified-Since");
+		return ifModifiedSince != null && ifModifiedSince.equals(lastModified);
+	}
+
+	/**
+	 * Records a response while it is written to the client. The content is only
+	 * recorded up to a maximum size; larger responses are not captured.
+	 */
+	static class Capture {
+		private final int maxSize;
+
+		private final String[] varyNames;
+
+		private final long expiresAt;
+
+		private final List<String> headers = new ArrayList<String>();
+
+		private int status;
+
+		private ByteArrayOutputStream content = new ByteArrayOutputStream();
+
+		/**
+		 * @param maxSize
+		 *            maximum size of the content in bytes
+		 * @param varyNames
+		 *            the request headers the response varies on
+		 * @param expiresAt
+		 *            the time in milliseconds until which the response is fresh
+		 */
+		Capture(int maxSize, String[] varyNames, long expiresAt) {
+			this.maxSize = maxSize;
+			this.varyNames = varyNames;
+			this.expiresAt = expiresAt;
+		}
+
+		void setStatus(int status) {
+			this.status = status;
+		}
+
+		/**
+		 * Records a header sent to the client. The content length is not recorded, as
+		 * it is set from the recorded content.
+		 */
+		void addHeader(String name, String value) {
+			if (!"content-length".equalsIgnoreCase(name)) {
+				headers.add(name);
+				headers.add(value);
+			}
+		}
+
+		/**
+		 * Replaces the recorded values of the given header.
+		 */
+		void setHeader(String name, String value) {
+			for (int i = headers.size() - 2; i >= 0; i -= 2) {
+				if (name.equalsIgnoreCase(headers.get(i))) {
+					headers.remove(i + 1);
+					headers.remove(i);
+				}
+			}
+			addHeader(name, value);
+		}
+
+		/**
+		 * Returns a stream which records everything written to the given stream.
+		 */
+		OutputStream wrap(OutputStream out) {
+			return new FilterOutputStream(out) {
+				@Override
+				public void write(int b) throws IOException {
+					out.write(b);
+					record(new byte[] { (byte) b }, 0, 1);
+				}
+
+				@Override
+				public void write(byte[] b, int off, int len) throws IOException {
+					out.write(b, off, len);
+					record(b, off, len);
+				}
+			};
+		}
+
+		boolean isComplete() {
+			return content != null;
+		}
+
+		/**
+		 * Returns a capture which records a response with both given captures, each of
+		 * which may be <code>null</code>.
+		 */
+		static Capture combine(final Capture first, final Capture second) {
+			if (first == null) {
+				return second;
+			}
+			if (second == null) {
+				return first;
+			}
+			return new Capture(0, null, 0) {
+				@Override
+				void setStatus(int status) {
+					first.setStatus(status);
+					second.setStatus(status);
+				}
+
+				@Override
+				void addHeader(String name, String value) {
+					first.addHeader(name, value);
+					second.addHeader(name, value);
+				}
+
+				@Override
+				void setHeader(String name, String value) {
+					first.setHeader(name, value);
+					second.setHeader(name, value);
+				}
+
+				@Override
+				OutputStream wrap(OutputStream out) {
+					return first.wrap(second.wrap(out));
+				}
+			};
+		}
+
+		/**
+		 * Returns the recorded response, or <code>null</code> if its content exceeded
+		 * the maximum size.
+		 * 
+		 * @param request
+		 *            the request the response was sent for
+		 * @param offHeap
+		 *            if the content should be stored outside of the Java heap
+		 */
+		CachedResponse toResponse(HttpServletRequest request, boolean offHeap) {
+			if (content == null) {
+				return null;
+			}
+			byte[] bytes = content.toByteArray();
+			ByteBuffer body;
+			if (offHeap) {
+				body = ByteBuffer.allocateDirect(bytes.length);
+				body.put(bytes);
+				body.flip();
+			} else {
+				body = ByteBuffer.wrap(bytes);
+			}
+
+			String[] varyValues = new String[varyNames.length];
+			for (int i = 0; i < varyNames.length; i++) {
+				varyValues[i] = request.getHeader(varyNames[i]);
+			}
+
+			int count = headers.size() / 2;
+			String[] headerNames = new String[count];
+			String[] headerValues = new String[count];
+			for (int i = 0; i < count; i++) {
+				headerNames[i] = headers.get(2 * i);
+				headerValues[i] = headers.get(2 * i + 1);
+			}
+			return new CachedResponse(status, headerNames, headerValues, body, varyNames, varyValues, expiresAt);
+		}
+
+		private void record(byte[] b, int off, int len) {
+			if (content == null) {
+				return;
+			}
+			if (content.size() + len > maxSize) {
+				content = null;
+			} else {
+				content.write(b, off, len);
+			}
+		}
+	}
+}
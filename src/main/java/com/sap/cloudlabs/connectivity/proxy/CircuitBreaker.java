@@ -0,0 +1,197 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy;
+
+/**
+ * Circuit breaker of a destination. While it is closed, the outcomes of the backend
+ * calls are counted in a sliding window of one-second buckets. It opens as soon as the
+ * share of failed or of slow calls in the window exceeds its threshold, and then
+ * rejects all calls for the open duration. Afterwards it is half-open and lets a few
+ * probe calls through: it closes if they all succeed and opens again otherwise.
+ */
+class CircuitBreaker {
+
+	enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	private final int failureRateThreshold;
+
+	private final int slowCallRateThreshold;
+
+	private final long slowCallNanos;
+
+	private final int minimumCalls;
+
+	private final long openMillis;
+
+	private final int halfOpenProbes;
+
+	/* second each bucket of the sliding window counts for */
+	private final long[] bucketSeconds;
+
+	private final int[] calls;
+
+	private final int[] failures;
+
+	private final int[] slowCalls;
+
+	private State state = State.CLOSED;
+
+	private long openUntil;
+
+	private int probesStarted;
+
+	private int probesSucceeded;
+
+	/**
+	 * @param failureRateThreshold
+	 *            percentage of failed calls at which the breaker opens
+	 * @param slowCallRateThreshold
+	 *            percentage of slow calls at which the breaker opens
+	 * @param slowCallMillis
+	 *            time after which a call counts as slow
+	 * @param minimumCalls
+	 *            minimum number of calls in the window before the breaker can open
+	 * @param windowSeconds
+	 *            length of the sliding window
+	 * @param openMillis
+	 *            time the breaker stays open before it lets probe calls through
+	 * @param halfOpenProbes
+	 *            number of probe calls which have to succeed to close the breaker
+	 */
+	CircuitBreaker(int failureRateThreshold, int slowCallRateThreshold, long slowCallMillis, int minimumCalls,
+			int windowSeconds, long openMillis, int halfOpenProbes) {
+		this.failureRateThreshold = failureRateThreshold;
+		this.slowCallRateThreshold = slowCallRateThreshold;
+		this.slowCallNanos = slowCallMillis * 1000000L;
+		this.minimumCalls = Math.max(1, minimumCalls);
+		this.openMillis = openMillis;
+		this.halfOpenProbes = Math.max(1, halfOpenProbes);
+
+		int buckets = Math.max(1, windowSeconds);
+		this.bucketSeconds = new long[buckets];
+		this.calls = new int[buckets];
+		this.failures = new int[buckets];
+		this.slowCalls = new int[buckets];
+	}
+
+	/**
+	 * Returns 0 if a call may proceed, in which case its outcome has to be recorded,
+	 * otherwise the time in milliseconds after which calls may be retried.
+	 */
+	synchronized long tryAcquire(long now) {
+		if (state == State.OPEN) {
+			if (now < openUntil) {
+				return openUntil - now;
+			}
+			state = State.HALF_OPEN;
+			probesStarted = 0;
+			probesSucceeded = 0;
+		}
+		if (state == State.HALF_OPEN) {
+			if (probesStarted >= halfOpenProbes) {
+				return 1000;
+			}
+			probesStarted++;
+		}
+		return 0;
+	}
+
+	/**
+	 * Records the outcome of a call which was let through.
+	 * 
+	 * @param backendNanos
+	 *            time the backend took to answer, -1 if it did not answer
+	 */
+	synchronized void record(boolean failed, long backendNanos, long now) {
+		boolean slow = backendNanos > slowCallNanos;
+		if (state == State.HALF_OPEN) {
+			if (failed || slow) {
+				open(now);
+			} else if (++probesSucceeded >= halfOpenProbes) {
+				close();
+			}
+			return;
+		}
+		if (state == State.OPEN) {
+			// a call which started before the breaker opened
+			return;
+		}
+
+		long second = now / 1000;
+		int index = (int) (second % bucketSeconds.length);
+		if (bucketSeconds[index] != second) {
+			bucketSeconds[index] = second;
+			calls[index] = 0;
+			failures[index] = 0;
+			slowCalls[index] = 0;
+		}
+		calls[index]++;
+		if (failed) {
+			failures[index]++;
+		}
+		if (slow) {
+			slowCalls[index]++;
+		}
+
+		int totalCalls = 0;
+		int totalFailures = 0;
+		int totalSlowCalls = 0;
+		for (int i = 0; i < bucketSeconds.length; i++) {
+			if (second - bucketSeconds[i] < bucketSeconds.length) {
+				totalCalls += calls[i];
+				totalFailures += failures[i];
+				totalSlowCalls += slowCalls[i];
+			}
+		}
+		if (totalCalls >= minimumCalls
+				&& (totalFailures * 100 >= failureRateThreshold * totalCalls || totalSlowCalls * 100 >= slowCallRateThreshold
+						* totalCalls)) {
+			open(now);
+		}
+	}
+
+	/**
+	 * Gives back the permit of a call which was let through but did not reach the
+	 * backend, so its outcome says nothing about the backend.
+	 */
+	synchronized void cancel() {
+		if (state == State.HALF_OPEN && probesStarted > 0) {
+			probesStarted--;
+		}
+	}
+
+	synchronized State getState() {
+		return state;
+	}
+
+	synchronized void open(long now) {
+		state = State.OPEN;
+		openUntil = now + openMillis;
+	}
+
+	synchronized void close() {
+		state = State.CLOSED;
+		for (int i = 0; i < bucketSeconds.length; i++) {
+			bucketSeconds[i] = 0;
+			calls[i] = 0;
+			failures[i] = 0;
+			slowCalls[i] = 0;
+		}
+	}
+}
@@ -0,0 +1,46 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates named daemon threads, so that background work of the proxy servlet never
+ * prevents the servlet container from shutting down.
+ */
+class DaemonThreadFactory implements ThreadFactory {
+
+	private final String name;
+
+	private final AtomicInteger count = new AtomicInteger();
+
+	/**
+	 * @param name
+	 *            name of the created threads, prefixed with
+	 *            <code>connectivity-proxy-</code> and suffixed with a counter
+	 */
+	DaemonThreadFactory(String name) {
+		this.name = "connectivity-proxy-" + name + "-";
+	}
+
+	public Thread newThread(Runnable r) {
+		Thread thread = new Thread(r, name + count.incrementAndGet());
+		thread.setDaemon(true);
+		return thread;
+	}
+}
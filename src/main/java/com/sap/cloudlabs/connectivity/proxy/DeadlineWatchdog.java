@@ -0,0 +1,82 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Aborts exchanges whose deadline has passed. A single background thread checks the
+ * watched exchanges periodically, so watching an exchange costs no more than adding it
+ * to and removing it from a concurrent map.
+ */
+class DeadlineWatchdog {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(DeadlineWatchdog.class);
+
+	/* how often the deadlines are checked, in milliseconds */
+	private static final long CHECK_INTERVAL = 100;
+
+	private final ConcurrentHashMap<ProxyExchange, Boolean> exchanges = new ConcurrentHashMap<ProxyExchange, Boolean>();
+
+	private final ScheduledExecutorService executor;
+
+	DeadlineWatchdog() {
+		executor = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("deadline-watchdog"));
+		executor.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				abortExpired();
+			}
+		}, CHECK_INTERVAL, CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Watches the given exchange until {@link #unwatch(ProxyExchange)} is called. The
+	 * exchange must have a deadline.
+	 */
+	void watch(ProxyExchange exchange) {
+		exchanges.put(exchange, Boolean.TRUE);
+	}
+
+	void unwatch(ProxyExchange exchange) {
+		exchanges.remove(exchange);
+	}
+
+	void shutdown() {
+		executor.shutdownNow();
+		exchanges.clear();
+	}
+
+	private void abortExpired() {
+		long now = System.nanoTime();
+		for (ProxyExchange exchange : exchanges.keySet()) {
+			if (now - exchange.getDeadline() >= 0) {
+				exchanges.remove(exchange);
+				try {
+					exchange.abortDeadlineExceeded();
+				} catch (RuntimeException e) {
+					LOGGER.error("Aborting backend call after its deadline failed", e);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,73 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.Deflater;
+
+/**
+ * Pool of raw (<code>nowrap</code>) deflaters with a fixed compression level, so that
+ * the native zlib state is reused across responses instead of being allocated and
+ * freed for each of them.
+ */
+class DeflaterPool {
+
+	private final int level;
+
+	private final BlockingQueue<Deflater> idle;
+
+	/**
+	 * @param level
+	 *            compression level from 1 (fastest) to 9 (best compression)
+	 * @param maxIdle
+	 *            maximum number of idle deflaters which are kept for reuse
+	 */
+	DeflaterPool(int level, int maxIdle) {
+		this.level = level;
+		this.idle = new ArrayBlockingQueue<Deflater>(Math.max(1, maxIdle));
+	}
+
+	/**
+	 * Returns an idle deflater or a new one if there is none. It has to be handed back
+	 * via {@link #release(Deflater)}.
+	 */
+	Deflater borrow() {
+		Deflater deflater = idle.poll();
+		return deflater != null ? deflater : new Deflater(level, true);
+	}
+
+	/**
+	 * Resets the given deflater and keeps it for reuse, or frees it if the pool is full.
+	 */
+	void release(Deflater deflater) {
+		deflater.reset();
+		if (!idle.offer(deflater)) {
+			deflater.end();
+		}
+	}
+
+	/**
+	 * Frees all idle deflaters.
+	 */
+	void shutdown() {
+		Deflater deflater;
+		while ((deflater = idle.poll()) != null) {
+			deflater.end();
+		}
+	}
+}
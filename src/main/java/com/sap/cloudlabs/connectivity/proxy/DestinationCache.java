@@ -0,0 +1,261 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sap.core.connectivity.api.DestinationException;
+import com.sap.core.connectivity.api.DestinationFactory;
+import com.sap.core.connectivity.api.configuration.ConnectivityConfiguration;
+import com.sap.core.connectivity.api.configuration.DestinationConfiguration;
+import com.sap.core.connectivity.api.http.HttpDestination;
+
+/**
+ * Caches resolved destinations for a configurable time to live, so that the
+ * <code>DestinationFactory</code> is not called for every request.
+ * <p>
+ * An entry which is used shortly before it expires is refreshed in the background,
+ * while requests keep on using the current entry. Only destinations which have not
+ * been used for a whole time to live are resolved synchronously again. If the URI or
+ * the configured properties of a destination, e.g. its proxy type or authentication,
+ * change on refresh, the pooled client of the destination is dropped.
+ * <p>
+ * If no <code>DestinationFactory</code> or <code>ConnectivityConfiguration</code> is
+ * given, it is looked up via JNDI when it is needed first. A failed lookup of the
+ * factory is repeated with the next destination to resolve. A failed lookup of the
+ * configuration is repeated at most once per minute, so that deployments without
+ * its resource reference do not pay for a JNDI lookup on every resolution. Without
+ * a <code>ConnectivityConfiguration</code>, only changed URIs are noticed.
+ */
+class DestinationCache {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(DestinationCache.class);
+
+	static final String CONNECTIVITY_CONFIGURATION_JNDI_NAME = "java:comp/env/connectivityConfiguration";
+
+	private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+	/* number of threads which refresh destinations in the background */
+	private static final int REFRESH_THREADS = 2;
+
+	private volatile DestinationFactory destinationFactory;
+
+	private volatile ConnectivityConfiguration connectivityConfiguration;
+
+	/* time in milliseconds before a failed lookup of the ConnectivityConfiguration is repeated */
+	static final long CONFIGURATION_LOOKUP_RETRY_MILLIS = 60000;
+
+	/* point in time before which the ConnectivityConfiguration is not looked up again */
+	private volatile long configurationLookupRetryAt;
+
+	private final HttpClientRegistry clientRegistry;
+
+	private final long ttlMillis;
+
+	private final long refreshAheadMillis;
+
+	private final ThreadPoolExecutor refresher;
+
+	/**
+	 * @param destinationFactory
+	 *            the factory destinations are resolved with, <code>null</code> to
+	 *            look it up via JNDI
+	 * @param connectivityConfiguration
+	 *            the configuration the properties of destinations are read from,
+	 *            <code>null</code> to look it up via JNDI
+	 * @param clientRegistry
+	 *            the registry whose clients are dropped if a destination changes
+	 * @param ttlSeconds
+	 *            time to live of a cache entry, 0 disables caching
+	 * @param refreshAheadSeconds
+	 *            time before expiry from which on an entry is refreshed in the
+	 *            background; at most half of the time to live
+	 */
+	DestinationCache(DestinationFactory destinationFactory, ConnectivityConfiguration connectivityConfiguration,
+			HttpClientRegistry clientRegistry, long ttlSeconds, long refreshAheadSeconds) {
+		this.destinationFactory = destinationFactory;
+		this.connectivityConfiguration = connectivityConfiguration;
+		this.clientRegistry = clientRegistry;
+		this.ttlMillis = TimeUnit.SECONDS.toMillis(ttlSeconds);
+		this.refreshAheadMillis = Math.min(TimeUnit.SECONDS.toMillis(refreshAheadSeconds), ttlMillis / 2);
+		// an entry is refreshed by one task at a time, so the queue holds at most one task per destination
+		this.refresher = new ThreadPoolExecutor(REFRESH_THREADS, REFRESH_THREADS, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new DaemonThreadFactory("destination-refresher"));
+		this.refresher.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Returns the destination with the given name.
+	 * 
+	 * @throws DestinationException
+	 *             if the destination cannot be resolved
+	 */
+	ResolvedDestination get(String destinationName) throws DestinationException {
+		if (ttlMillis <= 0) {
+			return load(destinationName);
+		}
+
+		Entry entry = entries.get(destinationName);
+		if (entry != null) {
+			long age = System.currentTimeMillis() - entry.destination.getLoadedAt();
+			if (age < ttlMillis) {
+				if (age >= ttlMillis - refreshAheadMillis) {
+					refreshAhead(destinationName, entry);
+				}
+				return entry.destination;
+			}
+		}
+
+		ResolvedDestination destination = load(destinationName);
+		update(destinationName, destination);
+		return destination;
+	}
+
+	/**
+	 * Removes the given destination from the cache, so that it is resolved again on
+	 * its next use.
+	 */
+	void invalidate(String destinationName) {
+		entries.remove(destinationName);
+		clientRegistry.invalidate(destinationName);
+	}
+
+	/**
+	 * Returns the factory destinations are resolved with, looking it up via JNDI if
+	 * none has been given.
+	 * 
+	 * @throws DestinationException
+	 *             if the lookup fails
+	 */
+	DestinationFactory getDestinationFactory() throws DestinationException {
+		DestinationFactory factory = destinationFactory;
+		if (factory == null) {
+			try {
+				factory = (DestinationFactory) new InitialContext().lookup(DestinationFactory.JNDI_NAME);
+			} catch (NamingException e) {
+				throw new DestinationException("Lookup of DestinationFactory " + DestinationFactory.JNDI_NAME + " failed: "
+						+ e.getMessage());
+			}
+			destinationFactory = factory;
+		}
+		return factory;
+	}
+
+	/**
+	 * Returns the configuration the properties of destinations are read from, looking
+	 * it up via JNDI if none has been given. A failed lookup is remembered and not
+	 * repeated before {@link #CONFIGURATION_LOOKUP_RETRY_MILLIS} have passed.
+	 * 
+	 * @return the configuration, <code>null</code> if it is not available
+	 */
+	ConnectivityConfiguration getConnectivityConfiguration() {
+		ConnectivityConfiguration configuration = connectivityConfiguration;
+		if (configuration == null) {
+			long now = System.currentTimeMillis();
+			if (now < configurationLookupRetryAt) {
+				return null;
+			}
+			try {
+				configuration = lookupConnectivityConfiguration();
+			} catch (NamingException e) {
+				configurationLookupRetryAt = now + CONFIGURATION_LOOKUP_RETRY_MILLIS;
+				LOGGER.info("Lookup of ConnectivityConfiguration {} failed, only URI changes of destinations are noticed: {}",
+						CONNECTIVITY_CONFIGURATION_JNDI_NAME, e.getMessage());
+				return null;
+			}
+			connectivityConfiguration = configuration;
+		}
+		return configuration;
+	}
+
+	ConnectivityConfiguration lookupConnectivityConfiguration() throws NamingException {
+		return (ConnectivityConfiguration) new InitialContext().lookup(CONNECTIVITY_CONFIGURATION_JNDI_NAME);
+	}
+
+	void shutdown() {
+		refresher.shutdownNow();
+		entries.clear();
+	}
+
+	private void refreshAhead(final String destinationName, final Entry entry) {
+		if (!entry.refreshing.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			refresher.execute(new Runnable() {
+				public void run() {
+					try {
+						update(destinationName, load(destinationName));
+					} catch (DestinationException e) {
+						// the entry expires as usual and the next request gets the error
+						LOGGER.error("Refreshing destination {} failed: {}", destinationName, e.getMessage());
+					} catch (RuntimeException e) {
+						LOGGER.error("Refreshing destination {} failed", destinationName, e);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			entry.refreshing.set(false);
+		}
+	}
+
+	private void update(String destinationName, ResolvedDestination destination) {
+		Entry previous = entries.put(destinationName, new Entry(destination));
+		if (previous != null && !previous.destination.getFingerprint().equals(destination.getFingerprint())) {
+			LOGGER.debug("configuration of destination {} changed", destinationName);
+			clientRegistry.invalidate(destinationName);
+		}
+	}
+
+	private ResolvedDestination load(String destinationName) throws DestinationException {
+		HttpDestination destination = (HttpDestination) getDestinationFactory().getDestination(destinationName);
+		if (destination == null) {
+			throw new DestinationException("Destination " + destinationName + " not found");
+		}
+		return new ResolvedDestination(destinationName, destination, getProperties(destinationName));
+	}
+
+	private Map<String, String> getProperties(String destinationName) {
+		ConnectivityConfiguration configuration = getConnectivityConfiguration();
+		if (configuration == null) {
+			return null;
+		}
+		DestinationConfiguration destinationConfiguration = configuration.getConfiguration(destinationName);
+		return destinationConfiguration != null ? destinationConfiguration.getAllProperties() : null;
+	}
+
+	private static class Entry {
+		final ResolvedDestination destination;
+		final AtomicBoolean refreshing = new AtomicBoolean();
+
+		Entry(ResolvedDestination destination) {
+			this.destination = destination;
+		}
+	}
+}
@@ -0,0 +1,229 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bulkhead and circuit breaker of a single destination, either of which may be off.
+ * <p>
+ * With an adaptive limit, the concurrency limit of the bulkhead follows the backend
+ * with an AIMD algorithm: it grows by one per limit's worth of calls which succeed
+ * within the target latency, and shrinks by a constant factor for every call which
+ * fails or exceeds it.
+ */
+class DestinationLimits implements DestinationLimitsMBean {
+
+	/* factor the adaptive limit shrinks with */
+	private static final double BACKOFF_RATIO = 0.9;
+
+	private final String destinationName;
+
+	private final Bulkhead bulkhead;
+
+	private final CircuitBreaker circuitBreaker;
+
+	private final boolean adaptive;
+
+	private final int minLimit;
+
+	private final long targetLatencyNanos;
+
+	/* upper bound of the concurrency limit, the limit itself if it is not adaptive */
+	private volatile int maxConcurrent;
+
+	private double adaptiveLimit;
+
+	private final AtomicLong rejected = new AtomicLong();
+
+	/**
+	 * @param bulkhead
+	 *            the bulkhead, <code>null</code> if concurrency is not limited
+	 * @param circuitBreaker
+	 *            the circuit breaker, <code>null</code> if there is none
+	 * @param adaptive
+	 *            <code>true</code> if the concurrency limit adapts to the backend
+	 * @param minLimit
+	 *            lower bound of the adaptive limit
+	 * @param targetLatencyMillis
+	 *            latency above which the adaptive limit shrinks
+	 */
+	DestinationLimits(String destinationName, Bulkhead bulkhead, CircuitBreaker circuitBreaker, boolean adaptive,
+			int minLimit, long targetLatencyMillis) {
+		this.destinationName = destinationName;
+		this.bulkhead = bulkhead;
+		this.circuitBreaker = circuitBreaker;
+		this.adaptive = adaptive && bulkhead != null;
+		this.minLimit = Math.max(1, minLimit);
+		this.targetLatencyNanos = targetLatencyMillis * 1000000L;
+		this.maxConcurrent = bulkhead != null ? bulkhead.getLimit() : 0;
+		this.adaptiveLimit = maxConcurrent;
+	}
+
+	String getDestinationName() {
+		return destinationName;
+	}
+
+	/**
+	 * Returns 0 if a backend call may proceed, in which case it has to be
+	 * {@link #release(boolean, boolean, long) released} when it is done, or the number of
+	 * seconds after which the rejected call may be retried.
+	 */
+	long acquire() throws InterruptedIOException {
+		if (circuitBreaker != null) {
+			long retryAfter = circuitBreaker.tryAcquire(System.currentTimeMillis());
+			if (retryAfter > 0) {
+				rejected.incrementAndGet();
+				return Math.max(1, (retryAfter + 999) / 1000);
+			}
+		}
+		if (bulkhead != null) {
+			boolean permitted;
+			try {
+				permitted = bulkhead.acquire();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				permitted = false;
+			}
+			if (!permitted) {
+				if (circuitBreaker != null) {
+					circuitBreaker.cancel();
+				}
+				rejected.incrementAndGet();
+				if (Thread.currentThread().isInterrupted()) {
+					throw new InterruptedIOException("Interrupted while waiting for destination " + destinationName);
+				}
+				return 1;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Hands back the permit of a backend call and records its outcome.
+	 * 
+	 * @param called
+	 *            <code>true</code> if the backend has been called, otherwise the call
+	 *            says nothing about the backend
+	 * @param failed
+	 *            <code>true</code> if the backend failed or did not answer
+	 * @param backendNanos
+	 *            time the backend took to answer, -1 if it did not answer
+	 */
+	void release(boolean called, boolean failed, long backendNanos) {
+		if (bulkhead != null) {
+			bulkhead.release();
+			if (adaptive && called) {
+				adapt(failed || backendNanos > targetLatencyNanos);
+			}
+		}
+		if (circuitBreaker != null) {
+			if (called) {
+				circuitBreaker.record(failed, backendNanos, System.currentTimeMillis());
+			} else {
+				circuitBreaker.cancel();
+			}
+		}
+	}
+
+	private synchronized void adapt(boolean overloaded) {
+		int max = maxConcurrent;
+		if (overloaded) {
+			adaptiveLimit = Math.max(minLimit, adaptiveLimit * BACKOFF_RATIO);
+		} else {
+			adaptiveLimit = Math.min(max, adaptiveLimit + 1 / adaptiveLimit);
+		}
+		int limit = (int) adaptiveLimit;
+		if (limit != bulkhead.getLimit()) {
+			bulkhead.setLimit(limit);
+		}
+	}
+
+	public int getMaxConcurrent() {
+		return maxConcurrent;
+	}
+
+	public synchronized void setMaxConcurrent(int maxConcurrent) {
+		if (bulkhead == null) {
+			throw new IllegalStateException("Concurrency of destination " + destinationName + " is not limited");
+		}
+		this.maxConcurrent = Math.max(1, maxConcurrent);
+		if (adaptive) {
+			adaptiveLimit = Math.min(adaptiveLimit, this.maxConcurrent);
+			bulkhead.setLimit((int) adaptiveLimit);
+		} else {
+			bulkhead.setLimit(this.maxConcurrent);
+		}
+	}
+
+	public int getMaxQueue() {
+		return bulkhead != null ? bulkhead.getMaxQueue() : 0;
+	}
+
+	public void setMaxQueue(int maxQueue) {
+		if (bulkhead != null) {
+			bulkhead.setMaxQueue(maxQueue);
+		}
+	}
+
+	public long getMaxWait() {
+		return bulkhead != null ? bulkhead.getMaxWait() : 0;
+	}
+
+	public void setMaxWait(long maxWait) {
+		if (bulkhead != null) {
+			bulkhead.setMaxWait(maxWait);
+		}
+	}
+
+	public boolean isAdaptive() {
+		return adaptive;
+	}
+
+	public int getCurrentLimit() {
+		return bulkhead != null ? bulkhead.getLimit() : 0;
+	}
+
+	public int getInFlight() {
+		return bulkhead != null ? bulkhead.getInFlight() : 0;
+	}
+
+	public int getWaiting() {
+		return bulkhead != null ? bulkhead.getWaiting() : 0;
+	}
+
+	public long getRejected() {
+		return rejected.get();
+	}
+
+	public String getCircuitState() {
+		return circuitBreaker != null ? circuitBreaker.getState().name() : "NONE";
+	}
+
+	public void openCircuit() {
+		if (circuitBreaker != null) {
+			circuitBreaker.open(System.currentTimeMillis());
+		}
+	}
+
+	public void closeCircuit() {
+		if (circuitBreaker != null) {
+			circuitBreaker.close();
+		}
+	}
+}
@@ -0,0 +1,53 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy;
+
+/**
+ * JMX view of the {@link DestinationLimits} of a single destination. The limits of the
+ * bulkhead can be changed at runtime; with an adaptive limit, the maximum concurrency
+ * is the upper bound the limit adapts within.
+ */
+public interface DestinationLimitsMBean {
+
+	int getMaxConcurrent();
+
+	void setMaxConcurrent(int maxConcurrent);
+
+	int getMaxQueue();
+
+	void setMaxQueue(int maxQueue);
+
+	long getMaxWait();
+
+	void setMaxWait(long maxWait);
+
+	boolean isAdaptive();
+
+	int getCurrentLimit();
+
+	int getInFlight();
+
+	int getWaiting();
+
+	long getRejected();
+
+	String getCircuitState();
+
+	void openCircuit();
+
+	void closeCircuit();
+}
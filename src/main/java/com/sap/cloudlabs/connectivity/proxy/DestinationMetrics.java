@@ -0,0 +1,221 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Request counters and latency histograms of a single destination.
+ * <p>
+ * The latency of a request is split into the phases of the proxy servlet: resolving
+ * the destination (lookup), waiting for the backend response headers, incl.
+ * connecting to the backend (backend), and reading, rewriting and writing the content
+ * (transfer). Rewriting and writing are streamed together and therefore measured as
+ * one phase.
+ */
+class DestinationMetrics implements DestinationMetricsMBean {
+
+	static final String[] PHASES = { "lookup", "backend", "transfer", "total" };
+
+	/* index of the backend phase in PHASES */
+	static final int BACKEND_PHASE = 1;
+
+	/* metric families of the text format with their types; all samples of a family 
+	 * are written as one group, see ProxyMetrics */
+	static final String[] FAMILIES = { 
+			"connectivity_proxy_requests_total counter", 
+			"connectivity_proxy_in_flight gauge",
+			"connectivity_proxy_bytes_in_total counter", 
+			"connectivity_proxy_bytes_out_total counter",
+			"connectivity_proxy_latency_seconds histogram" };
+
+	/* indexes of the families in FAMILIES */
+	static final int REQUESTS_FAMILY = 0;
+	static final int IN_FLIGHT_FAMILY = 1;
+	static final int BYTES_IN_FAMILY = 2;
+	static final int BYTES_OUT_FAMILY = 3;
+	static final int LATENCY_FAMILY = 4;
+
+	private final String destinationName;
+
+	/* index 0 counts failed requests, index n counts responses with status nxx */
+	private final StripedCounter[] statusCounts = new StripedCounter[6];
+
+	private final AtomicInteger inFlight = new AtomicInteger();
+
+	private final StripedCounter bytesIn = new StripedCounter();
+
+	private final StripedCounter bytesOut = new StripedCounter();
+
+	private final LatencyHistogram[] latencies = new LatencyHistogram[PHASES.length];
+
+	DestinationMetrics(String destinationName) {
+		this.destinationName = destinationName;
+		for (int i = 0; i < statusCounts.length; i++) {
+			statusCounts[i] = new StripedCounter();
+		}
+		for (int i = 0; i < latencies.length; i++) {
+			latencies[i] = new LatencyHistogram();
+		}
+	}
+
+	String getDestinationName() {
+		return destinationName;
+	}
+
+	void requestStarted() {
+		inFlight.incrementAndGet();
+	}
+
+	/**
+	 * Records a finished request.
+	 * 
+	 * @param status
+	 *            the status code sent to the client, or 0 if the request failed
+	 */
+	void requestFinished(ProxyExchange exchange, int status) {
+		inFlight.decrementAndGet();
+		int statusClass = status / 100;
+		statusCounts[statusClass > 0 && statusClass < 6 ? statusClass : 0].increment();
+		bytesIn.add(exchange.getBytesIn());
+		bytesOut.add(exchange.getBytesOut());
+		latencies[0].record(exchange.getLookupTime());
+		latencies[1].record(exchange.getBackendTime());
+		latencies[2].record(exchange.getTransferTime());
+		latencies[3].record(System.nanoTime() - exchange.getStartTime());
+	}
+
+	/**
+	 * Writes the samples of the given family, see {@link #FAMILIES}, in the Prometheus
+	 * text format. The caller writes the <code>TYPE</code> line of the family.
+	 */
+	void writeTo(PrintWriter writer, int family) {
+		String labels = "destination=\"" + destinationName.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+		switch (family) {
+		case REQUESTS_FAMILY:
+			writer.print("connectivity_proxy_requests_total{" + labels + ",status=\"error\"} " + getErrors() + "\n");
+			for (int i = 1; i < statusCounts.length; i++) {
+				writer.print("connectivity_proxy_requests_total{" + labels + ",status=\"" + i + "xx\"} " 
+						+ statusCounts[i].sum() + "\n");
+			}
+			break;
+		case IN_FLIGHT_FAMILY:
+			writer.print("connectivity_proxy_in_flight{" + labels + "} " + getInFlight() + "\n");
+			break;
+		case BYTES_IN_FAMILY:
+			writer.print("connectivity_proxy_bytes_in_total{" + labels + "} " + getBytesIn() + "\n");
+			break;
+		case BYTES_OUT_FAMILY:
+			writer.print("connectivity_proxy_bytes_out_total{" + labels + "} " + getBytesOut() + "\n");
+			break;
+		case LATENCY_FAMILY:
+			for (int phase = 0; phase < PHASES.length; phase++) {
+				String phaseLabels = labels + ",phase=\"" + PHASES[phase] + "\"";
+				long[] counts = latencies[phase].getCounts();
+				long cumulated = 0;
+				for (int i = 0; i < counts.length; i++) {
+					cumulated += counts[i];
+					String bound = i < counts.length - 1 ? String.valueOf(LatencyHistogram.getUpperBound(i) / 1000000.0) : "+Inf";
+					writer.print("connectivity_proxy_latency_seconds_bucket{" + phaseLabels + ",le=\"" + bound + "\"} " 
+							+ cumulated + "\n");
+				}
+				writer.print("connectivity_proxy_latency_seconds_sum{" + phaseLabels + "} " 
+						+ latencies[phase].getSum() / 1000000000.0 + "\n");
+				writer.print("connectivity_proxy_latency_seconds_count{" + phaseLabels + "} " + cumulated + "\n");
+			}
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown metric family " + family);
+		}
+	}
+
+	/**
+	 * Returns the latency histogram of the given phase, see {@link #PHASES}.
+	 */
+	LatencyHistogram getLatency(int phase) {
+		return latencies[phase];
+	}
+
+	public long getRequests() {
+		long requests = 0;
+		for (StripedCounter count : statusCounts) {
+			requests += count.sum();
+		}
+		return requests;
+	}
+
+	public long getErrors() {
+		return statusCounts[0].sum();
+	}
+
+	public long getResponses1xx() {
+		return statusCounts[1].sum();
+	}
+
+	public long getResponses2xx() {
+		return statusCounts[2].sum();
+	}
+
+	public long getResponses3xx() {
+		return statusCounts[3].sum();
+	}
+
+	public long getResponses4xx() {
+		return statusCounts[4].sum();
+	}
+
+	public long getResponses5xx() {
+		return statusCounts[5].sum();
+	}
+
+	public int getInFlight() {
+		return inFlight.get();
+	}
+
+	public long getBytesIn() {
+		return bytesIn.sum();
+	}
+
+	public long getBytesOut() {
+		return bytesOut.sum();
+	}
+
+	public double getLookupLatencyP99() {
+		return latencies[0].getPercentile(99);
+	}
+
+	public double getBackendLatencyP50() {
+		return latencies[1].getPercentile(50);
+	}
+
+	public double getBackendLatencyP99() {
+		return latencies[1].getPercentile(99);
+	}
+
+	public double getTransferLatencyP99() {
+		return latencies[2].getPercentile(99);
+	}
+
+	public double getTotalLatencyP50() {
+		return latencies[3].getPercentile(50);
+	}
+
+	public double getTotalLatencyP99() {
+		return latencies[3].getPercentile(99);
+	}
+}
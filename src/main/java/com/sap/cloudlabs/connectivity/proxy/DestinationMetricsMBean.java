@@ -0,0 +1,56 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy;
+
+/**
+ * JMX view of the {@link DestinationMetrics} of a single destination. Latencies are
+ * given in milliseconds, as upper bound of the histogram bucket they fall into.
+ */
+public interface DestinationMetricsMBean {
+
+	long getRequests();
+
+	long getErrors();
+
+	long getResponses1xx();
+
+	long getResponses2xx();
+
+	long getResponses3xx();
+
+	long getResponses4xx();
+
+	long getResponses5xx();
+
+	int getInFlight();
+
+	long getBytesIn();
+
+	long getBytesOut();
+
+	double getLookupLatencyP99();
+
+	double getBackendLatencyP50();
+
+	double getBackendLatencyP99();
+
+	double getTransferLatencyP99();
+
+	double getTotalLatencyP50();
+
+	double getTotalLatencyP99();
+}
@@ -0,0 +1,68 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy;
+
+import javax.servlet.ServletConfig;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Init parameters of the proxy servlet which can be overridden for a single
+ * destination by appending its name, e.g. <code>timeout.connect.northwind</code>
+ * overrides <code>timeout.connect</code> for the destination northwind.
+ */
+class DestinationParameters {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(DestinationParameters.class);
+
+	private final ServletConfig servletConfig;
+
+	DestinationParameters(ServletConfig servletConfig) {
+		this.servletConfig = servletConfig;
+	}
+
+	/**
+	 * Returns the value of the given parameter for the given destination,
+	 * <code>null</code> if it is neither set for the destination nor in general.
+	 */
+	String get(String name, String destinationName) {
+		String value = servletConfig.getInitParameter(name + "." + destinationName);
+		return value != null ? value : servletConfig.getInitParameter(name);
+	}
+
+	/**
+	 * Returns the value of the given parameter for the given destination as int, or the
+	 * default value if the parameter is not set or is not a number.
+	 */
+	int getInt(String name, String destinationName, int defaultValue) {
+		String value = get(name, destinationName);
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			LOGGER.error("Provided {} {} is not a number, using {}", name, value, defaultValue);
+			return defaultValue;
+		}
+	}
+
+	boolean getBoolean(String name, String destinationName) {
+		return Boolean.parseBoolean(get(name, destinationName));
+	}
+}
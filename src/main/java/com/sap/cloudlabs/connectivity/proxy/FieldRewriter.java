@@ -0,0 +1,134 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy;
+
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Creates the streams which rewrite URLs only in the fields of JSON and XML responses
+ * which are known to contain URLs, instead of anywhere in the content. Responses of
+ * other content types are not handled.
+ */
+class FieldRewriter {
+
+	/* URL fields of OData V2 verbose JSON and of OData V3 and V4 JSON */
+	static final String DEFAULT_JSON_FIELDS = "__metadata/uri, __metadata/media_src, __metadata/edit_media, "
+			+ "__deferred/uri, __next, odata.metadata, odata.nextLink, @odata.context, @odata.id, @odata.editLink, "
+			+ "@odata.readLink, @odata.nextLink, @odata.deltaLink, @odata.mediaReadLink, @odata.mediaEditLink";
+
+	static final String DEFAULT_XML_ATTRIBUTES = "href, src, xml:base";
+
+	/* id of Atom entries and feeds, uri of OData V2 links */
+	static final String DEFAULT_XML_ELEMENTS = "id, uri";
+
+	private static final MediaTypeSet JSON_TYPES = new MediaTypeSet("application/json");
+
+	private static final MediaTypeSet XML_TYPES = new MediaTypeSet(
+			"application/atom+xml, application/atomsvc+xml, application/xml, text/xml");
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private final byte[][] jsonNames;
+
+	private final int[] jsonFieldNames;
+
+	private final int[] jsonFieldParents;
+
+	private final byte[][] xmlAttributes;
+
+	private final byte[][] xmlElements;
+
+	/**
+	 * @param jsonFields
+	 *            comma separated list of JSON member names, optionally preceded by
+	 *            the name of their parent and a slash, e.g. <code>__deferred/uri</code>
+	 * @param xmlAttributes
+	 *            comma separated list of XML attribute names
+	 * @param xmlElements
+	 *            comma separated list of XML element names
+	 */
+	FieldRewriter(String jsonFields, String xmlAttributes, String xmlElements) {
+		List<String> names = new ArrayList<String>();
+		List<String> fields = split(jsonFields);
+		jsonFieldNames = new int[fields.size()];
+		jsonFieldParents = new int[fields.size()];
+		for (int i = 0; i < fields.size(); i++) {
+			String field = fields.get(i);
+			int slash = field.lastIndexOf('/');
+			jsonFieldNames[i] = indexOf(names, field.substring(slash + 1));
+			jsonFieldParents[i] = slash > 0 ? indexOf(names, field.substring(0, slash)) : -1;
+		}
+		this.jsonNames = encode(names);
+		this.xmlAttributes = encode(split(xmlAttributes));
+		this.xmlElements = encode(split(xmlElements));
+	}
+
+	/**
+	 * Returns a stream which rewrites the URL in the fields of content of the given
+	 * content type, <code>null</code> if content of that type is not handled.
+	 * 
+	 * @see FieldRewritingOutputStream#FieldRewritingOutputStream(OutputStream, String,
+	 *      String, String, boolean)
+	 */
+	OutputStream wrap(OutputStream out, String contentType, String rewriteUrl, String proxyUrl, String charset)
+			throws UnsupportedEncodingException {
+		if (JSON_TYPES.contains(contentType)) {
+			return new JsonFieldRewritingOutputStream(out, rewriteUrl, proxyUrl, charset, jsonNames, jsonFieldNames,
+					jsonFieldParents);
+		}
+		if (XML_TYPES.contains(contentType)) {
+			return new XmlFieldRewritingOutputStream(out, rewriteUrl, proxyUrl, charset, xmlAttributes, xmlElements);
+		}
+		return null;
+	}
+
+	private static int indexOf(List<String> names, String name) {
+		int index = names.indexOf(name);
+		if (index < 0) {
+			names.add(name);
+			index = names.size() - 1;
+		}
+		return index;
+	}
+
+	private static List<String> split(String list) {
+		List<String> values = new ArrayList<String>();
+		for (String value : list.split(",")) {
+			value = value.trim();
+			if (value.length() > 0) {
+				values.add(value);
+			}
+		}
+		return values;
+	}
+
+	/*
+	 * names are ASCII, so their UTF-8 bytes are the same in all charsets the
+	 * rewriting streams support
+	 */
+	private static byte[][] encode(List<String> names) {
+		byte[][] encoded = new byte[names.size()][];
+		for (int i = 0; i < encoded.length; i++) {
+			encoded[i] = names.get(i).getBytes(UTF_8);
+		}
+		return encoded;
+	}
+}
@@ -0,0 +1,239 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Output stream which rewrites a URL only at the beginning of the values of certain
+ * fields, e.g. of the <code>href</code> attributes of an XML document, while the
+ * content is written through it.
+ * <p>
+ * Subclasses tokenize the content just far enough to find the start of the values to
+ * rewrite. All other content is written through in the chunks it was written with,
+ * without copying it. Values are matched byte-wise against the encoded URL, so only a
+ * constant amount of memory is used, no matter how large the content is; the bytes of
+ * an incomplete match at the end of a <code>write</code> call are held back until it
+ * is clear whether they have to be replaced. As for
+ * {@link UrlRewritingOutputStream}, the charset of the content has to be
+ * ASCII-compatible.
+ */
+abstract class FieldRewritingOutputStream extends FilterOutputStream {
+
+	/* the bytes to search for at the beginning of a value */
+	private final byte[] pattern;
+
+	/* the bytes to write instead of the pattern */
+	private final byte[] replacement;
+
+	/* whether an escaped slash, i.e. a backslash and a slash, matches a slash of the pattern */
+	private final boolean escapedSlashes;
+
+	/* the replacement with escaped slashes, for values whose slashes are escaped */
+	private final byte[] escapedReplacement;
+
+	/* number of pattern bytes matched by the current value, -1 if no value is matched */
+	private int matched = -1;
+
+	/* the current match ended with a backslash, which has to be followed by a slash */
+	private boolean escapePending;
+
+	/* the current match contains escaped slashes */
+	private boolean escapedMatch;
+
+	/* bytes of the current match which were written by previous write calls */
+	private final byte[] held;
+
+	private int heldLength;
+
+	/* index of the first byte of the current match in the current write call */
+	private int matchStart;
+
+	/* index of the first byte of the current write call which is not written yet */
+	private int start;
+
+	/**
+	 * @param out
+	 *            the stream to write the rewritten content to
+	 * @param rewriteUrl
+	 *            the URL that should be rewritten
+	 * @param proxyUrl
+	 *            the URL that should replace the <code>rewriteUrl</code>
+	 * @param charset
+	 *            the charset of the content
+	 * @param escapedSlashes
+	 *            <code>true</code> if slashes of the URL may be escaped with a
+	 *            backslash, as in JSON strings; the URL is then replaced with an
+	 *            escaped URL as well
+	 */
+	FieldRewritingOutputStream(OutputStream out, String rewriteUrl, String proxyUrl, String charset,
+			boolean escapedSlashes) throws UnsupportedEncodingException {
+		super(out);
+		if (rewriteUrl.length() == 0) {
+			throw new IllegalArgumentException("URL to rewrite must not be empty");
+		}
+		this.pattern = rewriteUrl.getBytes(charset);
+		this.replacement = proxyUrl.getBytes(charset);
+		this.escapedSlashes = escapedSlashes;
+		this.escapedReplacement = escapedSlashes ? proxyUrl.replace("/", "\\/").getBytes(charset) : replacement;
+		this.held = new byte[escapedSlashes ? 2 * pattern.length : pattern.length];
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		int end = off + len;
+		start = off;
+		matchStart = off;
+		int i = off;
+		while (i < end) {
+			i = matched >= 0 ? match(b, i, end) : scan(b, i, end);
+		}
+		if (matched >= 0) {
+			// the matched bytes are held back until the match is complete or fails
+			writeSpan(b, matchStart);
+			System.arraycopy(b, matchStart, held, heldLength, end - matchStart);
+			heldLength += end - matchStart;
+		} else {
+			writeSpan(b, end);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		// an incomplete match at the end of the content is no match
+		if (heldLength > 0) {
+			out.write(held, 0, heldLength);
+			heldLength = 0;
+		}
+		matched = -1;
+		out.close();
+	}
+
+	/**
+	 * Tokenizes the content from the given index on, up to the start of a value to
+	 * rewrite or the end of the given bytes.
+	 * 
+	 * @return the index where tokenizing stopped, i.e. the end or the index passed to
+	 *         {@link #beginMatch(int)}
+	 */
+	abstract int scan(byte[] b, int i, int end);
+
+	/**
+	 * Marks the given index as the start of a value whose beginning is rewritten if it
+	 * matches the URL. Bytes of the value which are not part of the URL are passed to
+	 * {@link #scan(byte[], int, int)} again.
+	 */
+	final void beginMatch(int index) {
+		matched = 0;
+		matchStart = index;
+	}
+
+	/**
+	 * Called if a match fails right after a backslash, which the match consumed, so that
+	 * the byte at which tokenizing resumes is escaped.
+	 */
+	void escapeConsumed() {
+	}
+
+	private int match(byte[] b, int i, int end) throws IOException {
+		while (i < end) {
+			byte c = b[i];
+			if (escapePending) {
+				if (c != '/') {
+					return endMatch(i);
+				}
+				escapePending = false;
+				escapedMatch = true;
+			} else if (c != pattern[matched]) {
+				if (!escapedSlashes || c != '\\' || pattern[matched] != '/') {
+					return endMatch(i);
+				}
+				escapePending = true;
+				i++;
+				continue;
+			}
+			i++;
+			if (++matched == pattern.length) {
+				writeSpan(b, matchStart);
+				out.write(escapedMatch ? escapedReplacement : replacement);
+				start = i;
+				heldLength = 0;
+				matched = -1;
+				escapedMatch = false;
+				return i;
+			}
+		}
+		return i;
+	}
+
+	private int endMatch(int i) throws IOException {
+		// bytes matched by previous write calls are not part of this call's span
+		if (heldLength > 0) {
+			out.write(held, 0, heldLength);
+			heldLength = 0;
+		}
+		matched = -1;
+		escapedMatch = false;
+		if (escapePending) {
+			escapePending = false;
+			escapeConsumed();
+		}
+		return i;
+	}
+
+	private void writeSpan(byte[] b, int spanEnd) throws IOException {
+		if (spanEnd > start) {
+			out.write(b, start, spanEnd - start);
+		}
+		start = spanEnd;
+	}
+
+	/**
+	 * Returns the index of the name at the given region of the given bytes in the given
+	 * names, -1 if it is not contained or the length is negative.
+	 */
+	static int lookup(byte[][] names, byte[] b, int off, int length) {
+		for (int i = 0; i < names.length; i++) {
+			byte[] candidate = names[i];
+			if (candidate.length == length) {
+				int j = 0;
+				while (j < length && candidate[j] == b[off + j]) {
+					j++;
+				}
+				if (j == length) {
+					return i;
+				}
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns <code>true</code> if the given byte is whitespace in JSON and XML.
+	 */
+	static boolean isWhitespace(byte b) {
+		return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+	}
+}
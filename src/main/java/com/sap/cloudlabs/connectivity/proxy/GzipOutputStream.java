@@ -0,0 +1,218 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Output stream which gzip compresses the content written through it with a deflater
+ * from a {@link DeflaterPool}.
+ * <p>
+ * The first <code>minSize</code> bytes are held back. If the content ends before, it
+ * is written uncompressed, as compressing it would not pay off. Otherwise the
+ * <code>Content-Encoding</code> header is set on the response and the content is
+ * compressed from then on, so the response must not be committed before. A strong
+ * <code>ETag</code> of the response is made weak at the same time, as the compressed
+ * content is not byte for byte the content the backend tagged.
+ * <p>
+ * The deflater is returned to the pool when the stream is closed. If the content is
+ * not written completely, {@link #release()} has to be called instead.
+ */
+class GzipOutputStream extends FilterOutputStream {
+
+	private static final byte[] HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0 };
+
+	private final HttpServletResponse response;
+
+	private final DeflaterPool pool;
+
+	private final byte[] pending;
+
+	private int pendingCount;
+
+	private final CRC32 crc = new CRC32();
+
+	private final byte[] buffer = new byte[4 * 1024];
+
+	/* null until the compression starts and after it finished */
+	private Deflater deflater;
+
+	private boolean compressing;
+
+	/* the ETag set on the response when the compression started, null if there is none */
+	private String etag;
+
+	private boolean closed;
+
+	/**
+	 * @param out
+	 *            the stream to write the compressed content to
+	 * @param response
+	 *            the response the <code>Content-Encoding</code> header is set on
+	 * @param pool
+	 *            the pool to borrow the deflater from
+	 * @param minSize
+	 *            minimum size in bytes of content which is compressed
+	 */
+	GzipOutputStream(OutputStream out, HttpServletResponse response, DeflaterPool pool, int minSize) {
+		super(out);
+		this.response = response;
+		this.pool = pool;
+		this.pending = new byte[Math.max(0, minSize)];
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (!compressing) {
+			if (pendingCount + len <= pending.length) {
+				System.arraycopy(b, off, pending, pendingCount, len);
+				pendingCount += len;
+				return;
+			}
+			start();
+		}
+		deflate(b, off, len);
+	}
+
+	@Override
+	public void flush() throws IOException {
+		// held back content must not commit the response; data which the deflater
+		// holds back can only be flushed as of Java 7
+		if (compressing) {
+			out.flush();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			if (compressing) {
+				deflater.finish();
+				while (!deflater.finished()) {
+					writeDeflated();
+				}
+				writeTrailer();
+			} else {
+				out.write(pending, 0, pendingCount);
+			}
+		} finally {
+			if (deflater != null) {
+				pool.release(deflater);
+				deflater = null;
+			}
+			out.close();
+		}
+	}
+
+	/**
+	 * Returns <code>true</code> if the content is compressed, i.e. the
+	 * <code>Content-Encoding</code> header has been set.
+	 */
+	boolean isCompressing() {
+		return compressing;
+	}
+
+	/**
+	 * Returns the weak <code>ETag</code> set on the response when the compression
+	 * started, or <code>null</code> if the response has none or is not compressed.
+	 */
+	String getETag() {
+		return etag;
+	}
+
+	/**
+	 * Returns the deflater to its pool without finishing the content, e.g. because the
+	 * backend or the client aborted the response. Does nothing if the stream has been
+	 * closed already.
+	 */
+	void release() {
+		closed = true;
+		if (deflater != null) {
+			pool.release(deflater);
+			deflater = null;
+		}
+	}
+
+	private void start() throws IOException {
+		response.setHeader("Content-Encoding", "gzip");
+		etag = toWeakETag(response.getHeader("ETag"));
+		if (etag != null) {
+			response.setHeader("ETag", etag);
+		}
+		compressing = true;
+		deflater = pool.borrow();
+		out.write(HEADER);
+		deflate(pending, 0, pendingCount);
+	}
+
+	private void deflate(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return;
+		}
+		crc.update(b, off, len);
+		deflater.setInput(b, off, len);
+		while (!deflater.needsInput()) {
+			writeDeflated();
+		}
+	}
+
+	private void writeDeflated() throws IOException {
+		int length = deflater.deflate(buffer, 0, buffer.length);
+		if (length > 0) {
+			out.write(buffer, 0, length);
+		}
+	}
+
+	private void writeTrailer() throws IOException {
+		byte[] trailer = new byte[8];
+		writeInt((int) crc.getValue(), trailer, 0);
+		writeInt(deflater.getTotalIn(), trailer, 4);
+		out.write(trailer);
+	}
+
+	/**
+	 * Returns the given entity tag as weak one, <code>null</code> if there is none.
+	 */
+	static String toWeakETag(String etag) {
+		if (etag == null || etag.startsWith("W/")) {
+			return etag;
+		}
+		return "W/" + etag;
+	}
+
+	private static void writeInt(int value, byte[] b, int off) {
+		b[off] = (byte) value;
+		b[off + 1] = (byte) (value >> 8);
+		b[off + 2] = (byte) (value >> 16);
+		b[off + 3] = (byte) (value >> 24);
+	}
+}
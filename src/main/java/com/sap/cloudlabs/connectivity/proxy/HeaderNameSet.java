@@ -0,0 +1,108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Immutable set of HTTP header names with a case-insensitive lookup, which neither
+ * lowercases nor otherwise allocates when it is queried.
+ * <p>
+ * The names are kept in an open addressing hash table. The hash of a name is
+ * computed over its ASCII-lowercased characters, which is sufficient as header names
+ * are ASCII tokens.
+ */
+final class HeaderNameSet {
+
+	static final HeaderNameSet EMPTY = new HeaderNameSet(Arrays.<String> asList());
+
+	private final String[] table;
+
+	private final int mask;
+
+	private final int size;
+
+	HeaderNameSet(Collection<String> names) {
+		int capacity = 8;
+		while (capacity < names.size() * 2) {
+			capacity <<= 1;
+		}
+		table = new String[capacity];
+		mask = capacity - 1;
+
+		int count = 0;
+		for (String name : names) {
+			if (name == null) {
+				continue;
+			}
+			name = name.trim().toLowerCase();
+			if (name.length() > 0 && !contains(name)) {
+				int index = hash(name) & mask;
+				while (table[index] != null) {
+					index = (index + 1) & mask;
+				}
+				table[index] = name;
+				count++;
+			}
+		}
+		size = count;
+	}
+
+	static HeaderNameSet of(String... names) {
+		return new HeaderNameSet(Arrays.asList(names));
+	}
+
+	/**
+	 * Returns <code>true</code> if the set contains the given header name, ignoring
+	 * case.
+	 */
+	boolean contains(String name) {
+		if (name == null) {
+			return false;
+		}
+		int index = hash(name) & mask;
+		String candidate;
+		while ((candidate = table[index]) != null) {
+			if (candidate.equalsIgnoreCase(name)) {
+				return true;
+			}
+			index = (index + 1) & mask;
+		}
+		return false;
+	}
+
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	int size() {
+		return size;
+	}
+
+	private static int hash(String name) {
+		int h = 0;
+		for (int i = 0, length = name.length(); i < length; i++) {
+			char c = name.charAt(i);
+			if (c >= 'A' && c <= 'Z') {
+				c += 'a' - 'A';
+			}
+			h = 31 * h + c;
+		}
+		return h ^ (h >>> 16);
+	}
+}
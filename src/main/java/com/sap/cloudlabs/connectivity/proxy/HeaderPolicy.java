@@ -0,0 +1,122 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Decides which headers of a request are forwarded to the backend and which headers
+ * of a backend response are forwarded to the client.
+ * <p>
+ * The policy is compiled once from the defaults, the init parameters of the proxy
+ * servlet and the lists of an optional {@link SecurityHandler}. A header passes if it
+ * is not denied and, in case an allow list is configured, if it is allowed. Denied
+ * headers always win over allowed ones.
+ */
+class HeaderPolicy {
+
+	/* headers which are never forwarded in a backend request */
+	static final String[] BLOCKED_REQUEST_HEADERS = { "host", "content-length", "transfer-encoding", "sap_sessionid",
+			"mysapsso2", "jsessionid" };
+
+	private final HeaderNameSet requestDeny;
+
+	private final HeaderNameSet requestAllow;
+
+	private final HeaderNameSet responseDeny;
+
+	private final HeaderNameSet responseAllow;
+
+	/**
+	 * @param requestDeny
+	 *            comma separated list of request headers which are not forwarded to the
+	 *            backend in addition to the {@link #BLOCKED_REQUEST_HEADERS}, may be
+	 *            <code>null</code>
+	 * @param requestAllow
+	 *            comma separated list of the only request headers which are forwarded,
+	 *            <code>null</code> to forward all headers which are not denied
+	 * @param responseDeny
+	 *            comma separated list of response headers which are not forwarded to
+	 *            the client, may be <code>null</code>
+	 * @param responseAllow
+	 *            comma separated list of the only response headers which are forwarded,
+	 *            <code>null</code> to forward all headers which are not denied
+	 * @param securityHandler
+	 *            optional handler which contributes further headers, may be
+	 *            <code>null</code>
+	 */
+	HeaderPolicy(String requestDeny, String requestAllow, String responseDeny, String responseAllow,
+			SecurityHandler securityHandler) {
+		List<String> requestDenyNames = split(requestDeny);
+		requestDenyNames.addAll(Arrays.asList(BLOCKED_REQUEST_HEADERS));
+		List<String> requestAllowNames = split(requestAllow);
+		List<String> responseDenyNames = split(responseDeny);
+		List<String> responseAllowNames = split(responseAllow);
+
+		if (securityHandler != null) {
+			// the black list has always been applied to requests, as documented it
+			// applies to responses as well
+			addAll(requestDenyNames, securityHandler.getResponseHeadersBlackList());
+			addAll(responseDenyNames, securityHandler.getResponseHeadersBlackList());
+			addAll(requestDenyNames, securityHandler.getRequestHeadersBlackList());
+			addAll(requestAllowNames, securityHandler.getRequestHeadersWhiteList());
+			addAll(responseAllowNames, securityHandler.getResponseHeadersWhiteList());
+		}
+
+		this.requestDeny = new HeaderNameSet(requestDenyNames);
+		this.requestAllow = new HeaderNameSet(requestAllowNames);
+		this.responseDeny = new HeaderNameSet(responseDenyNames);
+		this.responseAllow = new HeaderNameSet(responseAllowNames);
+	}
+
+	/**
+	 * Returns <code>true</code> if the request header with the given name is forwarded
+	 * to the backend.
+	 */
+	boolean isRequestHeaderAllowed(String name) {
+		return !requestDeny.contains(name) && (requestAllow.isEmpty() || requestAllow.contains(name));
+	}
+
+	/**
+	 * Returns <code>true</code> if the backend response header with the given name is
+	 * forwarded to the client.
+	 */
+	boolean isResponseHeaderAllowed(String name) {
+		return !responseDeny.contains(name) && (responseAllow.isEmpty() || responseAllow.contains(name));
+	}
+
+	private static void addAll(List<String> names, List<String> additionalNames) {
+		if (additionalNames != null) {
+			names.addAll(additionalNames);
+		}
+	}
+
+	private static List<String> split(String list) {
+		List<String> values = new ArrayList<String>();
+		if (list != null) {
+			for (String value : list.split(",")) {
+				value = value.trim();
+				if (value.length() > 0) {
+					values.add(value);
+				}
+			}
+		}
+		return values;
+	}
+}
@@ -0,0 +1,216 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.client.HttpClient;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sap.core.connectivity.api.DestinationException;
+
+/**
+ * Keeps one reusable <code>HttpClient</code> per destination, so that backend
+ * connections (and their TLS sessions) are kept alive between requests instead of
+ * being opened and shut down for every proxied call.
+ * <p>
+ * A client is only pooled if the destination hands out a client with a thread-safe
+ * connection manager. Otherwise the registry falls back to the old behavior and
+ * the client is shut down on {@link #release(HttpClient)}.
+ * <p>
+ * Cached clients are replaced as soon as the URI or the configuration of their
+ * destination changes, see {@link ResolvedDestination#getFingerprint()}. Clients are
+ * created under a lock per destination, so a destination which is slow to create its
+ * client does not hold up the others. Idle and expired connections of all pooled
+ * clients are closed periodically by a background thread.
+ */
+class HttpClientRegistry {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(HttpClientRegistry.class);
+
+	private final ConcurrentHashMap<String, PooledClient> clients = new ConcurrentHashMap<String, PooledClient>();
+
+	private final ConcurrentHashMap<String, Object> locks = new ConcurrentHashMap<String, Object>();
+
+	private final int maxTotal;
+
+	private final int maxPerRoute;
+
+	private final long idleTimeoutSeconds;
+
+	private final ScheduledExecutorService evictor;
+
+	/**
+	 * @param maxTotal
+	 *            maximum number of connections per destination
+	 * @param maxPerRoute
+	 *            maximum number of connections per backend route
+	 * @param idleTimeoutSeconds
+	 *            time after which idle connections are closed
+	 */
+	HttpClientRegistry(int maxTotal, int maxPerRoute, long idleTimeoutSeconds) {
+		this.maxTotal = maxTotal;
+		this.maxPerRoute = maxPerRoute;
+		this.idleTimeoutSeconds = idleTimeoutSeconds;
+
+		this.evictor = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("connection-evictor"));
+		long period = Math.max(1, idleTimeoutSeconds / 2);
+		evictor.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				evictIdleConnections();
+			}
+		}, period, period, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Returns the client for the given destination, creating it if there is none yet
+	 * or if the destination configuration changed since the client was created. The
+	 * returned client has to be handed back via {@link #release(HttpClient)}.
+	 */
+	HttpClient acquire(ResolvedDestination destination) throws DestinationException {
+		String destinationName = destination.getName();
+		String fingerprint = destination.getFingerprint();
+		PooledClient pooled = clients.get(destinationName);
+		if (pooled != null && pooled.fingerprint.equals(fingerprint)) {
+			return pooled.client;
+		}
+
+		synchronized (getLock(destinationName)) {
+			pooled = clients.get(destinationName);
+			if (pooled != null && pooled.fingerprint.equals(fingerprint)) {
+				return pooled.client;
+			}
+
+			HttpClient client = destination.getDestination().createHttpClient();
+			if (!isPoolable(client)) {
+				LOGGER.debug("HttpClient of destination {} is not thread-safe, it will not be pooled", destinationName);
+				return client;
+			}
+			configure(client);
+
+			PooledClient previous = clients.put(destinationName, new PooledClient(client, fingerprint));
+			if (previous != null) {
+				LOGGER.debug("configuration of destination {} changed, replacing pooled HttpClient", destinationName);
+				shutdownLater(previous.client);
+			}
+			return client;
+		}
+	}
+
+	/**
+	 * Hands back a client obtained via {@link #acquire(ResolvedDestination)}. Pooled
+	 * clients stay open, all others are shut down.
+	 */
+	void release(HttpClient client) {
+		if (client != null && !isPoolable(client)) {
+			client.getConnectionManager().shutdown();
+		}
+	}
+
+	/**
+	 * Drops the pooled client of the given destination, e.g. because the destination
+	 * has been removed or reconfigured.
+	 */
+	void invalidate(String destinationName) {
+		PooledClient previous = clients.remove(destinationName);
+		if (previous != null) {
+			shutdownLater(previous.client);
+		}
+	}
+
+	/**
+	 * Shuts down all pooled clients and the eviction thread.
+	 */
+	void shutdown() {
+		evictor.shutdownNow();
+		for (PooledClient pooled : clients.values()) {
+			pooled.client.getConnectionManager().shutdown();
+		}
+		clients.clear();
+	}
+
+	/*
+	 * locks are kept for the lifetime of the registry, removing them could let two
+	 * threads create a client for the same destination at the same time
+	 */
+	private Object getLock(String destinationName) {
+		Object lock = locks.get(destinationName);
+		if (lock == null) {
+			Object newLock = new Object();
+			lock = locks.putIfAbsent(destinationName, newLock);
+			if (lock == null) {
+				lock = newLock;
+			}
+		}
+		return lock;
+	}
+
+	private void configure(HttpClient client) {
+		ThreadSafeClientConnManager connectionManager = (ThreadSafeClientConnManager) client.getConnectionManager();
+		connectionManager.setMaxTotal(maxTotal);
+		connectionManager.setDefaultMaxPerRoute(maxPerRoute);
+	}
+
+	private void evictIdleConnections() {
+		for (PooledClient pooled : clients.values()) {
+			try {
+				ClientConnectionManager connectionManager = pooled.client.getConnectionManager();
+				connectionManager.closeExpiredConnections();
+				connectionManager.closeIdleConnections(idleTimeoutSeconds, TimeUnit.SECONDS);
+			} catch (RuntimeException e) {
+				LOGGER.error("Closing idle backend connections failed", e);
+			}
+		}
+	}
+
+	/*
+	 * requests which are still running on a replaced client get the chance
+	 * to finish before its connections are closed
+	 */
+	private void shutdownLater(final HttpClient client) {
+		try {
+			evictor.schedule(new Runnable() {
+				public void run() {
+					client.getConnectionManager().shutdown();
+				}
+			}, idleTimeoutSeconds, TimeUnit.SECONDS);
+		} catch (RuntimeException e) {
+			// evictor is already shut down
+			client.getConnectionManager().shutdown();
+		}
+	}
+
+	static boolean isPoolable(HttpClient client) {
+		return client.getConnectionManager() instanceof ThreadSafeClientConnManager;
+	}
+
+	private static class PooledClient {
+		final HttpClient client;
+		final String fingerprint;
+
+		PooledClient(HttpClient client, String fingerprint) {
+			this.client = client;
+			this.fingerprint = fingerprint;
+		}
+	}
+}
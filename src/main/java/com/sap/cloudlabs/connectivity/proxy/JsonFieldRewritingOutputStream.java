@@ -0,0 +1,231 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy;
+
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Rewrites the URL at the beginning of the string values of certain members of a JSON
+ * document, e.g. <code>uri</code> in <code>__metadata</code> objects of OData
+ * responses, and leaves all other values unchanged.
+ * <p>
+ * A field is given by the name of the member, optionally preceded by the name of the
+ * member whose value contains it, e.g. <code>__metadata/uri</code>. Objects in an
+ * array count as values of the member of the array. URLs whose slashes are escaped,
+ * e.g. <code>http:\/\/host\/</code>, are matched as well and replaced with an escaped
+ * URL; other escaped characters in a URL prevent it from being rewritten.
+ */
+class JsonFieldRewritingOutputStream extends FieldRewritingOutputStream {
+
+	/* member names which are longer cannot be fields */
+	private static final int MAX_NAME_LENGTH = 64;
+
+	/* names of the fields and of their parents */
+	private final byte[][] names;
+
+	/* per field: index of its name and of the name of its parent, -1 for any parent */
+	private final int[] fieldNames;
+
+	private final int[] fieldParents;
+
+	private final byte[] key = new byte[MAX_NAME_LENGTH];
+
+	/* length of the current member name kept in key, -1 if it is too long or escaped */
+	private int keyLength;
+
+	/* index of the name of the current member, -1 if it is none of the names */
+	private int keyId = -1;
+
+	private boolean inString;
+
+	private boolean inKey;
+
+	private boolean escaped;
+
+	private boolean expectKey;
+
+	/* the next string value is rewritten */
+	private boolean rewriteValue;
+
+	/* per open object or array: whether it is an object, and the index of its name */
+	private boolean[] objects = new boolean[16];
+
+	private int[] containerNames = new int[16];
+
+	private int depth;
+
+	/**
+	 * @param names
+	 *            names of the fields and of their parents, encoded with the charset
+	 * @param fieldNames
+	 *            per field, the index of its name in <code>names</code>
+	 * @param fieldParents
+	 *            per field, the index of the name of its parent in
+	 *            <code>names</code>, -1 if its parent does not matter
+	 * @see FieldRewritingOutputStream#FieldRewritingOutputStream(OutputStream, String,
+	 *      String, String, boolean)
+	 */
+	JsonFieldRewritingOutputStream(OutputStream out, String rewriteUrl, String proxyUrl, String charset, byte[][] names,
+			int[] fieldNames, int[] fieldParents) throws UnsupportedEncodingException {
+		super(out, rewriteUrl, proxyUrl, charset, true);
+		this.names = names;
+		this.fieldNames = fieldNames;
+		this.fieldParents = fieldParents;
+	}
+
+	@Override
+	int scan(byte[] b, int i, int end) {
+		// the state is kept in local variables while scanning, so that it can stay in registers
+		boolean inString = this.inString;
+		boolean expectKey = this.expectKey;
+		boolean rewriteValue = this.rewriteValue;
+		try {
+			while (i < end) {
+				byte c = b[i];
+				if (inString) {
+					if (escaped) {
+						escaped = false;
+						i++;
+						continue;
+					}
+					// skip to the end of the string or the next escape, a member name is looked up in place
+					int start = i;
+					while (c != '"' && c != '\\') {
+						if (++i == end) {
+							if (inKey) {
+								appendKey(b, start, end - start);
+							}
+							return end;
+						}
+						c = b[i];
+					}
+					if (c == '\\') {
+						escaped = true;
+						if (inKey) {
+							// names with escapes are none of the configured names
+							keyLength = -1;
+						}
+					} else {
+						inString = false;
+						if (inKey) {
+							inKey = false;
+							if (keyLength == 0) {
+								keyId = lookup(names, b, start, i - start);
+							} else {
+								appendKey(b, start, i - start);
+								keyId = lookup(names, key, 0, keyLength);
+							}
+						}
+					}
+				} else if (c == '"') {
+					inString = true;
+					if (expectKey) {
+						inKey = true;
+						keyLength = 0;
+					} else if (rewriteValue) {
+						rewriteValue = false;
+						beginMatch(i + 1);
+						return i + 1;
+					}
+				} else if (c == ':') {
+					expectKey = false;
+					rewriteValue = keyId >= 0 && isField(keyId, depth > 0 ? containerNames[depth - 1] : -1);
+				} else if (c == ',') {
+					expectKey = depth > 0 && objects[depth - 1];
+					rewriteValue = false;
+				} else if (c == '{' || c == '[') {
+					push(c == '{', getValueName());
+					expectKey = c == '{';
+					keyId = -1;
+					rewriteValue = false;
+				} else if (c == '}' || c == ']') {
+					if (depth > 0) {
+						depth--;
+					}
+					expectKey = false;
+					rewriteValue = false;
+				} else if (!isWhitespace(c)) {
+					// number, true, false or null
+					rewriteValue = false;
+				}
+				i++;
+			}
+			return end;
+		} finally {
+			this.inString = inString;
+			this.expectKey = expectKey;
+			this.rewriteValue = rewriteValue;
+		}
+	}
+
+	@Override
+	void escapeConsumed() {
+		escaped = true;
+	}
+
+	/*
+	 * keeps the part of a member name which is split across write calls
+	 */
+	private void appendKey(byte[] b, int off, int len) {
+		if (keyLength >= 0) {
+			if (keyLength + len <= MAX_NAME_LENGTH) {
+				System.arraycopy(b, off, key, keyLength, len);
+				keyLength += len;
+			} else {
+				keyLength = -1;
+			}
+		}
+	}
+
+	/*
+	 * the name of a value is the name of its member, or the name of the array
+	 * it is an element of
+	 */
+	private int getValueName() {
+		if (depth == 0) {
+			return -1;
+		}
+		return objects[depth - 1] ? keyId : containerNames[depth - 1];
+	}
+
+	private void push(boolean object, int name) {
+		if (depth == objects.length) {
+			boolean[] newObjects = new boolean[depth * 2];
+			System.arraycopy(objects, 0, newObjects, 0, depth);
+			objects = newObjects;
+			int[] newNames = new int[depth * 2];
+			System.arraycopy(containerNames, 0, newNames, 0, depth);
+			containerNames = newNames;
+		}
+		objects[depth] = object;
+		containerNames[depth] = name;
+		depth++;
+	}
+
+	private boolean isField(int name, int parent) {
+		if (name < 0) {
+			return false;
+		}
+		for (int i = 0; i < fieldNames.length; i++) {
+			if (fieldNames[i] == name && (fieldParents[i] < 0 || fieldParents[i] == parent)) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,114 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of latencies with exponential buckets: bucket <i>i</i> counts
+ * latencies below 2<sup><i>i</i></sup> microseconds. Recording does not allocate and
+ * updates a striped counter, so concurrent requests hardly contend.
+ */
+class LatencyHistogram {
+
+	/* the last bucket holds everything from about 18 minutes on */
+	static final int BUCKETS = 31;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS * StripedCounter.STRIPES);
+
+	private final StripedCounter sum = new StripedCounter();
+
+	/**
+	 * Records the given latency in nanoseconds; negative values are ignored.
+	 */
+	void record(long nanos) {
+		if (nanos < 0) {
+			return;
+		}
+		counts.incrementAndGet(StripedCounter.stripe() * BUCKETS + bucket(nanos));
+		sum.add(nanos);
+	}
+
+	/**
+	 * Returns the number of latencies per bucket.
+	 */
+	long[] getCounts() {
+		long[] result = new long[BUCKETS];
+		for (int stripe = 0; stripe < StripedCounter.STRIPES; stripe++) {
+			for (int i = 0; i < BUCKETS; i++) {
+				result[i] += counts.get(stripe * BUCKETS + i);
+			}
+		}
+		return result;
+	}
+
+	long getCount() {
+		long count = 0;
+		for (long bucketCount : getCounts()) {
+			count += bucketCount;
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the sum of all recorded latencies in nanoseconds.
+	 */
+	long getSum() {
+		return sum.sum();
+	}
+
+	/**
+	 * Returns the upper bound of the bucket which contains the given percentile, in
+	 * milliseconds, or 0 if nothing has been recorded.
+	 * 
+	 * @param percentile
+	 *            percentile between 0 and 100
+	 */
+	double getPercentile(double percentile) {
+		long[] bucketCounts = getCounts();
+		long count = 0;
+		for (long bucketCount : bucketCounts) {
+			count += bucketCount;
+		}
+		if (count == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(count * percentile / 100);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += bucketCounts[i];
+			if (seen >= rank) {
+				return getUpperBound(i) / 1000.0;
+			}
+		}
+		return getUpperBound(BUCKETS - 1) / 1000.0;
+	}
+
+	/**
+	 * Returns the exclusive upper bound of the given bucket in microseconds.
+	 */
+	static long getUpperBound(int bucket) {
+		return 1L << bucket;
+	}
+
+	private static int bucket(long nanos) {
+		long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+		int bucket = 64 - Long.numberOfLeadingZeros(micros);
+		return bucket < BUCKETS ? bucket : BUCKETS - 1;
+	}
+}
@@ -0,0 +1,71 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Immutable set of media types, given either as <code>type/subtype</code> or as
+ * <code>type/*</code>, which content types are matched against.
+ */
+final class MediaTypeSet {
+
+	/* exact media types, e.g. application/json */
+	private final Set<String> mediaTypes = new HashSet<String>();
+
+	/* major types whose subtypes are all contained, e.g. text for text/* */
+	private final Set<String> majorTypes = new HashSet<String>();
+
+	/**
+	 * @param list
+	 *            comma separated list of media types, may be <code>null</code>
+	 */
+	MediaTypeSet(String list) {
+		if (list != null) {
+			for (String mediaType : list.split(",")) {
+				mediaType = mediaType.trim().toLowerCase();
+				if (mediaType.endsWith("/*")) {
+					majorTypes.add(mediaType.substring(0, mediaType.length() - 2));
+				} else if (mediaType.length() > 0) {
+					mediaTypes.add(mediaType);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns <code>true</code> if the media type of the given <code>Content-Type</code>
+	 * header value is contained in this set. Parameters like the charset are ignored.
+	 */
+	boolean contains(String contentType) {
+		if (contentType == null) {
+			return false;
+		}
+		String mediaType = contentType;
+		int index = mediaType.indexOf(';');
+		if (index != -1) {
+			mediaType = mediaType.substring(0, index);
+		}
+		mediaType = mediaType.trim().toLowerCase();
+		if (mediaTypes.contains(mediaType)) {
+			return true;
+		}
+		index = mediaType.indexOf('/');
+		return index != -1 && majorTypes.contains(mediaType.substring(0, index));
+	}
+}
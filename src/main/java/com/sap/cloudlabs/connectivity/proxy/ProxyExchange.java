@@ -0,0 +1,235 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy;
+
+import org.apache.http.client.methods.HttpRequestBase;
+
+/**
+ * State of a single request which is proxied to a backend. It allows other threads,
+ * e.g. the timeout handling of an asynchronous request, to abort the backend call,
+ * and it collects the timings and sizes of the request for its metrics.
+ */
+class ProxyExchange {
+
+	private volatile HttpRequestBase backendRequest;
+
+	/* second attempt of a hedged backend call */
+	private volatile HttpRequestBase hedgeRequest;
+
+	private volatile boolean aborted;
+
+	/* true once the response must not be used anymore */
+	private volatile boolean cancelled;
+
+	/* time in nanoseconds by which the exchange has to be done, 0 if there is no deadline */
+	private volatile long deadline;
+
+	private volatile boolean deadlineExceeded;
+
+	private final long startTime = System.nanoTime();
+
+	private DestinationMetrics metrics;
+
+	/* bulkhead and circuit breaker of the destination, null if there are none */
+	private volatile DestinationLimits limits;
+
+	/* durations of the request phases in nanoseconds, -1 if the phase did not happen */
+	private long lookupTime = -1;
+
+	private long backendTime = -1;
+
+	private long transferTime = -1;
+
+	private long bytesIn;
+
+	private long bytesOut;
+
+	/**
+	 * Registers the backend request of this exchange. If the exchange has already
+	 * been aborted, the backend request is aborted right away.
+	 */
+	void setBackendRequest(HttpRequestBase backendRequest) {
+		this.backendRequest = backendRequest;
+		if (aborted) {
+			backendRequest.abort();
+		}
+	}
+
+	HttpRequestBase getBackendRequest() {
+		return backendRequest;
+	}
+
+	/**
+	 * Registers the second attempt of a hedged backend call, which is aborted together
+	 * with the backend request.
+	 */
+	void setHedgeRequest(HttpRequestBase hedgeRequest) {
+		this.hedgeRequest = hedgeRequest;
+		if (aborted) {
+			hedgeRequest.abort();
+		}
+	}
+
+	/**
+	 * Aborts the backend call of this exchange, no matter if it is about to be sent, in
+	 * progress or already streaming its response.
+	 */
+	void abort() {
+		aborted = true;
+		HttpRequestBase request = backendRequest;
+		if (request != null) {
+			request.abort();
+		}
+		request = hedgeRequest;
+		if (request != null) {
+			request.abort();
+		}
+	}
+
+	boolean isAborted() {
+		return aborted;
+	}
+
+	/**
+	 * Aborts the backend call and gives up the response of this exchange, e.g. because
+	 * the container timed out its asynchronous request and may complete it any time.
+	 */
+	void cancel() {
+		cancelled = true;
+		abort();
+	}
+
+	/**
+	 * Returns <code>true</code> if the exchange has been cancelled, so that the thread
+	 * which proxies it must not wait for anything or write the response anymore.
+	 */
+	boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * Returns the time in nanoseconds by which the exchange has to be done, 0 if there
+	 * is no deadline.
+	 */
+	long getDeadline() {
+		return deadline;
+	}
+
+	void setDeadline(long deadline) {
+		this.deadline = deadline;
+	}
+
+	/**
+	 * Aborts the exchange because its deadline has passed.
+	 */
+	void abortDeadlineExceeded() {
+		deadlineExceeded = true;
+		abort();
+	}
+
+	boolean isDeadlineExceeded() {
+		return deadlineExceeded;
+	}
+
+	/**
+	 * Returns the time in nanoseconds when the exchange started.
+	 */
+	long getStartTime() {
+		return startTime;
+	}
+
+	/**
+	 * Returns the metrics of the destination of this exchange, <code>null</code> as
+	 * long as the destination has not been resolved.
+	 */
+	DestinationMetrics getMetrics() {
+		return metrics;
+	}
+
+	void setMetrics(DestinationMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Returns the limits of the destination of this exchange, <code>null</code> if
+	 * there are none or the destination has not been resolved yet.
+	 */
+	DestinationLimits getLimits() {
+		return limits;
+	}
+
+	void setLimits(DestinationLimits limits) {
+		this.limits = limits;
+	}
+
+	/**
+	 * Returns the time it took to resolve the destination, in nanoseconds.
+	 */
+	long getLookupTime() {
+		return lookupTime;
+	}
+
+	void setLookupTime(long lookupTime) {
+		this.lookupTime = lookupTime;
+	}
+
+	/**
+	 * Returns the time from sending the backend request until the backend response
+	 * headers were received, i.e. connect and time to first byte, in nanoseconds.
+	 */
+	long getBackendTime() {
+		return backendTime;
+	}
+
+	void setBackendTime(long backendTime) {
+		this.backendTime = backendTime;
+	}
+
+	/**
+	 * Returns the time it took to read, rewrite and write the response content, in
+	 * nanoseconds.
+	 */
+	long getTransferTime() {
+		return transferTime;
+	}
+
+	void setTransferTime(long transferTime) {
+		this.transferTime = transferTime;
+	}
+
+	/**
+	 * Returns the number of content bytes received from the backend.
+	 */
+	long getBytesIn() {
+		return bytesIn;
+	}
+
+	void addBytesIn(long bytes) {
+		bytesIn += bytes;
+	}
+
+	/**
+	 * Returns the number of content bytes sent to the client.
+	 */
+	long getBytesOut() {
+		return bytesOut;
+	}
+
+	void addBytesOut(long bytes) {
+		bytesOut += bytes;
+	}
+}
@@ -0,0 +1,131 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bulkheads and circuit breakers of all destinations used by a proxy servlet. They
+ * are created on first use from the init parameters of the servlet, where each
+ * parameter can be overridden for a single destination by appending its name, e.g.
+ * <code>bulkhead.max.concurrent.northwind</code>. The limits of each destination are
+ * registered as MBean, so they can be inspected and changed at runtime.
+ */
+class ProxyLimits {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ProxyLimits.class);
+
+	private final ConcurrentHashMap<String, DestinationLimits> destinations = new ConcurrentHashMap<String, DestinationLimits>();
+
+	private final DestinationParameters parameters;
+
+	private final String contextName;
+
+	private final boolean bulkheadEnabled;
+
+	private final boolean circuitBreakerEnabled;
+
+	/**
+	 * @param contextName
+	 *            name of the Web application, used to tell apart the MBeans of several
+	 *            applications in the same JVM
+	 */
+	ProxyLimits(DestinationParameters parameters, String contextName, boolean bulkheadEnabled, boolean circuitBreakerEnabled) {
+		this.parameters = parameters;
+		this.contextName = contextName;
+		this.bulkheadEnabled = bulkheadEnabled;
+		this.circuitBreakerEnabled = circuitBreakerEnabled;
+	}
+
+	/**
+	 * Returns the limits of the given destination, creating and registering them on
+	 * first use.
+	 */
+	DestinationLimits get(String destinationName) {
+		DestinationLimits limits = destinations.get(destinationName);
+		if (limits != null) {
+			return limits;
+		}
+		limits = create(destinationName);
+		DestinationLimits current = destinations.putIfAbsent(destinationName, limits);
+		if (current != null) {
+			return current;
+		}
+		register(limits);
+		return limits;
+	}
+
+	/**
+	 * Unregisters the MBeans of all destinations.
+	 */
+	void unregister() {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		for (DestinationLimits limits : destinations.values()) {
+			try {
+				server.unregisterMBean(getObjectName(limits));
+			} catch (JMException e) {
+				LOGGER.debug("Unregistering limits of destination {} failed: {}", limits.getDestinationName(), e.getMessage());
+			}
+		}
+	}
+
+	private DestinationLimits create(String destinationName) {
+		Bulkhead bulkhead = null;
+		if (bulkheadEnabled) {
+			bulkhead = new Bulkhead(
+					parameters.getInt("bulkhead.max.concurrent", destinationName, 50),
+					parameters.getInt("bulkhead.max.queue", destinationName, 50),
+					parameters.getInt("bulkhead.max.wait", destinationName, 1000));
+		}
+		CircuitBreaker circuitBreaker = null;
+		if (circuitBreakerEnabled) {
+			circuitBreaker = new CircuitBreaker(
+					parameters.getInt("circuitbreaker.failure.rate", destinationName, 50),
+					parameters.getInt("circuitbreaker.slow.call.rate", destinationName, 100),
+					parameters.getInt("circuitbreaker.slow.call.duration", destinationName, 10000),
+					parameters.getInt("circuitbreaker.minimum.calls", destinationName, 20),
+					parameters.getInt("circuitbreaker.window", destinationName, 10),
+					parameters.getInt("circuitbreaker.open.duration", destinationName, 30) * 1000L,
+					parameters.getInt("circuitbreaker.half.open.probes", destinationName, 5));
+		}
+		return new DestinationLimits(destinationName, bulkhead, circuitBreaker,
+				parameters.getBoolean("bulkhead.adaptive", destinationName),
+				parameters.getInt("bulkhead.adaptive.min", destinationName, 1),
+				parameters.getInt("bulkhead.adaptive.latency", destinationName, 1000));
+	}
+
+	private void register(DestinationLimits limits) {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(limits, getObjectName(limits));
+		} catch (JMException e) {
+			LOGGER.error("Registering limits of destination {} failed: {}", limits.getDestinationName(), e.getMessage());
+		}
+	}
+
+	private ObjectName getObjectName(DestinationLimits limits) throws JMException {
+		return new ObjectName("com.sap.cloudlabs.connectivity.proxy:type=DestinationLimits,context="
+				+ ObjectName.quote(contextName) + ",destination=" + ObjectName.quote(limits.getDestinationName()));
+	}
+}
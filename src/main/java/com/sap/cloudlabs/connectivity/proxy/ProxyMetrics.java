@@ -0,0 +1,117 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy;
+
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Metrics of all destinations used by a proxy servlet. The metrics of each destination
+ * are registered as MBean and can be written in a text format for scraping, see
+ * {@link MetricsServlet}.
+ */
+class ProxyMetrics {
+
+	/* name of the servlet context attribute the metrics are published with */
+	static final String ATTRIBUTE_NAME = ProxyMetrics.class.getName();
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ProxyMetrics.class);
+
+	private final ConcurrentHashMap<String, DestinationMetrics> destinations = new ConcurrentHashMap<String, DestinationMetrics>();
+
+	private final String contextName;
+
+	/**
+	 * @param contextName
+	 *            name of the Web application, used to tell apart the MBeans of several
+	 *            applications in the same JVM
+	 */
+	ProxyMetrics(String contextName) {
+		this.contextName = contextName;
+	}
+
+	/**
+	 * Returns the metrics of the given destination, creating and registering them on
+	 * first use.
+	 */
+	DestinationMetrics get(String destinationName) {
+		DestinationMetrics metrics = destinations.get(destinationName);
+		if (metrics != null) {
+			return metrics;
+		}
+		metrics = new DestinationMetrics(destinationName);
+		DestinationMetrics current = destinations.putIfAbsent(destinationName, metrics);
+		if (current != null) {
+			return current;
+		}
+		register(metrics);
+		return metrics;
+	}
+
+	/**
+	 * Writes the metrics of all destinations in the Prometheus text format. The format 
+	 * requires the samples of a family to form one group after its <code>TYPE</code> 
+	 * line, so the families are written one after the other, each with the samples of 
+	 * all destinations. Lines end with <code>\n</code> on every platform.
+	 */
+	void writeTo(PrintWriter writer) {
+		Collection<DestinationMetrics> sorted = new TreeMap<String, DestinationMetrics>(destinations).values();
+		for (int family = 0; family < DestinationMetrics.FAMILIES.length; family++) {
+			writer.print("# TYPE " + DestinationMetrics.FAMILIES[family] + "\n");
+			for (DestinationMetrics metrics : sorted) {
+				metrics.writeTo(writer, family);
+			}
+		}
+	}
+
+	/**
+	 * Unregisters the MBeans of all destinations.
+	 */
+	void unregister() {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		for (DestinationMetrics metrics : destinations.values()) {
+			try {
+				server.unregisterMBean(getObjectName(metrics));
+			} catch (JMException e) {
+				LOGGER.debug("Unregistering metrics of destination {} failed: {}", metrics.getDestinationName(), e.getMessage());
+			}
+		}
+	}
+
+	private void register(DestinationMetrics metrics) {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, getObjectName(metrics));
+		} catch (JMException e) {
+			LOGGER.error("Registering metrics of destination {} failed: {}", metrics.getDestinationName(), e.getMessage());
+		}
+	}
+
+	private ObjectName getObjectName(DestinationMetrics metrics) throws JMException {
+		return new ObjectName("com.sap.cloudlabs.connectivity.proxy:type=DestinationMetrics,context="
+				+ ObjectName.quote(contextName) + ",destination=" + ObjectName.quote(metrics.getDestinationName()));
+	}
+}
@@ -1,525 +1,1615 @@
-/*
- * Licensed to the Apache Software Foundation (ASF) under one or more
- * contributor license agreements.  See the LICENSE file distributed with
- * this work for additional information regarding copyright ownership.
- * The ASF licenses this file to You under the Apache License, Version 2.0
- * (the "License"); you may not use this file except in compliance with
- * the License.  You may obtain a copy of the License at
- *
- *      http://www.apache.org/licenses/LICENSE-2.0
- *
- *  Unless required by applicable law or agreed to in writing, software
- *  distributed under the License is distributed on an "AS IS" BASIS,
- *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
- *  See the License for the specific language governing permissions and
- *  limitations under the License.
- */
-package com.sap.cloudlabs.connectivity.proxy;
-
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.MalformedURLException;
-import java.net.URISyntaxException;
-import java.net.URL;
-import java.util.Arrays;
-import java.util.Collection;
-import java.util.Enumeration;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
-
-import javax.naming.Context;
-import javax.naming.InitialContext;
-import javax.servlet.ServletConfig;
-import javax.servlet.ServletException;
-import javax.servlet.http.HttpServlet;
-import javax.servlet.http.HttpServletRequest;
-import javax.servlet.http.HttpServletResponse;
-
-import org.apache.http.Header;
-import org.apache.http.HeaderElement;
-import org.apache.http.HttpEntity;
-import org.apache.http.HttpResponse;
-import org.apache.http.client.HttpClient;
-import org.apache.http.client.entity.DeflateDecompressingEntity;
-import org.apache.http.client.entity.GzipDecompressingEntity;
-import org.apache.http.client.methods.HttpDelete;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.client.methods.HttpPut;
-import org.apache.http.client.methods.HttpRequestBase;
-import org.apache.http.entity.ByteArrayEntity;
-import org.apache.http.util.EntityUtils;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-import com.sap.cloudlabs.connectivity.proxy.SecurityHandler;
-import com.sap.core.connectivity.api.DestinationException;
-import com.sap.core.connectivity.api.DestinationFactory;
-import com.sap.core.connectivity.api.http.HttpDestination;
-
-/**
- * This servlet is used as connectivity proxy between a consuming agent, like a Web browser
- * application, and a backend service and can be seen as an add-on of the SAP HANA Cloud 
- * connectivity service. The backend service can either be an on-premise application  
- * which is accessed via SAP HANA Cloud connector, or an Internet-accessible service. For 
- * both cases, the servlet tries to access the remote service via a configured destination. 
- * The name of the destination has to be passed by the calling client of this servlet 
- * as part of the URL, following this pattern: 
- * <pre>
- *   /<context-path>/<servlet-path>/<destinationName>/<relative-path-to-backend-service>
- * </pre> 
- * <p>
- * Main purpose of the proxy servlet is to assure the same-origin-policy (SOP)
- * for JavaScript applications running in Web browsers.
- * 
- * @version 0.1
- */
-
-/*
- * In case you want to manage servlet urlPatterns and security constraints 
- * with annotations you can replace web.xml file entries for urlPatterns and security constraints
- * <code><servlet-mapping>
- *			<servlet-name>ConnectivityProxy</servlet-name>
- *			<url-pattern>/proxy/yourDestinationName1/*</url-pattern>
- *			<url-pattern>/proxy/yourDestinationName2/*</url-pattern>
- *		</servlet-mapping>
- * </code>
- * with: 
- * <code>@WebServlet(name="ConnectivityProxy", urlPatterns={"/proxy/yourDestinationName1", "/proxy/yourDestinationName2"})
- * @ServletSecurity(@HttpConstraint(rolesAllowed = {"Administrator"}))
- * </code>
- */
-
-public class ProxyServlet extends HttpServlet {
-	private static final String ISO_8859_1 = "ISO-8859-1";
-
-	private static final long serialVersionUID = 1L;
-
-	/* headers which will be blocked from forwarding in backend request */
-	private static String[] BLOCKED_REQUEST_HEADERS = { "host", "content-length", "sap_sessionid", "mysapsso2", "jsessionid" };
-		
-	/* buffer size for piping the content */
-	private static final int IO_BUFFER_SIZE = 4 * 1024;
-
-	private static final Logger LOGGER = LoggerFactory.getLogger(ProxyServlet.class);
-	
-	/*
-	 * In case you want to manage servlet resources  
-	 * with annotations you can replace web.xml  declaration
-	 * <code> <resource-ref>
-	 *	<res-ref-name>connectivity/DestinationFactory</res-ref-name>
-	 *	<res-type>com.sap.core.connectivity.api.DestinationFactory</res-type>
-	 *	</resource-ref> 
-	 * </code>
-	 * file with following annotations
-	 * <code>	@Resource com.sap.core.connectivity.api.DestinationFactory destinationFactory;</code>		
-	 * Then the destinationFactory declaration is obsolete, 
-	 * as well as the lookup in method <code>getDestination(String)</code>
-	 */
-	private static DestinationFactory destinationFactory;
-	
-	private SecurityHandler securityHandler;
-	
-	/*
-	 * @see javax.servlet.GenericServlet#init(javax.servlet.ServletConfig)
-	 */
-	public void init(ServletConfig servletConfig) throws ServletException {
-		super.init(servletConfig);
-		String securityHandlerName = servletConfig.getInitParameter("security.handler");
-		
-		if (securityHandlerName != null) {
-			try {
-				Class<?> clazz = Class.forName(securityHandlerName);
-				
-				if (SecurityHandler.class.isAssignableFrom(clazz)) {
-					securityHandler = (SecurityHandler) clazz.newInstance();
-				} else {
-					LOGGER.debug("Provided security.handler " + securityHandlerName + " is not an implementation of SecurityHandler class: ");
-				}
-			// no exception will be thrown as the proxy servlet can work without security handler implementation
-			} catch (ClassNotFoundException e) {
-				LOGGER.error("Provided security.handler " + securityHandlerName + " cannot be loaded");
-	
-			} catch (InstantiationException e) {
-				LOGGER.error("Provided security.handler " + securityHandlerName + " cannot be instantioated");
-			} catch (IllegalAccessException e) {
-				LOGGER.error("Provided security.handler " + securityHandlerName + " cannot be accessed");
-			}
-		}
-	}
-
-	protected void service(HttpServletRequest request, HttpServletResponse response) throws ServletException,
-			IOException {
-
-		LOGGER.debug(">>>>>>>>>>>> start request");
-		
-		// read destination and relative service path from URL
-		String queryString = request.getQueryString();
-		String destinationName = getDestinationFromUrl(request.getServletPath());
-		String pathInfo = null;
-		
-		int contextPathLength = request.getContextPath().length();
-		int servletPathLength = request.getServletPath().length();
-		
-		if (request.getRequestURI().endsWith(destinationName)) { 
-			pathInfo = "";
-		} else {
-			pathInfo = request.getRequestURI().substring(servletPathLength + contextPathLength);
-			
-		}
-		String urlToService = getRelativePathFromUrl(pathInfo, queryString);
-	
-		// get the http client for the destination
-		HttpDestination dest = getDestination(destinationName);	
-		HttpClient httpClient = null;
-		try {
-			httpClient = dest.createHttpClient();
-		
-			// create request to targeted backend service
-		HttpRequestBase backendRequest = getBackendRequest(request, urlToService);
-
-		// execute the backend request
-		HttpResponse backendResponse = httpClient.execute(backendRequest);
-
-		String rewriteUrl = getDestinationUrl(dest);  
-		String proxyUrl = getProxyUrl(request);
-					
-		// process response from backend request and pipe it to origin response of client
-		processBackendResponse(request, response, backendResponse, proxyUrl, rewriteUrl);
-		} catch (DestinationException e) {
-			throw new ServletException(e);
-		} finally {
-			if (httpClient != null) { 
-				httpClient.getConnectionManager().shutdown();
-			}
-			
-			LOGGER.debug(">>>>>>>>>>>> end request");			
-		}		
-	}
-
-	
-	/**
-	 * Returns the URL specified in the given destination. 
-	 */
-	private String getDestinationUrl(HttpDestination destination) throws ServletException {
-		try {
-			String rewriteUrl = destination.getURI().toString();
-			if (rewriteUrl.endsWith("/")) {
-				rewriteUrl = rewriteUrl.substring(0, rewriteUrl.length()-1);
-			}
-			return rewriteUrl; 
-		} catch (URISyntaxException e) {
-			throw new ServletException(e);
-		}
-	}
-
-	/**
-	 * Returns the URL to the proxy servlet and used destination. 
-	 */
-	private String getProxyUrl(HttpServletRequest request) throws MalformedURLException {
- 		URL url = new URL(request.getRequestURL().toString());
-		String proxyUrl = 
-				request.getScheme() + "://" + url.getAuthority() + 
-				request.getContextPath() + request.getServletPath();
-		return proxyUrl; 
-	}
-	
-	/**
-	 * Process response received from backend service and copy it to origin response of 
-	 * client.
-	 * 
-	 * @param request
-	 *            origin request of this Web application
-	 * @param response
-	 *            origin response of this Web application; this is where the
-	 *            backend response is copied to
-	 * @param backendResponse
-	 *            the response of the backend service
-	 * @param proxyUrl
-	 * 			  the URL that should replace the <code>rewriteUrl</code>
-	 * @param rewriteUrl
-	 * 			  the URL that should be rewritten 
-	 */
-	private void processBackendResponse(HttpServletRequest request, HttpServletResponse response, HttpResponse backendResponse, String proxyUrl, String rewriteUrl)
-			throws IOException, ServletException {
-		// copy response status code
-		int status = backendResponse.getStatusLine().getStatusCode();
-		response.setStatus(status);
-		LOGGER.debug("backend response status code: " + status);
-
-		// filter the headers to suppress the authentication dialog (only for
-		// 401 - unauthorized)
-		List<String> blockedHeaders = null;
-		if (status == HttpServletResponse.SC_UNAUTHORIZED && request.getHeader("authorization") != null
-				&& request.getHeader("suppress-www-authenticate") != null) {
-			blockedHeaders = Arrays.asList(new String[] { "www-authenticate" });
-		} else {
-			// for rewriting the URLs in the response, content-length, content-encoding 
-			// and transfer-encoding (for chunked content) headers are removed and handled specially.
-			blockedHeaders = Arrays.asList(new String[] { "content-length", "transfer-encoding", "content-encoding" });
-		}
-
-		// copy backend response headers and content
-		LOGGER.debug("backend response headers: ");
-		for (Header header : backendResponse.getAllHeaders()) {
-			if (!blockedHeaders.contains(header.getName().toLowerCase())) {
-				response.addHeader(header.getName(), header.getValue());
-				LOGGER.debug("    => " + header.getName() + ": " + header.getValue());
-			} else {
-				LOGGER.debug("    => " + header.getName() + ": blocked response header");
-			}
-		}
-				
-		handleContentEncoding(backendResponse);
-		
-		// pipe and return the response
-		HttpEntity entity = backendResponse.getEntity();
-		if (entity != null) {							
-			// rewrite URL in the content of the response to make sure that
-			// internal URLs point to the proxy servlet as well
-				
-			// determine charset and content as String
-			String charset = EntityUtils.getContentCharSet(entity);
-			String content = EntityUtils.toString(entity); 
-				
-			LOGGER.debug("URL rewriting:"); 
-			LOGGER.debug("    => rewriteUrl: " + rewriteUrl);
-			LOGGER.debug("    => proxyUrl: " + proxyUrl);
-				
-			// replace the rewriteUrl with the targetUrl
-			content = content.replaceAll(rewriteUrl, proxyUrl); 
-			
-			// get the bytes and open a stream (by default HttpClient uses ISO-8859-1)
-		    byte[] contentBytes = charset != null ? content.getBytes(charset) : content.getBytes(ISO_8859_1);
-			InputStream is = new ByteArrayInputStream(contentBytes);
-		    
-			// set the new content length
-		    response.setContentLength(contentBytes.length);
-		    
-		    // return the modified content
-		    pipe(is, response.getOutputStream());
-		}
-		
-	}
-
-	/**
-	 * Returns the request that points to the backend service defined by the provided 
-	 * <code>urlToService</code> URL. The headers of the origin request are copied to 
-	 * the backend request, except of "host" and "content-length".   
-	 * 
-	 * @param request
-	 *            original request to the Web application
-	 * @param urlToService
-	 *            URL to the targeted backend service
-	 * @return initialized backend service request
-	 * @throws IOException 
-	 */
-	private HttpRequestBase getBackendRequest(HttpServletRequest request, String urlToService)
-			throws IOException {
-		String method = request.getMethod();
-		LOGGER.debug("HTTP method: " + method);
-		
-		HttpRequestBase backendRequest = null;
-		if (HttpPost.METHOD_NAME.equals(method)) {
-			ByteArrayOutputStream out = new ByteArrayOutputStream();
-			pipe(request.getInputStream(), out); 								
-			ByteArrayEntity entity = new ByteArrayEntity(out.toByteArray());			
-			entity.setContentType(request.getHeader("Content-Type"));
-			HttpPost post = new HttpPost(urlToService);						
-			post.setEntity(entity);							
-			backendRequest = post;
-		} else if (HttpGet.METHOD_NAME.equals(method)) {
-			HttpGet get = new HttpGet(urlToService);
-			backendRequest = get;
-		} else if (HttpPut.METHOD_NAME.equals(method)) {
-			ByteArrayOutputStream out = new ByteArrayOutputStream();
-			pipe(request.getInputStream(), out); 								
-			ByteArrayEntity entity = new ByteArrayEntity(out.toByteArray());			
-			entity.setContentType(request.getHeader("Content-Type"));
-			HttpPut put = new HttpPut(urlToService);						
-			put.setEntity(entity);							
-			backendRequest = put;
-		} else if (HttpDelete.METHOD_NAME.equals(method)) {
-			HttpDelete delete = new HttpDelete(urlToService);
-			backendRequest = delete;
-		} 
-
-		// copy headers from Web application request to backend request, while
-		// filtering the blocked headers
-		
-		LOGGER.debug("backend request headers:");
-
-		Collection<String> blockedHeaders = mergeLists(securityHandler, Arrays.asList(BLOCKED_REQUEST_HEADERS));
-		
-		Enumeration<String> setCookieHeaders = request.getHeaders("Cookie");
-		while(setCookieHeaders.hasMoreElements()) {
-			String cookieHeader = setCookieHeaders.nextElement();
-			if (blockedHeaders.contains(cookieHeader.toLowerCase()) || cookieHeader.toLowerCase().contains("sap_sessionid")) {
-				String replacedCookie = removeJSessionID(cookieHeader);
-				backendRequest.addHeader("Cookie", replacedCookie);
-			} 
-			LOGGER.debug("Cookie header => " + cookieHeader);
-		}
-		
-		for (Enumeration<String> e = request.getHeaderNames(); e.hasMoreElements();) {
-			String headerName = e.nextElement().toString();
-			if (!blockedHeaders.contains(headerName.toLowerCase())) {
-				backendRequest.addHeader(headerName, request.getHeader(headerName));
-				LOGGER.debug("    => " + headerName + ": " + request.getHeader(headerName));
-			} else {
-				LOGGER.debug("    => " + headerName + ": blocked request header");
-			}
-		}
-
-		return backendRequest;
-	}
-	
-	private String removeJSessionID(String cookieHeader) { 
-		if (cookieHeader.contains("JSESSIONID")) {
-			int beginIndex = cookieHeader.indexOf("JSESSIONID");
-			int endIndex = cookieHeader.indexOf(";", beginIndex+ 12);
-			String jSeesionSubstring = cookieHeader.substring(beginIndex, endIndex);
-			String result  = cookieHeader.replace(jSeesionSubstring +";", "");
-			return result;
-		}
-		return cookieHeader;
-	}
-	
-	private Collection<String> mergeLists(SecurityHandler securityHandler, List<String> blockedHeaders) {
-		Set<String> mergedHeadersList = new HashSet<String>();
-		mergedHeadersList.addAll(blockedHeaders);
-		if (securityHandler != null) {
-			List<String> applicationBlackList = securityHandler.getResponseHeadersBlackList();
-			mergedHeadersList.addAll(applicationBlackList);
-		}
-		
-		return mergedHeadersList;
-	}
-
-	/**
-	 * Returns an initialized HttpClient which points to the specified destination. 	 
-	 */
-	private HttpDestination getDestination(String destinationName) throws ServletException {
-		try {
-			/*
-			 * In case the an annotation @Resource is used, the following if block is obsolete
-			 */
-			if (destinationFactory == null) {			
-				Context ctx = new InitialContext();
-				destinationFactory = (DestinationFactory) ctx.lookup(DestinationFactory.JNDI_NAME);
-			}
-			HttpDestination dest = (HttpDestination) destinationFactory.getDestination(destinationName);
-			return dest; 
-		} catch (Exception e) {
-			throw new ServletException(writeMessage("Unable to resolve destination " + destinationName), e);
-		}
-	}
-
-	/**
-	 * Returns the destination name defined in the specified URL path. 
-	 * It is assumed that the specified path consists of following parts:  
-	 * <pre>
-	 *  <destinationName>/relativePathToService
-	 * </pre>
-	 */
-	  private String getDestinationFromUrl(String servletPath) throws ServletException {
-	        String destinationName = null;
-	        int index = servletPath.lastIndexOf("/");
-	        if (index != -1) {
-	        	destinationName = servletPath.substring(index + 1, servletPath.length());
-	        }
-	        if (destinationName == null) {
-	        	throw new ServletException(writeMessage("No destination specified"));
-	        }
-	        LOGGER.debug("destination read from URL path: " + destinationName);
-	        return destinationName;
-	  }
-	
-	  
-	/**
-	 * Returns the relative path to the backend service. It assumes that the specified path is
-	 * <pre>
-	 *  <destinationName>/relativePathToService
-	 * </pre> 
-	 * and it returns relativePathToService?queryString.
-	 */
-	private String getRelativePathFromUrl(String path, String queryString) {
-		// strip off first label in the path, as it specifies the destination name
-		int index = path.indexOf("/");
-		String relativePathToService = index != -1 ? path.substring(index + 1) : "";
-
-		// replace spaces with %20 in the path
-		relativePathToService = relativePathToService.replace(" ", "%20");
-
-		if (queryString != null && !queryString.isEmpty()) {
-			relativePathToService += "?" + queryString;
-		}
-
-		LOGGER.debug("relative path to service, incl. query string: " + relativePathToService);
-		return relativePathToService;
-	}
-
-	private void handleContentEncoding(HttpResponse response) throws ServletException {
-		HttpEntity entity = response.getEntity();
-		if (entity != null) {
-			Header contentEncodingHeader = entity.getContentEncoding();
-			if (contentEncodingHeader != null) {
-				HeaderElement[] codecs = contentEncodingHeader.getElements();
-				LOGGER.debug("Content-Encoding in response:");
-				for (HeaderElement codec : codecs) {
-					String codecname = codec.getName().toLowerCase();
-					LOGGER.debug("    => codec: " + codecname);
-					if ("gzip".equals(codecname) || "x-gzip".equals(codecname)) {
-						response.setEntity(new GzipDecompressingEntity(response.getEntity()));
-						return;
-					} else if ("deflate".equals(codecname)) {
-						response.setEntity(new DeflateDecompressingEntity(response.getEntity()));
-						return;
-					} else if ("identity".equals(codecname)) {
-						return;
-					} else {
-						throw new ServletException("Unsupported Content-Encoding: " + codecname);
-					}
-				}
-			}
-		}
-	}		
-	
-	/**
-	 * Pipes a given <code>InputStream</code> into the given
-	 * <code>OutputStream</code>
-	 * 
-	 * @param in
-	 *            <code>InputStream</code>
-	 * @param out
-	 *            <code>OutputStream</code>
-	 * @throws IOException
-	 */
-	private static void pipe(InputStream in, OutputStream out) throws IOException {
-		byte[] b = new byte[IO_BUFFER_SIZE];
-		int read;
-		while ((read = in.read(b)) != -1) {
-			out.write(b, 0, read);
-		}
-		in.close();
-		out.flush();
-		out.close();
-	}
-	
-
-	private String writeMessage(String message) {
-		StringBuilder b = new StringBuilder();
-		b.append("\nInvalid usage: ").append(message);
-		b.append("\n");
-		b.append("\nUsage of proxy servlet:");
-		b.append("\n=======================");
-		b.append("\nIt is assumed that the URL to the servlet follows the pattern ");
-		b.append("\n==> /<context-path>/proxy/<destination-name>/<relative-path-below-destination-target>");
-		b.append("\n");
-		return b.toString();
-	}
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRegistration;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import org.apache.http.Header;
+import org.apache.http.HeaderElement;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.entity.DeflateDecompressingEntity;
+import org.apache.http.client.entity.GzipDecompressingEntity;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sap.cloudlabs.connectivity.proxy.SecurityHandler;
+import com.sap.core.connectivity.api.DestinationException;
+import com.sap.core.connectivity.api.DestinationFactory;
+
+/**
+ * This servlet is used as connectivity proxy between a consuming agent, like a Web browser
+ * application, and a backend service and can be seen as an add-on of the SAP HANA Cloud 
+ * connectivity service. The backend service can either be an on-premise application  
+ * which is accessed via SAP HANA Cloud connector, or an Internet-accessible service. For 
+ * both cases, the servlet tries to access the remote service via a configured destination. 
+ * The name of the destination has to be passed by the calling client of this servlet 
+ * as part of the URL, following this pattern: 
+ * <pre>
+ *   /<context-path>/<servlet-path>/<destinationName>/<relative-path-to-backend-service>
+ * </pre> 
+ * <p>
+ * Main purpose of the proxy servlet is to assure the same-origin-policy (SOP)
+ * for JavaScript applications running in Web browsers.
+ * 
+ * @version 0.1
+ */
+
+/*
+ * In case you want to manage servlet urlPatterns and security constraints 
+ * with annotations you can replace web.xml file entries for urlPatterns and security constraints
+ * <code><servlet-mapping>
+ *			<servlet-name>ConnectivityProxy</servlet-name>
+ *			<url-pattern>/proxy/yourDestinationName1/*</url-pattern>
+ *			<url-pattern>/proxy/yourDestinationName2/*</url-pattern>
+ *		</servlet-mapping>
+ * </code>
+ * with: 
+ * <code>@WebServlet(name="ConnectivityProxy", urlPatterns={"/proxy/yourDestinationName1", "/proxy/yourDestinationName2"})
+ * @ServletSecurity(@HttpConstraint(rolesAllowed = {"Administrator"}))
+ * </code>
+ */
+
+public class ProxyServlet extends HttpServlet {
+	private static final String ISO_8859_1 = "ISO-8859-1";
+
+	private static final long serialVersionUID = 1L;
+
+	/* response headers which are handled specially when the content is rewritten; byte ranges of 
+	 * the backend do not apply to rewritten content, so accept-ranges is dropped as well */
+	private static final HeaderNameSet REWRITTEN_RESPONSE_HEADERS = HeaderNameSet.of("content-length", "transfer-encoding", 
+			"content-encoding", "accept-ranges");
+	
+	/* response headers which are handled specially when the content is passed through, the servlet container does the chunking */
+	private static final HeaderNameSet PASSED_RESPONSE_HEADERS = HeaderNameSet.of("transfer-encoding");
+	
+	/* response headers whose URL is rewritten to point to the proxy servlet */
+	private static final HeaderNameSet LOCATION_HEADERS = HeaderNameSet.of("location", "content-location");
+		
+	/* request header with the maximum time in milliseconds the client waits for the response */
+	private static final String TIMEOUT_HEADER = "X-Request-Timeout";
+	
+	/* buffer size for piping the content */
+	private static final int IO_BUFFER_SIZE = 4 * 1024;
+	
+	/* time in milliseconds the container waits for the worker of an aborted asynchronous request, 
+	 * in addition to the longest time the worker may wait for an identical request and a bulkhead */
+	private static final long ASYNC_ABORT_GRACE_PERIOD = 5000;
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ProxyServlet.class);
+	
+	/** servlet context attribute under which a DestinationFactory can be provided instead of the JNDI lookup */
+	public static final String DESTINATION_FACTORY_ATTRIBUTE = DestinationFactory.class.getName();
+	
+	/*
+	 * In case you want to manage servlet resources  
+	 * with annotations you can replace web.xml  declaration
+	 * <code> <resource-ref>
+	 *	<res-ref-name>connectivity/DestinationFactory</res-ref-name>
+	 *	<res-type>com.sap.core.connectivity.api.DestinationFactory</res-type>
+	 *	</resource-ref> 
+	 * </code>
+	 * file with following annotations
+	 * <code>	@Resource com.sap.core.connectivity.api.DestinationFactory destinationFactory;</code>		
+	 * Then the destinationFactory declaration is obsolete, 
+	 * as well as the JNDI lookup in <code>DestinationCache</code>
+	 */
+	private DestinationFactory destinationFactory;
+	
+	/* resolved destinations, refreshed in the background */
+	private DestinationCache destinationCache;
+	
+	private SecurityHandler securityHandler;
+	
+	/* reusable, pooled HttpClient per destination */
+	private HttpClientRegistry clientRegistry;
+	
+	/* decides which headers are forwarded, the defaults apply until init() compiled the configured policy */
+	private HeaderPolicy headerPolicy = new HeaderPolicy(null, null, null, null, null);
+	
+	/* decides which responses are rewritten and which are passed through unchanged */
+	private RewritePolicy rewritePolicy;
+	
+	/* rewrites URLs only in the URL fields of JSON and XML responses, null if the whole content is rewritten */
+	private FieldRewriter fieldRewriter;
+	
+	/* latency and throughput metrics per destination */
+	private ProxyMetrics proxyMetrics;
+	
+	/* one line per request, written in the background, null if the access log is off */
+	private AccessLog accessLog;
+	
+	/* path of the proxy servlet below the context path, e.g. /proxy, without trailing slash */
+	private String proxyPath = "/proxy";
+	
+	/* routes from the first segment below the proxy path to destinations */
+	private RouteTable routeTable = new RouteTable(Collections.<String, String> emptyMap(), null, null, 0);
+	
+	/* init parameters which can be overridden per destination */
+	private DestinationParameters destinationParameters;
+	
+	/* timeouts of the backend calls per destination */
+	private final ConcurrentHashMap<String, BackendTimeouts> backendTimeouts = new ConcurrentHashMap<String, BackendTimeouts>();
+	
+	/* aborts backend calls after their total timeout */
+	private DeadlineWatchdog deadlineWatchdog;
+	
+	/* sends second attempts of slow idempotent backend calls, null if hedging is off */
+	private RequestHedger requestHedger;
+	
+	/* bulkheads and circuit breakers per destination, null if both are off */
+	private ProxyLimits proxyLimits;
+	
+	/* cache for responses of GET requests, null if caching is off */
+	private ResponseCache responseCache;
+	
+	/* coalesces identical concurrent GET requests, null if coalescing is off */
+	private RequestCoalescer requestCoalescer;
+	
+	/* compresses responses toward the client, null if compression is off */
+	private ResponseCompressor responseCompressor;
+	
+	/* buffers responses toward slow clients, null if buffering is off */
+	private ResponseBuffers responseBuffers;
+	
+	/* worker threads for the backend calls of asynchronous requests, null if async mode is off */
+	private ThreadPoolExecutor asyncExecutor;
+	
+	/* timeout of asynchronous requests in milliseconds */
+	private long asyncTimeout;
+	
+	/* proxies the requests of batch requests, null if batches are off */
+	private BatchHandler batchHandler;
+	
+	/* warm-up of the destinations at startup, reported by the readiness servlet */
+	private StartupWarmup startupWarmup;
+	
+	/*
+	 * @see javax.servlet.GenericServlet#init(javax.servlet.ServletConfig)
+	 */
+	public void init(ServletConfig servletConfig) throws ServletException {
+		super.init(servletConfig);
+		String securityHandlerName = servletConfig.getInitParameter("security.handler");
+		
+		if (securityHandlerName != null) {
+			try {
+				Class<?> clazz = Class.forName(securityHandlerName);
+				
+				if (SecurityHandler.class.isAssignableFrom(clazz)) {
+					securityHandler = (SecurityHandler) clazz.newInstance();
+				} else {
+					LOGGER.debug("Provided security.handler {} is not an implementation of SecurityHandler class: ", securityHandlerName);
+				}
+			// no exception will be thrown as the proxy servlet can work without security handler implementation
+			} catch (ClassNotFoundException e) {
+				LOGGER.error("Provided security.handler {} cannot be loaded", securityHandlerName);
+	
+			} catch (InstantiationException e) {
+				LOGGER.error("Provided security.handler {} cannot be instantioated", securityHandlerName);
+			} catch (IllegalAccessException e) {
+				LOGGER.error("Provided security.handler {} cannot be accessed", securityHandlerName);
+			}
+		}
+		
+		/*
+		 * a DestinationFactory provided by the servlet container, e.g. a stub 
+		 * of an embedded container for load tests, takes precedence over JNDI
+		 */
+		if (destinationFactory == null) {
+			destinationFactory = (DestinationFactory) servletConfig.getServletContext().getAttribute(DESTINATION_FACTORY_ATTRIBUTE);
+		}
+		
+		clientRegistry = new HttpClientRegistry(
+				getIntInitParameter(servletConfig, "client.pool.max.total", 200),
+				getIntInitParameter(servletConfig, "client.pool.max.per.route", 50),
+				getIntInitParameter(servletConfig, "client.pool.idle.timeout", 60));
+		destinationCache = new DestinationCache(destinationFactory, null, clientRegistry,
+				getIntInitParameter(servletConfig, "destination.cache.ttl", 300),
+				getIntInitParameter(servletConfig, "destination.cache.refresh.ahead", 60));
+		
+		/*
+		 * In case the an annotation @Resource is used, the DestinationFactory is not 
+		 * looked up. A failed lookup does not fail the servlet, it is repeated as soon 
+		 * as the first destination is resolved.
+		 */
+		try {
+			destinationCache.getDestinationFactory();
+		} catch (DestinationException e) {
+			LOGGER.error("{}, it is repeated on the first request", e.getMessage());
+		}
+		destinationCache.getConnectivityConfiguration();
+		
+		headerPolicy = new HeaderPolicy(
+				servletConfig.getInitParameter("headers.request.deny"), 
+				servletConfig.getInitParameter("headers.request.allow"),
+				servletConfig.getInitParameter("headers.response.deny"), 
+				servletConfig.getInitParameter("headers.response.allow"), securityHandler);
+		
+		String rewriteContentTypes = servletConfig.getInitParameter("rewrite.content.types");
+		rewritePolicy = new RewritePolicy(
+				rewriteContentTypes != null ? rewriteContentTypes : RewritePolicy.DEFAULT_CONTENT_TYPES,
+				servletConfig.getInitParameter("rewrite.excluded.destinations"), securityHandler);
+		if ("fields".equalsIgnoreCase(servletConfig.getInitParameter("rewrite.mode"))) {
+			String jsonFields = servletConfig.getInitParameter("rewrite.json.fields");
+			String xmlAttributes = servletConfig.getInitParameter("rewrite.xml.attributes");
+			String xmlElements = servletConfig.getInitParameter("rewrite.xml.elements");
+			fieldRewriter = new FieldRewriter(
+					jsonFields != null ? jsonFields : FieldRewriter.DEFAULT_JSON_FIELDS,
+					xmlAttributes != null ? xmlAttributes : FieldRewriter.DEFAULT_XML_ATTRIBUTES,
+					xmlElements != null ? xmlElements : FieldRewriter.DEFAULT_XML_ELEMENTS);
+		}
+		
+		proxyMetrics = new ProxyMetrics(servletConfig.getServletContext().getContextPath());
+		servletConfig.getServletContext().setAttribute(ProxyMetrics.ATTRIBUTE_NAME, proxyMetrics);
+		if (Boolean.parseBoolean(servletConfig.getInitParameter("accesslog.enabled"))) {
+			accessLog = new AccessLog(
+					getIntInitParameter(servletConfig, "accesslog.buffer.size", 8192),
+					getIntInitParameter(servletConfig, "accesslog.sample.rate", 100));
+		}
+		
+		String proxyPathParameter = servletConfig.getInitParameter("proxy.path");
+		if (proxyPathParameter != null && proxyPathParameter.trim().length() > 0) {
+			proxyPath = "/" + proxyPathParameter.trim().replaceAll("^/+|/+$", "");
+		}
+		routeTable = createRouteTable(servletConfig);
+		routeTable.register(servletConfig.getServletContext().getContextPath());
+		
+		destinationParameters = new DestinationParameters(servletConfig);
+		deadlineWatchdog = new DeadlineWatchdog();
+		if (isEnabledForAnyDestination(servletConfig, "hedging.enabled")) {
+			requestHedger = new RequestHedger(
+					getIntInitParameter(servletConfig, "hedging.percentile", 95),
+					getIntInitParameter(servletConfig, "hedging.min.delay", 50),
+					getIntInitParameter(servletConfig, "hedging.threads", 16));
+		}
+		
+		boolean bulkheadEnabled = Boolean.parseBoolean(servletConfig.getInitParameter("bulkhead.enabled"));
+		boolean circuitBreakerEnabled = Boolean.parseBoolean(servletConfig.getInitParameter("circuitbreaker.enabled"));
+		if (bulkheadEnabled || circuitBreakerEnabled) {
+			proxyLimits = new ProxyLimits(destinationParameters, servletConfig.getServletContext().getContextPath(), 
+					bulkheadEnabled, circuitBreakerEnabled);
+		}
+		
+		if (Boolean.parseBoolean(servletConfig.getInitParameter("cache.enabled"))) {
+			responseCache = new ResponseCache(
+					getIntInitParameter(servletConfig, "cache.max.size", 64 * 1024 * 1024),
+					getIntInitParameter(servletConfig, "cache.max.entry.size", 1024 * 1024),
+					Boolean.parseBoolean(servletConfig.getInitParameter("cache.offheap")));
+		}
+		
+		if (Boolean.parseBoolean(servletConfig.getInitParameter("coalescing.enabled"))) {
+			String varyHeaders = servletConfig.getInitParameter("coalescing.vary.headers");
+			requestCoalescer = new RequestCoalescer(
+					getIntInitParameter(servletConfig, "coalescing.max.wait", 5000),
+					getIntInitParameter(servletConfig, "coalescing.max.size", 1024 * 1024),
+					varyHeaders != null ? varyHeaders : "Accept, Accept-Language");
+		}
+		
+		if (Boolean.parseBoolean(servletConfig.getInitParameter("compression.enabled"))) {
+			String compressionContentTypes = servletConfig.getInitParameter("compression.content.types");
+			responseCompressor = new ResponseCompressor(
+					getIntInitParameter(servletConfig, "compression.level", 6),
+					getIntInitParameter(servletConfig, "compression.min.size", 1024),
+					compressionContentTypes != null ? compressionContentTypes : ResponseCompressor.DEFAULT_CONTENT_TYPES,
+					getIntInitParameter(servletConfig, "compression.pool.size", 64));
+		}
+		
+		if (Boolean.parseBoolean(servletConfig.getInitParameter("buffering.enabled"))) {
+			String bufferingDirectory = servletConfig.getInitParameter("buffering.directory");
+			File tempDirectory = bufferingDirectory != null ? new File(bufferingDirectory) 
+					: (File) servletConfig.getServletContext().getAttribute("javax.servlet.context.tempdir");
+			if (tempDirectory == null) {
+				tempDirectory = new File(System.getProperty("java.io.tmpdir"));
+			}
+			responseBuffers = new ResponseBuffers(tempDirectory, 
+					getIntInitParameter(servletConfig, "buffering.memory.size", 64 * 1024),
+					getIntInitParameter(servletConfig, "buffering.max.size", 16 * 1024 * 1024),
+					getIntInitParameter(servletConfig, "buffering.max.total", 256 * 1024 * 1024));
+		}
+		
+		if (Boolean.parseBoolean(servletConfig.getInitParameter("async.enabled"))) {
+			int asyncThreads = getIntInitParameter(servletConfig, "async.threads", 50);
+			asyncExecutor = new ThreadPoolExecutor(asyncThreads, asyncThreads, 60, TimeUnit.SECONDS, 
+					new ArrayBlockingQueue<Runnable>(getIntInitParameter(servletConfig, "async.queue.size", 1000)),
+					new DaemonThreadFactory("async"));
+			asyncExecutor.allowCoreThreadTimeOut(true);
+			asyncTimeout = getIntInitParameter(servletConfig, "async.timeout", 60000);
+		}
+		
+		if (Boolean.parseBoolean(servletConfig.getInitParameter("batch.enabled"))) {
+			String batchPath = servletConfig.getInitParameter("batch.path");
+			if (batchPath == null) {
+				batchPath = proxyPath + "/$batch";
+			}
+			batchHandler = new BatchHandler(new BatchPipeline(), batchPath, 
+					getBatchDestinations(servletConfig),
+					getIntInitParameter(servletConfig, "batch.max.requests", 20),
+					getIntInitParameter(servletConfig, "batch.max.size", 1024 * 1024),
+					getIntInitParameter(servletConfig, "batch.max.concurrent", 4),
+					getIntInitParameter(servletConfig, "batch.max.response.size", 1024 * 1024),
+					getIntInitParameter(servletConfig, "batch.threads", 16),
+					getIntInitParameter(servletConfig, "batch.queue.size", 100));
+		}
+		
+		// without warm-up, the servlet is ready right away
+		startupWarmup = new StartupWarmup(destinationCache, clientRegistry, destinationParameters,
+				getIntInitParameter(servletConfig, "warmup.timeout", 60),
+				getIntInitParameter(servletConfig, "warmup.threads", 8));
+		if (Boolean.parseBoolean(servletConfig.getInitParameter("warmup.enabled"))) {
+			startupWarmup.start(getWarmupDestinations(servletConfig));
+		}
+		servletConfig.getServletContext().setAttribute(StartupWarmup.ATTRIBUTE_NAME, startupWarmup);
+	}
+	
+	/*
+	 * @see javax.servlet.GenericServlet#destroy()
+	 */
+	public void destroy() {
+		if (startupWarmup != null) {
+			getServletContext().removeAttribute(StartupWarmup.ATTRIBUTE_NAME);
+			startupWarmup.shutdown();
+		}
+		if (asyncExecutor != null) {
+			asyncExecutor.shutdownNow();
+		}
+		if (batchHandler != null) {
+			batchHandler.shutdown();
+		}
+		if (routeTable != null) {
+			routeTable.shutdown();
+		}
+		if (destinationCache != null) {
+			destinationCache.shutdown();
+		}
+		if (requestHedger != null) {
+			requestHedger.shutdown();
+		}
+		if (deadlineWatchdog != null) {
+			deadlineWatchdog.shutdown();
+		}
+		if (proxyMetrics != null) {
+			getServletContext().removeAttribute(ProxyMetrics.ATTRIBUTE_NAME);
+			proxyMetrics.unregister();
+		}
+		if (proxyLimits != null) {
+			proxyLimits.unregister();
+		}
+		if (accessLog != null) {
+			accessLog.shutdown();
+		}
+		if (clientRegistry != null) {
+			clientRegistry.shutdown();
+		}
+		if (responseCompressor != null) {
+			responseCompressor.shutdown();
+		}
+		super.destroy();
+	}
+
+	protected void service(HttpServletRequest request, HttpServletResponse response) throws ServletException,
+			IOException {
+		if (batchHandler != null && batchHandler.isBatchRequest(request)) {
+			batchHandler.handle(request, response);
+		} else if (asyncExecutor != null && request.isAsyncSupported()) {
+			startAsync(request, response);
+		} else {
+			proxy(request, response, new ProxyExchange());
+		}
+	}
+
+	/**
+	 * Releases the container thread and proxies the request on a worker thread. The 
+	 * request is answered with 503 if all workers are busy and their queue is full, and 
+	 * with 504 if the backend does not answer within the async timeout. 
+	 */
+	private void startAsync(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		AsyncContext asyncContext = request.startAsync(new AsyncRequest(request), response);
+		asyncContext.setTimeout(asyncTimeout);
+		AsyncProxyTask task = new AsyncProxyTask(asyncContext);
+		asyncContext.addListener(task);
+		try {
+			asyncExecutor.execute(task);
+		} catch (RejectedExecutionException e) {
+			LOGGER.error("Request rejected, all asynchronous workers are busy");
+			task.reject(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+		}
+	}
+
+	/**
+	 * Proxies the given request to its destination and copies the backend response to 
+	 * the given response. The request is recorded in the metrics of its destination.
+	 */
+	private void proxy(HttpServletRequest request, HttpServletResponse response, ProxyExchange exchange) throws ServletException,
+			IOException {
+
+		LOGGER.debug(">>>>>>>>>>>> start request");
+		boolean succeeded = false;
+		try {
+			proxyToDestination(request, response, exchange);
+			succeeded = true;
+		} finally {
+			int status = succeeded ? response.getStatus() : 0;
+			DestinationMetrics metrics = exchange.getMetrics();
+			if (metrics != null) {
+				metrics.requestFinished(exchange, status);
+			}
+			if (accessLog != null) {
+				accessLog.log(request.getMethod(), exchange, status);
+			}
+			LOGGER.debug(">>>>>>>>>>>> end request");
+		}
+	}
+	
+	private void proxyToDestination(HttpServletRequest request, HttpServletResponse response, ProxyExchange exchange) 
+			throws ServletException, IOException {
+		// resolve the route, i.e. the destination and the path below it, from the URL
+		String requestUri = request.getRequestURI();
+		String servletPath = request.getServletPath();
+		int contextPathLength = request.getContextPath().length();
+		int nameStart = contextPathLength + proxyPath.length() + 1;
+		boolean belowProxyPath = requestUri.length() >= nameStart && requestUri.charAt(nameStart - 1) == '/' 
+				&& requestUri.startsWith(proxyPath, contextPathLength);
+		int nameEnd;
+		Route route;
+		if (servletPath.equals(proxyPath)) {
+			// single mapping for all destinations, the route is the first segment below the proxy path
+			nameEnd = belowProxyPath ? requestUri.indexOf('/', nameStart) : -1;
+			if (nameEnd < 0) {
+				nameEnd = requestUri.length();
+			}
+			route = belowProxyPath ? routeTable.resolve(requestUri, nameStart, nameEnd) : null;
+			if (route == null) {
+				LOGGER.debug("no route for {}", requestUri);
+				response.sendError(HttpServletResponse.SC_NOT_FOUND, "No destination for " + requestUri);
+				return;
+			}
+		} else {
+			// mapping per destination, the last segment of the servlet path names the destination
+			route = routeTable.resolveMapped(getDestinationFromUrl(servletPath));
+			nameEnd = contextPathLength + servletPath.length();
+			belowProxyPath = belowProxyPath && nameEnd == nameStart + route.getName().length();
+		}
+		String destinationName = route.getDestinationName();
+		String urlToService = route.getBackendPath(requestUri, Math.min(nameEnd + 1, requestUri.length()), 
+				request.getQueryString());
+		if (urlToService == null) {
+			LOGGER.debug("dot segments in {} below route {}", requestUri, route);
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid path " + requestUri);
+			return;
+		}
+		LOGGER.debug("relative path to service, incl. query string: {}", urlToService);
+	
+		// get the http client for the destination
+		long lookupStart = System.nanoTime();
+		ResolvedDestination destination = getDestination(destinationName);	
+		exchange.setLookupTime(System.nanoTime() - lookupStart);
+		DestinationMetrics metrics = proxyMetrics.get(destinationName);
+		metrics.requestStarted();
+		exchange.setMetrics(metrics);
+		DestinationLimits limits = proxyLimits != null ? proxyLimits.get(destinationName) : null;
+		exchange.setLimits(limits);
+		String rewriteUrl = destination.getRewriteUrl();  
+		String proxyUrl = belowProxyPath ? route.getProxyUrl(request, nameEnd) : getProxyUrl(request);
+		
+		// answer from the cache if possible
+		String cacheKey = responseCache != null ? responseCache.getKey(request, proxyUrl, urlToService) : null;
+		CachedResponse cached = cacheKey != null ? responseCache.get(cacheKey, request) : null;
+		if (cached != null && cached.isFresh() && !ResponseCache.requiresRevalidation(request)) {
+			LOGGER.debug("response served from cache");
+			exchange.addBytesOut(cached.writeTo(request, response));
+			return;
+		}
+		
+		// wait for an identical request which is already in flight
+		String flightKey = requestCoalescer != null ? requestCoalescer.getKey(request, proxyUrl, urlToService) : null;
+		RequestCoalescer.Flight flight = flightKey != null ? requestCoalescer.join(flightKey) : null;
+		if (flight != null && !flight.isLeader()) {
+			checkCancelled(exchange);
+			CachedResponse shared = awaitFlight(flight);
+			// a cancelled asynchronous request may not be answered by its worker anymore
+			checkCancelled(exchange);
+			if (shared != null) {
+				LOGGER.debug("response shared with identical request");
+				exchange.addBytesOut(shared.writeTo(request, response));
+				return;
+			}
+			flight = null;
+		}
+		
+		BackendTimeouts timeouts = getBackendTimeouts(destinationName);
+		long timeout = getTotalTimeout(request, timeouts);
+		boolean permitted = false;
+		boolean backendCalled = false;
+		int backendStatus = 0;
+		HttpClient httpClient = null;
+		ResponseBuffer bufferedResponse = null;
+		boolean processed = false;
+		HttpRequestBase backendRequest = null;
+		boolean completed = false;
+		CachedResponse sharedResponse = null;
+		try {
+			// the whole exchange is aborted when its deadline has passed
+			if (timeout > 0) {
+				exchange.setDeadline(exchange.getStartTime() + TimeUnit.MILLISECONDS.toNanos(timeout));
+				deadlineWatchdog.watch(exchange);
+			}
+			
+			// fail fast if the destination is overloaded or failing
+			if (limits != null) {
+				checkCancelled(exchange);
+				long retryAfter = limits.acquire();
+				if (retryAfter > 0) {
+					LOGGER.debug("request to destination {} rejected, retry after {} s", destinationName, retryAfter);
+					response.setHeader("Retry-After", String.valueOf(retryAfter));
+					response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, 
+							"Destination " + destinationName + " is overloaded or unavailable");
+					return;
+				}
+				permitted = true;
+				checkCancelled(exchange);
+			}
+			httpClient = clientRegistry.acquire(destination);
+		
+			// create request to targeted backend service
+			backendRequest = getBackendRequest(request, urlToService);
+			boolean revalidating = cached != null && cached.addValidators(backendRequest, request);
+			prepareBackendRequest(backendRequest, timeouts, exchange);
+			exchange.setBackendRequest(backendRequest);
+
+			// execute the backend request, hedged if it is idempotent and the backend is slow
+			boolean hedgeable = requestHedger != null && timeouts.isHedgingEnabled() && isHedgeable(request);
+			long hedgeDelay = hedgeable && HttpClientRegistry.isPoolable(httpClient) 
+					? requestHedger.getDelay(destinationName) : -1;
+			long backendStart = System.nanoTime();
+			backendCalled = true;
+			HttpResponse backendResponse;
+			if (hedgeDelay >= 0) {
+				RequestHedger.Attempt attempt = requestHedger.execute(httpClient, backendRequest, 
+						new HedgeRequestFactory(request, urlToService, cached, timeouts, exchange), exchange, hedgeDelay);
+				backendRequest = attempt.request;
+				backendResponse = attempt.response;
+			} else {
+				backendResponse = httpClient.execute(backendRequest);
+			}
+			exchange.setBackendTime(System.nanoTime() - backendStart);
+			if (hedgeable) {
+				requestHedger.record(destinationName, exchange.getBackendTime());
+			}
+			backendStatus = backendResponse.getStatusLine().getStatusCode();
+			
+			if (revalidating && backendStatus == HttpServletResponse.SC_NOT_MODIFIED) {
+				// the cached response is still valid
+				LOGGER.debug("cached response revalidated");
+				EntityUtils.consume(backendResponse.getEntity());
+				responseCache.revalidated(cacheKey, request, cached, backendResponse);
+				exchange.addBytesOut(cached.writeTo(request, response));
+				completed = true;
+				sharedResponse = cached;
+				return;
+			}
+			CachedResponse.Capture capture = cacheKey != null ? responseCache.startCapture(request, backendResponse) : null;
+			CachedResponse.Capture flightCapture = flight != null ? requestCoalescer.startCapture(backendResponse) : null;
+					
+			// process response from backend request and pipe it to origin response of client
+			long transferStart = System.nanoTime();
+			bufferedResponse = processBackendResponse(request, response, backendResponse, exchange, destinationName, 
+					proxyUrl, rewriteUrl, CachedResponse.Capture.combine(capture, flightCapture));
+			exchange.setTransferTime(System.nanoTime() - transferStart);
+			completed = true;
+			
+			if (capture != null) {
+				responseCache.put(cacheKey, request, capture);
+			}
+			if (flightCapture != null) {
+				sharedResponse = flightCapture.toResponse(request, false);
+			}
+			processed = true;
+		} catch (DestinationException e) {
+			throw new ServletException(e);
+		} catch (IOException e) {
+			// timeouts of the backend call are answered with 504 if that is still possible
+			if ((exchange.isDeadlineExceeded() || (e instanceof InterruptedIOException && !exchange.isAborted())) 
+					&& !response.isCommitted()) {
+				LOGGER.error("Backend call of destination {} timed out: {}", destinationName, e);
+				response.reset();
+				response.sendError(HttpServletResponse.SC_GATEWAY_TIMEOUT, 
+						"Backend call of destination " + destinationName + " timed out");
+				return;
+			}
+			throw e;
+		} finally {
+			if (timeout > 0) {
+				deadlineWatchdog.unwatch(exchange);
+			}
+			if (permitted) {
+				limits.release(backendCalled, backendStatus == 0 || backendStatus >= 500, exchange.getBackendTime());
+			}
+			if (flight != null) {
+				requestCoalescer.complete(flight, sharedResponse);
+			}
+			// a pooled connection must not be handed back with an unread response on it
+			if (!completed && backendRequest != null) {
+				backendRequest.abort();
+			}
+			clientRegistry.release(httpClient);
+			if (!processed && bufferedResponse != null) {
+				bufferedResponse.release();
+			}
+		}
+		
+		// a buffered response is sent after the backend connection and the limits have been released
+		if (bufferedResponse != null) {
+			long sendStart = System.nanoTime();
+			try {
+				bufferedResponse.drain();
+			} finally {
+				bufferedResponse.release();
+			}
+			exchange.setTransferTime(exchange.getTransferTime() + System.nanoTime() - sendStart);
+		}
+	}
+
+	
+	/**
+	 * Waits for the response of the leader of the given flight. Returns <code>null</code> 
+	 * if the request has to call the backend itself.
+	 */
+	private static CachedResponse awaitFlight(RequestCoalescer.Flight flight) throws IOException {
+		try {
+			return flight.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for identical request");
+		}
+	}
+	
+	/**
+	 * Fails if the given exchange has been cancelled, e.g. because its asynchronous 
+	 * request timed out while it was waiting.
+	 */
+	private static void checkCancelled(ProxyExchange exchange) throws InterruptedIOException {
+		if (exchange.isCancelled()) {
+			throw new InterruptedIOException("Request cancelled");
+		}
+	}
+	
+	/**
+	 * Returns the URL to the proxy servlet and used destination. 
+	 */
+	private String getProxyUrl(HttpServletRequest request) throws MalformedURLException {
+ 		URL url = new URL(request.getRequestURL().toString());
+		String proxyUrl = 
+				request.getScheme() + "://" + url.getAuthority() + 
+				request.getContextPath() + request.getServletPath();
+		return proxyUrl; 
+	}
+	
+	/**
+	 * Process response received from backend service and copy it to origin response of 
+	 * client.
+	 * 
+	 * @param request
+	 *            origin request of this Web application
+	 * @param response
+	 *            origin response of this Web application; this is where the
+	 *            backend response is copied to
+	 * @param backendResponse
+	 *            the response of the backend service
+	 * @param exchange
+	 *            the exchange the transferred bytes are counted in
+	 * @param destinationName
+	 *            the destination the backend response was received from
+	 * @param proxyUrl
+	 * 			  the URL that should replace the <code>rewriteUrl</code>
+	 * @param rewriteUrl
+	 * 			  the URL that should be rewritten 
+	 * @param capture
+	 * 			  records the response sent to the client, may be <code>null</code>
+	 * @return the buffer with the content which still has to be sent to the client, 
+	 *         <code>null</code> if the content has been sent
+	 */
+	private ResponseBuffer processBackendResponse(HttpServletRequest request, HttpServletResponse response, HttpResponse backendResponse, 
+			ProxyExchange exchange, String destinationName, String proxyUrl, String rewriteUrl, CachedResponse.Capture capture)
+			throws IOException, ServletException {
+		// copy response status code
+		int status = backendResponse.getStatusLine().getStatusCode();
+		response.setStatus(status);
+		if (capture != null) {
+			capture.setStatus(status);
+		}
+		LOGGER.debug("backend response status code: {}", status);
+
+		HttpEntity entity = backendResponse.getEntity();
+		Header contentType = entity != null ? entity.getContentType() : null;
+		// partial content is passed through byte for byte, as its Content-Range and Content-Length 
+		// refer to the content of the backend
+		boolean partial = status == HttpServletResponse.SC_PARTIAL_CONTENT;
+		boolean rewrite = !partial 
+				&& rewritePolicy.isRewriteEnabled(destinationName, contentType != null ? contentType.getValue() : null);
+
+		// compress the content toward the client if it accepts that; the passed through content 
+		// only if it is not encoded already
+		boolean compress = !partial && responseCompressor != null 
+				&& responseCompressor.isCompressible(request, backendResponse, rewrite);
+
+		// for rewriting or compressing the response, content-length, content-encoding 
+		// and transfer-encoding (for chunked content) headers are removed and handled specially.
+		HeaderNameSet handledHeaders = rewrite || compress ? REWRITTEN_RESPONSE_HEADERS : PASSED_RESPONSE_HEADERS;
+		// filter the headers to suppress the authentication dialog (only for
+		// 401 - unauthorized)
+		boolean suppressAuthentication = status == HttpServletResponse.SC_UNAUTHORIZED 
+				&& request.getHeader("authorization") != null && request.getHeader("suppress-www-authenticate") != null;
+
+		// copy backend response headers and content
+		boolean debug = LOGGER.isDebugEnabled();
+		if (debug) {
+			LOGGER.debug("backend response headers: ");
+		}
+		for (Header header : backendResponse.getAllHeaders()) {
+			String name = header.getName();
+			if (!handledHeaders.contains(name) && headerPolicy.isResponseHeaderAllowed(name)
+					&& !(suppressAuthentication && "www-authenticate".equalsIgnoreCase(name))) {
+				String value = header.getValue();
+				if (LOCATION_HEADERS.contains(name) && value != null && rewriteUrl.length() > 0 
+						&& value.startsWith(rewriteUrl) && rewritePolicy.isRewriteEnabled(destinationName, null)) {
+					// redirects and created resources point to the proxy servlet as well
+					value = proxyUrl + value.substring(rewriteUrl.length());
+				}
+				response.addHeader(name, value);
+				if (capture != null) {
+					capture.addHeader(name, value);
+				}
+				if (debug) {
+					LOGGER.debug("    => {}: {}", name, value);
+				}
+			} else if (debug) {
+				LOGGER.debug("    => {}: blocked response header", name);
+			}
+		}
+				
+		if (entity == null) {
+			return null;
+		}
+		// the content of batch parts is buffered by the batch already
+		ResponseBuffer buffer = responseBuffers != null && !(response instanceof BatchResponse) 
+				? responseBuffers.create(response.getOutputStream()) : null;
+		OutputStream client = buffer != null ? buffer : response.getOutputStream();
+		if (!rewrite) {
+			// pass the content through as it is, including its original encoding
+			LOGGER.debug("content is passed through without URL rewriting");
+			CountingOutputStream counter = new CountingOutputStream(client);
+			OutputStream out = wrapResponseStream(counter, capture);
+			GzipOutputStream gzip = compress ? responseCompressor.wrap(out, response) : null;
+			exchange.addBytesIn(pipe(entity.getContent(), gzip != null ? gzip : out, gzip, capture));
+			exchange.addBytesOut(counter.getCount());
+			return buffer;
+		}
+		
+		handleContentEncoding(backendResponse);
+		entity = backendResponse.getEntity();
+		
+		// rewrite URL in the content of the response to make sure that
+		// internal URLs point to the proxy servlet as well. The content is rewritten 
+		// while it is streamed, so the new content length is unknown and the response 
+		// is sent chunked.
+			
+		// determine charset (by default HttpClient uses ISO-8859-1)
+		String charset = EntityUtils.getContentCharSet(entity);
+		if (charset == null) {
+			charset = ISO_8859_1;
+		}
+		
+		LOGGER.debug("URL rewriting:"); 
+		LOGGER.debug("    => rewriteUrl: {}", rewriteUrl);
+		LOGGER.debug("    => proxyUrl: {}", proxyUrl);
+		
+		// replace the rewriteUrl with the proxyUrl and return the modified content
+		CountingOutputStream counter = new CountingOutputStream(client);
+		GzipOutputStream gzip = compress ? responseCompressor.wrap(wrapResponseStream(counter, capture), response) : null;
+		OutputStream out = gzip != null ? gzip : wrapResponseStream(counter, capture);
+		if (rewriteUrl.length() > 0) {
+			OutputStream fieldsOut = fieldRewriter != null 
+					? fieldRewriter.wrap(out, contentType != null ? contentType.getValue() : null, rewriteUrl, proxyUrl, charset) 
+					: null;
+			out = fieldsOut != null ? fieldsOut : new UrlRewritingOutputStream(out, rewriteUrl, proxyUrl, charset);
+		}
+		exchange.addBytesIn(pipe(entity.getContent(), out, gzip, capture));
+		exchange.addBytesOut(counter.getCount());
+		return buffer;
+	}
+
+	/**
+	 * Returns the stream the content for the client is written to: it is recorded by the 
+	 * capture, if any, as it is sent, i.e. already compressed if requested, and then 
+	 * written to the given stream.
+	 */
+	private static OutputStream wrapResponseStream(OutputStream out, CachedResponse.Capture capture) {
+		return capture != null ? capture.wrap(out) : out;
+	}
+	
+	/**
+	 * Pipes the content to the client like {@link #pipe(InputStream, OutputStream)}. If 
+	 * that fails, the deflater of the given compressing stream is released right away 
+	 * instead of holding native memory until the stream is garbage collected. Otherwise 
+	 * the headers of the compression are recorded by the capture, if any, as it holds the 
+	 * compressed content.
+	 */
+	private static long pipe(InputStream in, OutputStream out, GzipOutputStream gzip, CachedResponse.Capture capture) 
+			throws IOException {
+		long count;
+		try {
+			count = pipe(in, out);
+		} finally {
+			if (gzip != null) {
+				gzip.release();
+			}
+		}
+		if (gzip != null && capture != null) {
+			capture.addHeader("Vary", "Accept-Encoding");
+			if (gzip.isCompressing()) {
+				capture.addHeader("Content-Encoding", "gzip");
+				if (gzip.getETag() != null) {
+					capture.setHeader("ETag", gzip.getETag());
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the timeouts of the given destination, read from the init parameters on 
+	 * first use.
+	 */
+	private BackendTimeouts getBackendTimeouts(String destinationName) {
+		BackendTimeouts timeouts = backendTimeouts.get(destinationName);
+		if (timeouts == null) {
+			timeouts = BackendTimeouts.create(destinationParameters, destinationName);
+			BackendTimeouts current = backendTimeouts.putIfAbsent(destinationName, timeouts);
+			if (current != null) {
+				timeouts = current;
+			}
+		}
+		return timeouts;
+	}
+	
+	/**
+	 * Returns the total timeout of the given request in milliseconds, 0 if there is none. 
+	 * A timeout sent by the client is honored, but it cannot exceed the timeout of the 
+	 * destination.
+	 */
+	private static long getTotalTimeout(HttpServletRequest request, BackendTimeouts timeouts) {
+		long timeout = timeouts.getTotalTimeout();
+		String clientTimeout = request.getHeader(TIMEOUT_HEADER);
+		if (clientTimeout != null) {
+			try {
+				long value = Long.parseLong(clientTimeout.trim());
+				if (value > 0 && (timeout == 0 || value < timeout)) {
+					timeout = value;
+				}
+			} catch (NumberFormatException e) {
+				LOGGER.debug("Ignoring invalid {} header {}", TIMEOUT_HEADER, clientTimeout);
+			}
+		}
+		return timeout;
+	}
+	
+	/**
+	 * Applies the timeouts to the given backend request and passes the remaining time 
+	 * until the deadline of the exchange, if any, on to the backend.
+	 */
+	private static void prepareBackendRequest(HttpRequestBase backendRequest, BackendTimeouts timeouts, ProxyExchange exchange) 
+			throws InterruptedIOException {
+		timeouts.apply(backendRequest);
+		if (exchange.getDeadline() != 0) {
+			long remaining = TimeUnit.NANOSECONDS.toMillis(exchange.getDeadline() - System.nanoTime());
+			if (remaining <= 0) {
+				exchange.abortDeadlineExceeded();
+				throw new InterruptedIOException("Deadline exceeded before the backend was called");
+			}
+			backendRequest.setHeader(TIMEOUT_HEADER, String.valueOf(remaining));
+		}
+	}
+	
+	/**
+	 * Returns <code>true</code> if the given request may be sent to the backend twice.
+	 */
+	private static boolean isHedgeable(HttpServletRequest request) {
+		String method = request.getMethod();
+		return ("GET".equals(method) || "HEAD".equals(method)) && !hasRequestBody(request);
+	}
+	
+	/**
+	 * Returns the request that points to the backend service defined by the provided 
+	 * <code>urlToService</code> URL. The headers of the origin request are copied to 
+	 * the backend request, except of "host" and "content-length". The body of the origin 
+	 * request, if any, is streamed to the backend without buffering it. Any HTTP method 
+	 * is supported.
+	 * 
+	 * @param request
+	 *            original request to the Web application
+	 * @param urlToService
+	 *            URL to the targeted backend service
+	 * @return initialized backend service request
+	 * @throws IOException 
+	 */
+	HttpRequestBase getBackendRequest(HttpServletRequest request, String urlToService)
+			throws IOException {
+		String method = request.getMethod();
+		LOGGER.debug("HTTP method: {}", method);
+		
+		HttpRequestBase backendRequest = null;
+		if (hasRequestBody(request)) {
+			// stream the request body to the backend; without content length it is sent chunked
+			InputStreamEntity entity = new InputStreamEntity(request.getInputStream(), request.getContentLength());
+			entity.setContentType(request.getHeader("Content-Type"));
+			BackendEntityRequest entityRequest = new BackendEntityRequest(method, urlToService);
+			entityRequest.setEntity(entity);
+			backendRequest = entityRequest;
+		} else {
+			backendRequest = new BackendRequest(method, urlToService);
+		}
+
+		// copy headers from Web application request to backend request, while
+		// filtering the blocked headers
+		
+		boolean debug = LOGGER.isDebugEnabled();
+		if (debug) {
+			LOGGER.debug("backend request headers:");
+		}
+
+		if (headerPolicy.isRequestHeaderAllowed("Cookie")) {
+			Enumeration<String> setCookieHeaders = request.getHeaders("Cookie");
+			while(setCookieHeaders.hasMoreElements()) {
+				String cookieHeader = setCookieHeaders.nextElement();
+				if (containsIgnoreCase(cookieHeader, "sap_sessionid")) {
+					String replacedCookie = removeJSessionID(cookieHeader);
+					backendRequest.addHeader("Cookie", replacedCookie);
+				} 
+				if (debug) {
+					LOGGER.debug("Cookie header => {}", cookieHeader);
+				}
+			}
+		}
+		
+		for (Enumeration<String> e = request.getHeaderNames(); e.hasMoreElements();) {
+			String headerName = e.nextElement();
+			if (headerPolicy.isRequestHeaderAllowed(headerName)) {
+				backendRequest.addHeader(headerName, request.getHeader(headerName));
+				if (debug) {
+					LOGGER.debug("    => {}: {}", headerName, request.getHeader(headerName));
+				}
+			} else if (debug) {
+				LOGGER.debug("    => {}: blocked request header", headerName);
+			}
+		}
+
+		return backendRequest;
+	}
+	
+	/**
+	 * Returns <code>true</code> if the given request carries a body which has to be 
+	 * forwarded to the backend. 
+	 */
+	private static boolean hasRequestBody(HttpServletRequest request) {
+		String method = request.getMethod();
+		return "POST".equals(method) || "PUT".equals(method) || "PATCH".equals(method)
+				|| request.getContentLength() > 0 || request.getHeader("Transfer-Encoding") != null;
+	}
+	
+	String removeJSessionID(String cookieHeader) { 
+		if (cookieHeader.contains("JSESSIONID")) {
+			int beginIndex = cookieHeader.indexOf("JSESSIONID");
+			int endIndex = cookieHeader.indexOf(";", beginIndex+ 12);
+			String jSeesionSubstring = cookieHeader.substring(beginIndex, endIndex);
+			String result  = cookieHeader.replace(jSeesionSubstring +";", "");
+			return result;
+		}
+		return cookieHeader;
+	}
+	
+	/**
+	 * Returns <code>true</code> if the given value contains the given lowercase string, 
+	 * ignoring case.
+	 */
+	private static boolean containsIgnoreCase(String value, String lowerCaseString) {
+		for (int i = 0, last = value.length() - lowerCaseString.length(); i <= last; i++) {
+			if (value.regionMatches(true, i, lowerCaseString, 0, lowerCaseString.length())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the specified destination, usually from the destination cache. 	 
+	 */
+	private ResolvedDestination getDestination(String destinationName) throws ServletException {
+		try {
+			return destinationCache.get(destinationName); 
+		} catch (Exception e) {
+			throw new ServletException(writeMessage("Unable to resolve destination " + destinationName), e);
+		}
+	}
+
+	/**
+	 * Returns the destination name defined in the specified URL path. 
+	 * It is assumed that the specified path consists of following parts:  
+	 * <pre>
+	 *  <destinationName>/relativePathToService
+	 * </pre>
+	 */
+	  String getDestinationFromUrl(String servletPath) throws ServletException {
+	        String destinationName = null;
+	        int index = servletPath.lastIndexOf("/");
+	        if (index != -1) {
+	        	destinationName = servletPath.substring(index + 1, servletPath.length());
+	        }
+	        if (destinationName == null) {
+	        	throw new ServletException(writeMessage("No destination specified"));
+	        }
+	        LOGGER.debug("destination read from URL path: {}", destinationName);
+	        return destinationName;
+	  }
+	
+	  
+	private void handleContentEncoding(HttpResponse response) throws ServletException {
+		HttpEntity entity = response.getEntity();
+		if (entity != null) {
+			Header contentEncodingHeader = entity.getContentEncoding();
+			if (contentEncodingHeader != null) {
+				HeaderElement[] codecs = contentEncodingHeader.getElements();
+				LOGGER.debug("Content-Encoding in response:");
+				for (HeaderElement codec : codecs) {
+					String codecname = codec.getName().toLowerCase();
+					LOGGER.debug("    => codec: {}", codecname);
+					if ("gzip".equals(codecname) || "x-gzip".equals(codecname)) {
+						response.setEntity(new GzipDecompressingEntity(response.getEntity()));
+						return;
+					} else if ("deflate".equals(codecname)) {
+						response.setEntity(new DeflateDecompressingEntity(response.getEntity()));
+						return;
+					} else if ("identity".equals(codecname)) {
+						return;
+					} else {
+						throw new ServletException("Unsupported Content-Encoding: " + codecname);
+					}
+				}
+			}
+		}
+	}		
+	
+	/**
+	 * Pipes a given <code>InputStream</code> into the given
+	 * <code>OutputStream</code>
+	 * 
+	 * @param in
+	 *            <code>InputStream</code>
+	 * @param out
+	 *            <code>OutputStream</code>
+	 * @return the number of bytes piped
+	 * @throws IOException
+	 */
+	private static long pipe(InputStream in, OutputStream out) throws IOException {
+		return pipe(in, out, IO_BUFFER_SIZE);
+	}
+
+	/**
+	 * Pipes a given <code>InputStream</code> into the given
+	 * <code>OutputStream</code> using a buffer of the given size
+	 */
+	static long pipe(InputStream in, OutputStream out, int bufferSize) throws IOException {
+		byte[] b = new byte[bufferSize];
+		long count = 0;
+		int read;
+		while ((read = in.read(b)) != -1) {
+			out.write(b, 0, read);
+			count += read;
+		}
+		in.close();
+		out.flush();
+		out.close();
+		return count;
+	}
+	
+
+	/**
+	 * Creates the route table from the init parameters <code>route.&lt;name&gt;</code>, 
+	 * <code>routes.file</code>, <code>routes.allowed</code> and 
+	 * <code>routes.reload.interval</code>. A relative routes file is resolved against the 
+	 * root of the Web application.
+	 */
+	private static RouteTable createRouteTable(ServletConfig servletConfig) {
+		Map<String, String> routes = new LinkedHashMap<String, String>();
+		for (Enumeration<String> names = servletConfig.getInitParameterNames(); names.hasMoreElements();) {
+			String name = names.nextElement();
+			if (name.startsWith("route.") && name.length() > "route.".length()) {
+				routes.put(name.substring("route.".length()), servletConfig.getInitParameter(name));
+			}
+		}
+		File routesFile = null;
+		String routesFileName = servletConfig.getInitParameter("routes.file");
+		if (routesFileName != null) {
+			routesFile = new File(routesFileName);
+			if (!routesFile.isAbsolute()) {
+				String realPath = servletConfig.getServletContext().getRealPath("/" + routesFileName);
+				if (realPath != null) {
+					routesFile = new File(realPath);
+				}
+			}
+		}
+		return new RouteTable(routes, routesFile, servletConfig.getInitParameter("routes.allowed"), 
+				getIntInitParameter(servletConfig, "routes.reload.interval", 60));
+	}
+
+	/**
+	 * Returns the destinations which can be called in batches, i.e. the ones of the init 
+	 * parameter <code>batch.destinations</code>. Returns <code>null</code> if it is 
+	 * <code>*</code>, so that the route table decides. As the security constraints of 
+	 * the destination URLs do not apply to the requests of a batch, no destination can 
+	 * be called without the parameter.
+	 */
+	private static Set<String> getBatchDestinations(ServletConfig servletConfig) {
+		Set<String> destinations = new HashSet<String>();
+		String batchDestinations = servletConfig.getInitParameter("batch.destinations");
+		if (batchDestinations == null) {
+			LOGGER.warn("Batches are enabled, but batch.destinations does not list any destination");
+			return destinations;
+		}
+		if (batchDestinations.trim().equals("*")) {
+			return null;
+		}
+		for (String destination : batchDestinations.split(",")) {
+			if (destination.trim().length() > 0) {
+				destinations.add(destination.trim());
+			}
+		}
+		LOGGER.debug("destinations available in batches: {}", destinations);
+		return destinations;
+	}
+
+	/**
+	 * Returns the destinations which are warmed up at startup: the configured ones, or 
+	 * else all destinations of routes and of the mappings of the servlet below the proxy 
+	 * path.
+	 */
+	private Set<String> getWarmupDestinations(ServletConfig servletConfig) {
+		Set<String> destinations = new LinkedHashSet<String>();
+		String warmupDestinations = servletConfig.getInitParameter("warmup.destinations");
+		if (warmupDestinations != null) {
+			for (String destination : warmupDestinations.split(",")) {
+				if (destination.trim().length() > 0) {
+					destinations.add(destination.trim());
+				}
+			}
+			return destinations;
+		}
+		destinations.addAll(routeTable.getDestinationNames());
+		ServletRegistration registration = servletConfig.getServletContext().getServletRegistration(
+				servletConfig.getServletName());
+		if (registration != null) {
+			for (String name : BatchHandler.getMappedDestinations(registration.getMappings(), proxyPath + "/")) {
+				destinations.add(routeTable.resolveMapped(name).getDestinationName());
+			}
+		}
+		return destinations;
+	}
+
+	/**
+	 * Returns <code>true</code> if the given boolean init parameter is set to true, either 
+	 * in general or for any destination.
+	 */
+	private static boolean isEnabledForAnyDestination(ServletConfig servletConfig, String name) {
+		for (Enumeration<String> names = servletConfig.getInitParameterNames(); names.hasMoreElements();) {
+			String parameterName = names.nextElement();
+			if ((parameterName.equals(name) || parameterName.startsWith(name + "."))
+					&& Boolean.parseBoolean(servletConfig.getInitParameter(parameterName))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the value of the given init parameter as int, or the default value if the 
+	 * parameter is not set or is not a number. 
+	 */
+	private static int getIntInitParameter(ServletConfig servletConfig, String name, int defaultValue) {
+		String value = servletConfig.getInitParameter(name);
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			LOGGER.error("Provided {} {} is not a number, using {}", name, value, defaultValue);
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * Proxies an asynchronous request on a worker thread and completes its 
+	 * <code>AsyncContext</code> exactly once: when the response is written, when 
+	 * proxying fails or when the request times out.
+	 * <p>
+	 * The response is only used by one thread at a time. As long as the worker has not
+	 * started, a timeout or error is answered by the container thread. Once it has 
+	 * started, the container thread cancels the exchange and waits until the worker has 
+	 * answered and completed the request. A worker which waits for an identical request 
+	 * or a bulkhead gives up once its wait ends, and writing the response fails. The 
+	 * container waits as long as these waits may take plus a grace period; a worker 
+	 * which does not finish in that time is abandoned and does not touch the response 
+	 * anymore.
+	 */
+	private class AsyncProxyTask implements Runnable, AsyncListener {
+		private static final int QUEUED = 0;
+		private static final int RUNNING = 1;
+		private static final int DONE = 2;
+		private static final int ABANDONED = 3;
+		
+		private final AsyncContext asyncContext;
+		private final ProxyExchange exchange = new ProxyExchange();
+		private final AtomicInteger state = new AtomicInteger(QUEUED);
+		private final CountDownLatch finished = new CountDownLatch(1);
+		private volatile boolean timedOut;
+
+		AsyncProxyTask(AsyncContext asyncContext) {
+			this.asyncContext = asyncContext;
+		}
+
+		public void run() {
+			if (!state.compareAndSet(QUEUED, RUNNING)) {
+				// timed out or failed while waiting for a worker
+				return;
+			}
+			int status = 0;
+			try {
+				proxy((HttpServletRequest) asyncContext.getRequest(), 
+						new AsyncResponse((HttpServletResponse) asyncContext.getResponse(), exchange), exchange);
+			} catch (Exception e) {
+				if (timedOut) {
+					LOGGER.debug("Asynchronous request aborted after timeout: {}", e.getMessage());
+					status = HttpServletResponse.SC_GATEWAY_TIMEOUT;
+				} else if (exchange.isAborted()) {
+					LOGGER.debug("Asynchronous request aborted: {}", e.getMessage());
+				} else {
+					LOGGER.error("Asynchronous request failed", e);
+					status = HttpServletResponse.SC_BAD_GATEWAY;
+				}
+			} finally {
+				if (state.compareAndSet(RUNNING, DONE)) {
+					complete(status);
+				} else {
+					LOGGER.debug("Abandoned asynchronous worker finished");
+				}
+				finished.countDown();
+			}
+		}
+
+		public void onTimeout(AsyncEvent event) throws IOException {
+			LOGGER.error("Asynchronous request timed out after {} ms", asyncTimeout);
+			timedOut = true;
+			stop(HttpServletResponse.SC_GATEWAY_TIMEOUT);
+		}
+
+		public void onError(AsyncEvent event) throws IOException {
+			stop(0);
+		}
+
+		public void onComplete(AsyncEvent event) throws IOException {
+		}
+
+		public void onStartAsync(AsyncEvent event) throws IOException {
+		}
+
+		/*
+		 * answers a request which no worker has taken yet, e.g. because all workers 
+		 * are busy
+		 */
+		void reject(int status) {
+			if (state.compareAndSet(QUEUED, DONE)) {
+				complete(status);
+			}
+		}
+
+		/*
+		 * called by the container thread: a queued request is answered right away, the 
+		 * worker of a running one is aborted and answers it on its own
+		 */
+		private void stop(int status) {
+			if (state.compareAndSet(QUEUED, DONE)) {
+				complete(status);
+				return;
+			}
+			exchange.cancel();
+			long gracePeriod = getAbortGracePeriod();
+			try {
+				if (!finished.await(gracePeriod, TimeUnit.MILLISECONDS)) {
+					if (state.compareAndSet(RUNNING, ABANDONED)) {
+						LOGGER.error("Asynchronous worker did not finish within {} ms after its request was aborted", 
+								gracePeriod);
+						return;
+					}
+					// the worker is completing the request right now
+					finished.await(gracePeriod, TimeUnit.MILLISECONDS);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		/*
+		 * time the worker may still wait for an identical request and for the bulkhead of 
+		 * its destination, plus the time to abort the backend call and answer the request
+		 */
+		private long getAbortGracePeriod() {
+			long gracePeriod = ASYNC_ABORT_GRACE_PERIOD;
+			if (requestCoalescer != null) {
+				gracePeriod += requestCoalescer.getMaxWait();
+			}
+			DestinationLimits limits = exchange.getLimits();
+			if (limits != null) {
+				gracePeriod += limits.getMaxWait();
+			}
+			return gracePeriod;
+		}
+
+		/*
+		 * sends the given error status, if there is one and the response has not been 
+		 * committed yet, and completes the request
+		 */
+		private void complete(int status) {
+			try {
+				HttpServletResponse response = (HttpServletResponse) asyncContext.getResponse();
+				if (status > 0 && !response.isCommitted()) {
+					response.sendError(status);
+				}
+			} catch (Exception e) {
+				LOGGER.debug("Sending error status {} failed: {}", status, e.getMessage());
+			} finally {
+				try {
+					asyncContext.complete();
+				} catch (IllegalStateException e) {
+					LOGGER.debug("Completing asynchronous request failed: {}", e.getMessage());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Proxies the requests of a batch like single requests.
+	 */
+	private class BatchPipeline implements BatchHandler.Pipeline {
+		public void proxy(HttpServletRequest request, HttpServletResponse response, ProxyExchange exchange)
+				throws ServletException, IOException {
+			ProxyServlet.this.proxy(request, response, exchange);
+		}
+	}
+
+	/**
+	 * Creates the second attempt of a hedged backend call, the same way as the first one.
+	 */
+	private class HedgeRequestFactory implements RequestHedger.RequestFactory {
+		private final HttpServletRequest request;
+		private final String urlToService;
+		private final CachedResponse cached;
+		private final BackendTimeouts timeouts;
+		private final ProxyExchange exchange;
+
+		HedgeRequestFactory(HttpServletRequest request, String urlToService, CachedResponse cached, 
+				BackendTimeouts timeouts, ProxyExchange exchange) {
+			this.request = request;
+			this.urlToService = urlToService;
+			this.cached = cached;
+			this.timeouts = timeouts;
+			this.exchange = exchange;
+		}
+
+		public HttpRequestBase create() throws IOException {
+			HttpRequestBase backendRequest = getBackendRequest(request, urlToService);
+			if (cached != null) {
+				cached.addValidators(backendRequest, request);
+			}
+			prepareBackendRequest(backendRequest, timeouts, exchange);
+			return backendRequest;
+		}
+	}
+
+	/**
+	 * Request which is proxied asynchronously. Some containers reset the paths of the 
+	 * request as soon as <code>service()</code> returns, so they are kept here.
+	 */
+	private static class AsyncRequest extends HttpServletRequestWrapper {
+		private final String contextPath;
+		private final String servletPath;
+		private final String pathInfo;
+
+		AsyncRequest(HttpServletRequest request) {
+			super(request);
+			this.contextPath = request.getContextPath();
+			this.servletPath = request.getServletPath();
+			this.pathInfo = request.getPathInfo();
+		}
+
+		@Override
+		public String getContextPath() {
+			return contextPath;
+		}
+
+		@Override
+		public String getServletPath() {
+			return servletPath;
+		}
+
+		@Override
+		public String getPathInfo() {
+			return pathInfo;
+		}
+	}
+
+	/**
+	 * Response of a request which is proxied asynchronously. Once its exchange has been 
+	 * cancelled, the container may complete the request at any time, so writing content or 
+	 * an error fails instead of touching the response of the container.
+	 */
+	private static class AsyncResponse extends HttpServletResponseWrapper {
+		private final ProxyExchange exchange;
+		private ServletOutputStream outputStream;
+
+		AsyncResponse(HttpServletResponse response, ProxyExchange exchange) {
+			super(response);
+			this.exchange = exchange;
+		}
+
+		@Override
+		public ServletOutputStream getOutputStream() throws IOException {
+			checkCancelled(exchange);
+			if (outputStream == null) {
+				final ServletOutputStream out = super.getOutputStream();
+				outputStream = new ServletOutputStream() {
+					@Override
+					public void write(int b) throws IOException {
+						checkCancelled(exchange);
+						out.write(b);
+					}
+
+					@Override
+					public void write(byte[] b, int off, int len) throws IOException {
+						checkCancelled(exchange);
+						out.write(b, off, len);
+					}
+
+					@Override
+					public void flush() throws IOException {
+						checkCancelled(exchange);
+						out.flush();
+					}
+
+					@Override
+					public void close() throws IOException {
+						checkCancelled(exchange);
+						out.close();
+					}
+				};
+			}
+			return outputStream;
+		}
+
+		@Override
+		public void sendError(int status) throws IOException {
+			checkCancelled(exchange);
+			super.sendError(status);
+		}
+
+		@Override
+		public void sendError(int status, String message) throws IOException {
+			checkCancelled(exchange);
+			super.sendError(status, message);
+		}
+
+		@Override
+		public void flushBuffer() throws IOException {
+			checkCancelled(exchange);
+			super.flushBuffer();
+		}
+	}
+
+	/**
+	 * Backend request without body for an arbitrary HTTP method, e.g. GET, HEAD, 
+	 * DELETE or OPTIONS.
+	 */
+	private static class BackendRequest extends HttpRequestBase {
+		private final String method;
+
+		BackendRequest(String method, String uri) {
+			this.method = method;
+			setURI(URI.create(uri));
+		}
+
+		@Override
+		public String getMethod() {
+			return method;
+		}
+	}
+
+	/**
+	 * Backend request with body for an arbitrary HTTP method, e.g. POST, PUT or PATCH.
+	 */
+	private static class BackendEntityRequest extends HttpEntityEnclosingRequestBase {
+		private final String method;
+
+		BackendEntityRequest(String method, String uri) {
+			this.method = method;
+			setURI(URI.create(uri));
+		}
+
+		@Override
+		public String getMethod() {
+			return method;
+		}
+	}
+
+	private String writeMessage(String message) {
+		StringBuilder b = new StringBuilder();
+		b.append("\nInvalid usage: ").append(message);
+		b.append("\n");
+		b.append("\nUsage of proxy servlet:");
+		b.append("\n=======================");
+		b.append("\nIt is assumed that the URL to the servlet follows the pattern ");
+		b.append("\n==> /<context-path>/proxy/<destination-name>/<relative-path-below-destination-target>");
+		b.append("\n");
+		return b.toString();
+	}
 }
\ No newline at end of file
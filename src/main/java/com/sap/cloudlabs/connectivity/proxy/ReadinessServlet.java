@@ -0,0 +1,57 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Reports whether the proxy servlet of the same Web application is ready for traffic,
+ * e.g. as readiness check of a load balancer. It answers with 200 as soon as the
+ * startup warm-up of the proxy servlet is done, and with 503 before.
+ */
+public class ReadinessServlet extends HttpServlet {
+
+	private static final long serialVersionUID = 1L;
+
+	protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException,
+			IOException {
+		StartupWarmup warmup = (StartupWarmup) getServletContext().getAttribute(StartupWarmup.ATTRIBUTE_NAME);
+		response.setContentType("text/plain; charset=UTF-8");
+		response.setHeader("Cache-Control", "no-cache");
+		if (warmup == null) {
+			response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+			writeStatus(response, "Proxy servlet is not initialized");
+		} else if (!warmup.isReady()) {
+			response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+			writeStatus(response, "Proxy servlet is warming up");
+		} else {
+			writeStatus(response, "Proxy servlet is ready");
+		}
+	}
+
+	private static void writeStatus(HttpServletResponse response, String status) throws IOException {
+		PrintWriter writer = response.getWriter();
+		writer.println(status);
+		writer.flush();
+	}
+}
@@ -0,0 +1,103 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The latencies of the most recent calls of a destination and a percentile of them.
+ * Unlike a {@link LatencyHistogram}, which holds the rounded latencies of all calls
+ * since startup, the percentile is exact and follows a backend which slows down or
+ * recovers within one window of calls.
+ * <p>
+ * Recording only writes into a ring of the latest latencies. The percentile is
+ * recomputed from a sorted copy of the ring once a number of new latencies have been
+ * recorded since the last computation.
+ */
+class RecentLatencies {
+
+	private final AtomicLongArray latencies;
+
+	private final AtomicLong recorded = new AtomicLong();
+
+	private final double percentile;
+
+	private final int minSamples;
+
+	/* latencies recorded when the percentile was computed, -1 before */
+	private volatile long computedAt = -1;
+
+	private volatile long percentileNanos;
+
+	/**
+	 * @param windowSize
+	 *            number of latest latencies the percentile is computed of
+	 * @param percentile
+	 *            the percentile between 0 and 100
+	 * @param minSamples
+	 *            number of latencies which have to be recorded before the percentile
+	 *            is computed, and after which it is recomputed
+	 */
+	RecentLatencies(int windowSize, double percentile, int minSamples) {
+		this.latencies = new AtomicLongArray(windowSize);
+		this.percentile = percentile;
+		this.minSamples = minSamples;
+	}
+
+	/**
+	 * Records the given latency in nanoseconds; negative values are ignored.
+	 */
+	void record(long nanos) {
+		if (nanos < 0) {
+			return;
+		}
+		long index = recorded.getAndIncrement();
+		latencies.set((int) (index % latencies.length()), nanos);
+	}
+
+	/**
+	 * Returns the percentile of the latest latencies in nanoseconds, or -1 if fewer
+	 * than the minimum number of latencies have been recorded yet.
+	 */
+	long getPercentile() {
+		long count = recorded.get();
+		if (count < minSamples) {
+			return -1;
+		}
+		if (computedAt < 0 || count - computedAt >= minSamples) {
+			compute(count);
+		}
+		return percentileNanos;
+	}
+
+	private synchronized void compute(long count) {
+		if (computedAt >= 0 && count - computedAt < minSamples) {
+			// computed by another thread in the meantime
+			return;
+		}
+		long[] window = new long[(int) Math.min(count, latencies.length())];
+		for (int i = 0; i < window.length; i++) {
+			window[i] = latencies.get(i);
+		}
+		Arrays.sort(window);
+		int rank = (int) Math.ceil(window.length * percentile / 100);
+		percentileNanos = window[Math.max(0, Math.min(window.length, rank) - 1)];
+		computedAt = count;
+	}
+}
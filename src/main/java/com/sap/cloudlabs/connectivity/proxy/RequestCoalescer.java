@@ -0,0 +1,202 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+
+/**
+ * Coalesces identical GET requests which arrive while a backend call for the same
+ * resource is in flight.
+ * <p>
+ * The first request becomes the leader of a {@link Flight} and calls the backend.
+ * Identical requests which arrive meanwhile wait for the leader and get a copy of the
+ * response it has sent to its client, instead of calling the backend themselves.
+ * Requests are identical if they have the same destination, relative URL, user,
+ * <code>Accept-Encoding</code> and values of the configured headers. The user is the
+ * principal or, for anonymous requests, the cookies forwarded to the backend. Only
+ * successful and cacheable responses are shared. If the leader fails, its response
+ * is larger than the configured threshold, or the maximum wait time is exceeded, the
+ * waiting requests call the backend on their own.
+ */
+class RequestCoalescer {
+
+	private final ConcurrentHashMap<String, Flight> flights = new ConcurrentHashMap<String, Flight>();
+
+	private final long maxWaitMillis;
+
+	private final int maxSize;
+
+	private final String[] varyHeaders;
+
+	/**
+	 * @param maxWaitMillis
+	 *            maximum time a request waits for the response of its leader
+	 * @param maxSize
+	 *            maximum content size of a response to be shared, in bytes
+	 * @param varyHeaders
+	 *            comma separated list of request headers which have to be equal for
+	 *            requests to be coalesced, may be <code>null</code>
+	 */
+	RequestCoalescer(long maxWaitMillis, int maxSize, String varyHeaders) {
+		this.maxWaitMillis = maxWaitMillis;
+		this.maxSize = maxSize;
+		List<String> names = new ArrayList<String>();
+		if (varyHeaders != null) {
+			for (String name : varyHeaders.split(",")) {
+				if (name.trim().length() > 0) {
+					names.add(name.trim());
+				}
+			}
+		}
+		this.varyHeaders = names.toArray(new String[names.size()]);
+	}
+
+	/**
+	 * Returns the key of identical requests for the given request, or <code>null</code>
+	 * if the request must not be coalesced.
+	 * 
+	 * @param proxyUrl
+	 *            the URL to the proxy servlet and destination
+	 * @param urlToService
+	 *            the relative URL of the backend resource, incl. query string
+	 */
+	String getKey(HttpServletRequest request, String proxyUrl, String urlToService) {
+		if (!"GET".equals(request.getMethod()) || request.getHeader("Range") != null) {
+			return null;
+		}
+		StringBuilder key = new StringBuilder(proxyUrl.length() + urlToService.length() + 64);
+		key.append(proxyUrl).append('/').append(urlToService).append('\n');
+		if (!ResponseCache.appendUser(key, request)) {
+			// credentials of an unknown user, the response must not be shared
+			return null;
+		}
+		// responses which are passed through keep the content encoding of the backend
+		key.append('\n').append(request.getHeader("Accept-Encoding"));
+		for (String name : varyHeaders) {
+			key.append('\n').append(request.getHeader(name));
+		}
+		return key.toString();
+	}
+
+	/**
+	 * Joins the flight for the given key. If there is no flight in progress, a new one
+	 * is started with the calling request as leader, which has to
+	 * {@link #complete(Flight, CachedResponse)} it in any case.
+	 */
+	Flight join(String key) {
+		Flight flight = new Flight(key);
+		Flight leader = flights.putIfAbsent(key, flight);
+		return leader != null ? new Flight(leader) : flight;
+	}
+
+	/**
+	 * Returns a capture which records the response of the leader while it is sent to
+	 * its client, or <code>null</code> if the response cannot be shared.
+	 */
+	CachedResponse.Capture startCapture(HttpResponse backendResponse) {
+		if (!isShareable(backendResponse.getStatusLine().getStatusCode()) || backendResponse.containsHeader("Set-Cookie")) {
+			return null;
+		}
+		HttpEntity entity = backendResponse.getEntity();
+		if (entity != null && entity.getContentLength() > maxSize) {
+			return null;
+		}
+		return new CachedResponse.Capture(maxSize, new String[0], 0);
+	}
+
+	/*
+	 * successful responses and those which are cacheable by default, errors of the
+	 * leader are not handed to the waiting requests
+	 */
+	private static boolean isShareable(int status) {
+		return (status >= 200 && status < 300 && status != HttpServletResponse.SC_PARTIAL_CONTENT)
+				|| status == HttpServletResponse.SC_MULTIPLE_CHOICES || status == HttpServletResponse.SC_MOVED_PERMANENTLY
+				|| status == HttpServletResponse.SC_NOT_FOUND || status == HttpServletResponse.SC_GONE;
+	}
+
+	/**
+	 * Completes the given flight of a leader and hands its response to all waiting
+	 * requests.
+	 * 
+	 * @param response
+	 *            the response to share, or <code>null</code> if the waiting requests
+	 *            have to call the backend themselves
+	 */
+	void complete(Flight flight, CachedResponse response) {
+		flights.remove(flight.key, flight);
+		flight.response = response;
+		flight.done.countDown();
+	}
+
+	/**
+	 * A backend call in progress, as seen by its leader or by one of the requests
+	 * waiting for it.
+	 */
+	class Flight {
+		private final String key;
+
+		/* the flight of the leader, null for the leader itself */
+		private final Flight leader;
+
+		private final CountDownLatch done;
+
+		private volatile CachedResponse response;
+
+		private Flight(String key) {
+			this.key = key;
+			this.leader = null;
+			this.done = new CountDownLatch(1);
+		}
+
+		private Flight(Flight leader) {
+			this.key = leader.key;
+			this.leader = leader;
+			this.done = leader.done;
+		}
+
+		boolean isLeader() {
+			return leader == null;
+		}
+
+		/**
+		 * Waits for the response of the leader, at most for the configured time.
+		 * 
+		 * @return the response of the leader, or <code>null</code> if the waiting
+		 *         request has to call the backend itself
+		 */
+		CachedResponse await() throws InterruptedException {
+			return done.await(maxWaitMillis, TimeUnit.MILLISECONDS) ? leader.response : null;
+		}
+	}
+
+	/**
+	 * Returns the maximum time in milliseconds a request waits for its leader.
+	 */
+	long getMaxWait() {
+		return maxWaitMillis;
+	}
+}
@@ -0,0 +1,326 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hedges idempotent backend calls: if the backend has not answered a call after a
+ * delay, which is a high percentile of the latencies of its latest calls, a second
+ * attempt is sent and whichever answers first wins. The other attempt is aborted.
+ * <p>
+ * The first attempt runs on the calling thread, so calls which are answered in time
+ * cost no more than scheduling a task. A single timer thread hands second attempts to
+ * a bounded pool of threads without a queue. If all of them are busy with second
+ * attempts, e.g. because the backend is slow as a whole, the call is not hedged, so
+ * that a busy pool never delays second attempts beyond their delay.
+ */
+class RequestHedger {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(RequestHedger.class);
+
+	/* minimum number of recorded latencies before calls of a destination are hedged, and
+	 * number of new ones after which the delay is recomputed */
+	private static final int MIN_SAMPLES = 100;
+
+	/* number of latest calls of a destination the delay is computed of */
+	private static final int WINDOW_SIZE = 1000;
+
+	private final ConcurrentHashMap<String, RecentLatencies> latencies = new ConcurrentHashMap<String, RecentLatencies>();
+
+	private final double percentile;
+
+	private final long minDelayMillis;
+
+	/* fires the delays after which second attempts are sent, never blocks */
+	private final ScheduledThreadPoolExecutor scheduler;
+
+	/* sends second attempts */
+	private final ThreadPoolExecutor executor;
+
+	/**
+	 * @param percentile
+	 *            percentile of the backend latency after which the second attempt is
+	 *            sent, e.g. 95
+	 * @param minDelayMillis
+	 *            minimum delay before the second attempt is sent
+	 * @param threads
+	 *            maximum number of threads which send second attempts, and thereby
+	 *            of second attempts in flight
+	 */
+	RequestHedger(double percentile, long minDelayMillis, int threads) {
+		this.percentile = percentile;
+		this.minDelayMillis = minDelayMillis;
+		this.scheduler = new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory("hedging-timer"));
+		// no queue, a second attempt which would have to wait for a thread is not sent
+		this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+				new SynchronousQueue<Runnable>(), new DaemonThreadFactory("hedging"));
+		this.executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Records the backend latency of a call of the given destination which could be
+	 * hedged.
+	 */
+	void record(String destinationName, long nanos) {
+		getLatencies(destinationName).record(nanos);
+	}
+
+	/**
+	 * Returns the delay in milliseconds after which a call of the given destination is
+	 * hedged, or -1 if too few latencies have been recorded yet.
+	 */
+	long getDelay(String destinationName) {
+		long percentileNanos = getLatencies(destinationName).getPercentile();
+		if (percentileNanos < 0) {
+			return -1;
+		}
+		return Math.max(minDelayMillis, (long) Math.ceil(percentileNanos / 1000000.0));
+	}
+
+	/**
+	 * Executes the given request and, if it is not answered within the given delay, a
+	 * second attempt created by the given factory.
+	 * 
+	 * @return the attempt which was answered first, together with its response
+	 */
+	Attempt execute(final HttpClient client, HttpRequestBase request, final RequestFactory factory,
+			final ProxyExchange exchange, long delayMillis) throws IOException {
+		final Race race = new Race();
+		ScheduledFuture<?> hedge = scheduler.schedule(new Runnable() {
+			public void run() {
+				try {
+					executor.execute(new Runnable() {
+						public void run() {
+							hedge(client, factory, exchange, race);
+						}
+					});
+				} catch (RejectedExecutionException e) {
+					LOGGER.debug("backend call is slow, but all {} threads for second attempts are busy",
+							executor.getMaximumPoolSize());
+				}
+			}
+		}, delayMillis, TimeUnit.MILLISECONDS);
+
+		try {
+			HttpResponse response = client.execute(request);
+			Attempt attempt = new Attempt(request, response);
+			if (race.win(attempt)) {
+				cancel(hedge);
+				race.abortHedge();
+				return attempt;
+			}
+			// the second attempt won in the meantime
+			request.abort();
+			return race.await();
+		} catch (IOException e) {
+			cancel(hedge);
+			// the request fails as well when it is aborted because the second attempt won
+			if (!race.abandon()) {
+				return race.await();
+			}
+			throw e;
+		}
+	}
+
+	void shutdown() {
+		scheduler.shutdownNow();
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Cancels the delay of a second attempt and removes it from the queue of the
+	 * timer, which otherwise keeps cancelled tasks until their delay has passed.
+	 */
+	private void cancel(ScheduledFuture<?> hedge) {
+		if (hedge.cancel(false)) {
+			scheduler.remove((Runnable) hedge);
+		}
+	}
+
+	/**
+	 * Returns the number of delays of second attempts which have not passed yet.
+	 */
+	int getPendingHedges() {
+		return scheduler.getQueue().size();
+	}
+
+	private RecentLatencies getLatencies(String destinationName) {
+		RecentLatencies destinationLatencies = latencies.get(destinationName);
+		if (destinationLatencies == null) {
+			destinationLatencies = new RecentLatencies(WINDOW_SIZE, percentile, MIN_SAMPLES);
+			RecentLatencies current = latencies.putIfAbsent(destinationName, destinationLatencies);
+			if (current != null) {
+				destinationLatencies = current;
+			}
+		}
+		return destinationLatencies;
+	}
+
+	private void hedge(HttpClient client, RequestFactory factory, ProxyExchange exchange, Race race) {
+		HttpRequestBase request = null;
+		try {
+			request = factory.create();
+			if (!race.startHedge(request)) {
+				return;
+			}
+			exchange.setHedgeRequest(request);
+			LOGGER.debug("backend call is slow, sending a second attempt");
+			HttpResponse response = client.execute(request);
+			Attempt attempt = new Attempt(request, response);
+			if (race.win(attempt)) {
+				HttpRequestBase first = exchange.getBackendRequest();
+				if (first != null) {
+					first.abort();
+				}
+			} else {
+				// nobody reads the response, as the first attempt won or the call was abandoned
+				release(request, response);
+			}
+		} catch (Exception e) {
+			race.hedgeFailed(e);
+		}
+	}
+
+	/**
+	 * Returns the connection of a response which is not used to the pool, or closes it
+	 * if the response cannot be read to its end.
+	 */
+	private static void release(HttpRequestBase request, HttpResponse response) {
+		try {
+			EntityUtils.consume(response.getEntity());
+		} catch (IOException e) {
+			request.abort();
+		}
+	}
+
+	/**
+	 * Creates the backend request for a second attempt.
+	 */
+	interface RequestFactory {
+		HttpRequestBase create() throws IOException;
+	}
+
+	/**
+	 * An attempt of a backend call and its response.
+	 */
+	static class Attempt {
+		final HttpRequestBase request;
+		final HttpResponse response;
+
+		Attempt(HttpRequestBase request, HttpResponse response) {
+			this.request = request;
+			this.response = response;
+		}
+	}
+
+	/**
+	 * Decides which attempt wins.
+	 */
+	private static class Race {
+		private Attempt winner;
+		private HttpRequestBase hedgeRequest;
+		private boolean hedgeStarted;
+		private boolean hedgeDone;
+		private boolean decided;
+		private boolean abandoned;
+		private Exception hedgeError;
+
+		synchronized boolean win(Attempt attempt) {
+			if (decided || abandoned) {
+				return false;
+			}
+			decided = true;
+			winner = attempt;
+			notifyAll();
+			return true;
+		}
+
+		synchronized boolean startHedge(HttpRequestBase request) {
+			if (decided || abandoned) {
+				return false;
+			}
+			hedgeStarted = true;
+			hedgeRequest = request;
+			return true;
+		}
+
+		/**
+		 * Gives up the call after the first attempt failed, unless the second attempt has
+		 * been sent already. Returns <code>true</code> if the call has been given up, so
+		 * that no second attempt is sent anymore.
+		 */
+		synchronized boolean abandon() {
+			if (hedgeStarted) {
+				return false;
+			}
+			abandoned = true;
+			return true;
+		}
+
+		synchronized void hedgeFailed(Exception e) {
+			hedgeDone = true;
+			hedgeError = e;
+			notifyAll();
+		}
+
+		synchronized void abortHedge() {
+			if (hedgeRequest != null) {
+				hedgeRequest.abort();
+			}
+		}
+
+		/**
+		 * Waits for the second attempt, once the first one has failed or lost.
+		 */
+		synchronized Attempt await() throws IOException {
+			try {
+				while (winner == null && !hedgeDone) {
+					wait();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				// a response of the second attempt which arrives nevertheless is released
+				abandoned = true;
+				abortHedge();
+				throw new InterruptedIOException("Interrupted while waiting for the second attempt");
+			}
+			if (winner != null) {
+				return winner;
+			}
+			if (hedgeError instanceof IOException) {
+				throw (IOException) hedgeError;
+			}
+			throw new IOException("Second attempt of the backend call failed", hedgeError);
+		}
+	}
+}
@@ -0,0 +1,122 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy;
+
+import java.net.URISyntaxException;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.sap.core.connectivity.api.DestinationException;
+import com.sap.core.connectivity.api.http.HttpDestination;
+
+/**
+ * A destination resolved by the <code>DestinationFactory</code>, together with the
+ * values derived from it which are needed for every request.
+ */
+class ResolvedDestination {
+
+	private final String name;
+
+	private final HttpDestination destination;
+
+	private final String uri;
+
+	private final String rewriteUrl;
+
+	private final String fingerprint;
+
+	private final long loadedAt;
+
+	/**
+	 * @param properties
+	 *            the configured properties of the destination, e.g. its proxy type and
+	 *            authentication, <code>null</code> if they are not available
+	 */
+	ResolvedDestination(String name, HttpDestination destination, Map<String, String> properties)
+			throws DestinationException {
+		this.name = name;
+		this.destination = destination;
+		try {
+			this.uri = String.valueOf(destination.getURI());
+		} catch (URISyntaxException e) {
+			throw new DestinationException("Invalid URI of destination " + name + ": " + e.getMessage());
+		}
+		this.rewriteUrl = uri.endsWith("/") ? uri.substring(0, uri.length() - 1) : uri;
+		this.fingerprint = createFingerprint(uri, properties);
+		this.loadedAt = System.currentTimeMillis();
+	}
+
+	String getName() {
+		return name;
+	}
+
+	HttpDestination getDestination() {
+		return destination;
+	}
+
+	/**
+	 * Returns the URI of the destination as string.
+	 */
+	String getUri() {
+		return uri;
+	}
+
+	/**
+	 * Returns the URL specified in the destination without trailing slash, i.e. the
+	 * URL which is rewritten in backend responses.
+	 */
+	String getRewriteUrl() {
+		return rewriteUrl;
+	}
+
+	/**
+	 * Returns a value which changes as soon as the URI or one of the configured
+	 * properties of the destination, e.g. its proxy type or authentication, changes,
+	 * i.e. whenever clients created before have to be replaced. Without properties,
+	 * only a changed URI is noticed.
+	 */
+	String getFingerprint() {
+		return fingerprint;
+	}
+
+	/**
+	 * Returns the time in milliseconds when the destination was resolved.
+	 */
+	long getLoadedAt() {
+		return loadedAt;
+	}
+
+	/*
+	 * derived from the properties instead of a client of the destination, so that
+	 * resolving a destination does not create a client which is thrown away again
+	 */
+	static String createFingerprint(String uri, Map<String, String> properties) {
+		StringBuilder fingerprint = new StringBuilder(uri);
+		if (properties != null) {
+			// sorted, so that the order in which the properties are returned does not matter
+			for (Map.Entry<String, String> property : new TreeMap<String, String>(properties).entrySet()) {
+				String value = property.getValue();
+				// passwords only contribute their hash code, so that they are not kept in clear text
+				if (value != null && property.getKey().toLowerCase().contains("password")) {
+					value = Integer.toHexString(value.hashCode());
+				}
+				fingerprint.append('|').append(property.getKey()).append('=').append(value);
+			}
+		}
+		return fingerprint.toString();
+	}
+}
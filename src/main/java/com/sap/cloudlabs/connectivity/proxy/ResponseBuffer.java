@@ -0,0 +1,204 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Buffers the content of a response, so that the backend response can be read as fast
+ * as the backend delivers it and its connection is released before the content is
+ * sent to a possibly slow client.
+ * <p>
+ * The content is kept in memory up to a threshold and spilled to a temporary file
+ * beyond that. If the content exceeds the quota of a single response or the total
+ * quota of all buffers, everything buffered so far is sent and the rest of the content
+ * is streamed to the client directly, as without buffer.
+ * <p>
+ * Closing the buffer only marks the end of the content; {@link #drain()} sends it and
+ * {@link #release()} frees the memory, the file and the quota.
+ */
+class ResponseBuffer extends OutputStream {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ResponseBuffer.class);
+
+	private static final int IO_BUFFER_SIZE = 8 * 1024;
+
+	private final OutputStream client;
+
+	private final ResponseBuffers quota;
+
+	private final File directory;
+
+	private final int memorySize;
+
+	private final long maxSize;
+
+	private byte[] memory;
+
+	private int memoryCount;
+
+	private File file;
+
+	private FileChannel channel;
+
+	private long fileCount;
+
+	/* bytes reserved of the total quota */
+	private long reserved;
+
+	/* true once the content is streamed to the client directly */
+	private boolean streaming;
+
+	ResponseBuffer(OutputStream client, ResponseBuffers quota, File directory, int memorySize, long maxSize) {
+		this.client = client;
+		this.quota = quota;
+		this.directory = directory;
+		this.memorySize = memorySize;
+		this.maxSize = maxSize;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (streaming) {
+			client.write(b, off, len);
+			return;
+		}
+		long size = memoryCount + fileCount;
+		if (size + len > maxSize || !quota.reserve(len)) {
+			LOGGER.debug("response buffer quota exceeded after {} bytes, streaming the rest", size);
+			drainBuffered();
+			streaming = true;
+			client.write(b, off, len);
+			return;
+		}
+		reserved += len;
+
+		// fill the memory first, the rest goes to the file
+		int toMemory = Math.min(len, memorySize - memoryCount);
+		if (toMemory > 0) {
+			ensureMemory(memoryCount + toMemory);
+			System.arraycopy(b, off, memory, memoryCount, toMemory);
+			memoryCount += toMemory;
+		}
+		if (toMemory < len) {
+			if (channel == null) {
+				file = File.createTempFile("proxy-response", ".tmp", directory);
+				channel = new RandomAccessFile(file, "rw").getChannel();
+			}
+			ByteBuffer buffer = ByteBuffer.wrap(b, off + toMemory, len - toMemory);
+			while (buffer.hasRemaining()) {
+				fileCount += channel.write(buffer);
+			}
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		if (streaming) {
+			client.flush();
+		}
+	}
+
+	@Override
+	public void close() {
+		// the end of the content, which is sent by drain()
+	}
+
+	/**
+	 * Sends the buffered content to the client and closes its stream.
+	 */
+	void drain() throws IOException {
+		drainBuffered();
+		client.flush();
+		client.close();
+	}
+
+	/**
+	 * Frees the memory, deletes the temporary file and releases the quota. The buffer
+	 * must not be used afterwards.
+	 */
+	void release() {
+		memory = null;
+		memoryCount = 0;
+		closeFile();
+		quota.release(reserved);
+		reserved = 0;
+	}
+
+	private void drainBuffered() throws IOException {
+		if (memoryCount > 0) {
+			client.write(memory, 0, memoryCount);
+		}
+		if (channel != null) {
+			byte[] b = new byte[IO_BUFFER_SIZE];
+			ByteBuffer buffer = ByteBuffer.wrap(b);
+			long position = 0;
+			while (position < fileCount) {
+				buffer.clear();
+				int read = channel.read(buffer, position);
+				if (read < 0) {
+					break;
+				}
+				client.write(b, 0, read);
+				position += read;
+			}
+		}
+		// everything is on its way to the client, the buffer is not needed anymore
+		release();
+	}
+
+	private void ensureMemory(int capacity) {
+		if (memory == null) {
+			memory = new byte[Math.min(memorySize, Math.max(capacity, IO_BUFFER_SIZE))];
+		} else if (memory.length < capacity) {
+			byte[] grown = new byte[Math.min(memorySize, Math.max(capacity, memory.length * 2))];
+			System.arraycopy(memory, 0, grown, 0, memoryCount);
+			memory = grown;
+		}
+	}
+
+	private void closeFile() {
+		if (channel != null) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				LOGGER.debug("Closing temporary file {} failed: {}", file, e.getMessage());
+			}
+			channel = null;
+			fileCount = 0;
+		}
+		if (file != null) {
+			if (!file.delete()) {
+				LOGGER.error("Temporary file {} could not be deleted", file);
+			}
+			file = null;
+		}
+	}
+}
@@ -0,0 +1,92 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Creates the {@link ResponseBuffer}s which decouple the backend from slow clients and
+ * enforces their quotas: the content of a single response and of all responses
+ * together which are buffered at the same time.
+ */
+class ResponseBuffers {
+
+	private final File directory;
+
+	private final int memorySize;
+
+	private final long maxSize;
+
+	private final long maxTotal;
+
+	private final AtomicLong used = new AtomicLong();
+
+	/**
+	 * @param directory
+	 *            directory of the temporary files
+	 * @param memorySize
+	 *            bytes of a response which are kept in memory before it is spilled to
+	 *            a temporary file
+	 * @param maxSize
+	 *            maximum number of bytes buffered of a single response
+	 * @param maxTotal
+	 *            maximum number of bytes buffered of all responses, in memory and on
+	 *            disk
+	 */
+	ResponseBuffers(File directory, int memorySize, long maxSize, long maxTotal) {
+		this.directory = directory;
+		this.memorySize = memorySize;
+		this.maxSize = maxSize;
+		this.maxTotal = maxTotal;
+	}
+
+	/**
+	 * Returns a new buffer for content which is sent to the given stream of the client.
+	 */
+	ResponseBuffer create(OutputStream client) {
+		return new ResponseBuffer(client, this, directory, memorySize, maxSize);
+	}
+
+	/**
+	 * Returns the number of bytes which are buffered at the moment.
+	 */
+	long getUsed() {
+		return used.get();
+	}
+
+	/**
+	 * Reserves the given number of bytes of the total quota, returns <code>false</code>
+	 * if they are not available.
+	 */
+	boolean reserve(long bytes) {
+		while (true) {
+			long current = used.get();
+			if (current + bytes > maxTotal) {
+				return false;
+			}
+			if (used.compareAndSet(current, current + bytes)) {
+				return true;
+			}
+		}
+	}
+
+	void release(long bytes) {
+		used.addAndGet(-bytes);
+	}
+}
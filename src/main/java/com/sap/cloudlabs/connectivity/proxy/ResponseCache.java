@@ -0,0 +1,309 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy;
+
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.http.Header;
+import org.apache.http.HeaderElement;
+import org.apache.http.HttpResponse;
+import org.apache.http.impl.cookie.DateParseException;
+import org.apache.http.impl.cookie.DateUtils;
+
+/**
+ * Size-bounded cache for responses of GET requests, following the
+ * <code>Cache-Control</code>, <code>Expires</code> and <code>Vary</code> headers of the
+ * backend.
+ * <p>
+ * The cache key contains the authenticated principal, so responses are never shared
+ * between users. Anonymous requests are keyed by the cookies they forward to the
+ * backend, e.g. backend sessions, and are not cached at all if they carry credentials.
+ * Cached responses contain the already rewritten and, if requested, compressed content,
+ * so a cache hit neither calls the backend nor rewrites or compresses the content
+ * again. As the content encoding depends on the client, it is part of the key as well.
+ * Stale responses with <code>ETag</code> or <code>Last-Modified</code> are revalidated
+ * with a conditional backend request. If the cache exceeds its maximum size, the least
+ * recently used responses are evicted.
+ */
+class ResponseCache {
+
+	private final LinkedHashMap<String, CachedResponse> entries = new LinkedHashMap<String, CachedResponse>(64, 0.75f, true);
+
+	private final long maxSize;
+
+	private final int maxEntrySize;
+
+	private final boolean offHeap;
+
+	/* bytes occupied by all entries */
+	private long size;
+
+	/**
+	 * @param maxSize
+	 *            maximum size of all cached responses in bytes
+	 * @param maxEntrySize
+	 *            maximum content size of a single response in bytes
+	 * @param offHeap
+	 *            if the content of cached responses should be stored outside of the
+	 *            Java heap
+	 */
+	ResponseCache(long maxSize, int maxEntrySize, boolean offHeap) {
+		this.maxSize = maxSize;
+		this.maxEntrySize = maxEntrySize;
+		this.offHeap = offHeap;
+	}
+
+	/**
+	 * Returns the cache key for the given request, or <code>null</code> if the
+	 * response to the request must neither be taken from nor put into the cache.
+	 * 
+	 * @param proxyUrl
+	 *            the URL to the proxy servlet and destination, which the cached content
+	 *            has been rewritten to
+	 * @param urlToService
+	 *            the relative URL of the backend resource, incl. query string
+	 */
+	String getKey(HttpServletRequest request, String proxyUrl, String urlToService) {
+		if (!"GET".equals(request.getMethod()) || request.getHeader("Range") != null) {
+			return null;
+		}
+		String cacheControl = request.getHeader("Cache-Control");
+		if (cacheControl != null && cacheControl.contains("no-store")) {
+			return null;
+		}
+		StringBuilder key = new StringBuilder(proxyUrl.length() + urlToService.length() + 32);
+		key.append(proxyUrl).append('/').append(urlToService).append('\n');
+		if (!appendUser(key, request)) {
+			return null;
+		}
+		// the content is cached as it was sent, i.e. encoded as the client accepted it
+		key.append('\n').append(request.getHeader("Accept-Encoding"));
+		return key.toString();
+	}
+
+	/**
+	 * Appends the user a response to the given request is specific to to the given
+	 * key: the authenticated principal or, for anonymous requests, the cookies which are
+	 * forwarded to the backend and may e.g. carry a backend session.
+	 * 
+	 * @return <code>false</code> if the response is specific to the credentials of an
+	 *         unknown user and must not be shared at all
+	 */
+	static boolean appendUser(StringBuilder key, HttpServletRequest request) {
+		Principal principal = request.getUserPrincipal();
+		if (principal != null) {
+			key.append(principal.getName());
+			return true;
+		}
+		if (request.getHeader("Authorization") != null) {
+			return false;
+		}
+		for (Enumeration<String> cookies = request.getHeaders("Cookie"); cookies.hasMoreElements();) {
+			key.append('\n').append(cookies.nextElement());
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the cached response for the given key and request, or <code>null</code>
+	 * if there is none. The returned response may be stale.
+	 */
+	CachedResponse get(String key, HttpServletRequest request) {
+		CachedResponse cached;
+		synchronized (this) {
+			cached = entries.get(key);
+		}
+		return cached != null && cached.matchesVary(request) ? cached : null;
+	}
+
+	/**
+	 * Returns <code>true</code> if the client requires a cached response to be
+	 * revalidated with the backend, even if it is fresh.
+	 */
+	static boolean requiresRevalidation(HttpServletRequest request) {
+		String cacheControl = request.getHeader("Cache-Control");
+		if (cacheControl != null && (cacheControl.contains("no-cache") || cacheControl.contains("max-age=0"))) {
+			return true;
+		}
+		String pragma = request.getHeader("Pragma");
+		return pragma != null && pragma.contains("no-cache");
+	}
+
+	/**
+	 * Returns a capture which records the given backend response while it is sent to
+	 * the client, or <code>null</code> if the response must not be cached.
+	 */
+	CachedResponse.Capture startCapture(HttpServletRequest request, HttpResponse backendResponse) {
+		int status = backendResponse.getStatusLine().getStatusCode();
+		if (status != HttpServletResponse.SC_OK || backendResponse.containsHeader("Set-Cookie")) {
+			return null;
+		}
+		String[] varyNames = getVary(backendResponse);
+		long expiresAt = getExpiry(request, backendResponse);
+		if (varyNames == null || expiresAt < 0) {
+			return null;
+		}
+		return new CachedResponse.Capture(maxEntrySize, varyNames, expiresAt);
+	}
+
+	/**
+	 * Puts a captured response into the cache, if its content did not exceed the
+	 * maximum entry size.
+	 */
+	void put(String key, HttpServletRequest request, CachedResponse.Capture capture) {
+		CachedResponse response = capture.toResponse(request, offHeap);
+		if (response != null) {
+			put(key, response);
+		}
+	}
+
+	/**
+	 * Replaces the cached response for the given key, e.g. after it has been
+	 * revalidated. The given backend response determines the new expiry.
+	 */
+	void revalidated(String key, HttpServletRequest request, CachedResponse cached, HttpResponse backendResponse) {
+		long expiresAt = getExpiry(request, backendResponse);
+		if (expiresAt < 0) {
+			remove(key);
+		} else {
+			put(key, cached.withExpiry(expiresAt));
+		}
+	}
+
+	synchronized void remove(String key) {
+		CachedResponse previous = entries.remove(key);
+		if (previous != null) {
+			size -= previous.getSize();
+		}
+	}
+
+	private synchronized void put(String key, CachedResponse response) {
+		CachedResponse previous = entries.put(key, response);
+		size += response.getSize();
+		if (previous != null) {
+			size -= previous.getSize();
+		}
+
+		Iterator<Map.Entry<String, CachedResponse>> eldest = entries.entrySet().iterator();
+		while (size > maxSize && eldest.hasNext()) {
+			size -= eldest.next().getValue().getSize();
+			eldest.remove();
+		}
+	}
+
+	/*
+	 * returns the request headers the response varies on, or null if the response
+	 * varies on something else than request headers
+	 */
+	private static String[] getVary(HttpResponse backendResponse) {
+		List<String> varyNames = new ArrayList<String>();
+		for (Header header : backendResponse.getHeaders("Vary")) {
+			for (String name : header.getValue().split(",")) {
+				name = name.trim();
+				if (name.equals("*")) {
+					return null;
+				}
+				if (name.length() > 0) {
+					varyNames.add(name);
+				}
+			}
+		}
+		return varyNames.toArray(new String[varyNames.size()]);
+	}
+
+	/*
+	 * returns the time in milliseconds until which the response is fresh, or -1 if
+	 * the response must not be cached
+	 */
+	private static long getExpiry(HttpServletRequest request, HttpResponse backendResponse) {
+		long now = System.currentTimeMillis();
+		long maxAge = -1;
+		long sharedMaxAge = -1;
+		boolean noCache = false;
+		for (Header header : backendResponse.getHeaders("Cache-Control")) {
+			for (HeaderElement element : header.getElements()) {
+				String name = element.getName().toLowerCase();
+				if ("no-store".equals(name)) {
+					return -1;
+				} else if ("private".equals(name)) {
+					// cached per user anyway, but anonymous users share their entries
+					if (request.getUserPrincipal() == null) {
+						return -1;
+					}
+				} else if ("no-cache".equals(name)) {
+					noCache = true;
+				} else if ("max-age".equals(name)) {
+					maxAge = parseSeconds(element.getValue());
+				} else if ("s-maxage".equals(name)) {
+					sharedMaxAge = parseSeconds(element.getValue());
+				}
+			}
+		}
+		Header pragma = backendResponse.getFirstHeader("Pragma");
+		if (pragma != null && pragma.getValue().contains("no-cache")) {
+			noCache = true;
+		}
+
+		long lifetime = 0;
+		if (noCache) {
+			lifetime = 0;
+		} else if (sharedMaxAge >= 0) {
+			lifetime = sharedMaxAge * 1000;
+		} else if (maxAge >= 0) {
+			lifetime = maxAge * 1000;
+		} else {
+			Header expires = backendResponse.getFirstHeader("Expires");
+			if (expires != null) {
+				Header date = backendResponse.getFirstHeader("Date");
+				try {
+					long base = date != null ? DateUtils.parseDate(date.getValue()).getTime() : now;
+					lifetime = DateUtils.parseDate(expires.getValue()).getTime() - base;
+				} catch (DateParseException e) {
+					// invalid dates mean already expired
+					lifetime = 0;
+				}
+			}
+		}
+
+		if (lifetime > 0) {
+			return now + lifetime;
+		}
+		// stale right away, worth caching only if it can be revalidated
+		boolean validators = backendResponse.containsHeader("ETag") || backendResponse.containsHeader("Last-Modified");
+		return validators ? now : -1;
+	}
+
+	private static long parseSeconds(String value) {
+		if (value == null) {
+			return -1;
+		}
+		try {
+			return Long.parseLong(value.trim());
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+}
@@ -0,0 +1,146 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy;
+
+import java.io.OutputStream;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+
+/**
+ * Decides whether a response is gzip compressed toward the client and provides the
+ * compressing streams, which share a pool of deflaters.
+ * <p>
+ * A response is compressed if the client accepts gzip, its content type is one of the
+ * configured ones, it is not known to be smaller than the minimum size and neither
+ * already encoded nor marked with <code>Cache-Control: no-transform</code>.
+ */
+class ResponseCompressor {
+
+	/* content types which are compressed if nothing else is configured */
+	static final String DEFAULT_CONTENT_TYPES = RewritePolicy.DEFAULT_CONTENT_TYPES + ", image/svg+xml";
+
+	private final DeflaterPool deflaterPool;
+
+	private final int minSize;
+
+	private final MediaTypeSet contentTypes;
+
+	/**
+	 * @param level
+	 *            compression level from 1 (fastest) to 9 (best compression)
+	 * @param minSize
+	 *            minimum size in bytes of content which is compressed
+	 * @param contentTypes
+	 *            comma separated list of content types to compress, either
+	 *            <code>type/subtype</code> or <code>type/*</code>
+	 * @param poolSize
+	 *            maximum number of idle deflaters which are kept for reuse
+	 */
+	ResponseCompressor(int level, int minSize, String contentTypes, int poolSize) {
+		this.deflaterPool = new DeflaterPool(level, poolSize);
+		this.minSize = minSize;
+		this.contentTypes = new MediaTypeSet(contentTypes);
+	}
+
+	/**
+	 * Returns <code>true</code> if the content of the given backend response should be
+	 * compressed for the given request, once it has been decoded.
+	 * 
+	 * @param decoded
+	 *            <code>true</code> if the content is decoded before it is sent, i.e. its
+	 *            original <code>Content-Encoding</code> does not matter
+	 */
+	boolean isCompressible(HttpServletRequest request, HttpResponse backendResponse, boolean decoded) {
+		HttpEntity entity = backendResponse.getEntity();
+		if (entity == null || "HEAD".equals(request.getMethod()) || !acceptsGzip(request)) {
+			return false;
+		}
+		Header contentType = entity.getContentType();
+		if (contentType == null || !contentTypes.contains(contentType.getValue())) {
+			return false;
+		}
+		if (entity.getContentEncoding() != null) {
+			if (!decoded) {
+				return false;
+			}
+		} else if (entity.getContentLength() >= 0 && entity.getContentLength() < minSize) {
+			// the length of encoded content says nothing about its decoded size
+			return false;
+		}
+		for (Header cacheControl : backendResponse.getHeaders("Cache-Control")) {
+			if (cacheControl.getValue().toLowerCase().contains("no-transform")) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns a stream which compresses the content for the given response and writes it
+	 * to the given stream. The stream sets the <code>Content-Encoding</code> header as soon
+	 * as it starts compressing, so no content must be written to the response before.
+	 * The stream has to be closed or released in any case.
+	 */
+	GzipOutputStream wrap(OutputStream out, HttpServletResponse response) {
+		response.addHeader("Vary", "Accept-Encoding");
+		return new GzipOutputStream(out, response, deflaterPool, minSize);
+	}
+
+	void shutdown() {
+		deflaterPool.shutdown();
+	}
+
+	/**
+	 * Returns <code>true</code> if the <code>Accept-Encoding</code> header of the given
+	 * request contains gzip or * without a quality of 0.
+	 */
+	static boolean acceptsGzip(HttpServletRequest request) {
+		String acceptEncoding = request.getHeader("Accept-Encoding");
+		if (acceptEncoding == null) {
+			return false;
+		}
+		for (String coding : acceptEncoding.split(",")) {
+			String quality = null;
+			int index = coding.indexOf(';');
+			if (index != -1) {
+				quality = coding.substring(index + 1).trim();
+				coding = coding.substring(0, index);
+			}
+			coding = coding.trim();
+			if (coding.equalsIgnoreCase("gzip") || coding.equalsIgnoreCase("x-gzip") || coding.equals("*")) {
+				return quality == null || !isZeroQuality(quality);
+			}
+		}
+		return false;
+	}
+
+	private static boolean isZeroQuality(String quality) {
+		if (!quality.toLowerCase().startsWith("q=")) {
+			return false;
+		}
+		try {
+			return Double.parseDouble(quality.substring(2).trim()) == 0;
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+}
@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Decides whether the URLs in a backend response are rewritten, based on the
+ * destination and the content type of the response.
+ * <p>
+ * Responses which are not rewritten are passed through unchanged, i.e. they are
+ * neither decompressed nor decoded. An optional {@link SecurityHandler} can overrule
+ * the configured content types and destinations.
+ */
+class RewritePolicy {
+
+	/* content types which are rewritten if nothing else is configured */
+	static final String DEFAULT_CONTENT_TYPES = "text/*, application/json, application/javascript, application/x-javascript, "
+			+ "application/xml, application/atom+xml, application/atomsvc+xml, application/xhtml+xml";
+
+	private final MediaTypeSet contentTypes;
+
+	private final Set<String> excludedDestinations = new HashSet<String>();
+
+	private final SecurityHandler securityHandler;
+
+	/**
+	 * @param contentTypes
+	 *            comma separated list of content types to rewrite, either
+	 *            <code>type/subtype</code> or <code>type/*</code>
+	 * @param excludedDestinations
+	 *            comma separated list of destinations whose responses are never
+	 *            rewritten, may be <code>null</code>
+	 * @param securityHandler
+	 *            optional handler which can overrule the configuration, may be
+	 *            <code>null</code>
+	 */
+	RewritePolicy(String contentTypes, String excludedDestinations, SecurityHandler securityHandler) {
+		this.securityHandler = securityHandler;
+		this.contentTypes = new MediaTypeSet(contentTypes);
+		for (String destination : split(excludedDestinations)) {
+			this.excludedDestinations.add(destination);
+		}
+	}
+
+	/**
+	 * Returns <code>true</code> if the URLs in a response of the given destination with
+	 * the given <code>Content-Type</code> header value should be rewritten. Responses
+	 * without content type are rewritten, as they were before this policy existed.
+	 */
+	boolean isRewriteEnabled(String destinationName, String contentType) {
+		if (securityHandler != null) {
+			Boolean decision = securityHandler.isRewriteEnabled(destinationName, contentType);
+			if (decision != null) {
+				return decision.booleanValue();
+			}
+		}
+		if (excludedDestinations.contains(destinationName.toLowerCase())) {
+			return false;
+		}
+		if (contentType == null) {
+			return true;
+		}
+		return contentTypes.contains(contentType);
+	}
+
+	private static Set<String> split(String list) {
+		Set<String> values = new HashSet<String>();
+		if (list != null) {
+			for (String value : list.split(",")) {
+				value = value.trim().toLowerCase();
+				if (value.length() > 0) {
+					values.add(value);
+				}
+			}
+		}
+		return values;
+	}
+}
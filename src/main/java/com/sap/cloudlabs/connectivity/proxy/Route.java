@@ -0,0 +1,195 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Route from the first segment of the proxy path, e.g. <code>nw</code> in
+ * <code>/proxy/nw/Customers</code>, to a destination and an optional path below the
+ * URL of the destination, which is prepended to the path of the request.
+ * <p>
+ * A route caches its proxy URL, i.e. the URL the URLs of the destination are rewritten
+ * to, per host the proxy is called with.
+ */
+class Route {
+
+	/* upper bound of cached proxy URLs, as the host header is chosen by the client */
+	private static final int MAX_PROXY_URLS = 16;
+
+	private final String name;
+
+	private final String destinationName;
+
+	private final String prefix;
+
+	private final ConcurrentHashMap<String, String> proxyUrls = new ConcurrentHashMap<String, String>();
+
+	/**
+	 * @param name
+	 *            first segment of the proxy path which selects the route
+	 * @param destinationName
+	 *            destination the requests are proxied to
+	 * @param prefix
+	 *            path below the URL of the destination, empty if there is none
+	 */
+	Route(String name, String destinationName, String prefix) {
+		this.name = name;
+		this.destinationName = destinationName;
+		this.prefix = trimSlashes(prefix);
+	}
+
+	/**
+	 * Parses a route definition of the form <code>destination[/path]</code>.
+	 */
+	static Route parse(String name, String definition) {
+		definition = trimSlashes(definition.trim());
+		int slash = definition.indexOf('/');
+		return slash < 0 ? new Route(name, definition, "") : new Route(name, definition.substring(0, slash),
+				definition.substring(slash + 1));
+	}
+
+	String getName() {
+		return name;
+	}
+
+	String getDestinationName() {
+		return destinationName;
+	}
+
+	String getPrefix() {
+		return prefix;
+	}
+
+	/**
+	 * Returns the path relative to the URL of the destination for the given request
+	 * URI, whose path below the route starts at the given index, and query string.
+	 * Returns <code>null</code> if the route has a prefix and the path contains dot
+	 * segments, which could lead out of the path of the route.
+	 */
+	String getBackendPath(String requestUri, int pathStart, String queryString) {
+		if (prefix.length() > 0 && hasDotSegment(requestUri, pathStart)) {
+			return null;
+		}
+		int queryLength = queryString != null && queryString.length() > 0 ? queryString.length() + 1 : 0;
+		StringBuilder path = new StringBuilder(prefix.length() + 1 + requestUri.length() - pathStart + queryLength);
+		if (prefix.length() > 0) {
+			path.append(prefix);
+			if (pathStart < requestUri.length()) {
+				path.append('/');
+			}
+		}
+		if (requestUri.indexOf(' ', pathStart) < 0) {
+			path.append(requestUri, pathStart, requestUri.length());
+		} else {
+			// replace spaces with %20 in the path
+			path.append(requestUri.substring(pathStart).replace(" ", "%20"));
+		}
+		if (queryLength > 0) {
+			path.append('?').append(queryString);
+		}
+		return path.toString();
+	}
+
+	/**
+	 * Returns the URL of the proxy for this route, i.e. the scheme and host of the given
+	 * request followed by the first <code>pathEnd</code> characters of its URI.
+	 */
+	String getProxyUrl(HttpServletRequest request, int pathEnd) throws MalformedURLException {
+		String scheme = request.getScheme();
+		String host = request.getHeader("Host");
+		String proxyUrl = host != null ? proxyUrls.get(host) : null;
+		if (proxyUrl != null && proxyUrl.startsWith(scheme) && proxyUrl.charAt(scheme.length()) == ':') {
+			return proxyUrl;
+		}
+		URL url = new URL(request.getRequestURL().toString());
+		proxyUrl = scheme + "://" + url.getAuthority() + request.getRequestURI().substring(0, pathEnd);
+		if (host != null && (proxyUrls.size() < MAX_PROXY_URLS || proxyUrls.containsKey(host))) {
+			proxyUrls.put(host, proxyUrl);
+		}
+		return proxyUrl;
+	}
+
+	@Override
+	public String toString() {
+		return prefix.length() > 0 ? name + "=" + destinationName + "/" + prefix : name + "=" + destinationName;
+	}
+
+	/**
+	 * Returns <code>true</code> if the path of the given URI from the given index has a
+	 * segment <code>.</code> or <code>..</code>, also if its dots are percent-encoded or
+	 * it has parameters, e.g. <code>%2e%2e;x</code>. Encoded slashes and backslashes
+	 * separate segments as well, since the backend may decode them.
+	 */
+	static boolean hasDotSegment(String uri, int start) {
+		int length = uri.length();
+		/* dots of the current segment, -1 as soon as it has other characters */
+		int dots = 0;
+		boolean parameters = false;
+		int i = start;
+		while (i <= length) {
+			int separator = i < length ? getSeparatorLength(uri, i) : 1;
+			if (separator > 0) {
+				if (dots == 1 || dots == 2) {
+					return true;
+				}
+				dots = 0;
+				parameters = false;
+				i += separator;
+			} else if (parameters) {
+				i++;
+			} else if (uri.charAt(i) == ';') {
+				parameters = true;
+				i++;
+			} else if (uri.charAt(i) == '.') {
+				dots = dots >= 0 ? dots + 1 : dots;
+				i++;
+			} else if (uri.regionMatches(true, i, "%2e", 0, 3)) {
+				dots = dots >= 0 ? dots + 1 : dots;
+				i += 3;
+			} else {
+				dots = -1;
+				i++;
+			}
+		}
+		return false;
+	}
+
+	private static int getSeparatorLength(String uri, int index) {
+		char c = uri.charAt(index);
+		if (c == '/' || c == '\\') {
+			return 1;
+		}
+		return uri.regionMatches(true, index, "%2f", 0, 3) || uri.regionMatches(true, index, "%5c", 0, 3) ? 3 : 0;
+	}
+
+	private static String trimSlashes(String path) {
+		int start = 0;
+		int end = path.length();
+		while (start < end && path.charAt(start) == '/') {
+			start++;
+		}
+		while (end > start && path.charAt(end - 1) == '/') {
+			end--;
+		}
+		return path.substring(start, end);
+	}
+}
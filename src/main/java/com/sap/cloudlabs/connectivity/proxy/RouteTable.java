@@ -0,0 +1,312 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Resolves the first segment of the proxy path, e.g. <code>nw</code> in
+ * <code>/proxy/nw/Customers</code>, to a {@link Route}, so that a single
+ * <code>/proxy/*</code> mapping serves all destinations.
+ * <p>
+ * Routes are defined by init parameters <code>route.&lt;name&gt;</code> and by an
+ * optional properties file, both with values of the form
+ * <code>destination[/path]</code>. They can be aliases of destinations or point below
+ * their URL. Names without a route are destinations themselves if they match the
+ * allowed destinations, a comma separated list of names and prefixes ending with
+ * <code>*</code>.
+ * <p>
+ * The file is reloaded when it changes, or via JMX. Routes are looked up by a region of
+ * the request URI, without cutting out the name first.
+ */
+class RouteTable implements RouteTableMBean {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(RouteTable.class);
+
+	/* upper bound of cached routes to destinations without route, as their names are chosen by the client */
+	private static final int MAX_DIRECT_ROUTES = 1024;
+
+	private final Map<String, String> definitions;
+
+	private final File file;
+
+	private final String allowedDestinations;
+
+	private final String[] allowed;
+
+	private final ConcurrentHashMap<String, Route> directRoutes = new ConcurrentHashMap<String, Route>();
+
+	private final ScheduledExecutorService reloader;
+
+	private volatile Route[] table;
+
+	private volatile long lastModified;
+
+	private ObjectName objectName;
+
+	/**
+	 * @param definitions
+	 *            routes defined by init parameters, by name
+	 * @param file
+	 *            properties file with further routes, may be <code>null</code>
+	 * @param allowedDestinations
+	 *            comma separated names and prefixes of the destinations which can be
+	 *            called without route; if <code>null</code>, none can
+	 * @param reloadIntervalSeconds
+	 *            interval in which the file is checked for changes, 0 to reload it
+	 *            only via JMX
+	 */
+	RouteTable(Map<String, String> definitions, File file, String allowedDestinations, int reloadIntervalSeconds) {
+		this.definitions = definitions;
+		this.file = file;
+		if (allowedDestinations == null) {
+			allowedDestinations = "";
+		}
+		this.allowedDestinations = allowedDestinations;
+		List<String> patterns = new ArrayList<String>();
+		for (String pattern : allowedDestinations.split(",")) {
+			if (pattern.trim().length() > 0) {
+				patterns.add(pattern.trim());
+			}
+		}
+		this.allowed = patterns.toArray(new String[patterns.size()]);
+		reload();
+
+		if (file != null && reloadIntervalSeconds > 0) {
+			reloader = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("route-reloader"));
+			reloader.scheduleWithFixedDelay(new Runnable() {
+				public void run() {
+					if (RouteTable.this.file.lastModified() != lastModified) {
+						reload();
+					}
+				}
+			}, reloadIntervalSeconds, reloadIntervalSeconds, TimeUnit.SECONDS);
+		} else {
+			reloader = null;
+		}
+	}
+
+	/**
+	 * Returns the route for the name at the given region of the given URI, either a
+	 * defined route or the destination of that name if it is allowed, otherwise
+	 * <code>null</code>.
+	 */
+	Route resolve(String uri, int start, int end) {
+		Route route = lookup(uri, start, end);
+		if (route == null && start < end && isAllowed(uri, start, end)) {
+			route = getDirectRoute(uri.substring(start, end));
+		}
+		return route;
+	}
+
+	/**
+	 * Returns the route for the given name of a destination the servlet is mapped to
+	 * explicitly, which is the destination itself unless a route of that name is
+	 * defined.
+	 */
+	Route resolveMapped(String name) {
+		Route route = lookup(name, 0, name.length());
+		return route != null ? route : getDirectRoute(name);
+	}
+
+	/**
+	 * Reads the routes anew from the init parameters and the file. If the file cannot be
+	 * read, the current routes are kept.
+	 */
+	public synchronized void reload() {
+		Map<String, Route> routes = new LinkedHashMap<String, Route>();
+		for (Map.Entry<String, String> definition : definitions.entrySet()) {
+			routes.put(definition.getKey(), Route.parse(definition.getKey(), definition.getValue()));
+		}
+		if (file != null) {
+			long modified = file.lastModified();
+			Properties properties = new Properties();
+			try {
+				InputStream in = new FileInputStream(file);
+				try {
+					properties.load(in);
+				} finally {
+					in.close();
+				}
+			} catch (IOException e) {
+				LOGGER.error("Reading routes from {} failed, keeping the current routes: {}", file, e.getMessage());
+				lastModified = modified;
+				if (table != null) {
+					return;
+				}
+			}
+			for (String name : properties.stringPropertyNames()) {
+				routes.put(name.trim(), Route.parse(name.trim(), properties.getProperty(name)));
+			}
+			lastModified = modified;
+		}
+
+		int capacity = 8;
+		while (capacity < routes.size() * 2) {
+			capacity <<= 1;
+		}
+		Route[] newTable = new Route[capacity];
+		for (Route route : routes.values()) {
+			String name = route.getName();
+			int index = hash(name, 0, name.length()) & (capacity - 1);
+			while (newTable[index] != null) {
+				index = (index + 1) & (capacity - 1);
+			}
+			newTable[index] = route;
+		}
+		table = newTable;
+		LOGGER.debug("routes loaded: {}", routes.values());
+	}
+
+	public String[] getRoutes() {
+		List<String> routes = new ArrayList<String>();
+		for (Route route : table) {
+			if (route != null) {
+				routes.add(route.toString());
+			}
+		}
+		return routes.toArray(new String[routes.size()]);
+	}
+
+	/**
+	 * Returns the names of the destinations the routes point to.
+	 */
+	Set<String> getDestinationNames() {
+		Set<String> destinations = new LinkedHashSet<String>();
+		for (Route route : table) {
+			if (route != null) {
+				destinations.add(route.getDestinationName());
+			}
+		}
+		return destinations;
+	}
+
+	public String getAllowedDestinations() {
+		return allowedDestinations;
+	}
+
+	public String getRoutesFile() {
+		return file != null ? file.getAbsolutePath() : null;
+	}
+
+	/**
+	 * Registers the table as MBean.
+	 * 
+	 * @param contextName
+	 *            name of the Web application, used to tell apart the MBeans of several
+	 *            applications in the same JVM
+	 */
+	void register(String contextName) {
+		try {
+			objectName = new ObjectName("com.sap.cloudlabs.connectivity.proxy:type=RouteTable,context="
+					+ ObjectName.quote(contextName));
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+		} catch (JMException e) {
+			LOGGER.error("Registering route table failed: {}", e.getMessage());
+			objectName = null;
+		}
+	}
+
+	/**
+	 * Unregisters the MBean and stops checking the file for changes.
+	 */
+	void shutdown() {
+		if (reloader != null) {
+			reloader.shutdownNow();
+		}
+		if (objectName != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+			} catch (JMException e) {
+				LOGGER.debug("Unregistering route table failed: {}", e.getMessage());
+			}
+		}
+	}
+
+	private Route lookup(String uri, int start, int end) {
+		Route[] routes = table;
+		int mask = routes.length - 1;
+		int length = end - start;
+		int index = hash(uri, start, end) & mask;
+		Route route;
+		while ((route = routes[index]) != null) {
+			String name = route.getName();
+			if (name.length() == length && uri.regionMatches(start, name, 0, length)) {
+				return route;
+			}
+			index = (index + 1) & mask;
+		}
+		return null;
+	}
+
+	private boolean isAllowed(String uri, int start, int end) {
+		for (String pattern : allowed) {
+			if (pattern.endsWith("*")) {
+				int prefixLength = pattern.length() - 1;
+				if (end - start >= prefixLength && uri.regionMatches(start, pattern, 0, prefixLength)) {
+					return true;
+				}
+			} else if (pattern.length() == end - start && uri.regionMatches(start, pattern, 0, pattern.length())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private Route getDirectRoute(String destinationName) {
+		Route route = directRoutes.get(destinationName);
+		if (route == null) {
+			route = new Route(destinationName, destinationName, "");
+			if (directRoutes.size() < MAX_DIRECT_ROUTES) {
+				Route current = directRoutes.putIfAbsent(destinationName, route);
+				if (current != null) {
+					route = current;
+				}
+			}
+		}
+		return route;
+	}
+
+	private static int hash(String value, int start, int end) {
+		int h = 0;
+		for (int i = start; i < end; i++) {
+			h = 31 * h + value.charAt(i);
+		}
+		return h ^ (h >>> 16);
+	}
+}
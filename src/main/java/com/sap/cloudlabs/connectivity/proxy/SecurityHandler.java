@@ -1,5 +1,6 @@
 package com.sap.cloudlabs.connectivity.proxy;
 
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -23,9 +24,68 @@ public abstract class SecurityHandler {
 	 * ProxyServlet by default is black-listing JSESSIONID header
 	 * If an application wants to provide additional headers to be 
 	 * black listed, this class should be implemented.
+	 * 
+	 * The headers are filtered out of the request to the backend 
+	 * as well.
 	 *
 	 */
 	public abstract List<String> getResponseHeadersBlackList();
-	
-	 
+
+	/**
+	 *
+	 * This method can be overridden to return a list of header names
+	 * which will be filtered out by the proxy servlet before sending the
+	 * request to the backend, in addition to the headers returned by
+	 * getResponseHeadersBlackList().
+	 *
+	 * By default it returns an empty list.
+	 *
+	 */
+	public List<String> getRequestHeadersBlackList() {
+		return Collections.emptyList();
+	}
+
+	/**
+	 *
+	 * This method can be overridden to return the list of the only header
+	 * names which the proxy servlet forwards to the backend. Black-listed
+	 * headers are filtered out nevertheless.
+	 *
+	 * By default it returns an empty list, i.e. all headers which are not
+	 * black-listed are forwarded.
+	 *
+	 */
+	public List<String> getRequestHeadersWhiteList() {
+		return Collections.emptyList();
+	}
+
+	/**
+	 *
+	 * This method can be overridden to return the list of the only header
+	 * names which the proxy servlet forwards from the backend response to
+	 * the browser. Black-listed headers are filtered out nevertheless.
+	 *
+	 * By default it returns an empty list, i.e. all headers which are not
+	 * black-listed are forwarded.
+	 *
+	 */
+	public List<String> getResponseHeadersWhiteList() {
+		return Collections.emptyList();
+	}
+
+	/**
+	 *
+	 * This method can be overridden to decide whether the URLs in a
+	 * response of the given destination are rewritten to point to the
+	 * proxy servlet. Responses which are not rewritten are passed to the
+	 * browser unchanged, e.g. still compressed.
+	 *
+	 * By default it returns null, i.e. the content types and destinations
+	 * configured for the proxy servlet decide.
+	 *
+	 */
+	public Boolean isRewriteEnabled(String destinationName, String contentType) {
+		return null;
+	}
+
 }
@@ -0,0 +1,270 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Collection;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Prepares the proxy servlet for traffic right after it is started, so that the
+ * first user requests do not pay for the destination lookup, the creation of the
+ * clients and the TLS handshakes.
+ * <p>
+ * All configured destinations are resolved in parallel on background threads. A few
+ * concurrent warm-up requests per destination open the backend connections, which
+ * then stay in the connection pool of the destination. Any response of the backend,
+ * whatever its status, counts as success. Failures are logged, but do not stop the
+ * warm-up of the other destinations.
+ * <p>
+ * The warm-up is done when all destinations have been processed or its timeout has
+ * passed, whichever happens first. {@link ReadinessServlet} reports this to load
+ * balancers via the servlet context attribute {@link #ATTRIBUTE_NAME}.
+ */
+class StartupWarmup {
+
+	/** servlet context attribute under which the warm-up of the proxy servlet is provided */
+	static final String ATTRIBUTE_NAME = StartupWarmup.class.getName();
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(StartupWarmup.class);
+
+	private final DestinationCache destinationCache;
+
+	private final HttpClientRegistry clientRegistry;
+
+	private final DestinationParameters parameters;
+
+	private final long deadline;
+
+	private final ThreadPoolExecutor executor;
+
+	/* destinations and warm-up requests which are not done yet */
+	private final AtomicInteger pending = new AtomicInteger();
+
+	private final AtomicInteger failed = new AtomicInteger();
+
+	/**
+	 * @param destinationCache
+	 *            the cache the destinations are resolved into
+	 * @param clientRegistry
+	 *            the registry whose pooled clients keep the warm connections
+	 * @param parameters
+	 *            init parameters with the connections, method and path of the
+	 *            warm-up requests per destination
+	 * @param timeoutSeconds
+	 *            time after which the proxy servlet is ready, even if the warm-up is
+	 *            not done yet
+	 * @param threads
+	 *            number of threads the warm-up runs on
+	 */
+	StartupWarmup(DestinationCache destinationCache, HttpClientRegistry clientRegistry, DestinationParameters parameters,
+			int timeoutSeconds, int threads) {
+		this.destinationCache = destinationCache;
+		this.clientRegistry = clientRegistry;
+		this.parameters = parameters;
+		this.deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeoutSeconds);
+		this.executor = new ThreadPoolExecutor(threads, threads, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+				new DaemonThreadFactory("warmup"));
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Starts the warm-up of the given destinations in the background.
+	 */
+	void start(Collection<String> destinationNames) {
+		LOGGER.info("Warming up destinations {}", destinationNames);
+		// counted up front, so that a destination which is done right away does not make the warm-up ready
+		pending.addAndGet(destinationNames.size());
+		for (String destinationName : destinationNames) {
+			submit(new DestinationTask(destinationName));
+		}
+	}
+
+	/**
+	 * Returns <code>true</code> if the warm-up is done or its timeout has passed.
+	 */
+	boolean isReady() {
+		return pending.get() == 0 || System.nanoTime() - deadline >= 0;
+	}
+
+	/**
+	 * Returns the number of destinations and warm-up requests which failed.
+	 */
+	int getFailures() {
+		return failed.get();
+	}
+
+	/**
+	 * Stops the warm-up, e.g. because the servlet is destroyed before it is done.
+	 */
+	void shutdown() {
+		for (Runnable task : executor.shutdownNow()) {
+			if (task instanceof RequestTask) {
+				((RequestTask) task).cancel();
+			}
+		}
+	}
+
+	/**
+	 * Runs the given task, which has been counted as pending already. Returns 
+	 * <code>false</code> if the task is not run because the warm-up has been shut down.
+	 */
+	private boolean submit(Runnable task) {
+		try {
+			executor.execute(task);
+			return true;
+		} catch (RejectedExecutionException e) {
+			// shut down already
+			pending.decrementAndGet();
+			return false;
+		}
+	}
+
+	private void done(boolean succeeded) {
+		if (!succeeded) {
+			failed.incrementAndGet();
+		}
+		if (pending.decrementAndGet() == 0) {
+			LOGGER.info("Warm-up finished with {} failures", failed.get());
+		}
+	}
+
+	/**
+	 * Resolves a destination and sends its warm-up requests.
+	 */
+	private class DestinationTask implements Runnable {
+		private final String destinationName;
+
+		DestinationTask(String destinationName) {
+			this.destinationName = destinationName;
+		}
+
+		public void run() {
+			boolean succeeded = false;
+			try {
+				ResolvedDestination destination = destinationCache.get(destinationName);
+				HttpClient client = clientRegistry.acquire(destination);
+				int connections = parameters.getInt("warmup.connections", destinationName, 2);
+				if (!HttpClientRegistry.isPoolable(client)) {
+					// a client which is not pooled cannot keep connections, one request warms it up
+					connections = Math.min(connections, 1);
+				}
+				if (connections <= 0) {
+					clientRegistry.release(client);
+				} else {
+					pending.addAndGet(connections);
+				}
+				for (int i = 0; i < connections; i++) {
+					RequestTask task = new RequestTask(destination, client, i == connections - 1);
+					if (!submit(task)) {
+						task.cancel();
+					}
+				}
+				succeeded = true;
+			} catch (Exception e) {
+				LOGGER.error("Warm-up of destination {} failed: {}", destinationName, e.getMessage());
+			} finally {
+				done(succeeded);
+			}
+		}
+	}
+
+	/**
+	 * Sends one warm-up request and reads its response completely, so that the
+	 * connection goes back to the pool.
+	 */
+	private class RequestTask implements Runnable {
+		private final ResolvedDestination destination;
+		private final HttpClient client;
+		private final boolean last;
+
+		RequestTask(ResolvedDestination destination, HttpClient client, boolean last) {
+			this.destination = destination;
+			this.client = client;
+			this.last = last;
+		}
+
+		/**
+		 * Releases the client in place of the task, which is not run.
+		 */
+		void cancel() {
+			if (last) {
+				clientRegistry.release(client);
+			}
+		}
+
+		public void run() {
+			String destinationName = destination.getName();
+			WarmupRequest request = null;
+			boolean succeeded = false;
+			try {
+				String method = parameters.get("warmup.method", destinationName);
+				String path = parameters.get("warmup.path", destinationName);
+				request = new WarmupRequest(method != null ? method.trim().toUpperCase() : "HEAD", 
+						path != null ? path.trim() : "");
+				BackendTimeouts.create(parameters, destinationName).apply(request);
+				HttpResponse response = client.execute(request);
+				EntityUtils.consume(response.getEntity());
+				LOGGER.debug("warm-up {} request to destination {} returned {}", request.getMethod(), destinationName, 
+						response.getStatusLine().getStatusCode());
+				succeeded = true;
+			} catch (IOException e) {
+				request.abort();
+				LOGGER.error("Warm-up request to destination {} failed: {}", destinationName, e.getMessage());
+			} catch (RuntimeException e) {
+				if (request != null) {
+					request.abort();
+				}
+				LOGGER.error("Warm-up request to destination {} failed", destinationName, e);
+			} finally {
+				if (last) {
+					clientRegistry.release(client);
+				}
+				done(succeeded);
+			}
+		}
+	}
+
+	/**
+	 * Warm-up request without body, relative to the URL of the destination.
+	 */
+	private static class WarmupRequest extends HttpRequestBase {
+		private final String method;
+
+		WarmupRequest(String method, String path) {
+			this.method = method;
+			setURI(URI.create(path));
+		}
+
+		@Override
+		public String getMethod() {
+			return method;
+		}
+	}
+}
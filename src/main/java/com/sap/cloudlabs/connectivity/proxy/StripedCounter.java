@@ -0,0 +1,58 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter which is updated by many threads concurrently. Updates of different
+ * threads usually go to different cells, so that they do not contend on the same
+ * value; reading sums up all cells.
+ */
+class StripedCounter {
+
+	/* number of cells, a power of two */
+	static final int STRIPES = 16;
+
+	/* cells are spread over cache lines to avoid false sharing */
+	private static final int PADDING = 8;
+
+	private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+	void add(long value) {
+		cells.addAndGet(stripe() * PADDING, value);
+	}
+
+	void increment() {
+		add(1);
+	}
+
+	long sum() {
+		long sum = 0;
+		for (int i = 0; i < STRIPES; i++) {
+			sum += cells.get(i * PADDING);
+		}
+		return sum;
+	}
+
+	/**
+	 * Returns the stripe of the current thread.
+	 */
+	static int stripe() {
+		return (int) (Thread.currentThread().getId() & (STRIPES - 1));
+	}
+}
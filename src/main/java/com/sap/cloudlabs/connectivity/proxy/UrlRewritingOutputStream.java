@@ -0,0 +1,178 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Output stream which replaces every occurrence of a URL with another URL while the
+ * content is written through it.
+ * <p>
+ * Both URLs are encoded with the charset of the content and matched byte-wise, so the
+ * content is never decoded and only a small, constant amount of memory is used, no
+ * matter how large the content is. Matches which span several <code>write</code> calls
+ * are detected as well; bytes of an incomplete match are held back until it is clear
+ * whether they have to be replaced. The charset has to encode the URLs to the same
+ * bytes anywhere in the content, which holds for ISO-8859-1, UTF-8 and the other
+ * ASCII-compatible charsets.
+ */
+class UrlRewritingOutputStream extends FilterOutputStream {
+
+	private static final int BUFFER_SIZE = 8 * 1024;
+
+	/* the bytes to search for */
+	private final byte[] pattern;
+
+	/* the bytes to write instead of the pattern */
+	private final byte[] replacement;
+
+	/*
+	 * Knuth-Morris-Pratt failure function: length of the longest proper prefix of
+	 * pattern[0..i] which is also a suffix of it
+	 */
+	private final int[] failure;
+
+	/* number of pattern bytes matched by the content written so far */
+	private int matched;
+
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+
+	private int count;
+
+	/**
+	 * @param out
+	 *            the stream to write the rewritten content to
+	 * @param rewriteUrl
+	 *            the URL that should be rewritten
+	 * @param proxyUrl
+	 *            the URL that should replace the <code>rewriteUrl</code>
+	 * @param charset
+	 *            the charset of the content
+	 */
+	UrlRewritingOutputStream(OutputStream out, String rewriteUrl, String proxyUrl, String charset)
+			throws UnsupportedEncodingException {
+		super(out);
+		if (rewriteUrl.length() == 0) {
+			throw new IllegalArgumentException("URL to rewrite must not be empty");
+		}
+		this.pattern = rewriteUrl.getBytes(charset);
+		this.replacement = proxyUrl.getBytes(charset);
+		this.failure = computeFailure(pattern);
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		process((byte) b);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		int end = off + len;
+		int i = off;
+		byte first = pattern[0];
+		while (i < end) {
+			if (matched == 0) {
+				// fast path: copy everything up to the next candidate for a match at once
+				int start = i;
+				while (i < end && b[i] != first) {
+					i++;
+				}
+				buffer(b, start, i - start);
+				if (i == end) {
+					return;
+				}
+			}
+			process(b[i++]);
+		}
+	}
+
+	/**
+	 * Flushes all content which is known not to be part of a match.
+	 */
+	@Override
+	public void flush() throws IOException {
+		flushBuffer();
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		// an incomplete match at the end of the content is no match
+		buffer(pattern, 0, matched);
+		matched = 0;
+		flushBuffer();
+		out.close();
+	}
+
+	private void process(byte b) throws IOException {
+		while (matched > 0 && pattern[matched] != b) {
+			// release the bytes which can no longer be part of a match
+			int fallback = failure[matched - 1];
+			buffer(pattern, 0, matched - fallback);
+			matched = fallback;
+		}
+		if (pattern[matched] == b) {
+			if (++matched == pattern.length) {
+				buffer(replacement, 0, replacement.length);
+				matched = 0;
+			}
+		} else {
+			if (count == buffer.length) {
+				flushBuffer();
+			}
+			buffer[count++] = b;
+		}
+	}
+
+	private void buffer(byte[] b, int off, int len) throws IOException {
+		if (len >= buffer.length) {
+			flushBuffer();
+			out.write(b, off, len);
+			return;
+		}
+		if (count + len > buffer.length) {
+			flushBuffer();
+		}
+		System.arraycopy(b, off, buffer, count, len);
+		count += len;
+	}
+
+	private void flushBuffer() throws IOException {
+		if (count > 0) {
+			out.write(buffer, 0, count);
+			count = 0;
+		}
+	}
+
+	private static int[] computeFailure(byte[] pattern) {
+		int[] failure = new int[pattern.length];
+		int k = 0;
+		for (int i = 1; i < pattern.length; i++) {
+			while (k > 0 && pattern[k] != pattern[i]) {
+				k = failure[k - 1];
+			}
+			if (pattern[k] == pattern[i]) {
+				k++;
+			}
+			failure[i] = k;
+		}
+		return failure;
+	}
+}
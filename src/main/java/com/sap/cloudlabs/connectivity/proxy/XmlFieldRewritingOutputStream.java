@@ -0,0 +1,280 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy;
+
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Rewrites the URL at the beginning of the values of certain attributes, e.g.
+ * <code>href</code> and <code>xml:base</code>, and of the text of certain elements,
+ * e.g. <code>id</code> in Atom feeds, of an XML document. Attributes and elements are
+ * given by their names as they appear in the document, i.e. including their prefix.
+ * Comments, CDATA sections, processing instructions and the document type declaration
+ * are passed through unchanged.
+ */
+class XmlFieldRewritingOutputStream extends FieldRewritingOutputStream {
+
+	/* names which are longer cannot be fields */
+	private static final int MAX_NAME_LENGTH = 64;
+
+	private static final int TEXT = 0;
+
+	private static final int TAG_OPEN = 1;
+
+	private static final int START_TAG_NAME = 2;
+
+	private static final int IN_START_TAG = 3;
+
+	private static final int ATTRIBUTE_NAME = 4;
+
+	private static final int AFTER_ATTRIBUTE_NAME = 5;
+
+	private static final int BEFORE_ATTRIBUTE_VALUE = 6;
+
+	private static final int ATTRIBUTE_VALUE = 7;
+
+	private static final int END_TAG = 8;
+
+	private static final int MARKUP = 9;
+
+	private static final int COMMENT = 10;
+
+	private static final int CDATA = 11;
+
+	private static final int DECLARATION = 12;
+
+	private static final int PROCESSING_INSTRUCTION = 13;
+
+	private final byte[][] attributes;
+
+	private final byte[][] elements;
+
+	private int state = TEXT;
+
+	private final byte[] name = new byte[MAX_NAME_LENGTH];
+
+	/* length of the part of the current name kept from a previous write call, -1 if it is too long */
+	private int nameLength;
+
+	/* the text of the current start tag's element is rewritten */
+	private boolean rewriteText;
+
+	private boolean selfClosing;
+
+	/* the value of the current attribute is rewritten */
+	private boolean rewriteValue;
+
+	private byte quote;
+
+	/* number of relevant bytes seen at the end of comments, CDATA sections and declarations */
+	private int count;
+
+	/**
+	 * @param attributes
+	 *            names of the attributes whose values are rewritten, encoded with the
+	 *            charset
+	 * @param elements
+	 *            names of the elements whose text is rewritten, encoded with the
+	 *            charset
+	 * @see FieldRewritingOutputStream#FieldRewritingOutputStream(OutputStream, String,
+	 *      String, String, boolean)
+	 */
+	XmlFieldRewritingOutputStream(OutputStream out, String rewriteUrl, String proxyUrl, String charset,
+			byte[][] attributes, byte[][] elements) throws UnsupportedEncodingException {
+		super(out, rewriteUrl, proxyUrl, charset, false);
+		this.attributes = attributes;
+		this.elements = elements;
+	}
+
+	@Override
+	int scan(byte[] b, int i, int end) {
+		while (i < end) {
+			byte c = b[i];
+			switch (state) {
+			case TEXT:
+				// fast path: skip text up to the next tag
+				while (c != '<') {
+					if (++i == end) {
+						return end;
+					}
+					c = b[i];
+				}
+				state = TAG_OPEN;
+				break;
+			case TAG_OPEN:
+				if (c == '/') {
+					state = END_TAG;
+				} else if (c == '!') {
+					state = MARKUP;
+				} else if (c == '?') {
+					state = PROCESSING_INSTRUCTION;
+					count = 0;
+				} else {
+					state = START_TAG_NAME;
+					nameLength = 0;
+					selfClosing = false;
+					continue;
+				}
+				break;
+			case START_TAG_NAME: {
+				int start = i;
+				while (!isWhitespace(c) && c != '/' && c != '>') {
+					if (++i == end) {
+						appendName(b, start, end - start);
+						return end;
+					}
+					c = b[i];
+				}
+				rewriteText = lookupName(elements, b, start, i - start) >= 0;
+				state = IN_START_TAG;
+				continue;
+			}
+			case IN_START_TAG:
+				if (c == '>') {
+					state = TEXT;
+					if (rewriteText && !selfClosing) {
+						beginMatch(i + 1);
+						return i + 1;
+					}
+				} else if (c == '/') {
+					selfClosing = true;
+				} else if (!isWhitespace(c)) {
+					state = ATTRIBUTE_NAME;
+					nameLength = 0;
+					continue;
+				}
+				break;
+			case ATTRIBUTE_NAME: {
+				int start = i;
+				while (c != '=' && !isWhitespace(c) && c != '>' && c != '/') {
+					if (++i == end) {
+						appendName(b, start, end - start);
+						return end;
+					}
+					c = b[i];
+				}
+				rewriteValue = lookupName(attributes, b, start, i - start) >= 0;
+				// an attribute without value is not well-formed, it ends at > or /
+				state = c == '=' ? BEFORE_ATTRIBUTE_VALUE : isWhitespace(c) ? AFTER_ATTRIBUTE_NAME : IN_START_TAG;
+				if (state == IN_START_TAG) {
+					continue;
+				}
+				break;
+			}
+			case AFTER_ATTRIBUTE_NAME:
+				if (c == '=') {
+					state = BEFORE_ATTRIBUTE_VALUE;
+				} else if (!isWhitespace(c)) {
+					state = IN_START_TAG;
+					continue;
+				}
+				break;
+			case BEFORE_ATTRIBUTE_VALUE:
+				if (c == '"' || c == '\'') {
+					quote = c;
+					state = ATTRIBUTE_VALUE;
+					if (rewriteValue) {
+						beginMatch(i + 1);
+						return i + 1;
+					}
+				} else if (!isWhitespace(c)) {
+					state = IN_START_TAG;
+					continue;
+				}
+				break;
+			case ATTRIBUTE_VALUE:
+				while (c != quote) {
+					if (++i == end) {
+						return end;
+					}
+					c = b[i];
+				}
+				state = IN_START_TAG;
+				break;
+			case END_TAG:
+				while (c != '>') {
+					if (++i == end) {
+						return end;
+					}
+					c = b[i];
+				}
+				state = TEXT;
+				break;
+			case MARKUP:
+				// <!-- comment -->, <![CDATA[ text ]]> or <!DOCTYPE declaration>
+				state = c == '-' ? COMMENT : c == '[' ? CDATA : DECLARATION;
+				// the second dash of a comment start does not end the comment
+				count = c == '-' ? -1 : 0;
+				break;
+			case COMMENT:
+				if (c == '>' && count >= 2) {
+					state = TEXT;
+				}
+				count = c == '-' ? count + 1 : 0;
+				break;
+			case CDATA:
+				if (c == '>' && count >= 2) {
+					state = TEXT;
+				}
+				count = c == ']' ? count + 1 : 0;
+				break;
+			case DECLARATION:
+				// the internal subset of a document type declaration is in brackets
+				if (c == '[') {
+					count++;
+				} else if (c == ']' && count > 0) {
+					count--;
+				} else if (c == '>' && count == 0) {
+					state = TEXT;
+				}
+				break;
+			case PROCESSING_INSTRUCTION:
+				if (c == '>' && count > 0) {
+					state = TEXT;
+				}
+				count = c == '?' ? 1 : 0;
+				break;
+			}
+			i++;
+		}
+		return end;
+	}
+
+	/*
+	 * a name is looked up in place, unless a part of it is kept from a previous
+	 * write call
+	 */
+	private int lookupName(byte[][] names, byte[] b, int off, int len) {
+		if (nameLength == 0) {
+			return lookup(names, b, off, len);
+		}
+		appendName(b, off, len);
+		return lookup(names, name, 0, nameLength);
+	}
+
+	private void appendName(byte[] b, int off, int len) {
+		if (nameLength >= 0) {
+			if (nameLength + len <= MAX_NAME_LENGTH) {
+				System.arraycopy(b, off, name, nameLength, len);
+				nameLength += len;
+			} else {
+				nameLength = -1;
+			}
+		}
+	}
+}
@@ -0,0 +1,113 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy;
+
+import static org.junit.Assert.assertEquals;
+
+import java.text.SimpleDateFormat;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * The writer of a shut down access log does not take records anymore, so that the
+ * state of its ring buffer can be checked.
+ */
+public class AccessLogTest {
+
+	private AccessLog accessLog;
+
+	@After
+	public void shutdown() {
+		if (accessLog != null) {
+			accessLog.shutdown();
+		}
+	}
+
+	@Test
+	public void writesRecordsBeforeShutdown() {
+		accessLog = new AccessLog(8, 100);
+		for (int i = 0; i < 8; i++) {
+			accessLog.log("GET", new ProxyExchange(), 200);
+		}
+		accessLog.shutdown();
+
+		// the writer has taken all records, so the ring buffer has room for eight more
+		for (int i = 0; i < 8; i++) {
+			accessLog.log("GET", new ProxyExchange(), 200);
+		}
+		assertEquals(0, accessLog.getDropped());
+	}
+
+	@Test
+	public void dropsRecordsIfFull() {
+		accessLog = new AccessLog(3, 100);
+		accessLog.shutdown();
+
+		// the capacity is rounded up to four records
+		for (int i = 0; i < 10; i++) {
+			accessLog.log("GET", new ProxyExchange(), 200);
+		}
+		assertEquals(6, accessLog.getDropped());
+	}
+
+	@Test
+	public void logsFailedRequestsWithoutSampling() {
+		accessLog = new AccessLog(2, 0);
+		accessLog.shutdown();
+
+		for (int i = 0; i < 10; i++) {
+			accessLog.log("GET", new ProxyExchange(), 200);
+			accessLog.log("GET", new ProxyExchange(), 404);
+		}
+		assertEquals(0, accessLog.getDropped());
+		accessLog.log("GET", new ProxyExchange(), 0);
+		accessLog.log("GET", new ProxyExchange(), 502);
+		accessLog.log("GET", new ProxyExchange(), 503);
+		assertEquals(1, accessLog.getDropped());
+	}
+
+	@Test
+	public void formatsRecord() {
+		SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+		dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+		AccessLog.Record record = new AccessLog.Record();
+		record.time = 1399886463512L;
+		record.destination = "northwind";
+		record.method = "GET";
+		record.status = 200;
+		record.bytesIn = 18211;
+		record.bytesOut = 18377;
+		record.lookupTime = TimeUnit.MICROSECONDS.toNanos(12);
+		record.backendTime = TimeUnit.MICROSECONDS.toNanos(41207);
+		record.transferTime = -1;
+		record.totalTime = TimeUnit.MICROSECONDS.toNanos(43310) + 999;
+		StringBuilder line = new StringBuilder();
+		record.format(line, dateFormat);
+
+		assertEquals("2014-05-12T09:21:03.512Z northwind GET 200 18211 18377 0.012 41.207 - 43.310", line.toString());
+
+		record.destination = null;
+		record.status = 0;
+		record.lookupTime = TimeUnit.MICROSECONDS.toNanos(1100);
+		line.setLength(0);
+		record.format(line, dateFormat);
+		assertEquals("2014-05-12T09:21:03.512Z - GET 0 18211 18377 1.100 41.207 - 43.310", line.toString());
+	}
+}
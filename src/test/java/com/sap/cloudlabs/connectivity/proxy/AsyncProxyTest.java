@@ -0,0 +1,187 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Proxies requests asynchronously to a local backend, which answers once the test
+ * releases it.
+ */
+public class AsyncProxyTest {
+
+	private final CountDownLatch backendReleased = new CountDownLatch(1);
+
+	private HttpServer backend;
+
+	private TestServletConfig servletConfig;
+
+	private ProxyServlet servlet;
+
+	@Before
+	public void startBackend() throws IOException {
+		backend = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		backend.createContext("/", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					backendReleased.await(5, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				byte[] content = "ok".getBytes("UTF-8");
+				exchange.sendResponseHeaders(HttpServletResponse.SC_OK, content.length);
+				OutputStream out = exchange.getResponseBody();
+				out.write(content);
+				out.close();
+			}
+		});
+		// the backend answers concurrent requests, as the proxy servlet sends them
+		backend.setExecutor(Executors.newCachedThreadPool());
+		backend.start();
+		servletConfig = new TestServletConfig(TestDestinations.map(TestDestinations.create("backend", 
+				"http://127.0.0.1:" + backend.getAddress().getPort(), null, null, null)));
+		servletConfig.initParameters.put("async.enabled", "true");
+	}
+
+	@After
+	public void stopBackend() {
+		backendReleased.countDown();
+		if (servlet != null) {
+			servlet.destroy();
+		}
+		backend.stop(0);
+	}
+
+	@Test
+	public void proxiesOnWorkerThread() throws Exception {
+		init();
+		TestAsyncContext asyncContext = new TestAsyncContext();
+		TestResponse response = new TestResponse();
+		servlet.service(new TestRequest("GET").async(asyncContext).create(), response.response);
+
+		// the container thread returns while the backend has not answered yet
+		assertEquals(0, asyncContext.completions.get());
+		backendReleased.countDown();
+		assertTrue(asyncContext.awaitCompletion());
+		assertEquals(HttpServletResponse.SC_OK, response.status);
+		assertEquals("ok", response.getContent());
+		assertEquals(1, asyncContext.completions.get());
+	}
+
+	@Test
+	public void answersTimeoutWithGatewayTimeout() throws Exception {
+		init();
+		TestAsyncContext asyncContext = new TestAsyncContext();
+		TestResponse response = new TestResponse();
+		servlet.service(new TestRequest("GET").async(asyncContext).create(), response.response);
+
+		asyncContext.timeout();
+		assertTrue(asyncContext.awaitCompletion());
+		assertEquals(HttpServletResponse.SC_GATEWAY_TIMEOUT, response.status);
+		assertEquals(1, asyncContext.completions.get());
+	}
+
+	@Test
+	public void rejectsRequestsIfWorkersAreBusy() throws Exception {
+		servletConfig.initParameters.put("async.threads", "1");
+		servletConfig.initParameters.put("async.queue.size", "1");
+		init();
+		TestAsyncContext running = new TestAsyncContext();
+		TestResponse runningResponse = new TestResponse();
+		servlet.service(new TestRequest("GET").async(running).create(), runningResponse.response);
+		TestAsyncContext queued = new TestAsyncContext();
+		TestResponse queuedResponse = new TestResponse();
+		servlet.service(new TestRequest("GET").async(queued).create(), queuedResponse.response);
+		TestAsyncContext rejected = new TestAsyncContext();
+		TestResponse rejectedResponse = new TestResponse();
+		servlet.service(new TestRequest("GET").async(rejected).create(), rejectedResponse.response);
+
+		assertEquals(1, rejected.completions.get());
+		assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, rejectedResponse.status);
+		backendReleased.countDown();
+		assertTrue(running.awaitCompletion());
+		assertTrue(queued.awaitCompletion());
+		assertEquals(HttpServletResponse.SC_OK, runningResponse.status);
+		assertEquals(HttpServletResponse.SC_OK, queuedResponse.status);
+	}
+
+	@Test
+	public void abortedFollowerDoesNotWriteSharedResponse() throws Exception {
+		servletConfig.initParameters.put("coalescing.enabled", "true");
+		servletConfig.initParameters.put("coalescing.max.wait", "10000");
+		init();
+		TestAsyncContext leader = new TestAsyncContext();
+		TestResponse leaderResponse = new TestResponse();
+		servlet.service(new TestRequest("GET").async(leader).create(), leaderResponse.response);
+		Thread.sleep(100);
+		final TestAsyncContext follower = new TestAsyncContext();
+		TestResponse followerResponse = new TestResponse();
+		servlet.service(new TestRequest("GET").async(follower).create(), followerResponse.response);
+		Thread.sleep(100);
+
+		// the container times the follower out while its worker waits for the leader
+		final CountDownLatch timeoutHandled = new CountDownLatch(1);
+		new Thread() {
+			@Override
+			public void run() {
+				try {
+					follower.timeout();
+				} catch (IOException e) {
+					throw new IllegalStateException(e);
+				} finally {
+					timeoutHandled.countDown();
+				}
+			}
+		}.start();
+		Thread.sleep(100);
+		assertEquals(0, follower.completions.get());
+
+		// the worker wakes up with the shared response, but must not write it anymore
+		backendReleased.countDown();
+		assertTrue(timeoutHandled.await(10, TimeUnit.SECONDS));
+		assertEquals(1, follower.completions.get());
+		assertEquals(HttpServletResponse.SC_GATEWAY_TIMEOUT, followerResponse.status);
+		assertEquals("", followerResponse.getContent());
+
+		assertTrue(leader.awaitCompletion());
+		assertEquals("ok", leaderResponse.getContent());
+	}
+
+	private void init() throws ServletException {
+		servlet = new ProxyServlet();
+		servlet.init(servletConfig.create());
+	}
+}
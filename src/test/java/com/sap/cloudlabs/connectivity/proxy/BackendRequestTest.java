@@ -0,0 +1,104 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.junit.Test;
+
+public class BackendRequestTest {
+
+	private final ProxyServlet servlet = new ProxyServlet();
+
+	@Test
+	public void streamsBodyWithContentLength() throws IOException {
+		byte[] body = "{\"Name\":\"Item\"}".getBytes("UTF-8");
+		HttpRequestBase backendRequest = servlet.getBackendRequest(
+				new TestRequest("POST", "Content-Type", "application/json", "Content-Length", String.valueOf(body.length))
+						.body(body, true).create(), "Items");
+
+		assertEquals("POST", backendRequest.getMethod());
+		assertEquals("Items", backendRequest.getURI().toString());
+		HttpEntity entity = ((HttpEntityEnclosingRequest) backendRequest).getEntity();
+		assertEquals(body.length, entity.getContentLength());
+		assertEquals("application/json", entity.getContentType().getValue());
+		// the body is read from the client while it is sent, not buffered before
+		assertTrue(entity.isStreaming());
+		assertFalse(entity.isRepeatable());
+		assertArrayEquals(body, content(entity));
+		// HttpClient sets the length itself
+		assertNull(backendRequest.getFirstHeader("Content-Length"));
+	}
+
+	@Test
+	public void sendsBodyWithoutContentLengthChunked() throws IOException {
+		byte[] body = new byte[100000];
+		HttpRequestBase backendRequest = servlet.getBackendRequest(
+				new TestRequest("PUT", "Transfer-Encoding", "chunked").body(body, false).create(), "Items(1)");
+
+		HttpEntity entity = ((HttpEntityEnclosingRequest) backendRequest).getEntity();
+		assertEquals(-1, entity.getContentLength());
+		assertEquals(body.length, content(entity).length);
+		assertNull(backendRequest.getFirstHeader("Transfer-Encoding"));
+	}
+
+	@Test
+	public void forwardsAnyMethod() throws IOException {
+		for (String method : new String[] { "GET", "HEAD", "DELETE", "OPTIONS", "MERGE" }) {
+			HttpRequestBase backendRequest = servlet.getBackendRequest(new TestRequest(method).create(), "Items");
+			assertEquals(method, backendRequest.getMethod());
+			assertFalse(method, backendRequest instanceof HttpEntityEnclosingRequest);
+		}
+		HttpRequestBase patch = servlet.getBackendRequest(new TestRequest("PATCH").body(new byte[1], true).create(), "Items");
+		assertEquals("PATCH", patch.getMethod());
+		assertTrue(patch instanceof HttpEntityEnclosingRequest);
+	}
+
+	@Test
+	public void forwardsBodyOfOtherMethods() throws IOException {
+		HttpRequestBase backendRequest = servlet.getBackendRequest(
+				new TestRequest("DELETE").body("reason".getBytes("UTF-8"), true).create(), "Items(1)");
+		assertEquals("reason", new String(content(((HttpEntityEnclosingRequest) backendRequest).getEntity()), "UTF-8"));
+	}
+
+	@Test
+	public void copiesHeadersExceptBlockedOnes() throws IOException {
+		HttpRequestBase backendRequest = servlet.getBackendRequest(new TestRequest("GET", "Accept", "application/json",
+				"Host", "proxy", "MYSAPSSO2", "ticket", "X-CSRF-Token", "Fetch").create(), "Items");
+
+		assertEquals("application/json", backendRequest.getFirstHeader("Accept").getValue());
+		assertEquals("Fetch", backendRequest.getFirstHeader("X-CSRF-Token").getValue());
+		assertNull(backendRequest.getFirstHeader("Host"));
+		assertNull(backendRequest.getFirstHeader("MYSAPSSO2"));
+	}
+
+	private static byte[] content(HttpEntity entity) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		entity.writeTo(out);
+		return out.toByteArray();
+	}
+}
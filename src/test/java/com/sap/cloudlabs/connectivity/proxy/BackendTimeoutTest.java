@@ -0,0 +1,153 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Proxies requests to a local backend, which answers right away or, if it is slow,
+ * once the test is finished.
+ */
+public class BackendTimeoutTest {
+
+	private final CountDownLatch backendReleased = new CountDownLatch(1);
+
+	private HttpServer backend;
+
+	private TestServletConfig servletConfig;
+
+	private ProxyServlet servlet;
+
+	private volatile boolean slow = true;
+
+	/* the remaining time the backend received */
+	private volatile String backendTimeout;
+
+	@Before
+	public void startBackend() throws IOException {
+		backend = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		backend.createContext("/", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				backendTimeout = exchange.getRequestHeaders().getFirst("X-Request-Timeout");
+				try {
+					if (slow) {
+						backendReleased.await(5, TimeUnit.SECONDS);
+					}
+					byte[] content = "ok".getBytes("UTF-8");
+					exchange.sendResponseHeaders(HttpServletResponse.SC_OK, content.length);
+					OutputStream out = exchange.getResponseBody();
+					out.write(content);
+					out.close();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} catch (IOException e) {
+					// the proxy servlet has given up already
+				}
+			}
+		});
+		backend.setExecutor(Executors.newCachedThreadPool());
+		backend.start();
+		servletConfig = new TestServletConfig(TestDestinations.map(TestDestinations.create("backend", 
+				"http://127.0.0.1:" + backend.getAddress().getPort(), null, null, null)));
+	}
+
+	@After
+	public void stopBackend() {
+		backendReleased.countDown();
+		if (servlet != null) {
+			servlet.destroy();
+		}
+		backend.stop(0);
+	}
+
+	@Test
+	public void answersWithGatewayTimeoutAfterTotalTimeout() throws Exception {
+		servletConfig.initParameters.put("timeout.total", "200");
+		long start = System.nanoTime();
+		TestResponse response = proxy(new TestRequest("GET"));
+
+		assertEquals(HttpServletResponse.SC_GATEWAY_TIMEOUT, response.status);
+		assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+		// the backend knows how much time it has left
+		long remaining = Long.parseLong(backendTimeout);
+		assertTrue(backendTimeout, remaining > 0 && remaining <= 200);
+	}
+
+	@Test
+	public void honorsShorterTimeoutOfClient() throws Exception {
+		servletConfig.initParameters.put("timeout.total", "60000");
+		TestResponse response = proxy(new TestRequest("GET", "X-Request-Timeout", "150"));
+
+		assertEquals(HttpServletResponse.SC_GATEWAY_TIMEOUT, response.status);
+		assertTrue(backendTimeout, Long.parseLong(backendTimeout) <= 150);
+	}
+
+	@Test
+	public void honorsTimeoutOfClientWithoutTimeoutOfDestination() throws Exception {
+		TestResponse response = proxy(new TestRequest("GET", "X-Request-Timeout", "150"));
+
+		assertEquals(HttpServletResponse.SC_GATEWAY_TIMEOUT, response.status);
+	}
+
+	@Test
+	public void answersWithGatewayTimeoutAfterSocketTimeout() throws Exception {
+		servletConfig.initParameters.put("timeout.socket", "150");
+		TestResponse response = proxy(new TestRequest("GET"));
+
+		assertEquals(HttpServletResponse.SC_GATEWAY_TIMEOUT, response.status);
+		// without deadline, there is no remaining time to pass on
+		assertNull(backendTimeout);
+	}
+
+	@Test
+	public void passesResponseWithinDeadline() throws Exception {
+		slow = false;
+		servletConfig.initParameters.put("timeout.total", "5000");
+		TestResponse response = proxy(new TestRequest("GET"));
+
+		assertEquals(HttpServletResponse.SC_OK, response.status);
+		assertEquals("ok", response.getContent());
+	}
+
+	private TestResponse proxy(TestRequest request) throws ServletException, IOException {
+		servlet = new ProxyServlet();
+		servlet.init(servletConfig.create());
+		TestResponse response = new TestResponse();
+		servlet.service(request.create(), response.response);
+		return response;
+	}
+}
@@ -0,0 +1,115 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Sends batches through the servlet to a local backend, to check which destinations
+ * can be called in batches.
+ */
+public class BatchDestinationsTest {
+
+	private HttpServer backend;
+
+	private TestServletConfig servletConfig;
+
+	private ProxyServlet servlet;
+
+	@Before
+	public void startBackend() throws IOException {
+		backend = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		backend.createContext("/", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				byte[] content = "ok".getBytes("UTF-8");
+				exchange.sendResponseHeaders(HttpServletResponse.SC_OK, content.length);
+				OutputStream out = exchange.getResponseBody();
+				out.write(content);
+				out.close();
+			}
+		});
+		backend.start();
+		String backendUrl = "http://127.0.0.1:" + backend.getAddress().getPort();
+		servletConfig = new TestServletConfig(TestDestinations.map(
+				TestDestinations.create("backend", backendUrl, null, null, null),
+				TestDestinations.create("protected", backendUrl, null, null, null)));
+		servletConfig.initParameters.put("batch.enabled", "true");
+	}
+
+	@After
+	public void stopBackend() {
+		if (servlet != null) {
+			servlet.destroy();
+		}
+		backend.stop(0);
+	}
+
+	@Test
+	public void callsNoDestinationByDefault() throws Exception {
+		String content = batch();
+
+		assertTrue(content, content.contains("HTTP/1.1 404 Not Found\r\n"));
+		assertTrue(content, !content.contains("HTTP/1.1 200 OK\r\n"));
+	}
+
+	@Test
+	public void callsListedDestinations() throws Exception {
+		servletConfig.initParameters.put("batch.destinations", "backend");
+		String content = batch();
+
+		assertTrue(content, content.contains("HTTP/1.1 200 OK\r\n"));
+		assertTrue(content, content.contains("HTTP/1.1 404 Not Found\r\n"));
+	}
+
+	@Test
+	public void callsDestinationsOfRouteTable() throws Exception {
+		servletConfig.initParameters.put("batch.destinations", "*");
+		String content = batch();
+
+		assertTrue(content, !content.contains("HTTP/1.1 404 Not Found\r\n"));
+	}
+
+	/*
+	 * sends a batch with a request to each destination and returns the batch response
+	 */
+	private String batch() throws ServletException, IOException {
+		servlet = new ProxyServlet();
+		servlet.init(servletConfig.create());
+		String body = "--b\r\nContent-Type: application/http\r\n\r\nGET backend/Items HTTP/1.1\r\n\r\n\r\n"
+				+ "--b\r\nContent-Type: application/http\r\n\r\nGET protected/Items HTTP/1.1\r\n\r\n\r\n--b--\r\n";
+		TestRequest request = new TestRequest("POST", "Content-Type", "multipart/mixed; boundary=b")
+				.uri("/app/proxy/$batch").body(body.getBytes("ISO-8859-1"), true);
+		TestResponse response = new TestResponse();
+		servlet.service(request.create(), response.response);
+		return response.getContent();
+	}
+}
@@ -0,0 +1,257 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class BatchHandlerTest {
+
+	private BatchHandler handler;
+
+	/* answers every part with the request as the proxy servlet sees it */
+	private final BatchHandler.Pipeline echo = new BatchHandler.Pipeline() {
+		public void proxy(HttpServletRequest request, HttpServletResponse response, ProxyExchange exchange)
+				throws IOException {
+			response.setStatus(request.getMethod().equals("POST") ? HttpServletResponse.SC_CREATED
+					: HttpServletResponse.SC_OK);
+			response.setHeader("X-Uri", request.getRequestURI() + "?" + request.getQueryString());
+			response.setHeader("X-Servlet-Path", request.getServletPath());
+			response.setHeader("X-Cookie", String.valueOf(request.getHeader("Cookie")));
+			response.setHeader("X-Content-Type", String.valueOf(request.getContentType()));
+			response.setHeader("X-Range", String.valueOf(request.getHeader("Range")));
+			response.getOutputStream().write(read(request.getInputStream()));
+		}
+	};
+
+	@After
+	public void shutdown() {
+		if (handler != null) {
+			handler.shutdown();
+		}
+	}
+
+	@Test
+	public void parsesParts() throws IOException {
+		List<BatchPart> parts = BatchPart.parse(bytes("preamble\r\n"
+				+ "--b\r\n"
+				+ "Content-Type: application/http\r\n"
+				+ "Content-ID: 1\r\n"
+				+ "\r\n"
+				+ "get northwind/Customers?$top=2 HTTP/1.1\r\n"
+				+ "Accept: application/json\r\n"
+				+ "\r\n"
+				+ "\r\n"
+				+ "--b\n"
+				+ "content-type: application/http\n"
+				+ "\n"
+				+ "POST northwind/Customers HTTP/1.1\n"
+				+ "Content-Type: text/plain\n"
+				+ "Content-Length: 5\n"
+				+ "\n"
+				+ "hello, ignored\n"
+				+ "--b--\r\n"), "b");
+
+		assertEquals(2, parts.size());
+		BatchPart get = parts.get(0);
+		assertEquals("1", get.getContentId());
+		assertEquals("GET", get.getMethod());
+		assertEquals("northwind/Customers?$top=2", get.getTarget());
+		assertEquals("application/json", get.getHeader("accept"));
+		assertEquals(0, get.getBody().length);
+		BatchPart post = parts.get(1);
+		assertNull(post.getContentId());
+		assertEquals(Arrays.asList("text/plain"), post.getHeaders("CONTENT-TYPE"));
+		// the body is cut to its Content-Length
+		assertArrayEquals(bytes("hello"), post.getBody());
+	}
+
+	@Test
+	public void rejectsMalformedBatches() throws IOException {
+		assertInvalid("no boundary\r\n");
+		assertInvalid("--b\r\nContent-Type: application/http\r\n\r\nGET northwind HTTP/1.1\r\n\r\n");
+		assertInvalid("--b\r\nContent-Type: multipart/mixed; boundary=c\r\n\r\n--c--\r\n--b--\r\n");
+		assertInvalid("--b\r\nContent-Type: application/http\r\n\r\n\r\n--b--\r\n");
+	}
+
+	@Test
+	public void proxiesParts() throws IOException {
+		handler = createHandler(null, 20);
+		TestResponse response = handle(batch("Cookie", "session=1", "Range", "bytes=0-1"),
+				"--b\r\n"
+				+ "Content-Type: application/http\r\n"
+				+ "Content-ID: get\r\n"
+				+ "\r\n"
+				+ "GET /northwind/Customers?$top=2 HTTP/1.1\r\n"
+				+ "\r\n"
+				+ "\r\n"
+				+ "--b\r\n"
+				+ "Content-Type: application/http\r\n"
+				+ "Content-ID: post\r\n"
+				+ "\r\n"
+				+ "POST northwind/Customers HTTP/1.1\r\n"
+				+ "Content-Type: application/json\r\n"
+				+ "Cookie: session=2\r\n"
+				+ "\r\n"
+				+ "{}\r\n"
+				+ "--b--\r\n");
+
+		assertEquals(HttpServletResponse.SC_OK, response.status);
+		String boundary = response.getHeader("Content-Type").substring("multipart/mixed; boundary=".length());
+		String content = response.getContent();
+		assertTrue(content, content.endsWith("--" + boundary + "--\r\n"));
+		String get = getPart(content, boundary, "get");
+		assertTrue(get, get.startsWith("HTTP/1.1 200 OK\r\n"));
+		assertTrue(get, get.contains("X-Uri: /app/proxy/northwind/Customers?$top=2\r\n"));
+		assertTrue(get, get.contains("X-Servlet-Path: /proxy\r\n"));
+		// headers of the batch apply to its parts, unless they describe or condition the batch request
+		assertTrue(get, get.contains("X-Cookie: session=1\r\n"));
+		assertTrue(get, get.contains("X-Content-Type: null\r\n"));
+		assertTrue(get, get.contains("X-Range: null\r\n"));
+		assertTrue(get, get.endsWith("Content-Length: 0\r\n\r\n"));
+		String post = getPart(content, boundary, "post");
+		assertTrue(post, post.startsWith("HTTP/1.1 201 Created\r\n"));
+		assertTrue(post, post.contains("X-Uri: /app/proxy/northwind/Customers?null\r\n"));
+		assertTrue(post, post.contains("X-Cookie: session=2\r\n"));
+		assertTrue(post, post.contains("X-Content-Type: application/json\r\n"));
+		assertTrue(post, post.endsWith("Content-Length: 2\r\n\r\n{}"));
+	}
+
+	@Test
+	public void presentsPartsToDestinationMappings() throws IOException {
+		handler = createHandler(Collections.singleton("northwind"), 20);
+		TestResponse response = handle(batch(), part("1", "GET northwind/Customers") + part("2", "GET other/Items") 
+				+ "--b--\r\n");
+
+		String boundary = response.getHeader("Content-Type").substring("multipart/mixed; boundary=".length());
+		String mapped = getPart(response.getContent(), boundary, "1");
+		assertTrue(mapped, mapped.contains("X-Uri: /app/proxy/northwind/Customers?null\r\n"));
+		assertTrue(mapped, mapped.contains("X-Servlet-Path: /proxy/northwind\r\n"));
+		String other = getPart(response.getContent(), boundary, "2");
+		assertTrue(other, other.startsWith("HTTP/1.1 404 Not Found\r\n"));
+	}
+
+	@Test
+	public void failsPartsWithTooLargeResponses() throws IOException {
+		handler = new BatchHandler(new BatchHandler.Pipeline() {
+			public void proxy(HttpServletRequest request, HttpServletResponse response, ProxyExchange exchange)
+					throws IOException {
+				response.setHeader("X-Part", "1");
+				response.getOutputStream().write(new byte[11]);
+			}
+		}, "/proxy/$batch", null, 20, 1024, 4, 10, 2, 10);
+		TestResponse response = handle(batch(), part("1", "GET northwind/Customers") + "--b--\r\n");
+
+		String boundary = response.getHeader("Content-Type").substring("multipart/mixed; boundary=".length());
+		String part = getPart(response.getContent(), boundary, "1");
+		assertTrue(part, part.startsWith("HTTP/1.1 500 Internal Server Error\r\n"));
+		assertTrue(part, !part.contains("X-Part"));
+	}
+
+	@Test
+	public void rejectsInvalidBatchRequests() throws IOException {
+		handler = createHandler(null, 1);
+		String body = part("1", "GET northwind/Customers") + part("2", "GET northwind/Orders") + "--b--\r\n";
+
+		assertEquals(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, handle(batch(), body).status);
+		assertEquals(HttpServletResponse.SC_BAD_REQUEST, 
+				handle(new TestRequest("POST", "Content-Type", "application/json"), body).status);
+		assertEquals(HttpServletResponse.SC_BAD_REQUEST, handle(batch(), "--b\r\nContent-Type: text/plain\r\n\r\n--b--").status);
+	}
+
+	@Test
+	public void recognizesBatchRequests() {
+		handler = createHandler(null, 20);
+		assertTrue(handler.isBatchRequest(new TestRequest("POST").uri("/app/proxy/$batch").create()));
+		assertTrue(!handler.isBatchRequest(new TestRequest("POST").uri("/app/proxy/$batch/x").create()));
+		assertEquals("b", BatchHandler.getBoundary("multipart/mixed; boundary=\"b\""));
+		assertNull(BatchHandler.getBoundary("multipart/related; boundary=b"));
+		assertNull(BatchHandler.getBoundary("multipart/mixed"));
+		assertEquals(Collections.singleton("northwind"), BatchHandler.getMappedDestinations(
+				Arrays.asList("/proxy/northwind/*", "/proxy/*", "/proxy/a/b/*", "/other/x/*"), "/proxy/"));
+	}
+
+	private BatchHandler createHandler(java.util.Set<String> destinations, int maxRequests) {
+		return new BatchHandler(echo, "/proxy/$batch", destinations, maxRequests, 1024, 4, 1024, 2, 10);
+	}
+
+	private static TestRequest batch(String... headers) {
+		TestRequest request = new TestRequest("POST", headers).uri("/app/proxy/$batch");
+		return request.header("Content-Type", "multipart/mixed; boundary=b");
+	}
+
+	private static String part(String contentId, String requestLine) {
+		return "--b\r\nContent-Type: application/http\r\nContent-ID: " + contentId + "\r\n\r\n" 
+				+ requestLine + " HTTP/1.1\r\n\r\n\r\n";
+	}
+
+	private TestResponse handle(TestRequest request, String body) throws IOException {
+		TestResponse response = new TestResponse();
+		handler.handle(request.body(bytes(body), true).create(), response.response);
+		return response;
+	}
+
+	/*
+	 * returns the message of the part with the given Content-ID
+	 */
+	private static String getPart(String content, String boundary, String contentId) {
+		String head = "Content-ID: " + contentId + "\r\n\r\n";
+		int start = content.indexOf(head);
+		assertTrue(content, start >= 0);
+		start += head.length();
+		return content.substring(start, content.indexOf("\r\n--" + boundary, start));
+	}
+
+	private static void assertInvalid(String body) throws IOException {
+		try {
+			BatchPart.parse(bytes(body), "b");
+			fail("invalid batch parsed: " + body);
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	private static byte[] read(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[256];
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			out.write(buffer, 0, read);
+		}
+		return out.toByteArray();
+	}
+
+	private static byte[] bytes(String value) throws IOException {
+		return value.getBytes("ISO-8859-1");
+	}
+}
@@ -0,0 +1,167 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Proxies cacheable responses to clients which accept gzip and to clients which do
+ * not. The local backend gzips its response itself if the client accepts it.
+ */
+public class CachedEncodingTest {
+
+	private static final String CONTENT = "{\"name\":\"item\",\"description\":\"cached content\"}";
+
+	private final AtomicInteger backendCalls = new AtomicInteger();
+
+	private HttpServer backend;
+
+	private TestServletConfig servletConfig;
+
+	private ProxyServlet servlet;
+
+	private String contentType;
+
+	private boolean backendGzip;
+
+	@Before
+	public void startBackend() throws IOException {
+		backend = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		backend.createContext("/", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				backendCalls.incrementAndGet();
+				byte[] content = CONTENT.getBytes("UTF-8");
+				String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+				if (backendGzip && acceptEncoding != null && acceptEncoding.contains("gzip")) {
+					content = gzip(content);
+					exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+				}
+				exchange.getResponseHeaders().add("Content-Type", contentType);
+				exchange.getResponseHeaders().add("Cache-Control", "max-age=60");
+				exchange.sendResponseHeaders(HttpServletResponse.SC_OK, content.length);
+				OutputStream out = exchange.getResponseBody();
+				out.write(content);
+				out.close();
+			}
+		});
+		backend.start();
+		servletConfig = new TestServletConfig(TestDestinations.map(TestDestinations.create("backend", 
+				"http://127.0.0.1:" + backend.getAddress().getPort(), null, null, null)));
+		servletConfig.initParameters.put("cache.enabled", "true");
+	}
+
+	@After
+	public void stopBackend() {
+		if (servlet != null) {
+			servlet.destroy();
+		}
+		backend.stop(0);
+	}
+
+	@Test
+	public void keepsContentEncodedByBackendApart() throws Exception {
+		// content which is passed through keeps the encoding of the backend
+		contentType = "application/octet-stream";
+		backendGzip = true;
+		init();
+
+		TestResponse gzipped = proxy(new TestRequest("GET", "Accept-Encoding", "gzip"));
+		assertEquals("gzip", gzipped.getHeader("Content-Encoding"));
+		TestResponse plain = proxy(new TestRequest("GET"));
+		assertNull(plain.getHeader("Content-Encoding"));
+		assertEquals(CONTENT, plain.getContent());
+		assertEquals(2, backendCalls.get());
+
+		TestResponse cached = proxy(new TestRequest("GET", "Accept-Encoding", "gzip"));
+		assertEquals(2, backendCalls.get());
+		assertEquals("gzip", cached.getHeader("Content-Encoding"));
+		assertEquals(CONTENT, gunzip(cached.content.toByteArray()));
+	}
+
+	@Test
+	public void servesCompressedContentFromCache() throws Exception {
+		contentType = "application/json";
+		servletConfig.initParameters.put("compression.enabled", "true");
+		servletConfig.initParameters.put("compression.min.size", "0");
+		init();
+
+		TestResponse compressed = proxy(new TestRequest("GET", "Accept-Encoding", "gzip"));
+		assertEquals("gzip", compressed.getHeader("Content-Encoding"));
+		TestResponse cached = proxy(new TestRequest("GET", "Accept-Encoding", "gzip"));
+		assertEquals(1, backendCalls.get());
+		assertEquals("gzip", cached.getHeader("Content-Encoding"));
+		assertEquals("Accept-Encoding", cached.getHeader("Vary"));
+		assertEquals(CONTENT, gunzip(cached.content.toByteArray()));
+
+		TestResponse plain = proxy(new TestRequest("GET"));
+		assertEquals(2, backendCalls.get());
+		assertNull(plain.getHeader("Content-Encoding"));
+		assertEquals(CONTENT, plain.getContent());
+	}
+
+	private void init() throws ServletException {
+		servlet = new ProxyServlet();
+		servlet.init(servletConfig.create());
+	}
+
+	private TestResponse proxy(TestRequest request) throws ServletException, IOException {
+		TestResponse response = new TestResponse();
+		servlet.service(request.create(), response.response);
+		assertEquals(HttpServletResponse.SC_OK, response.status);
+		return response;
+	}
+
+	private static byte[] gzip(byte[] content) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		GZIPOutputStream out = new GZIPOutputStream(bytes);
+		out.write(content);
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	private static String gunzip(byte[] content) throws IOException {
+		GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(content));
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buffer = new byte[256];
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			bytes.write(buffer, 0, read);
+		}
+		return bytes.toString("UTF-8");
+	}
+}
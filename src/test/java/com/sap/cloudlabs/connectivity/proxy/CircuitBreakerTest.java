@@ -0,0 +1,112 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class CircuitBreakerTest {
+
+	private static final long SLOW = 2000 * 1000000L;
+
+	private static final long FAST = 10 * 1000000L;
+
+	/* 50% failures, 50% slow calls, 1 s slow, 4 calls minimum, 10 s window, 5 s open, 2 probes */
+	private final CircuitBreaker breaker = new CircuitBreaker(50, 50, 1000, 4, 10, 5000, 2);
+
+	private long now = 1000000;
+
+	@Test
+	public void opensWhenFailureRateIsReached() {
+		record(false, false, true);
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		record(true);
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		assertEquals(5000, breaker.tryAcquire(now));
+		assertEquals(2000, breaker.tryAcquire(now + 3000));
+	}
+
+	@Test
+	public void staysClosedBelowMinimumCalls() {
+		record(true, true, true);
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		assertEquals(0, breaker.tryAcquire(now));
+	}
+
+	@Test
+	public void opensWhenSlowCallRateIsReached() {
+		for (int i = 0; i < 4; i++) {
+			assertEquals(0, breaker.tryAcquire(now));
+			breaker.record(false, i % 2 == 0 ? SLOW : FAST, now);
+		}
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+	}
+
+	@Test
+	public void forgetsCallsOutsideTheWindow() {
+		record(true, true, false);
+		now += 11000;
+		record(false, false);
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+	}
+
+	@Test
+	public void closesWhenAllProbesSucceed() {
+		breaker.open(now);
+		now += 5000;
+		assertEquals(0, breaker.tryAcquire(now));
+		assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+		assertEquals(0, breaker.tryAcquire(now));
+		assertTrue(breaker.tryAcquire(now) > 0);
+
+		breaker.record(false, FAST, now);
+		assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+		breaker.record(false, FAST, now);
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		assertEquals(0, breaker.tryAcquire(now));
+	}
+
+	@Test
+	public void reopensWhenAProbeFails() {
+		breaker.open(now);
+		now += 5000;
+		assertEquals(0, breaker.tryAcquire(now));
+		breaker.record(true, -1, now);
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		assertEquals(5000, breaker.tryAcquire(now));
+	}
+
+	@Test
+	public void cancelledProbeCanBeRepeated() {
+		breaker.open(now);
+		now += 5000;
+		assertEquals(0, breaker.tryAcquire(now));
+		assertEquals(0, breaker.tryAcquire(now));
+		breaker.cancel();
+		assertEquals(0, breaker.tryAcquire(now));
+		assertTrue(breaker.tryAcquire(now) > 0);
+	}
+
+	private void record(boolean... failed) {
+		for (boolean f : failed) {
+			assertEquals(0, breaker.tryAcquire(now));
+			breaker.record(f, f ? -1 : FAST, now);
+		}
+	}
+}
@@ -0,0 +1,214 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.naming.NamingException;
+
+import org.apache.http.client.HttpClient;
+import org.junit.After;
+import org.junit.Test;
+
+import com.sap.core.connectivity.api.DestinationException;
+import com.sap.core.connectivity.api.configuration.ConnectivityConfiguration;
+import com.sap.core.connectivity.api.http.HttpDestination;
+
+public class DestinationCacheTest {
+
+	private final HttpClientRegistry clientRegistry = new HttpClientRegistry(20, 5, 60);
+
+	private final ConcurrentHashMap<String, HttpDestination> destinations = new ConcurrentHashMap<String, HttpDestination>();
+
+	private DestinationCache cache;
+
+	@After
+	public void shutdown() {
+		if (cache != null) {
+			cache.shutdown();
+		}
+		clientRegistry.shutdown();
+	}
+
+	@Test
+	public void keepsDestinationForTimeToLive() throws Exception {
+		cache = new DestinationCache(TestDestinations.createFactory(destinations), null, clientRegistry, 60, 10);
+		put("backend", "http://backend:8080");
+
+		ResolvedDestination destination = cache.get("backend");
+		put("backend", "http://other:8080");
+
+		assertSame(destination, cache.get("backend"));
+		cache.invalidate("backend");
+		assertEquals("http://other:8080", cache.get("backend").getUri());
+	}
+
+	@Test
+	public void resolvesEveryTimeWithoutTimeToLive() throws Exception {
+		cache = new DestinationCache(TestDestinations.createFactory(destinations), null, clientRegistry, 0, 0);
+		put("backend", "http://backend:8080");
+
+		assertNotSame(cache.get("backend"), cache.get("backend"));
+	}
+
+	@Test
+	public void refreshesInBackgroundShortlyBeforeExpiry() throws Exception {
+		cache = new DestinationCache(TestDestinations.createFactory(destinations), null, clientRegistry, 1, 1);
+		put("backend", "http://backend:8080");
+		ResolvedDestination destination = cache.get("backend");
+		put("backend", "http://other:8080");
+
+		Thread.sleep(600);
+		// still the current entry, while the refresh runs in the background
+		assertSame(destination, cache.get("backend"));
+		// before the entry expires, so that it is not resolved synchronously
+		assertEquals("http://other:8080", awaitUri("backend", "http://other:8080", 300));
+	}
+
+	@Test
+	public void dropsPooledClientIfDestinationChangesOnRefresh() throws Exception {
+		ConcurrentHashMap<String, Map<String, String>> properties = new ConcurrentHashMap<String, Map<String, String>>();
+		cache = new DestinationCache(TestDestinations.createFactory(destinations),
+				TestDestinations.createConfiguration(properties), clientRegistry, 1, 1);
+		destinations.put("backend", TestDestinations.create("backend", "http://backend:8080", null, null, null));
+		properties.put("backend", TestDestinations.properties("http://backend:8080", null, null));
+		HttpClient client = clientRegistry.acquire(cache.get("backend"));
+		destinations.put("backend", TestDestinations.create("backend", "http://backend:8080", "user", "secret", null));
+		properties.put("backend", TestDestinations.properties("http://backend:8080", "user", "secret"));
+
+		Thread.sleep(600);
+		cache.get("backend");
+		long deadline = System.currentTimeMillis() + 5000;
+		while (client == clientRegistry.acquire(cache.get("backend")) && System.currentTimeMillis() < deadline) {
+			Thread.sleep(20);
+		}
+		assertNotSame(client, clientRegistry.acquire(cache.get("backend")));
+	}
+
+	@Test
+	public void resolvesWithoutCreatingClient() throws Exception {
+		AtomicInteger createdClients = new AtomicInteger();
+		ConcurrentHashMap<String, Map<String, String>> properties = new ConcurrentHashMap<String, Map<String, String>>();
+		cache = new DestinationCache(TestDestinations.createFactory(destinations),
+				TestDestinations.createConfiguration(properties), clientRegistry, 0, 0);
+		destinations.put("backend", TestDestinations.create("backend", "http://backend:8080", null, null, createdClients));
+		properties.put("backend", TestDestinations.properties("http://backend:8080", null, null));
+		String fingerprint = cache.get("backend").getFingerprint();
+
+		properties.put("backend", TestDestinations.properties("http://backend:8080", "user", "secret"));
+		assertFalse(fingerprint.equals(cache.get("backend").getFingerprint()));
+		assertEquals(0, createdClients.get());
+	}
+
+	@Test
+	public void slowRefreshDoesNotDelayOthers() throws Exception {
+		final CountDownLatch slowLookup = new CountDownLatch(1);
+		ConcurrentHashMap<String, HttpDestination> blockingDestinations = new ConcurrentHashMap<String, HttpDestination>() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public HttpDestination get(Object key) {
+				if ("slow".equals(key) && Thread.currentThread().getName().contains("destination-refresher")) {
+					try {
+						slowLookup.await(10, TimeUnit.SECONDS);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+				return super.get(key);
+			}
+		};
+		blockingDestinations.put("slow", TestDestinations.create("slow", "http://slow:8080", null, null, null));
+		blockingDestinations.put("fast", TestDestinations.create("fast", "http://fast:8080", null, null, null));
+		cache = new DestinationCache(TestDestinations.createFactory(blockingDestinations), null, clientRegistry, 1, 1);
+		cache.get("slow");
+		cache.get("fast");
+		blockingDestinations.put("fast", TestDestinations.create("fast", "http://fast-new:8080", null, null, null));
+
+		try {
+			Thread.sleep(600);
+			cache.get("slow");
+			cache.get("fast");
+			assertEquals("http://fast-new:8080", awaitUri("fast", "http://fast-new:8080", 300));
+		} finally {
+			slowLookup.countDown();
+		}
+	}
+
+	@Test
+	public void failedFactoryLookupIsRepeatedOnUse() throws Exception {
+		// without JNDI the lookup fails, but only when a destination is resolved
+		cache = new DestinationCache(null, null, clientRegistry, 60, 10);
+		for (int i = 0; i < 2; i++) {
+			try {
+				cache.get("backend");
+				fail("lookup without JNDI succeeded");
+			} catch (DestinationException e) {
+				assertTrue(e.getMessage(), e.getMessage().contains("Lookup of DestinationFactory"));
+			}
+		}
+	}
+
+	@Test
+	public void failedConfigurationLookupIsNotRepeatedPerResolution() throws Exception {
+		final AtomicInteger lookups = new AtomicInteger();
+		cache = new DestinationCache(TestDestinations.createFactory(destinations), null, clientRegistry, 0, 0) {
+			@Override
+			ConnectivityConfiguration lookupConnectivityConfiguration() throws NamingException {
+				lookups.incrementAndGet();
+				throw new NamingException("not bound");
+			}
+		};
+		put("backend", "http://backend:8080");
+
+		assertNull(cache.getConnectivityConfiguration());
+		for (int i = 0; i < 5; i++) {
+			assertEquals("http://backend:8080", cache.get("backend").getUri());
+		}
+		assertEquals(1, lookups.get());
+	}
+
+	@Test(expected = DestinationException.class)
+	public void failsForUnknownDestination() throws Exception {
+		cache = new DestinationCache(TestDestinations.createFactory(destinations), null, clientRegistry, 60, 10);
+		cache.get("unknown");
+	}
+
+	private void put(String name, String uri) {
+		destinations.put(name, TestDestinations.create(name, uri, null, null, null));
+	}
+
+	private String awaitUri(String name, String uri, long timeout) throws Exception {
+		long deadline = System.currentTimeMillis() + timeout;
+		while (!cache.get(name).getUri().equals(uri) && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		return cache.get(name).getUri();
+	}
+}
@@ -0,0 +1,157 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class DestinationLimitsTest {
+
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+
+	@After
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void bulkheadQueuesCallsBeyondTheLimit() throws Exception {
+		final Bulkhead bulkhead = new Bulkhead(1, 1, 5000);
+		assertTrue(bulkhead.acquire());
+		Future<Boolean> queued = executor.submit(new Callable<Boolean>() {
+			public Boolean call() throws InterruptedException {
+				return bulkhead.acquire();
+			}
+		});
+		awaitWaiting(bulkhead, 1);
+		// the queue is full
+		assertFalse(bulkhead.acquire());
+
+		bulkhead.release();
+		assertTrue(queued.get(5, TimeUnit.SECONDS));
+		assertEquals(1, bulkhead.getInFlight());
+		assertEquals(0, bulkhead.getWaiting());
+	}
+
+	@Test
+	public void bulkheadRejectsCallsAfterMaximumWait() throws InterruptedException {
+		Bulkhead bulkhead = new Bulkhead(1, 1, 50);
+		assertTrue(bulkhead.acquire());
+		long start = System.nanoTime();
+		assertFalse(bulkhead.acquire());
+		assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(40));
+		assertEquals(0, bulkhead.getWaiting());
+	}
+
+	@Test
+	public void raisingTheLimitLetsWaitingCallsThrough() throws Exception {
+		final Bulkhead bulkhead = new Bulkhead(1, 1, 5000);
+		assertTrue(bulkhead.acquire());
+		Future<Boolean> queued = executor.submit(new Callable<Boolean>() {
+			public Boolean call() throws InterruptedException {
+				return bulkhead.acquire();
+			}
+		});
+		awaitWaiting(bulkhead, 1);
+		bulkhead.setLimit(2);
+		assertTrue(queued.get(5, TimeUnit.SECONDS));
+		assertEquals(2, bulkhead.getInFlight());
+	}
+
+	@Test
+	public void adaptiveLimitShrinksAndGrows() throws IOException {
+		DestinationLimits limits = new DestinationLimits("backend", new Bulkhead(10, 0, 0), null, true, 2, 100);
+		assertEquals(10, limits.getCurrentLimit());
+
+		call(limits, true, 10);
+		assertEquals(9, limits.getCurrentLimit());
+		for (int i = 0; i < 20; i++) {
+			call(limits, true, 10);
+		}
+		assertEquals(2, limits.getCurrentLimit());
+
+		// grows by 1 / limit per successful call
+		call(limits, false, 10);
+		call(limits, false, 10);
+		assertEquals(2, limits.getCurrentLimit());
+		call(limits, false, 10);
+		assertEquals(3, limits.getCurrentLimit());
+		for (int i = 0; i < 100; i++) {
+			call(limits, false, 10);
+		}
+		assertEquals(10, limits.getCurrentLimit());
+	}
+
+	@Test
+	public void slowCallsShrinkTheAdaptiveLimit() throws IOException {
+		DestinationLimits limits = new DestinationLimits("backend", new Bulkhead(10, 0, 0), null, true, 1, 100);
+		call(limits, false, 200);
+		assertEquals(9, limits.getCurrentLimit());
+	}
+
+	@Test
+	public void maximumCapsTheAdaptiveLimit() throws IOException {
+		DestinationLimits limits = new DestinationLimits("backend", new Bulkhead(10, 0, 0), null, true, 1, 100);
+		limits.setMaxConcurrent(4);
+		assertEquals(4, limits.getCurrentLimit());
+		for (int i = 0; i < 20; i++) {
+			call(limits, false, 10);
+		}
+		assertEquals(4, limits.getCurrentLimit());
+	}
+
+	@Test
+	public void openCircuitRejectsWithRetryAfter() throws IOException {
+		DestinationLimits limits = new DestinationLimits("backend", new Bulkhead(1, 0, 0),
+				new CircuitBreaker(50, 100, 1000, 1, 10, 30000, 1), false, 1, 100);
+		assertEquals(0, limits.acquire());
+		limits.release(true, true, -1);
+		assertEquals("OPEN", limits.getCircuitState());
+		assertEquals(30, limits.acquire());
+		assertEquals(1, limits.getRejected());
+		assertEquals(0, limits.getInFlight());
+
+		limits.closeCircuit();
+		assertEquals(0, limits.acquire());
+		// rejected by the bulkhead
+		assertEquals(1, limits.acquire());
+	}
+
+	private static void call(DestinationLimits limits, boolean failed, long millis) throws IOException {
+		assertEquals(0, limits.acquire());
+		limits.release(true, failed, failed ? -1 : millis * 1000000L);
+	}
+
+	private static void awaitWaiting(Bulkhead bulkhead, int waiting) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (bulkhead.getWaiting() < waiting && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+		assertEquals(waiting, bulkhead.getWaiting());
+	}
+}
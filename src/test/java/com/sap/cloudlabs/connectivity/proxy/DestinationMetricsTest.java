@@ -0,0 +1,158 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class DestinationMetricsTest {
+
+	@Test
+	public void countsRequestsPerStatusClass() {
+		DestinationMetrics metrics = new DestinationMetrics("backend");
+		finish(metrics, 200, 10, 100);
+		finish(metrics, 204, 0, 0);
+		finish(metrics, 404, 10, 20);
+		finish(metrics, 502, 0, 30);
+		finish(metrics, 0, 0, 0);
+
+		assertEquals(5, metrics.getRequests());
+		assertEquals(2, metrics.getResponses2xx());
+		assertEquals(1, metrics.getResponses4xx());
+		assertEquals(1, metrics.getResponses5xx());
+		assertEquals(1, metrics.getErrors());
+		assertEquals(20, metrics.getBytesIn());
+		assertEquals(150, metrics.getBytesOut());
+		assertEquals(0, metrics.getInFlight());
+	}
+
+	@Test
+	public void tracksRequestsInFlight() {
+		DestinationMetrics metrics = new DestinationMetrics("backend");
+		metrics.requestStarted();
+		metrics.requestStarted();
+		assertEquals(2, metrics.getInFlight());
+
+		metrics.requestFinished(new ProxyExchange(), 200);
+		assertEquals(1, metrics.getInFlight());
+	}
+
+	@Test
+	public void recordsOnlyPhasesWhichHappened() {
+		DestinationMetrics metrics = new DestinationMetrics("backend");
+		ProxyExchange exchange = new ProxyExchange();
+		exchange.setLookupTime(TimeUnit.MILLISECONDS.toNanos(1));
+		metrics.requestStarted();
+		metrics.requestFinished(exchange, 0);
+
+		assertEquals(1, metrics.getLatency(0).getCount());
+		assertEquals(0, metrics.getLatency(DestinationMetrics.BACKEND_PHASE).getCount());
+		assertEquals(1, metrics.getLatency(3).getCount());
+	}
+
+	@Test
+	public void writesPrometheusTextFormat() {
+		DestinationMetrics metrics = new DestinationMetrics("back\"end");
+		finish(metrics, 200, 10, 100);
+
+		String text = write(metrics);
+		assertTrue(text, text.contains("connectivity_proxy_requests_total{destination=\"back\\\"end\",status=\"2xx\"} 1\n"));
+		assertTrue(text, text.contains("connectivity_proxy_bytes_out_total{destination=\"back\\\"end\"} 100\n"));
+		assertTrue(text, text.contains("connectivity_proxy_latency_seconds_bucket{destination=\"back\\\"end\",phase=\"total\",le=\"+Inf\"} 1\n"));
+		assertTrue(text, text.contains("connectivity_proxy_latency_seconds_count{destination=\"back\\\"end\",phase=\"backend\"} 1\n"));
+	}
+
+	@Test
+	public void keepsOneMetricsPerDestination() {
+		ProxyMetrics proxyMetrics = new ProxyMetrics("/test-" + System.nanoTime());
+		try {
+			DestinationMetrics metrics = proxyMetrics.get("backend");
+			assertSame(metrics, proxyMetrics.get("backend"));
+			finish(metrics, 200, 0, 0);
+
+			StringWriter text = new StringWriter();
+			proxyMetrics.writeTo(new PrintWriter(text, true));
+			assertTrue(text.toString(), text.toString().startsWith("# TYPE connectivity_proxy_requests_total counter"));
+			assertTrue(text.toString(), text.toString().contains("status=\"2xx\"} 1"));
+		} finally {
+			proxyMetrics.unregister();
+		}
+	}
+
+	@Test
+	public void writesEachFamilyAsOneGroup() {
+		ProxyMetrics proxyMetrics = new ProxyMetrics("/test-" + System.nanoTime());
+		try {
+			finish(proxyMetrics.get("orders"), 200, 10, 100);
+			finish(proxyMetrics.get("customers"), 404, 0, 20);
+
+			StringWriter text = new StringWriter();
+			proxyMetrics.writeTo(new PrintWriter(text, true));
+			assertFalse(text.toString(), text.toString().contains("\r"));
+
+			// each family starts with its TYPE line and does not appear again after another one
+			List<String> families = new ArrayList<String>();
+			for (String line : text.toString().split("\n")) {
+				boolean type = line.startsWith("# TYPE ");
+				String name = type ? line.split(" ")[2] 
+						: line.substring(0, line.indexOf('{')).replaceAll("_(bucket|sum|count)$", "");
+				if (families.isEmpty() || !families.get(families.size() - 1).equals(name)) {
+					assertTrue(line, type);
+					assertFalse(line, families.contains(name));
+					families.add(name);
+				} else {
+					assertFalse(line, type);
+				}
+			}
+			assertEquals(DestinationMetrics.FAMILIES.length, families.size());
+			assertTrue(text.toString(), text.toString().contains(
+					"connectivity_proxy_bytes_out_total{destination=\"customers\"} 20\n"
+					+ "connectivity_proxy_bytes_out_total{destination=\"orders\"} 100\n"));
+		} finally {
+			proxyMetrics.unregister();
+		}
+	}
+
+	private static void finish(DestinationMetrics metrics, int status, long bytesIn, long bytesOut) {
+		ProxyExchange exchange = new ProxyExchange();
+		exchange.setBackendTime(TimeUnit.MILLISECONDS.toNanos(5));
+		exchange.addBytesIn(bytesIn);
+		exchange.addBytesOut(bytesOut);
+		metrics.requestStarted();
+		metrics.requestFinished(exchange, status);
+	}
+
+	private static String write(DestinationMetrics metrics) {
+		StringWriter text = new StringWriter();
+		PrintWriter writer = new PrintWriter(text);
+		for (int family = 0; family < DestinationMetrics.FAMILIES.length; family++) {
+			metrics.writeTo(writer, family);
+		}
+		writer.flush();
+		return text.toString();
+	}
+}
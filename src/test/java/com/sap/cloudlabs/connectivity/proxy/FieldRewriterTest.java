@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.junit.Test;
+
+public class FieldRewriterTest {
+
+	private static final String BACKEND = "http://backend:8080/odata/";
+
+	private static final String PROXY = "https://proxy/app/proxy/nw/";
+
+	private final FieldRewriter rewriter = new FieldRewriter(FieldRewriter.DEFAULT_JSON_FIELDS,
+			FieldRewriter.DEFAULT_XML_ATTRIBUTES, FieldRewriter.DEFAULT_XML_ELEMENTS);
+
+	@Test
+	public void rewritesOnlyUrlFieldsOfJson() throws IOException {
+		assertJson("{\"d\":{\"results\":[{\"__metadata\":{\"uri\":\"" + PROXY + "Customers('A')\",\"type\":\"NW.Customer\"},"
+				+ "\"Website\":\"" + BACKEND + "Customers('A')\",\"Orders\":{\"__deferred\":{\"uri\":\"" + PROXY
+				+ "Customers('A')/Orders\"}}}],\"__next\":\"" + PROXY + "Customers?$skiptoken='A'\"}}",
+				"{\"d\":{\"results\":[{\"__metadata\":{\"uri\":\"" + BACKEND + "Customers('A')\",\"type\":\"NW.Customer\"},"
+						+ "\"Website\":\"" + BACKEND + "Customers('A')\",\"Orders\":{\"__deferred\":{\"uri\":\"" + BACKEND
+						+ "Customers('A')/Orders\"}}}],\"__next\":\"" + BACKEND + "Customers?$skiptoken='A'\"}}");
+	}
+
+	@Test
+	public void rewritesJsonFieldsOnlyBelowTheirParent() throws IOException {
+		assertJson("{\"uri\":\"" + BACKEND + "\",\"__metadata\":{\"uri\":\"" + PROXY + "\"}}",
+				"{\"uri\":\"" + BACKEND + "\",\"__metadata\":{\"uri\":\"" + BACKEND + "\"}}");
+		assertJson("{ \"@odata.context\" : \"" + PROXY + "$metadata\", \"value\" : [ { \"@odata.id\" : \"" + PROXY
+				+ "Items(1)\", \"Name\" : \"@odata.id\" } ] }",
+				"{ \"@odata.context\" : \"" + BACKEND + "$metadata\", \"value\" : [ { \"@odata.id\" : \"" + BACKEND
+						+ "Items(1)\", \"Name\" : \"@odata.id\" } ] }");
+	}
+
+	@Test
+	public void rewritesJsonUrlsWithEscapedSlashes() throws IOException {
+		String escapedBackend = BACKEND.replace("/", "\\/");
+		String escapedProxy = PROXY.replace("/", "\\/");
+		assertJson("{\"__metadata\":{\"uri\":\"" + escapedProxy + "Customers('A')\"}}",
+				"{\"__metadata\":{\"uri\":\"" + escapedBackend + "Customers('A')\"}}");
+		// partly escaped
+		assertJson("{\"__next\":\"" + escapedProxy + "Items\"}", "{\"__next\":\"http:\\/\\/backend:8080/odata\\/Items\"}");
+	}
+
+	@Test
+	public void keepsJsonValuesWhichDoNotMatch() throws IOException {
+		// other escapes, a different URL, an escaped quote right after a backslash of the URL
+		String[] contents = { "{\"__next\":\"http:\\u002f\\u002fbackend:8080\\/odata\\/\"}",
+				"{\"__next\":\"http://backend:8081/odata/\"}", "{\"__next\":\"http:\\\"\",\"uri\":\"x\"}",
+				"{\"__next\":\"http:\\/\\\"}\", \"__metadata\":{\"uri\":\"" + BACKEND + "\"}}",
+				"{\"__next\":\"http://back\"}", "{\"__next\":\"http:\\/", "{\"__next\":\"http://backend:8080/od" };
+		String[] expected = { contents[0], contents[1], contents[2],
+				"{\"__next\":\"http:\\/\\\"}\", \"__metadata\":{\"uri\":\"" + PROXY + "\"}}", contents[4], contents[5],
+				contents[6] };
+		for (int i = 0; i < contents.length; i++) {
+			assertJson(expected[i], contents[i]);
+		}
+	}
+
+	@Test
+	public void rewritesOnlyUrlFieldsOfXml() throws IOException {
+		assertXml("<?xml version=\"1.0\"?><feed xml:base=\"" + PROXY + "\"><!-- " + BACKEND + " --><entry><id>" + PROXY
+				+ "Items(1)</id><link href=\"" + PROXY + "Items(1)\" rel='edit'/><title>" + BACKEND
+				+ "</title><content src='" + PROXY + "Items(1)/$value'/><![CDATA[<id>" + BACKEND
+				+ "</id>]]></entry></feed>",
+				"<?xml version=\"1.0\"?><feed xml:base=\"" + BACKEND + "\"><!-- " + BACKEND + " --><entry><id>"
+						+ BACKEND + "Items(1)</id><link href=\"" + BACKEND + "Items(1)\" rel='edit'/><title>" + BACKEND
+						+ "</title><content src='" + BACKEND + "Items(1)/$value'/><![CDATA[<id>" + BACKEND
+						+ "</id>]]></entry></feed>");
+	}
+
+	@Test
+	public void keepsXmlWithEscapedSlashes() throws IOException {
+		String content = "<link href=\"" + BACKEND.replace("/", "\\/") + "\"/>";
+		assertXml(content, content);
+	}
+
+	@Test
+	public void handlesOnlyJsonAndXml() throws IOException {
+		assertNull(rewriter.wrap(new ByteArrayOutputStream(), "text/html", BACKEND, PROXY, "UTF-8"));
+	}
+
+	private void assertJson(String expected, String content) throws IOException {
+		assertRewritten(expected, content, "application/json;charset=utf-8");
+	}
+
+	private void assertXml(String expected, String content) throws IOException {
+		assertRewritten(expected, content, "application/atom+xml");
+	}
+
+	/*
+	 * the content is written in chunks of every size, so that matches and names are
+	 * split at every position
+	 */
+	private void assertRewritten(String expected, String content, String contentType) throws IOException {
+		byte[] bytes = content.getBytes("UTF-8");
+		for (int chunkSize = 1; chunkSize <= bytes.length; chunkSize++) {
+			ByteArrayOutputStream result = new ByteArrayOutputStream();
+			OutputStream out = rewriter.wrap(result, contentType, BACKEND, PROXY, "UTF-8");
+			for (int off = 0; off < bytes.length; off += chunkSize) {
+				out.write(bytes, off, Math.min(chunkSize, bytes.length - off));
+			}
+			out.close();
+			assertEquals("chunk size " + chunkSize, expected, result.toString("UTF-8"));
+		}
+	}
+}
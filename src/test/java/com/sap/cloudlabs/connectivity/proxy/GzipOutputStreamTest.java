@@ -0,0 +1,240 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.http.HttpVersion;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.junit.Test;
+
+public class GzipOutputStreamTest {
+
+	private final CountingPool pool = new CountingPool();
+
+	private final TestResponse response = new TestResponse();
+
+	@Test
+	public void compressesContentAboveMinimumSize() throws IOException {
+		byte[] content = content(100 * 1024);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		GzipOutputStream gzip = new GzipOutputStream(out, response.response, pool, 1024);
+		// write in chunks which straddle the held back bytes
+		for (int off = 0; off < content.length; off += 700) {
+			gzip.write(content, off, Math.min(700, content.length - off));
+		}
+		gzip.close();
+
+		assertEquals("gzip", response.getHeader("Content-Encoding"));
+		assertTrue(out.size() < content.length);
+		assertArrayEquals(content, gunzip(out.toByteArray()));
+		assertEquals(1, pool.borrowed);
+		assertEquals(1, pool.released);
+	}
+
+	@Test
+	public void writesSmallContentUncompressed() throws IOException {
+		byte[] content = content(100);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		GzipOutputStream gzip = new GzipOutputStream(out, response.response, pool, 1024);
+		gzip.write(content);
+		gzip.flush();
+		assertEquals(0, out.size());
+		gzip.close();
+
+		assertNull(response.getHeader("Content-Encoding"));
+		assertArrayEquals(content, out.toByteArray());
+		assertEquals(0, pool.borrowed);
+	}
+
+	@Test
+	public void weakensStrongETagOfCompressedContent() throws IOException {
+		response.response.setHeader("ETag", "\"v1\"");
+		GzipOutputStream gzip = new GzipOutputStream(new ByteArrayOutputStream(), response.response, pool, 10);
+		gzip.write(content(1000));
+		gzip.close();
+		assertEquals("W/\"v1\"", response.getHeader("ETag"));
+		assertEquals(1, response.headers.get("etag").size());
+		assertEquals("W/\"v1\"", gzip.getETag());
+
+		// a weak one stays as it is, uncompressed content keeps its strong one
+		assertEquals("W/\"v1\"", GzipOutputStream.toWeakETag("W/\"v1\""));
+		TestResponse uncompressed = new TestResponse();
+		uncompressed.response.setHeader("ETag", "\"v1\"");
+		gzip = new GzipOutputStream(new ByteArrayOutputStream(), uncompressed.response, pool, 1024);
+		gzip.write(content(100));
+		gzip.close();
+		assertEquals("\"v1\"", uncompressed.getHeader("ETag"));
+		assertNull(gzip.getETag());
+	}
+
+	@Test
+	public void releasesDeflaterIfWritingFails() throws IOException {
+		FailingOutputStream out = new FailingOutputStream();
+		GzipOutputStream gzip = new GzipOutputStream(out, response.response, pool, 10);
+		gzip.write(content(100));
+		out.failing = true;
+		byte[] random = new byte[100 * 1024];
+		new Random(1).nextBytes(random);
+		try {
+			gzip.write(random);
+			fail("client abort expected");
+		} catch (IOException e) {
+			// expected
+		}
+		assertEquals(0, pool.released);
+
+		gzip.release();
+		assertEquals(1, pool.released);
+		gzip.release();
+		gzip.close();
+		assertEquals(1, pool.released);
+		assertFalse(out.closed);
+	}
+
+	@Test
+	public void releaseAfterCloseDoesNothing() throws IOException {
+		GzipOutputStream gzip = new GzipOutputStream(new ByteArrayOutputStream(), response.response, pool, 10);
+		gzip.write(content(1000));
+		gzip.close();
+		gzip.release();
+		assertEquals(1, pool.released);
+	}
+
+	@Test
+	public void reusesReleasedDeflaters() {
+		DeflaterPool pool = new DeflaterPool(Deflater.BEST_SPEED, 1);
+		Deflater first = pool.borrow();
+		Deflater second = pool.borrow();
+		pool.release(first);
+		pool.release(second);
+		assertTrue(pool.borrow() == first);
+		pool.shutdown();
+	}
+
+	@Test
+	public void acceptsGzipUnlessQualityIsZero() {
+		assertTrue(ResponseCompressor.acceptsGzip(new TestRequest("GET", "Accept-Encoding", "deflate, gzip").create()));
+		assertTrue(ResponseCompressor.acceptsGzip(new TestRequest("GET", "Accept-Encoding", "*;q=0.5").create()));
+		assertFalse(ResponseCompressor.acceptsGzip(new TestRequest("GET").create()));
+		assertFalse(ResponseCompressor.acceptsGzip(new TestRequest("GET", "Accept-Encoding", "gzip;q=0").create()));
+		assertFalse(ResponseCompressor.acceptsGzip(new TestRequest("GET", "Accept-Encoding", "gzip; q=0.0").create()));
+	}
+
+	@Test
+	public void compressesOnlyConfiguredUntransformedContent() throws IOException {
+		ResponseCompressor compressor = new ResponseCompressor(Deflater.BEST_SPEED, 10, "text/*", 1);
+		TestRequest request = new TestRequest("GET", "Accept-Encoding", "gzip");
+
+		assertTrue(compressor.isCompressible(request.create(), backendResponse("text/html"), false));
+		assertFalse(compressor.isCompressible(request.create(), backendResponse("image/png"), false));
+		assertFalse(compressor.isCompressible(new TestRequest("HEAD", "Accept-Encoding", "gzip").create(),
+				backendResponse("text/html"), false));
+		BasicHttpResponse noTransform = backendResponse("text/html");
+		noTransform.addHeader("Cache-Control", "private, no-transform");
+		assertFalse(compressor.isCompressible(request.create(), noTransform, false));
+		BasicHttpResponse encoded = backendResponse("text/html");
+		((StringEntity) encoded.getEntity()).setContentEncoding("gzip");
+		assertFalse(compressor.isCompressible(request.create(), encoded, false));
+		assertTrue(compressor.isCompressible(request.create(), encoded, true));
+		compressor.shutdown();
+	}
+
+	private static BasicHttpResponse backendResponse(String contentType) throws IOException {
+		BasicHttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+		StringEntity entity = new StringEntity("content which is long enough");
+		entity.setContentType(contentType);
+		response.setEntity(entity);
+		return response;
+	}
+
+	private static byte[] content(int length) {
+		byte[] content = new byte[length];
+		for (int i = 0; i < length; i++) {
+			content[i] = (byte) ("abcdefghij".charAt(i % 10) + i / 1000 % 7);
+		}
+		return content;
+	}
+
+	private static byte[] gunzip(byte[] compressed) throws IOException {
+		GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ProxyServlet.pipe(in, out, 1024);
+		return out.toByteArray();
+	}
+
+	private static class CountingPool extends DeflaterPool {
+
+		int borrowed;
+
+		int released;
+
+		CountingPool() {
+			super(Deflater.BEST_SPEED, 1);
+		}
+
+		@Override
+		Deflater borrow() {
+			borrowed++;
+			return super.borrow();
+		}
+
+		@Override
+		void release(Deflater deflater) {
+			released++;
+			super.release(deflater);
+		}
+	}
+
+	private static class FailingOutputStream extends OutputStream {
+
+		boolean failing;
+
+		boolean closed;
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (failing) {
+				throw new IOException("Broken pipe");
+			}
+		}
+
+		@Override
+		public void close() {
+			closed = true;
+		}
+	}
+}
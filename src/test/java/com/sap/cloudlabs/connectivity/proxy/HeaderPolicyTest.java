@@ -0,0 +1,101 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class HeaderPolicyTest {
+
+	@Test
+	public void headerNameSetIgnoresCase() {
+		HeaderNameSet names = HeaderNameSet.of("Content-Type", " x-csrf-token ", "CONTENT-TYPE", "", null);
+		assertEquals(2, names.size());
+		assertTrue(names.contains("content-type"));
+		assertTrue(names.contains("X-CSRF-Token"));
+		assertFalse(names.contains("Content-Length"));
+		assertFalse(names.contains("X-CSRF"));
+		assertFalse(names.contains(null));
+		assertTrue(HeaderNameSet.EMPTY.isEmpty());
+		assertFalse(HeaderNameSet.EMPTY.contains("Accept"));
+	}
+
+	@Test
+	public void headerNameSetGrowsWithItsNames() {
+		List<String> headers = new ArrayList<String>();
+		for (int i = 0; i < 100; i++) {
+			headers.add("X-Header-" + i);
+		}
+		HeaderNameSet names = new HeaderNameSet(headers);
+		assertEquals(100, names.size());
+		for (int i = 0; i < 100; i++) {
+			assertTrue(names.contains("x-header-" + i));
+		}
+		assertFalse(names.contains("X-Header-100"));
+	}
+
+	@Test
+	public void blocksDefaultRequestHeaders() {
+		HeaderPolicy policy = new HeaderPolicy(null, null, null, null, null);
+		for (String header : HeaderPolicy.BLOCKED_REQUEST_HEADERS) {
+			assertFalse(header, policy.isRequestHeaderAllowed(header.toUpperCase()));
+		}
+		assertTrue(policy.isRequestHeaderAllowed("Accept"));
+		assertTrue(policy.isResponseHeaderAllowed("Set-Cookie"));
+	}
+
+	@Test
+	public void deniedHeadersWinOverAllowedOnes() {
+		HeaderPolicy policy = new HeaderPolicy("X-Internal", "Accept, X-Internal, Host", "Server", "Content-Type, Server",
+				null);
+		assertTrue(policy.isRequestHeaderAllowed("accept"));
+		assertFalse(policy.isRequestHeaderAllowed("X-Internal"));
+		assertFalse(policy.isRequestHeaderAllowed("Host"));
+		assertFalse(policy.isRequestHeaderAllowed("Authorization"));
+		assertTrue(policy.isResponseHeaderAllowed("content-type"));
+		assertFalse(policy.isResponseHeaderAllowed("Server"));
+		assertFalse(policy.isResponseHeaderAllowed("ETag"));
+	}
+
+	@Test
+	public void securityHandlerContributesHeaders() {
+		SecurityHandler handler = new SecurityHandler() {
+			@Override
+			public List<String> getResponseHeadersBlackList() {
+				return Arrays.asList("X-Secret");
+			}
+
+			@Override
+			public List<String> getRequestHeadersBlackList() {
+				return Arrays.asList("Cookie");
+			}
+		};
+		HeaderPolicy policy = new HeaderPolicy(null, null, null, null, handler);
+		// the black list of response headers applies to both directions
+		assertFalse(policy.isRequestHeaderAllowed("x-secret"));
+		assertFalse(policy.isResponseHeaderAllowed("X-SECRET"));
+		assertFalse(policy.isRequestHeaderAllowed("Cookie"));
+		assertTrue(policy.isResponseHeaderAllowed("Cookie"));
+	}
+}
@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.client.HttpClient;
+import org.junit.After;
+import org.junit.Test;
+
+import com.sap.core.connectivity.api.http.HttpDestination;
+
+public class HttpClientRegistryTest {
+
+	private final HttpClientRegistry registry = new HttpClientRegistry(20, 5, 60);
+
+	@After
+	public void shutdown() {
+		registry.shutdown();
+	}
+
+	@Test
+	public void reusesClientOfUnchangedDestination() throws Exception {
+		ResolvedDestination destination = resolve("backend", "http://backend:8080/odata", "user", "secret");
+
+		HttpClient client = registry.acquire(destination);
+		registry.release(client);
+
+		assertSame(client, registry.acquire(destination));
+		assertSame(client, registry.acquire(resolve("backend", "http://backend:8080/odata", "user", "secret")));
+	}
+
+	@Test
+	public void replacesClientIfUriChanges() throws Exception {
+		HttpClient client = registry.acquire(resolve("backend", "http://backend:8080/odata", null, null));
+
+		assertNotSame(client, registry.acquire(resolve("backend", "http://other:8080/odata", null, null)));
+	}
+
+	@Test
+	public void replacesClientIfAuthenticationChanges() throws Exception {
+		HttpClient client = registry.acquire(resolve("backend", "http://backend:8080/odata", null, null));
+		HttpClient authenticated = registry.acquire(resolve("backend", "http://backend:8080/odata", "user", "secret"));
+
+		assertNotSame(client, authenticated);
+		assertNotSame(authenticated, registry.acquire(resolve("backend", "http://backend:8080/odata", "user", "changed")));
+	}
+
+	@Test
+	public void createsClientPerRequestIfNotPoolable() throws Exception {
+		AtomicInteger createdClients = new AtomicInteger();
+		ResolvedDestination destination = new ResolvedDestination("backend",
+				TestDestinations.create("backend", "http://backend:8080", null, null, false, createdClients), null);
+
+		HttpClient client = registry.acquire(destination);
+		registry.release(client);
+
+		assertNotSame(client, registry.acquire(destination));
+		// one client per acquire, none for the fingerprint
+		assertEquals(2, createdClients.get());
+	}
+
+	@Test
+	public void slowClientCreationDoesNotBlockOtherDestinations() throws Exception {
+		final CountDownLatch creating = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final HttpDestination slow = TestDestinations.create("slow", "http://slow:8080", null, null, null);
+		final ResolvedDestination slowDestination = new ResolvedDestination("slow", (HttpDestination) Proxy.newProxyInstance(
+				getClass().getClassLoader(), new Class<?>[] { HttpDestination.class }, new InvocationHandler() {
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						if (method.getName().equals("createHttpClient")) {
+							creating.countDown();
+							release.await(10, TimeUnit.SECONDS);
+						}
+						return method.invoke(slow, args);
+					}
+				}), null);
+
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			Future<HttpClient> slowClient = executor.submit(new Callable<HttpClient>() {
+				public HttpClient call() throws Exception {
+					return registry.acquire(slowDestination);
+				}
+			});
+			assertTrue(creating.await(5, TimeUnit.SECONDS));
+
+			long start = System.nanoTime();
+			registry.acquire(resolve("fast", "http://fast:8080/odata", null, null));
+			assertTrue(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) < 5);
+			assertFalse(slowClient.isDone());
+
+			release.countDown();
+			assertSame(slowClient.get(5, TimeUnit.SECONDS), registry.acquire(slowDestination));
+		} finally {
+			release.countDown();
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void keepsClientsOfDestinationsApart() throws Exception {
+		HttpClient first = registry.acquire(resolve("first", "http://backend:8080/odata", null, null));
+		HttpClient second = registry.acquire(resolve("second", "http://backend:8080/odata", null, null));
+
+		assertNotSame(first, second);
+		registry.invalidate("first");
+		assertNotSame(first, registry.acquire(resolve("first", "http://backend:8080/odata", null, null)));
+		assertSame(second, registry.acquire(resolve("second", "http://backend:8080/odata", null, null)));
+	}
+
+	private static ResolvedDestination resolve(String name, String uri, String user, String password) throws Exception {
+		return new ResolvedDestination(name, TestDestinations.create(name, uri, user, password, null),
+				TestDestinations.properties(uri, user, password));
+	}
+}
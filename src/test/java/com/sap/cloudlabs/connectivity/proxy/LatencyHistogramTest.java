@@ -0,0 +1,82 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+	private final LatencyHistogram histogram = new LatencyHistogram();
+
+	@Test
+	public void countsLatenciesInExponentialBuckets() {
+		histogram.record(0);
+		histogram.record(TimeUnit.MICROSECONDS.toNanos(1));
+		histogram.record(TimeUnit.MICROSECONDS.toNanos(3));
+		histogram.record(TimeUnit.MICROSECONDS.toNanos(4));
+		histogram.record(TimeUnit.HOURS.toNanos(1));
+		histogram.record(-1);
+
+		long[] counts = histogram.getCounts();
+		assertEquals(1, counts[0]);
+		assertEquals(1, counts[1]);
+		assertEquals(1, counts[2]);
+		assertEquals(1, counts[3]);
+		assertEquals(1, counts[LatencyHistogram.BUCKETS - 1]);
+		assertEquals(5, histogram.getCount());
+	}
+
+	@Test
+	public void returnsUpperBoundOfPercentileBucket() {
+		assertEquals(0, histogram.getPercentile(99), 0);
+		for (int i = 0; i < 99; i++) {
+			histogram.record(TimeUnit.MILLISECONDS.toNanos(1));
+		}
+		histogram.record(TimeUnit.MILLISECONDS.toNanos(100));
+
+		// 1 ms is in the bucket below 1024 microseconds, 100 ms below 131072
+		assertEquals(1.024, histogram.getPercentile(50), 0);
+		assertEquals(1.024, histogram.getPercentile(99), 0);
+		assertEquals(131.072, histogram.getPercentile(100), 0);
+	}
+
+	@Test
+	public void sumsUpConcurrentRecords() throws Exception {
+		Thread[] threads = new Thread[8];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					for (int j = 0; j < 10000; j++) {
+						histogram.record(1000);
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertEquals(80000, histogram.getCount());
+		assertEquals(80000000, histogram.getSum());
+	}
+}
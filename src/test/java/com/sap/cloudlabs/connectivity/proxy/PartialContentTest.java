@@ -0,0 +1,131 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Proxies requests through the servlet to a local backend, which answers with the 
+ * configured status and content.
+ */
+public class PartialContentTest {
+
+	private HttpServer backend;
+
+	private String backendUrl;
+
+	private TestServletConfig servletConfig;
+
+	private ProxyServlet servlet;
+
+	/* status and content range of the backend response, a range is only sent with 206 */
+	private int backendStatus = HttpServletResponse.SC_OK;
+
+	private String backendContent;
+
+	@Before
+	public void startBackend() throws IOException {
+		backend = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		backend.createContext("/", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				byte[] content = backendContent.getBytes("UTF-8");
+				exchange.getResponseHeaders().add("Content-Type", "application/json; charset=UTF-8");
+				exchange.getResponseHeaders().add("Accept-Ranges", "bytes");
+				if (backendStatus == HttpServletResponse.SC_PARTIAL_CONTENT) {
+					exchange.getResponseHeaders().add("Content-Range", "bytes 100-" + (100 + content.length - 1) + "/1000");
+				}
+				exchange.sendResponseHeaders(backendStatus, content.length);
+				OutputStream out = exchange.getResponseBody();
+				out.write(content);
+				out.close();
+			}
+		});
+		backend.start();
+		backendUrl = "http://127.0.0.1:" + backend.getAddress().getPort();
+		backendContent = "{\"uri\":\"" + backendUrl + "/Items(1)\",\"name\":\"item\"}";
+		servletConfig = new TestServletConfig(TestDestinations.map(TestDestinations.create("backend", backendUrl, null,
+				null, null)));
+	}
+
+	@After
+	public void stopBackend() {
+		if (servlet != null) {
+			servlet.destroy();
+		}
+		backend.stop(0);
+	}
+
+	@Test
+	public void rewritesFullContent() throws Exception {
+		TestResponse response = proxy(new TestRequest("GET"));
+
+		assertEquals(HttpServletResponse.SC_OK, response.status);
+		assertEquals(backendContent.replace(backendUrl, "http://localhost:8080/app/proxy/backend"), response.getContent());
+		// the rewritten content has another length and ranges of it cannot be requested
+		assertNull(response.getHeader("Content-Length"));
+		assertNull(response.getHeader("Accept-Ranges"));
+	}
+
+	@Test
+	public void passesPartialContentThrough() throws Exception {
+		backendStatus = HttpServletResponse.SC_PARTIAL_CONTENT;
+		TestResponse response = proxy(new TestRequest("GET", "Range", "bytes=100-"));
+
+		assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, response.status);
+		assertEquals(backendContent, response.getContent());
+		int length = backendContent.getBytes("UTF-8").length;
+		assertEquals(String.valueOf(length), response.getHeader("Content-Length"));
+		assertEquals("bytes 100-" + (100 + length - 1) + "/1000", response.getHeader("Content-Range"));
+		assertEquals("bytes", response.getHeader("Accept-Ranges"));
+	}
+
+	@Test
+	public void doesNotCompressPartialContent() throws Exception {
+		servletConfig.initParameters.put("compression.enabled", "true");
+		servletConfig.initParameters.put("compression.min.size", "0");
+		backendStatus = HttpServletResponse.SC_PARTIAL_CONTENT;
+		TestResponse response = proxy(new TestRequest("GET", "Range", "bytes=100-", "Accept-Encoding", "gzip"));
+
+		assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, response.status);
+		assertEquals(backendContent, response.getContent());
+		assertNull(response.getHeader("Content-Encoding"));
+	}
+
+	private TestResponse proxy(TestRequest request) throws ServletException, IOException {
+		servlet = new ProxyServlet();
+		servlet.init(servletConfig.create());
+		TestResponse response = new TestResponse();
+		servlet.service(request.create(), response.response);
+		return response;
+	}
+}
@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.OutputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.junit.Test;
+
+public class RequestCoalescerTest {
+
+	private static final String PROXY_URL = "http://proxy/app/proxy/backend";
+
+	private final RequestCoalescer coalescer = new RequestCoalescer(2000, 1000, "Accept");
+
+	@Test
+	public void coalescesOnlyIdenticalGetRequests() {
+		assertNotNull(key(new TestRequest("GET")));
+		assertNull(key(new TestRequest("POST")));
+		assertNull(key(new TestRequest("GET", "Range", "bytes=0-99")));
+		assertEquals(key(new TestRequest("GET", "Accept", "application/json")),
+				key(new TestRequest("GET", "Accept", "application/json")));
+		assertFalse(key(new TestRequest("GET", "Accept", "application/json")).equals(
+				key(new TestRequest("GET", "Accept", "application/xml"))));
+	}
+
+	@Test
+	public void keepsContentEncodingsApart() {
+		assertFalse(key(new TestRequest("GET", "Accept-Encoding", "gzip")).equals(key(new TestRequest("GET"))));
+	}
+
+	@Test
+	public void keepsUsersAndAnonymousSessionsApart() {
+		assertFalse(key(new TestRequest("GET").user("alice")).equals(key(new TestRequest("GET").user("bob"))));
+		assertFalse(key(new TestRequest("GET", "Cookie", "SAP_SESSIONID_ABC=1")).equals(
+				key(new TestRequest("GET", "Cookie", "SAP_SESSIONID_ABC=2"))));
+		assertNull(key(new TestRequest("GET", "Authorization", "Basic dXNlcjpzZWNyZXQ=")));
+	}
+
+	@Test
+	public void sharesOnlySuccessfulAndCacheableResponses() {
+		assertNotNull(coalescer.startCapture(ResponseCacheTest.response(200)));
+		assertNotNull(coalescer.startCapture(ResponseCacheTest.response(204)));
+		assertNotNull(coalescer.startCapture(ResponseCacheTest.response(301)));
+		assertNotNull(coalescer.startCapture(ResponseCacheTest.response(404)));
+		assertNull(coalescer.startCapture(ResponseCacheTest.response(401)));
+		assertNull(coalescer.startCapture(ResponseCacheTest.response(500)));
+		assertNull(coalescer.startCapture(ResponseCacheTest.response(503)));
+		assertNull(coalescer.startCapture(ResponseCacheTest.response(200, "Set-Cookie", "a=b")));
+	}
+
+	@Test
+	public void handsResponseOfLeaderToWaitingRequests() throws Exception {
+		HttpServletRequest request = new TestRequest("GET").create();
+		String key = coalescer.getKey(request, PROXY_URL, "Items");
+		RequestCoalescer.Flight leader = coalescer.join(key);
+		assertTrue(leader.isLeader());
+
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			Future<CachedResponse> first = executor.submit(await(coalescer.join(key)));
+			Future<CachedResponse> second = executor.submit(await(coalescer.join(key)));
+
+			CachedResponse response = capture(request, "content");
+			coalescer.complete(leader, response);
+			assertSame(response, first.get());
+			assertSame(response, second.get());
+		} finally {
+			executor.shutdown();
+		}
+
+		// the flight is over, the next request leads a new one
+		assertTrue(coalescer.join(key).isLeader());
+	}
+
+	@Test
+	public void waitingRequestsCallBackendIfLeaderFails() throws Exception {
+		String key = coalescer.getKey(new TestRequest("GET").create(), PROXY_URL, "Items");
+		RequestCoalescer.Flight leader = coalescer.join(key);
+		RequestCoalescer.Flight follower = coalescer.join(key);
+		assertFalse(follower.isLeader());
+
+		coalescer.complete(leader, null);
+		assertNull(follower.await());
+	}
+
+	@Test
+	public void waitsAtMostMaxWait() throws Exception {
+		RequestCoalescer impatient = new RequestCoalescer(50, 1000, null);
+		String key = impatient.getKey(new TestRequest("GET").create(), PROXY_URL, "Items");
+		impatient.join(key);
+
+		long start = System.currentTimeMillis();
+		assertNull(impatient.join(key).await());
+		assertTrue(System.currentTimeMillis() - start < 1000);
+	}
+
+	@Test
+	public void doesNotShareResponsesLargerThanMaxSize() throws Exception {
+		HttpServletRequest request = new TestRequest("GET").create();
+		assertNotNull(capture(request, new String(new char[1000])));
+		assertNull(capture(request, new String(new char[1001])));
+	}
+
+	private String key(TestRequest request) {
+		return coalescer.getKey(request.create(), PROXY_URL, "Items?$top=10");
+	}
+
+	private CachedResponse capture(HttpServletRequest request, String content) throws Exception {
+		CachedResponse.Capture capture = coalescer.startCapture(ResponseCacheTest.response(200));
+		capture.setStatus(200);
+		OutputStream out = capture.wrap(new TestResponse().content);
+		out.write(content.getBytes("UTF-8"));
+		out.close();
+		return capture.toResponse(request, false);
+	}
+
+	private static Callable<CachedResponse> await(final RequestCoalescer.Flight flight) {
+		return new Callable<CachedResponse>() {
+			public CachedResponse call() throws Exception {
+				return flight.await();
+			}
+		};
+	}
+}
@@ -0,0 +1,353 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.junit.After;
+import org.junit.Test;
+
+public class RequestHedgerTest {
+
+	private static final String FIRST = "http://backend/first";
+
+	private static final String HEDGE = "http://backend/hedge";
+
+	private final RequestHedger hedger = new RequestHedger(95, 10, 2);
+
+	private final ProxyExchange exchange = new ProxyExchange();
+
+	private final HttpGet first = new HttpGet(FIRST);
+
+	private final AtomicInteger hedgesSent = new AtomicInteger();
+
+	@After
+	public void shutdown() {
+		hedger.shutdown();
+	}
+
+	@Test
+	public void hedgesOnlyWithEnoughHistory() {
+		for (int i = 0; i < 99; i++) {
+			hedger.record("backend", TimeUnit.MILLISECONDS.toNanos(200));
+		}
+		assertEquals(-1, hedger.getDelay("backend"));
+		hedger.record("backend", TimeUnit.MILLISECONDS.toNanos(200));
+		assertEquals(200, hedger.getDelay("backend"));
+
+		for (int i = 0; i < 100; i++) {
+			hedger.record("fast", 1000);
+		}
+		assertEquals(10, hedger.getDelay("fast"));
+	}
+
+	@Test
+	public void followsRecentLatencies() {
+		for (int i = 0; i < 1000; i++) {
+			hedger.record("backend", TimeUnit.MILLISECONDS.toNanos(i % 100 + 1));
+		}
+		// the exact percentile, not the bound of a bucket
+		assertEquals(95, hedger.getDelay("backend"));
+
+		// the backend slows down, once the window is replaced the old latencies do not count anymore
+		for (int i = 0; i < 1000; i++) {
+			hedger.record("backend", TimeUnit.MILLISECONDS.toNanos(300));
+		}
+		assertEquals(300, hedger.getDelay("backend"));
+		for (int i = 0; i < 1000; i++) {
+			hedger.record("backend", TimeUnit.MILLISECONDS.toNanos(20));
+		}
+		assertEquals(20, hedger.getDelay("backend"));
+	}
+
+	@Test
+	public void fastCallIsNotHedged() throws Exception {
+		RequestHedger.Attempt attempt = execute(new Backend() {
+			public HttpResponse execute(HttpRequestBase request) {
+				return response(new AtomicBoolean());
+			}
+		}, 50);
+		assertSame(first, attempt.request);
+		Thread.sleep(100);
+		assertEquals(0, hedgesSent.get());
+	}
+
+	@Test
+	public void secondAttemptWinsOverSlowCall() throws Exception {
+		RequestHedger.Attempt attempt = execute(new Backend() {
+			public HttpResponse execute(HttpRequestBase request) throws IOException {
+				if (isFirst(request)) {
+					awaitAbort(request);
+				}
+				return response(new AtomicBoolean());
+			}
+		}, 10);
+		assertEquals(HEDGE, attempt.request.getURI().toString());
+		assertTrue(first.isAborted());
+	}
+
+	@Test
+	public void failedCallWaitsForSecondAttempt() throws Exception {
+		final CountDownLatch hedgeSent = new CountDownLatch(1);
+		RequestHedger.Attempt attempt = execute(new Backend() {
+			public HttpResponse execute(HttpRequestBase request) throws IOException {
+				if (isFirst(request)) {
+					await(hedgeSent);
+					throw new IOException("Connection reset");
+				}
+				hedgeSent.countDown();
+				return response(new AtomicBoolean());
+			}
+		}, 10);
+		assertEquals(HEDGE, attempt.request.getURI().toString());
+	}
+
+	@Test
+	public void noSecondAttemptIsSentAfterCallFailed() throws Exception {
+		final CountDownLatch hedgeCreating = new CountDownLatch(1);
+		final CountDownLatch firstFailed = new CountDownLatch(1);
+		final CountDownLatch hedgeCreated = new CountDownLatch(1);
+		try {
+			hedger.execute(client(new Backend() {
+				public HttpResponse execute(HttpRequestBase request) throws IOException {
+					await(hedgeCreating);
+					throw new IOException("Connection reset");
+				}
+			}), first, new RequestHedger.RequestFactory() {
+				public HttpRequestBase create() {
+					// the first attempt fails while the second one is about to be sent
+					hedgeCreating.countDown();
+					await(firstFailed);
+					hedgeCreated.countDown();
+					return new HttpGet(HEDGE);
+				}
+			}, exchange, 0);
+			fail("IOException expected");
+		} catch (IOException e) {
+			firstFailed.countDown();
+		}
+		assertTrue(hedgeCreated.await(5, TimeUnit.SECONDS));
+		Thread.sleep(100);
+		assertEquals(0, hedgesSent.get());
+	}
+
+	@Test
+	public void losingResponseIsReleased() throws Exception {
+		final CountDownLatch hedgeSent = new CountDownLatch(1);
+		final CountDownLatch firstWon = new CountDownLatch(1);
+		final AtomicBoolean hedgeReleased = new AtomicBoolean();
+		RequestHedger.Attempt attempt = execute(new Backend() {
+			public HttpResponse execute(HttpRequestBase request) {
+				if (isFirst(request)) {
+					await(hedgeSent);
+				} else {
+					hedgeSent.countDown();
+					await(firstWon);
+				}
+				return response(isFirst(request) ? new AtomicBoolean() : hedgeReleased);
+			}
+		}, 10);
+		assertSame(first, attempt.request);
+		firstWon.countDown();
+
+		long deadline = System.currentTimeMillis() + 5000;
+		while (!hedgeReleased.get() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+		assertTrue(hedgeReleased.get());
+	}
+
+	@Test
+	public void cancelledDelaysAreRemoved() throws Exception {
+		for (int i = 0; i < 10; i++) {
+			execute(new Backend() {
+				public HttpResponse execute(HttpRequestBase request) {
+					return response(new AtomicBoolean());
+				}
+			}, 60000);
+		}
+		assertEquals(0, hedger.getPendingHedges());
+	}
+
+	@Test
+	public void noSecondAttemptIsSentWhileAllThreadsAreBusy() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch hedgesBlocked = new CountDownLatch(2);
+		final Backend backend = new Backend() {
+			public HttpResponse execute(HttpRequestBase request) {
+				if (!isFirst(request)) {
+					hedgesBlocked.countDown();
+				}
+				await(release);
+				return response(new AtomicBoolean());
+			}
+		};
+		// two slow calls whose second attempts occupy both threads
+		Thread[] slowCalls = new Thread[2];
+		for (int i = 0; i < slowCalls.length; i++) {
+			slowCalls[i] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						hedger.execute(client(backend), new HttpGet(FIRST), new RequestHedger.RequestFactory() {
+							public HttpRequestBase create() {
+								return new HttpGet(HEDGE);
+							}
+						}, new ProxyExchange(), 10);
+					} catch (IOException e) {
+						throw new IllegalStateException(e);
+					}
+				}
+			};
+			slowCalls[i].start();
+		}
+		assertTrue(hedgesBlocked.await(5, TimeUnit.SECONDS));
+
+		// the delay of a third call passes, but its second attempt is dropped instead of queued
+		RequestHedger.Attempt attempt = execute(new Backend() {
+			public HttpResponse execute(HttpRequestBase request) {
+				sleep(100);
+				return response(new AtomicBoolean());
+			}
+		}, 10);
+		assertSame(first, attempt.request);
+		assertEquals(2, hedgesSent.get());
+
+		release.countDown();
+		for (Thread slowCall : slowCalls) {
+			slowCall.join(5000);
+		}
+	}
+
+	@Test
+	public void failsWhenBothAttemptsFail() throws Exception {
+		final CountDownLatch hedgeFailed = new CountDownLatch(1);
+		try {
+			execute(new Backend() {
+				public HttpResponse execute(HttpRequestBase request) throws IOException {
+					if (isFirst(request)) {
+						await(hedgeFailed);
+					} else {
+						hedgeFailed.countDown();
+					}
+					throw new IOException("Connection refused");
+				}
+			}, 10);
+			fail("IOException expected");
+		} catch (IOException e) {
+			// the first attempt is not aborted, as the second one did not win
+			assertFalse(first.isAborted());
+		}
+	}
+
+	private RequestHedger.Attempt execute(Backend backend, long delayMillis) throws IOException {
+		exchange.setBackendRequest(first);
+		return hedger.execute(client(backend), first, new RequestHedger.RequestFactory() {
+			public HttpRequestBase create() {
+				return new HttpGet(HEDGE);
+			}
+		}, exchange, delayMillis);
+	}
+
+	/**
+	 * Answers the backend requests of a test.
+	 */
+	private interface Backend {
+		HttpResponse execute(HttpRequestBase request) throws IOException;
+	}
+
+	private HttpClient client(final Backend backend) {
+		return (HttpClient) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { HttpClient.class },
+				new InvocationHandler() {
+					public Object invoke(Object proxy, Method m, Object[] args) throws Throwable {
+						if (!m.getName().equals("execute") || args.length != 1) {
+							throw new UnsupportedOperationException(m.getName());
+						}
+						HttpRequestBase request = (HttpRequestBase) args[0];
+						if (!isFirst(request)) {
+							hedgesSent.incrementAndGet();
+						}
+						return backend.execute(request);
+					}
+				});
+	}
+
+	private static boolean isFirst(HttpRequestBase request) {
+		return request.getURI().toString().equals(FIRST);
+	}
+
+	/**
+	 * Returns a response whose content records whether it has been closed.
+	 */
+	private static HttpResponse response(final AtomicBoolean closed) {
+		BasicHttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+		BasicHttpEntity entity = new BasicHttpEntity();
+		entity.setContent(new ByteArrayInputStream(new byte[10]) {
+			@Override
+			public void close() {
+				closed.set(true);
+			}
+		});
+		response.setEntity(entity);
+		return response;
+	}
+
+	private static void awaitAbort(HttpRequestBase request) throws IOException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (!request.isAborted() && System.currentTimeMillis() < deadline) {
+			sleep(5);
+		}
+		throw new IOException("Request aborted");
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			assertTrue(latch.await(5, TimeUnit.SECONDS));
+		} catch (InterruptedException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,143 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ResponseBufferTest {
+
+	@Rule
+	public final TemporaryFolder directory = new TemporaryFolder();
+
+	private final Client client = new Client();
+
+	@Test
+	public void keepsSmallContentInMemory() throws IOException {
+		ResponseBuffers buffers = new ResponseBuffers(directory.getRoot(), 64, 1024, 1024);
+		ResponseBuffer buffer = buffers.create(client);
+		byte[] content = content(50);
+		write(buffer, content, 7);
+		buffer.close();
+
+		assertEquals(0, client.size());
+		assertEquals(50, buffers.getUsed());
+		assertEquals(0, directory.getRoot().list().length);
+		drain(buffer);
+		assertArrayEquals(content, client.toByteArray());
+		assertTrue(client.closed);
+		assertEquals(0, buffers.getUsed());
+	}
+
+	@Test
+	public void spillsToFile() throws IOException {
+		ResponseBuffers buffers = new ResponseBuffers(directory.getRoot(), 64, 100 * 1024, 100 * 1024);
+		ResponseBuffer buffer = buffers.create(client);
+		byte[] content = content(50 * 1024);
+		write(buffer, content, 1000);
+
+		assertEquals(0, client.size());
+		assertEquals(content.length, buffers.getUsed());
+		assertEquals(1, directory.getRoot().list().length);
+		drain(buffer);
+		assertArrayEquals(content, client.toByteArray());
+		assertEquals(0, directory.getRoot().list().length);
+		assertEquals(0, buffers.getUsed());
+	}
+
+	@Test
+	public void streamsBeyondResponseQuota() throws IOException {
+		ResponseBuffers buffers = new ResponseBuffers(directory.getRoot(), 16, 100, 1024);
+		ResponseBuffer buffer = buffers.create(client);
+		byte[] content = content(250);
+		write(buffer, content, 30);
+
+		// the buffered content is sent before the rest, and its file and quota are released
+		assertArrayEquals(content, client.toByteArray());
+		assertEquals(0, directory.getRoot().list().length);
+		assertEquals(0, buffers.getUsed());
+		drain(buffer);
+		assertArrayEquals(content, client.toByteArray());
+	}
+
+	@Test
+	public void streamsBeyondTotalQuota() throws IOException {
+		ResponseBuffers buffers = new ResponseBuffers(directory.getRoot(), 16, 100, 150);
+		ResponseBuffer first = buffers.create(new Client());
+		write(first, content(100), 100);
+		ResponseBuffer second = buffers.create(client);
+		byte[] content = content(60);
+		write(second, content, 20);
+
+		// the second buffer takes 40 bytes, the rest does not fit beside the first buffer
+		assertArrayEquals(content, client.toByteArray());
+		assertEquals(100, buffers.getUsed());
+		first.release();
+		assertEquals(0, buffers.getUsed());
+	}
+
+	@Test
+	public void releasesWithoutDraining() throws IOException {
+		ResponseBuffers buffers = new ResponseBuffers(directory.getRoot(), 16, 1024, 1024);
+		ResponseBuffer buffer = buffers.create(client);
+		write(buffer, content(500), 100);
+		assertEquals(1, directory.getRoot().list().length);
+
+		buffer.release();
+		assertEquals(0, client.size());
+		assertEquals(0, directory.getRoot().list().length);
+		assertEquals(0, buffers.getUsed());
+	}
+
+	private static void write(ResponseBuffer buffer, byte[] content, int chunkSize) throws IOException {
+		for (int i = 0; i < content.length; i += chunkSize) {
+			buffer.write(content, i, Math.min(chunkSize, content.length - i));
+		}
+	}
+
+	private static void drain(ResponseBuffer buffer) throws IOException {
+		try {
+			buffer.drain();
+		} finally {
+			buffer.release();
+		}
+	}
+
+	private static byte[] content(int length) {
+		byte[] content = new byte[length];
+		new Random(length).nextBytes(content);
+		return content;
+	}
+
+	private static class Client extends ByteArrayOutputStream {
+		boolean closed;
+
+		@Override
+		public void close() {
+			closed = true;
+		}
+	}
+}
@@ -0,0 +1,224 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.OutputStream;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.message.BasicHttpResponse;
+import org.junit.Test;
+
+public class ResponseCacheTest {
+
+	private static final String PROXY_URL = "http://proxy/app/proxy/backend";
+
+	private final ResponseCache cache = new ResponseCache(10000, 1000, false);
+
+	@Test
+	public void cachesOnlyGetRequests() {
+		assertNotNull(key(new TestRequest("GET")));
+		assertNull(key(new TestRequest("POST")));
+		assertNull(key(new TestRequest("GET", "Range", "bytes=0-99")));
+		assertNull(key(new TestRequest("GET", "Cache-Control", "no-store")));
+	}
+
+	@Test
+	public void keepsUsersApart() {
+		assertEquals(key(new TestRequest("GET").user("alice")), key(new TestRequest("GET").user("alice")));
+		assertFalse(key(new TestRequest("GET").user("alice")).equals(key(new TestRequest("GET").user("bob"))));
+		assertFalse(key(new TestRequest("GET").user("alice")).equals(key(new TestRequest("GET"))));
+	}
+
+	@Test
+	public void keepsAnonymousSessionsApart() {
+		String first = key(new TestRequest("GET", "Cookie", "SAP_SESSIONID_ABC=1"));
+		String second = key(new TestRequest("GET", "Cookie", "SAP_SESSIONID_ABC=2"));
+
+		assertFalse(first.equals(second));
+		assertFalse(first.equals(key(new TestRequest("GET"))));
+		assertEquals(first, key(new TestRequest("GET", "Cookie", "SAP_SESSIONID_ABC=1")));
+	}
+
+	@Test
+	public void keepsContentEncodingsApart() {
+		String gzip = key(new TestRequest("GET", "Accept-Encoding", "gzip"));
+
+		assertFalse(gzip.equals(key(new TestRequest("GET"))));
+		assertFalse(gzip.equals(key(new TestRequest("GET", "Accept-Encoding", "identity"))));
+		assertEquals(gzip, key(new TestRequest("GET", "Accept-Encoding", "gzip")));
+	}
+
+	@Test
+	public void doesNotCacheCredentialsOfUnknownUsers() {
+		assertNull(key(new TestRequest("GET", "Authorization", "Basic dXNlcjpzZWNyZXQ=")));
+		assertNotNull(key(new TestRequest("GET", "Authorization", "Basic dXNlcjpzZWNyZXQ=").user("user")));
+	}
+
+	@Test
+	public void capturesOnlyCacheableResponses() {
+		HttpServletRequest request = new TestRequest("GET").create();
+
+		assertNotNull(cache.startCapture(request, response(200, "Cache-Control", "max-age=60")));
+		assertNotNull(cache.startCapture(request, response(200, "Expires", "Thu, 01 Jan 2099 00:00:00 GMT")));
+		assertNotNull(cache.startCapture(request, response(200, "Cache-Control", "no-cache", "ETag", "\"1\"")));
+		assertNull(cache.startCapture(request, response(200)));
+		assertNull(cache.startCapture(request, response(200, "Cache-Control", "no-cache")));
+		assertNull(cache.startCapture(request, response(200, "Cache-Control", "no-store, max-age=60")));
+		assertNull(cache.startCapture(request, response(200, "Cache-Control", "max-age=60", "Set-Cookie", "a=b")));
+		assertNull(cache.startCapture(request, response(200, "Cache-Control", "max-age=60", "Vary", "*")));
+		assertNull(cache.startCapture(request, response(404, "Cache-Control", "max-age=60")));
+	}
+
+	@Test
+	public void cachesPrivateResponsesOnlyForAuthenticatedUsers() {
+		HttpResponse response = response(200, "Cache-Control", "private, max-age=60");
+
+		assertNull(cache.startCapture(new TestRequest("GET").create(), response));
+		assertNotNull(cache.startCapture(new TestRequest("GET").user("alice").create(), response));
+	}
+
+	@Test
+	public void returnsFreshResponse() throws Exception {
+		HttpServletRequest request = new TestRequest("GET").create();
+		String key = key(new TestRequest("GET"));
+		put(key, request, response(200, "Cache-Control", "max-age=60"), "content");
+
+		CachedResponse cached = cache.get(key, request);
+		assertTrue(cached.isFresh());
+		TestResponse response = new TestResponse();
+		assertEquals(7, cached.writeTo(request, response.response));
+		assertEquals("content", response.getContent());
+		assertEquals("application/json", response.getHeader("Content-Type"));
+	}
+
+	@Test
+	public void matchesVaryHeaders() throws Exception {
+		HttpServletRequest json = new TestRequest("GET", "Accept", "application/json").create();
+		String key = key(new TestRequest("GET"));
+		put(key, json, response(200, "Cache-Control", "max-age=60", "Vary", "Accept"), "content");
+
+		assertNotNull(cache.get(key, new TestRequest("GET", "Accept", "application/json").create()));
+		assertNull(cache.get(key, new TestRequest("GET", "Accept", "application/xml").create()));
+	}
+
+	@Test
+	public void revalidatesStaleResponse() throws Exception {
+		HttpServletRequest request = new TestRequest("GET").create();
+		String key = key(new TestRequest("GET"));
+		put(key, request, response(200, "Cache-Control", "no-cache", "ETag", "\"1\""), "content");
+
+		CachedResponse stale = cache.get(key, request);
+		assertFalse(stale.isFresh());
+		assertTrue(stale.hasValidators());
+
+		cache.revalidated(key, request, stale, response(304, "Cache-Control", "max-age=60"));
+		assertTrue(cache.get(key, request).isFresh());
+
+		cache.revalidated(key, request, stale, response(304, "Cache-Control", "no-store"));
+		assertNull(cache.get(key, request));
+	}
+
+	@Test
+	public void answersConditionalRequestWithNotModified() throws Exception {
+		String key = key(new TestRequest("GET"));
+		put(key, new TestRequest("GET").create(), response(200, "Cache-Control", "max-age=60", "ETag", "\"1\""), "content");
+
+		HttpServletRequest conditional = new TestRequest("GET", "If-None-Match", "\"1\"").create();
+		TestResponse response = new TestResponse();
+		assertEquals(0, cache.get(key, conditional).writeTo(conditional, response.response));
+		assertEquals(304, response.status);
+	}
+
+	@Test
+	public void requiresRevalidationIfClientAsksForIt() {
+		assertTrue(ResponseCache.requiresRevalidation(new TestRequest("GET", "Cache-Control", "no-cache").create()));
+		assertTrue(ResponseCache.requiresRevalidation(new TestRequest("GET", "Cache-Control", "max-age=0").create()));
+		assertTrue(ResponseCache.requiresRevalidation(new TestRequest("GET", "Pragma", "no-cache").create()));
+		assertFalse(ResponseCache.requiresRevalidation(new TestRequest("GET").create()));
+	}
+
+	@Test
+	public void skipsResponsesLargerThanEntrySize() throws Exception {
+		HttpServletRequest request = new TestRequest("GET").create();
+		String key = key(new TestRequest("GET"));
+		put(key, request, response(200, "Cache-Control", "max-age=60"), new String(new char[1001]));
+
+		assertNull(cache.get(key, request));
+	}
+
+	@Test
+	public void evictsLeastRecentlyUsedResponses() throws Exception {
+		HttpServletRequest request = new TestRequest("GET").create();
+		String content = new String(new char[900]);
+		for (int i = 0; i < 10; i++) {
+			put("key" + i, request, response(200, "Cache-Control", "max-age=60"), content);
+			// keeps the first entry in use
+			assertNotNull(cache.get("key0", request));
+		}
+
+		assertNotNull(cache.get("key0", request));
+		assertNull(cache.get("key1", request));
+		assertNotNull(cache.get("key9", request));
+	}
+
+	@Test
+	public void removesResponse() throws Exception {
+		HttpServletRequest request = new TestRequest("GET").create();
+		put("key", request, response(200, "Cache-Control", "max-age=60"), "content");
+		CachedResponse cached = cache.get("key", request);
+
+		assertSame(cached, cache.get("key", request));
+		cache.remove("key");
+		assertNull(cache.get("key", request));
+	}
+
+	private String key(TestRequest request) {
+		return cache.getKey(request.create(), PROXY_URL, "Items?$top=10");
+	}
+
+	private void put(String key, HttpServletRequest request, HttpResponse backendResponse, String content) throws Exception {
+		CachedResponse.Capture capture = cache.startCapture(request, backendResponse);
+		capture.setStatus(200);
+		capture.addHeader("Content-Type", "application/json");
+		for (Header header : backendResponse.getAllHeaders()) {
+			capture.addHeader(header.getName(), header.getValue());
+		}
+		OutputStream out = capture.wrap(new TestResponse().content);
+		out.write(content.getBytes("UTF-8"));
+		out.close();
+		cache.put(key, request, capture);
+	}
+
+	static HttpResponse response(int status, String... headers) {
+		HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, status, "");
+		for (int i = 0; i < headers.length; i += 2) {
+			response.addHeader(headers[i], headers[i + 1]);
+		}
+		return response;
+	}
+}
@@ -0,0 +1,85 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class RewritePolicyTest {
+
+	@Test
+	public void matchesMediaTypesIgnoringParametersAndCase() {
+		MediaTypeSet types = new MediaTypeSet("text/*, Application/JSON, ,application/atom+xml");
+		assertTrue(types.contains("text/html"));
+		assertTrue(types.contains("TEXT/plain; charset=UTF-8"));
+		assertTrue(types.contains("application/json;odata=verbose"));
+		assertTrue(types.contains(" application/atom+xml ; type=feed"));
+		assertFalse(types.contains("application/xml"));
+		assertFalse(types.contains("image/png"));
+		assertFalse(types.contains("text"));
+		assertFalse(types.contains(""));
+		assertFalse(types.contains(null));
+		assertFalse(new MediaTypeSet(null).contains("text/html"));
+	}
+
+	@Test
+	public void rewritesTextualContentTypes() {
+		RewritePolicy policy = new RewritePolicy(RewritePolicy.DEFAULT_CONTENT_TYPES, null, null);
+		assertTrue(policy.isRewriteEnabled("nw", "application/json"));
+		assertTrue(policy.isRewriteEnabled("nw", "text/css"));
+		assertTrue(policy.isRewriteEnabled("nw", null));
+		assertFalse(policy.isRewriteEnabled("nw", "image/jpeg"));
+		assertFalse(policy.isRewriteEnabled("nw", "application/octet-stream"));
+		assertFalse(policy.isRewriteEnabled("nw", "application/pdf"));
+	}
+
+	@Test
+	public void passesExcludedDestinationsThrough() {
+		RewritePolicy policy = new RewritePolicy(RewritePolicy.DEFAULT_CONTENT_TYPES, " Files, media ", null);
+		assertFalse(policy.isRewriteEnabled("files", "application/json"));
+		assertFalse(policy.isRewriteEnabled("Media", null));
+		assertTrue(policy.isRewriteEnabled("nw", "application/json"));
+	}
+
+	@Test
+	public void securityHandlerOverrulesConfiguration() {
+		SecurityHandler handler = new SecurityHandler() {
+			@Override
+			public List<String> getResponseHeadersBlackList() {
+				return Collections.emptyList();
+			}
+
+			@Override
+			public Boolean isRewriteEnabled(String destinationName, String contentType) {
+				if (destinationName.equals("files")) {
+					return Boolean.TRUE;
+				}
+				return "text/html".equals(contentType) ? Boolean.FALSE : null;
+			}
+		};
+		RewritePolicy policy = new RewritePolicy(RewritePolicy.DEFAULT_CONTENT_TYPES, "files", handler);
+		assertTrue(policy.isRewriteEnabled("files", "image/png"));
+		assertFalse(policy.isRewriteEnabled("nw", "text/html"));
+		assertTrue(policy.isRewriteEnabled("nw", "application/json"));
+		assertFalse(policy.isRewriteEnabled("nw", "image/png"));
+	}
+}
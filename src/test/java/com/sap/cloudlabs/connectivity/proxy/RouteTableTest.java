@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class RouteTableTest {
+
+	private static final String PROXY = "/app/proxy/";
+
+	@Test
+	public void prependsPrefixOfRoute() {
+		Route route = Route.parse("orders", "/erp/sap/opu/odata/sap/ORDERS_SRV/");
+		assertEquals("erp", route.getDestinationName());
+		assertEquals("sap/opu/odata/sap/ORDERS_SRV/Items?$top=1", backendPath(route, "orders/Items", "$top=1"));
+		assertEquals("sap/opu/odata/sap/ORDERS_SRV", backendPath(route, "orders", null));
+		assertEquals("sap/opu/odata/sap/ORDERS_SRV/My%20Items", backendPath(route, "orders/My Items", ""));
+	}
+
+	@Test
+	public void passesPathOfDestinationThrough() {
+		Route route = Route.parse("northwind", "northwind");
+		assertEquals("Customers?$format=json", backendPath(route, "northwind/Customers", "$format=json"));
+		assertEquals("a/../b", backendPath(route, "northwind/a/../b", null));
+	}
+
+	@Test
+	public void rejectsDotSegmentsBelowPrefix() {
+		Route route = Route.parse("orders", "erp/sap/opu/odata/sap/ORDERS_SRV");
+		assertNull(backendPath(route, "orders/..", null));
+		assertNull(backendPath(route, "orders/../../ADMIN_SRV", null));
+		assertNull(backendPath(route, "orders/Items/./x", null));
+		assertNull(backendPath(route, "orders/%2e%2e/ADMIN_SRV", null));
+		assertNull(backendPath(route, "orders/.%2E/ADMIN_SRV", null));
+		assertNull(backendPath(route, "orders/..;x/ADMIN_SRV", null));
+		assertNull(backendPath(route, "orders/a%2f..%2fb", null));
+		assertNull(backendPath(route, "orders/a\\..\\b", null));
+
+		assertEquals("sap/opu/odata/sap/ORDERS_SRV/...", backendPath(route, "orders/...", null));
+		assertEquals("sap/opu/odata/sap/ORDERS_SRV/a..b/.x/x.", backendPath(route, "orders/a..b/.x/x.", null));
+		assertEquals("sap/opu/odata/sap/ORDERS_SRV/Items?path=../x", backendPath(route, "orders/Items", "path=../x"));
+	}
+
+	@Test
+	public void resolvesRoutesAndAllowedDestinations() {
+		Map<String, String> definitions = new HashMap<String, String>();
+		definitions.put("orders", "erp/orders");
+		definitions.put("nw", "northwind");
+		RouteTable table = new RouteTable(definitions, null, "erp-*, crm", 0);
+
+		assertEquals("erp", resolve(table, "orders").getDestinationName());
+		assertEquals("northwind", resolve(table, "nw").getDestinationName());
+		assertEquals("erp-test", resolve(table, "erp-test").getDestinationName());
+		assertEquals("crm", resolve(table, "crm").getDestinationName());
+		assertSame(resolve(table, "crm"), resolve(table, "crm"));
+		assertNull(resolve(table, "crm2"));
+		assertNull(resolve(table, "northwind"));
+		assertNull(resolve(table, ""));
+		assertEquals("northwind", table.resolveMapped("northwind").getDestinationName());
+	}
+
+	@Test
+	public void allowsOnlyRoutesByDefault() {
+		RouteTable table = new RouteTable(Collections.<String, String> emptyMap(), null, null, 0);
+		assertNull(resolve(table, "northwind"));
+		assertEquals("northwind", table.resolveMapped("northwind").getDestinationName());
+
+		table = new RouteTable(Collections.<String, String> emptyMap(), null, "*", 0);
+		assertEquals("northwind", resolve(table, "northwind").getDestinationName());
+	}
+
+	@Test
+	public void reloadsRoutesFile() throws IOException {
+		File file = File.createTempFile("routes", ".properties");
+		try {
+			write(file, "orders = erp/orders\n");
+			RouteTable table = new RouteTable(Collections.singletonMap("nw", "northwind"), file, null, 0);
+			assertEquals("orders", resolve(table, "orders").getPrefix());
+			assertEquals(2, table.getRoutes().length);
+
+			write(file, "orders = erp/v2/orders\nitems = erp/items\n");
+			table.reload();
+			assertEquals("v2/orders", resolve(table, "orders").getPrefix());
+			assertEquals("erp", resolve(table, "items").getDestinationName());
+			assertTrue(table.getDestinationNames().contains("northwind"));
+			assertFalse(table.getDestinationNames().contains("orders"));
+
+			// routes are kept if the file cannot be read
+			assertTrue(file.delete());
+			table.reload();
+			assertEquals("erp", resolve(table, "items").getDestinationName());
+			table.shutdown();
+		} finally {
+			file.delete();
+		}
+	}
+
+	private static Route resolve(RouteTable table, String name) {
+		String uri = PROXY + name + "/Customers";
+		return table.resolve(uri, PROXY.length(), PROXY.length() + name.length());
+	}
+
+	private static String backendPath(Route route, String path, String queryString) {
+		String uri = PROXY + path;
+		return route.getBackendPath(uri, Math.min(PROXY.length() + route.getName().length() + 1, uri.length()),
+				queryString);
+	}
+
+	private static void write(File file, String content) throws IOException {
+		OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(content.getBytes("ISO-8859-1"));
+		} finally {
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,202 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.ServletConfig;
+
+import org.apache.http.client.HttpClient;
+import org.junit.After;
+import org.junit.Test;
+
+import com.sap.core.connectivity.api.DestinationException;
+import com.sap.core.connectivity.api.http.HttpDestination;
+
+public class StartupWarmupTest {
+
+	/* port on which connections are refused, so that warm-up requests fail right away */
+	private static final String BACKEND = "http://127.0.0.1:1";
+
+	private final AtomicInteger released = new AtomicInteger();
+
+	private final Map<String, String> initParameters = new HashMap<String, String>();
+
+	private final ConcurrentHashMap<String, HttpDestination> destinations = new ConcurrentHashMap<String, HttpDestination>();
+
+	private StartupWarmup warmup;
+
+	/* shuts the warm-up down while it acquires a client, if set */
+	private boolean shutdownOnAcquire;
+
+	private final HttpClientRegistry clientRegistry = new HttpClientRegistry(20, 5, 60) {
+		@Override
+		HttpClient acquire(ResolvedDestination destination) throws DestinationException {
+			HttpClient client = super.acquire(destination);
+			if (shutdownOnAcquire) {
+				warmup.shutdown();
+			}
+			return client;
+		}
+
+		@Override
+		void release(HttpClient client) {
+			released.incrementAndGet();
+			super.release(client);
+		}
+	};
+
+	private final DestinationCache destinationCache = new DestinationCache(TestDestinations.createFactory(destinations),
+			null, clientRegistry, 60, 0);
+
+	@After
+	public void shutdown() {
+		if (warmup != null) {
+			warmup.shutdown();
+		}
+		destinationCache.shutdown();
+		clientRegistry.shutdown();
+	}
+
+	@Test
+	public void isReadyWhenAllDestinationsAreProcessed() throws InterruptedException {
+		destinations.put("pooled", TestDestinations.create("pooled", BACKEND, null, null, null));
+		destinations.put("single", TestDestinations.create("single", BACKEND, null, null, false, null));
+		initParameters.put("warmup.connections", "3");
+		warmup = createWarmup(60);
+		warmup.start(Arrays.asList("pooled", "single", "missing"));
+
+		awaitReady();
+		// three requests of the pooled client, one of the other and the missing destination
+		assertEquals(5, warmup.getFailures());
+		assertEquals(2, released.get());
+	}
+
+	@Test
+	public void isNotReadyBeforeAllDestinationsAreSubmitted() throws InterruptedException {
+		destinations.put("pooled", TestDestinations.create("pooled", BACKEND, null, null, null));
+		warmup = createWarmup(60);
+		final List<String> names = Arrays.asList("missing", "pooled", "pooled");
+		final List<Boolean> readyBeforeSubmit = new ArrayList<Boolean>();
+		warmup.start(new AbstractList<String>() {
+			@Override
+			public String get(int index) {
+				if (index > 0) {
+					// the first destination fails right away, before the next one is submitted
+					long deadline = System.currentTimeMillis() + 5000;
+					while (warmup.getFailures() == 0 && System.currentTimeMillis() < deadline) {
+						sleep(5);
+					}
+					// the failed task gives back its count right after counting the failure
+					sleep(50);
+					readyBeforeSubmit.add(warmup.isReady());
+				}
+				return names.get(index);
+			}
+
+			@Override
+			public int size() {
+				return names.size();
+			}
+
+			@Override
+			public String toString() {
+				return names.toString();
+			}
+		});
+
+		assertEquals(Arrays.asList(false, false), readyBeforeSubmit);
+		awaitReady();
+	}
+
+	@Test
+	public void isReadyAfterTimeout() {
+		warmup = createWarmup(0);
+		assertTrue(warmup.isReady());
+	}
+
+	@Test
+	public void releasesClientIfShutDownBeforeRequest() throws InterruptedException {
+		destinations.put("single", TestDestinations.create("single", BACKEND, null, null, false, null));
+		shutdownOnAcquire = true;
+		warmup = createWarmup(60);
+		warmup.start(Collections.singletonList("single"));
+
+		long deadline = System.currentTimeMillis() + 5000;
+		while (released.get() == 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+		assertEquals(1, released.get());
+		assertEquals(0, warmup.getFailures());
+	}
+
+	@Test
+	public void doesNothingWithoutConnections() throws InterruptedException {
+		destinations.put("single", TestDestinations.create("single", BACKEND, null, null, false, null));
+		initParameters.put("warmup.connections.single", "0");
+		warmup = createWarmup(60);
+		warmup.start(Collections.singletonList("single"));
+
+		awaitReady();
+		assertEquals(0, warmup.getFailures());
+		assertEquals(1, released.get());
+	}
+
+	private StartupWarmup createWarmup(int timeoutSeconds) {
+		ServletConfig servletConfig = (ServletConfig) Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[] { ServletConfig.class }, new InvocationHandler() {
+					public Object invoke(Object proxy, Method m, Object[] args) {
+						if (m.getName().equals("getInitParameter")) {
+							return initParameters.get(args[0]);
+						}
+						throw new UnsupportedOperationException(m.getName());
+					}
+				});
+		return new StartupWarmup(destinationCache, clientRegistry, new DestinationParameters(servletConfig),
+				timeoutSeconds, 2);
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private void awaitReady() throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (!warmup.isReady() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+		assertTrue(warmup.isReady());
+	}
+}
@@ -0,0 +1,82 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+
+/**
+ * Asynchronous context of a {@link TestRequest}, which records its completion. The
+ * container events, e.g. the timeout, are fired by the test.
+ */
+final class TestAsyncContext {
+
+	final AtomicInteger completions = new AtomicInteger();
+
+	private final CountDownLatch completed = new CountDownLatch(1);
+
+	private volatile AsyncContext context;
+
+	private volatile AsyncListener listener;
+
+	AsyncContext start(final ServletRequest request, final ServletResponse response) {
+		context = (AsyncContext) Proxy.newProxyInstance(TestAsyncContext.class.getClassLoader(),
+				new Class<?>[] { AsyncContext.class }, new InvocationHandler() {
+					public Object invoke(Object proxy, Method m, Object[] args) {
+						String name = m.getName();
+						if (name.equals("getRequest")) {
+							return request;
+						} else if (name.equals("getResponse")) {
+							return response;
+						} else if (name.equals("setTimeout")) {
+							return null;
+						} else if (name.equals("addListener") && args.length == 1) {
+							listener = (AsyncListener) args[0];
+							return null;
+						} else if (name.equals("complete")) {
+							completions.incrementAndGet();
+							completed.countDown();
+							return null;
+						}
+						throw new UnsupportedOperationException(name + " is not supported by the stub");
+					}
+				});
+		return context;
+	}
+
+	/**
+	 * Fires the timeout of the request like the container does.
+	 */
+	void timeout() throws IOException {
+		listener.onTimeout(new AsyncEvent(context));
+	}
+
+	boolean awaitCompletion() throws InterruptedException {
+		return completed.await(5, TimeUnit.SECONDS);
+	}
+}
@@ -0,0 +1,193 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.auth.AuthScope;
+import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.params.ClientPNames;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.client.RequestWrapper;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.protocol.HttpContext;
+
+import com.sap.core.connectivity.api.DestinationException;
+import com.sap.core.connectivity.api.DestinationFactory;
+import com.sap.core.connectivity.api.configuration.ConnectivityConfiguration;
+import com.sap.core.connectivity.api.configuration.DestinationConfiguration;
+import com.sap.core.connectivity.api.http.HttpDestination;
+
+/**
+ * Stubs of the connectivity API for unit tests. Like the stubs of the load test, they
+ * are dynamic proxies which only implement the methods the proxy servlet calls.
+ */
+final class TestDestinations {
+
+	private TestDestinations() {
+	}
+
+	/**
+	 * Returns a destination whose clients send requests to the given URI, have a
+	 * thread-safe connection manager and, if <code>user</code> is not <code>null</code>,
+	 * basic authentication credentials.
+	 * 
+	 * @param createdClients
+	 *            counts the clients the destination created, may be <code>null</code>
+	 */
+	static HttpDestination create(String name, String uri, String user, String password, AtomicInteger createdClients) {
+		return create(name, uri, user, password, true, createdClients);
+	}
+
+	static HttpDestination create(final String name, final String uri, final String user, final String password,
+			final boolean pooled, final AtomicInteger createdClients) {
+		return (HttpDestination) createProxy(HttpDestination.class, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if (method.getName().equals("getName")) {
+					return name;
+				} else if (method.getName().equals("getURI")) {
+					return URI.create(uri);
+				} else if (method.getName().equals("createHttpClient")) {
+					if (createdClients != null) {
+						createdClients.incrementAndGet();
+					}
+					return createHttpClient(URI.create(uri), user, password, pooled);
+				}
+				return invokeDefault(proxy, method, args);
+			}
+		});
+	}
+
+	/**
+	 * Returns a factory which resolves the given destinations. The destinations can be
+	 * replaced or removed in the map while the factory is in use.
+	 */
+	static DestinationFactory createFactory(final Map<String, HttpDestination> destinations) {
+		return (DestinationFactory) createProxy(DestinationFactory.class, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if (method.getName().equals("getDestination")) {
+					HttpDestination destination = destinations.get(args[0]);
+					if (destination == null) {
+						throw new DestinationException("Destination " + args[0] + " does not exist");
+					}
+					return destination;
+				}
+				return invokeDefault(proxy, method, args);
+			}
+		});
+	}
+
+	/**
+	 * Returns a connectivity configuration with the given properties per destination
+	 * name. The properties can be replaced or removed in the map while the
+	 * configuration is in use.
+	 */
+	static ConnectivityConfiguration createConfiguration(final Map<String, Map<String, String>> properties) {
+		return (ConnectivityConfiguration) createProxy(ConnectivityConfiguration.class, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if (method.getName().equals("getConfiguration")) {
+					final Map<String, String> destinationProperties = properties.get(args[0]);
+					if (destinationProperties == null) {
+						return null;
+					}
+					return createProxy(DestinationConfiguration.class, new InvocationHandler() {
+						public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+							if (method.getName().equals("getAllProperties")) {
+								return destinationProperties;
+							} else if (method.getName().equals("getProperty")) {
+								return destinationProperties.get(args[0]);
+							}
+							return invokeDefault(proxy, method, args);
+						}
+					});
+				}
+				return invokeDefault(proxy, method, args);
+			}
+		});
+	}
+
+	/**
+	 * Returns the properties of a destination with the given URI and, if
+	 * <code>user</code> is not <code>null</code>, basic authentication.
+	 */
+	static Map<String, String> properties(String uri, String user, String password) {
+		Map<String, String> properties = new HashMap<String, String>();
+		properties.put("URL", uri);
+		properties.put("ProxyType", "Internet");
+		if (user != null) {
+			properties.put("Authentication", "BasicAuthentication");
+			properties.put("User", user);
+			properties.put("Password", password);
+		} else {
+			properties.put("Authentication", "NoAuthentication");
+		}
+		return properties;
+	}
+
+	static Map<String, HttpDestination> map(HttpDestination... destinations) {
+		Map<String, HttpDestination> map = new HashMap<String, HttpDestination>();
+		for (HttpDestination destination : destinations) {
+			map.put(destination.getName(), destination);
+		}
+		return map;
+	}
+
+	private static HttpClient createHttpClient(final URI uri, String user, String password, boolean pooled) {
+		DefaultHttpClient client = pooled ? new DefaultHttpClient(new ThreadSafeClientConnManager()) : new DefaultHttpClient();
+		// like the clients of the connectivity service, requests are relative to the destination
+		client.getParams().setParameter(ClientPNames.DEFAULT_HOST, new HttpHost(uri.getHost(), uri.getPort(), uri.getScheme()));
+		client.addRequestInterceptor(new HttpRequestInterceptor() {
+			public void process(HttpRequest request, HttpContext context) {
+				if (request instanceof RequestWrapper) {
+					RequestWrapper wrapper = (RequestWrapper) request;
+					if (!wrapper.getURI().toString().startsWith("/")) {
+						wrapper.setURI(URI.create(uri.getPath() + "/" + wrapper.getURI()));
+					}
+				}
+			}
+		});
+		if (user != null) {
+			client.getCredentialsProvider().setCredentials(AuthScope.ANY, new UsernamePasswordCredentials(user, password));
+		}
+		return client;
+	}
+
+	private static Object createProxy(Class<?> type, InvocationHandler handler) {
+		return Proxy.newProxyInstance(TestDestinations.class.getClassLoader(), new Class<?>[] { type }, handler);
+	}
+
+	private static Object invokeDefault(Object proxy, Method method, Object[] args) {
+		if (method.getName().equals("equals")) {
+			return proxy == args[0];
+		} else if (method.getName().equals("hashCode")) {
+			return System.identityHashCode(proxy);
+		} else if (method.getName().equals("toString")) {
+			return "TestDestination";
+		}
+		throw new UnsupportedOperationException(method.getName() + " is not supported by the stub");
+	}
+}
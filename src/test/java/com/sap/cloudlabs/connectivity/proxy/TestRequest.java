@@ -0,0 +1,192 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Stub of a servlet request for unit tests. Like the other stubs it is a dynamic proxy,
+ * which answers the getters with the configured values.
+ */
+final class TestRequest {
+
+	/* the request URI has to start with the context and servlet path */
+	static final String CONTEXT_PATH = "/app";
+
+	static final String SERVLET_PATH = "/proxy";
+
+	private final String method;
+
+	private final Map<String, List<String>> headers = new LinkedHashMap<String, List<String>>();
+
+	private String requestUri = "/app/proxy/backend/Items";
+
+	private String user;
+
+	private byte[] body;
+
+	private boolean bodyLength;
+
+	private TestAsyncContext asyncContext;
+
+	/**
+	 * @param headers
+	 *            names and values of the request headers, alternating
+	 */
+	TestRequest(String method, String... headers) {
+		this.method = method;
+		for (int i = 0; i < headers.length; i += 2) {
+			header(headers[i], headers[i + 1]);
+		}
+	}
+
+	TestRequest header(String name, String value) {
+		List<String> values = headers.get(name.toLowerCase());
+		if (values == null) {
+			values = new ArrayList<String>();
+			headers.put(name.toLowerCase(), values);
+		}
+		values.add(value);
+		return this;
+	}
+
+	TestRequest user(String user) {
+		this.user = user;
+		return this;
+	}
+
+	/**
+	 * @param withLength
+	 *            <code>true</code> if the request has a <code>Content-Length</code>,
+	 *            otherwise its body is chunked
+	 */
+	TestRequest body(byte[] body, boolean withLength) {
+		this.body = body;
+		this.bodyLength = withLength;
+		return this;
+	}
+
+	/**
+	 * Supports asynchronous processing in the given context.
+	 */
+	TestRequest async(TestAsyncContext asyncContext) {
+		this.asyncContext = asyncContext;
+		return this;
+	}
+
+	TestRequest uri(String requestUri) {
+		this.requestUri = requestUri;
+		return this;
+	}
+
+	HttpServletRequest create() {
+		return (HttpServletRequest) Proxy.newProxyInstance(TestRequest.class.getClassLoader(),
+				new Class<?>[] { HttpServletRequest.class }, new InvocationHandler() {
+					public Object invoke(Object proxy, Method m, Object[] args) throws Throwable {
+						String name = m.getName();
+						if (name.equals("getMethod")) {
+							return method;
+						} else if (name.equals("getHeader")) {
+							List<String> values = headers.get(((String) args[0]).toLowerCase());
+							return values != null ? values.get(0) : null;
+						} else if (name.equals("getHeaders")) {
+							List<String> values = headers.get(((String) args[0]).toLowerCase());
+							return Collections.enumeration(values != null ? values : Collections.<String> emptyList());
+						} else if (name.equals("getHeaderNames")) {
+							return Collections.enumeration(headers.keySet());
+						} else if (name.equals("getUserPrincipal")) {
+							return user != null ? new TestPrincipal(user) : null;
+						} else if (name.equals("getRemoteUser")) {
+							return user;
+						} else if (name.equals("getRequestURI")) {
+							return requestUri;
+						} else if (name.equals("getRequestURL")) {
+							return new StringBuffer("http://localhost:8080").append(requestUri);
+						} else if (name.equals("getScheme")) {
+							return "http";
+						} else if (name.equals("getContextPath")) {
+							return CONTEXT_PATH;
+						} else if (name.equals("getServletPath")) {
+							return SERVLET_PATH;
+						} else if (name.equals("getPathInfo")) {
+							return requestUri.substring(CONTEXT_PATH.length() + SERVLET_PATH.length());
+						} else if (name.equals("getContentType")) {
+							List<String> values = headers.get("content-type");
+							return values != null ? values.get(0) : null;
+						} else if (name.equals("isAsyncSupported")) {
+							return asyncContext != null;
+						} else if (name.equals("startAsync") && args != null) {
+							return asyncContext.start((ServletRequest) args[0], (ServletResponse) args[1]);
+						} else if (name.equals("getQueryString") || name.equals("getAttribute")) {
+							return null;
+						} else if (name.equals("getContentLength")) {
+							return body != null && bodyLength ? body.length : -1;
+						} else if (name.equals("getInputStream")) {
+							return new TestInputStream(body != null ? body : new byte[0]);
+						} else if (name.equals("toString")) {
+							return method + " " + requestUri;
+						} else if (name.equals("hashCode")) {
+							return System.identityHashCode(proxy);
+						} else if (name.equals("equals")) {
+							return proxy == args[0];
+						}
+						throw new UnsupportedOperationException(name + " is not supported by the stub");
+					}
+				});
+	}
+
+	private static class TestInputStream extends ServletInputStream {
+		private final InputStream in;
+
+		TestInputStream(byte[] content) {
+			this.in = new ByteArrayInputStream(content);
+		}
+
+		@Override
+		public int read() throws IOException {
+			return in.read();
+		}
+	}
+
+	private static class TestPrincipal implements Principal {
+		private final String name;
+
+		TestPrincipal(String name) {
+			this.name = name;
+		}
+
+		public String getName() {
+			return name;
+		}
+	}
+}
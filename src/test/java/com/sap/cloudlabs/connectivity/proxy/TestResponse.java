@@ -0,0 +1,140 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Servlet response for unit tests which records status, headers and content. Like the
+ * other stubs it is a dynamic proxy.
+ */
+final class TestResponse {
+
+	final ByteArrayOutputStream content = new ByteArrayOutputStream();
+
+	final Map<String, List<String>> headers = new LinkedHashMap<String, List<String>>();
+
+	int status = HttpServletResponse.SC_OK;
+
+	boolean committed;
+
+	boolean closed;
+
+	final HttpServletResponse response = (HttpServletResponse) Proxy.newProxyInstance(
+			TestResponse.class.getClassLoader(), new Class<?>[] { HttpServletResponse.class }, new InvocationHandler() {
+				public Object invoke(Object proxy, Method m, Object[] args) throws Throwable {
+					String name = m.getName();
+					if (name.equals("setStatus") || name.equals("sendError")) {
+						status = (Integer) args[0];
+						committed |= name.equals("sendError");
+					} else if (name.equals("getStatus")) {
+						return status;
+					} else if (name.equals("setHeader")) {
+						headers.remove(((String) args[0]).toLowerCase());
+						addHeader((String) args[0], String.valueOf(args[1]));
+					} else if (name.equals("addHeader")) {
+						addHeader((String) args[0], String.valueOf(args[1]));
+					} else if (name.equals("setContentLength")) {
+						headers.remove("content-length");
+						addHeader("Content-Length", String.valueOf(args[0]));
+					} else if (name.equals("setContentType")) {
+						headers.remove("content-type");
+						addHeader("Content-Type", (String) args[0]);
+					} else if (name.equals("getHeader")) {
+						return getHeader((String) args[0]);
+					} else if (name.equals("containsHeader")) {
+						return headers.containsKey(((String) args[0]).toLowerCase());
+					} else if (name.equals("getOutputStream")) {
+						return outputStream;
+					} else if (name.equals("isCommitted")) {
+						return committed;
+					} else if (name.equals("flushBuffer")) {
+						committed = true;
+					} else if (name.equals("reset") || name.equals("resetBuffer")) {
+						if (committed) {
+							throw new IllegalStateException("response is committed");
+						}
+						content.reset();
+						if (name.equals("reset")) {
+							headers.clear();
+							status = HttpServletResponse.SC_OK;
+						}
+					} else if (name.equals("hashCode")) {
+						return System.identityHashCode(proxy);
+					} else if (name.equals("equals")) {
+						return proxy == args[0];
+					} else if (name.equals("toString")) {
+						return "TestResponse " + status;
+					} else {
+						throw new UnsupportedOperationException(name + " is not supported by the stub");
+					}
+					return null;
+				}
+			});
+
+	private final ServletOutputStream outputStream = new ServletOutputStream() {
+		@Override
+		public void write(int b) throws IOException {
+			committed = true;
+			content.write(b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			committed = true;
+			content.write(b, off, len);
+		}
+
+		@Override
+		public void close() {
+			closed = true;
+		}
+	};
+
+	String getHeader(String name) {
+		List<String> values = headers.get(name.toLowerCase());
+		return values != null ? values.get(0) : null;
+	}
+
+	String getContent() {
+		try {
+			return content.toString("UTF-8");
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private void addHeader(String name, String value) {
+		List<String> values = headers.get(name.toLowerCase());
+		if (values == null) {
+			values = new ArrayList<String>();
+			headers.put(name.toLowerCase(), values);
+		}
+		values.add(value);
+	}
+}
@@ -0,0 +1,93 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+
+import com.sap.core.connectivity.api.http.HttpDestination;
+
+/**
+ * Configuration of the proxy servlet for unit tests, with the init parameters and the
+ * attributes of the servlet context. Like the other stubs it is a dynamic proxy.
+ */
+final class TestServletConfig {
+
+	final Map<String, String> initParameters = new HashMap<String, String>();
+
+	final Map<String, Object> attributes = new HashMap<String, Object>();
+
+	private final ServletContext servletContext = (ServletContext) Proxy.newProxyInstance(
+			TestServletConfig.class.getClassLoader(), new Class<?>[] { ServletContext.class }, new InvocationHandler() {
+				public Object invoke(Object proxy, Method m, Object[] args) {
+					String name = m.getName();
+					if (name.equals("getContextPath")) {
+						return TestRequest.CONTEXT_PATH;
+					} else if (name.equals("getAttribute")) {
+						return attributes.get(args[0]);
+					} else if (name.equals("setAttribute")) {
+						attributes.put((String) args[0], args[1]);
+						return null;
+					} else if (name.equals("removeAttribute")) {
+						attributes.remove(args[0]);
+						return null;
+					} else if (name.equals("log")) {
+						return null;
+					}
+					throw new UnsupportedOperationException(name + " is not supported by the stub");
+				}
+			});
+
+	private final ServletConfig servletConfig = (ServletConfig) Proxy.newProxyInstance(
+			TestServletConfig.class.getClassLoader(), new Class<?>[] { ServletConfig.class }, new InvocationHandler() {
+				public Object invoke(Object proxy, Method m, Object[] args) {
+					String name = m.getName();
+					if (name.equals("getInitParameter")) {
+						return initParameters.get(args[0]);
+					} else if (name.equals("getInitParameterNames")) {
+						return Collections.enumeration(initParameters.keySet());
+					} else if (name.equals("getServletContext")) {
+						return servletContext;
+					} else if (name.equals("getServletName")) {
+						return "proxy";
+					}
+					throw new UnsupportedOperationException(name + " is not supported by the stub");
+				}
+			});
+
+	/**
+	 * @param destinations
+	 *            the destinations of the factory in the servlet context, which the
+	 *            proxy servlet uses instead of looking one up
+	 */
+	TestServletConfig(Map<String, HttpDestination> destinations) {
+		attributes.put(ProxyServlet.DESTINATION_FACTORY_ATTRIBUTE, TestDestinations.createFactory(destinations));
+		// destinations are called by their name below the proxy path
+		initParameters.put("routes.allowed", "*");
+	}
+
+	ServletConfig create() {
+		return servletConfig;
+	}
+}
@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the LICENSE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sap.cloudlabs.connectivity.proxy;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class UrlRewritingOutputStreamTest {
+
+	private static final String BACKEND = "http://backend:8080/odata/";
+
+	private static final String PROXY = "https://proxy/app/proxy/nw/";
+
+	@Test
+	public void replacesAllOccurrences() throws IOException {
+		assertRewritten(BACKEND, PROXY, "{\"uri\":\"" + BACKEND + "A\",\"next\":\"" + BACKEND + BACKEND + "\"} "
+				+ "http://backend:8080/odat " + BACKEND);
+		assertRewritten(BACKEND, PROXY, "no URL at all");
+		assertRewritten(BACKEND, PROXY, "");
+	}
+
+	@Test
+	public void keepsIncompleteMatchAtTheEnd() throws IOException {
+		assertRewritten(BACKEND, PROXY, "text http://backend:8080/od");
+	}
+
+	@Test
+	public void findsMatchesWhichOverlapPartialMatches() throws IOException {
+		// after a mismatch the content matched so far may contain the start of the next match
+		assertRewritten("abab", "X", "aabababbababab");
+		assertRewritten("aab", "X", "aaaabaab");
+		assertRewritten("http://h/", "https://p/", "http://http://h/http:/http://h/");
+	}
+
+	@Test
+	public void rewritesMultiByteContent() throws IOException {
+		assertRewritten(BACKEND, PROXY, "{\"Name\":\"M\u00fcller \u2013 Stra\u00dfe\",\"uri\":\"" + BACKEND + "\u00c4\"}");
+	}
+
+	@Test
+	public void matchesRandomContentLikeStringReplace() throws IOException {
+		Random random = new Random(42);
+		for (int i = 0; i < 200; i++) {
+			StringBuilder content = new StringBuilder();
+			for (int j = 0; j < 200; j++) {
+				content.append("ab".charAt(random.nextInt(2)));
+			}
+			assertRewritten("abaab", "-", content.toString());
+		}
+	}
+
+	/*
+	 * the content is written in chunks of every size, so that matches are split at
+	 * every position, and byte by byte
+	 */
+	private static void assertRewritten(String url, String proxyUrl, String content) throws IOException {
+		String expected = content.replace(url, proxyUrl);
+		byte[] bytes = content.getBytes("UTF-8");
+		for (int chunkSize = 1; chunkSize <= Math.max(1, bytes.length); chunkSize++) {
+			ByteArrayOutputStream result = new ByteArrayOutputStream();
+			UrlRewritingOutputStream out = new UrlRewritingOutputStream(result, url, proxyUrl, "UTF-8");
+			for (int off = 0; off < bytes.length; off += chunkSize) {
+				out.write(bytes, off, Math.min(chunkSize, bytes.length - off));
+			}
+			out.close();
+			assertEquals("chunk size " + chunkSize, expected, result.toString("UTF-8"));
+		}
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		UrlRewritingOutputStream out = new UrlRewritingOutputStream(result, url, proxyUrl, "UTF-8");
+		for (byte b : bytes) {
+			out.write(b);
+		}
+		out.close();
+		assertEquals(expected, result.toString("UTF-8"));
+	}
+}